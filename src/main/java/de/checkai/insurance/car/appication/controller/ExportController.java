@@ -0,0 +1,106 @@
+package de.checkai.insurance.car.appication.controller;
+
+import de.checkai.insurance.car.core.service.BatchExportService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+@RestController
+@RequestMapping("/api/v1/export")
+@RequiredArgsConstructor
+@Slf4j
+@Tag(name = "Export", description = "Stream the chunks and embeddings of processed batches as NDJSON")
+public class ExportController {
+    private final BatchExportService batchExportService;
+
+    @GetMapping(value = "/{batchId}/chunks", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Export chunks",
+            description = "Chunks of a processed batch, one JSON object per line, from offset on; gzip compressed when the client accepts it. "
+                    + "X-Total-Count has the number of chunks, X-Next-Offset where the next page starts")
+    public ResponseEntity<StreamingResponseBody> exportChunks(
+            @PathVariable String batchId,
+            @RequestParam(value = "offset", defaultValue = "0") long offset,
+            @RequestParam(value = "limit", required = false) Long limit,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        if (!batchExportService.hasChunks(batchId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return stream(batchExportService.chunkCount(batchId), offset, limit, acceptEncoding,
+                (from, count, out) -> batchExportService.writeChunks(batchId, from, count, out));
+    }
+
+    @GetMapping(value = "/{collectionId}/embeddings", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Export embeddings",
+            description = "Embeddings of a collection (the batch id, or the id of a further model's collection), one JSON object "
+                    + "with chunk id, vector, source document, page and position per line, from offset on; gzip compressed when "
+                    + "the client accepts it")
+    public ResponseEntity<StreamingResponseBody> exportEmbeddings(
+            @PathVariable String collectionId,
+            @RequestParam(value = "offset", defaultValue = "0") long offset,
+            @RequestParam(value = "limit", required = false) Long limit,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        if (!batchExportService.hasEmbeddings(collectionId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return stream(batchExportService.embeddingCount(collectionId), offset, limit, acceptEncoding,
+                (from, count, out) -> batchExportService.writeEmbeddings(collectionId, from, count, out));
+    }
+
+    /**
+     * Records are written to the response as they are read, so the client's pace bounds the writer's
+     * and neither side holds more than a buffer
+     */
+    private ResponseEntity<StreamingResponseBody> stream(long total, long offset, Long limit, String acceptEncoding,
+                                                         RecordWriter writer) {
+        if (offset < 0 || (limit != null && limit < 0)) {
+            return ResponseEntity.badRequest().build();
+        }
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+        long from = Math.min(offset, total);
+        long end = limit == null ? total : from + Math.min(limit, total - from);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header("X-Total-Count", Long.toString(total));
+        if (end < total) {
+            response.header("X-Next-Offset", Long.toString(end));
+        }
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(out -> {
+            if (gzip) {
+                // Sync flush, so every flush of the writer reaches the client; the response stream stays open
+                GZIPOutputStream compressed = new GZIPOutputStream(out, 64 * 1024, true);
+                writer.write(from, end - from, compressed);
+                compressed.finish();
+            } else {
+                writer.write(from, end - from, out);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(long offset, long count, OutputStream out) throws IOException;
+    }
+}
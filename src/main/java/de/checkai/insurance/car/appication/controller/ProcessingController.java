@@ -2,18 +2,32 @@ package de.checkai.insurance.car.appication.controller;
 
 import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
 import de.checkai.insurance.car.appication.model.PdfProcessingResponse;
+import de.checkai.insurance.car.appication.model.PriorityRequest;
+import de.checkai.insurance.car.appication.model.ProcessingEstimate;
 import de.checkai.insurance.car.appication.model.ProcessingStatus;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.estimate.ProcessingEstimator;
+import de.checkai.insurance.car.core.idempotency.IdempotencyKeyReusedException;
+import de.checkai.insurance.car.core.idempotency.SubmissionCoalescer;
+import de.checkai.insurance.car.core.progress.ProcessingStatusBroadcaster;
+import de.checkai.insurance.car.core.progress.StatusSink;
 import de.checkai.insurance.car.core.service.ProcessingService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.UUID;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 /**
  * @author Mostafa.Farhadi
@@ -29,24 +43,52 @@ import java.util.UUID;
 @Tag(name = "PDF Processing", description = "Endpoints for processing PDFs and generating embeddings")
 public class ProcessingController {
     private final ProcessingService processingService;
+    private final ProcessingStatusBroadcaster statusBroadcaster;
+    private final ProcessingEstimator processingEstimator;
+    private final EmbeddingModels embeddingModels;
+    private final SubmissionCoalescer submissionCoalescer;
+
+    @Value("${processing.events.timeout:30m}")
+    private Duration eventStreamTimeout;
 
     @PostMapping("/pdf")
     @Operation(summary = "Process PDF files",
-            description = "Extract text from PDFs, generate embeddings, and create a vector search index")
-    public ResponseEntity<PdfProcessingResponse> processPdfFiles(@Valid @RequestBody PdfProcessingRequest request) {
-        // Generate a unique batch ID
-        String batchId = UUID.randomUUID().toString();
-        log.info("Starting PDF processing batch {} with {} files", batchId, request.pdfFilePaths().size());
+            description = "Extract text from PDFs, generate embeddings, and create a vector search index. A request sent again, "
+                    + "with the same Idempotency-Key or the same files and settings, gets the batch of the first copy")
+    public ResponseEntity<PdfProcessingResponse> processPdfFiles(
+            @Valid @RequestBody PdfProcessingRequest request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        if (request.pdfFilePaths().isEmpty() && request.sources().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            embeddingModels.resolve(request.embeddingTargets());
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected processing request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
 
-        // Start asynchronous processing
-        processingService.processPdfFiles(request, batchId);
+        // Start asynchronous processing, unless an earlier copy of the request already did
+        SubmissionCoalescer.Submission submission;
+        try {
+            submission = submissionCoalescer.submit(idempotencyKey, request);
+        } catch (IdempotencyKeyReusedException e) {
+            log.warn("Rejected processing request: {}", e.getMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        }
+        String batchId = submission.batchId();
+        if (submission.duplicate()) {
+            return duplicateResponse(request, submission);
+        }
+        log.info("Started PDF processing batch {} with {} files and {} sources", batchId,
+                request.pdfFilePaths().size(), request.sources().size());
 
         // Return response with batch ID
         PdfProcessingResponse response = new PdfProcessingResponse(
                 batchId,
-                request.pdfFilePaths().size(),
+                request.pdfFilePaths().size(),  // Documents of sources are counted while they are read
                 0,  // Initially, no chunks processed
-                Instant.now(),
+                submission.submittedAt(),
                 null,  // End time is null until processing completes
                 "PROCESSING",
                 "insurance-car-index-" + batchId,
@@ -56,6 +98,49 @@ public class ProcessingController {
         return ResponseEntity.accepted().body(response);
     }
 
+    /**
+     * The batch of the first copy of a request: 200 with its result once it has completed, 202 while it runs
+     */
+    private ResponseEntity<PdfProcessingResponse> duplicateResponse(PdfProcessingRequest request,
+                                                                    SubmissionCoalescer.Submission submission) {
+        ProcessingStatus status = processingService.getProcessingStatus(submission.batchId());
+        boolean completed = "COMPLETED".equals(status.status());
+        boolean reported = !"NOT_FOUND".equals(status.status());
+        PdfProcessingResponse response = new PdfProcessingResponse(
+                submission.batchId(),
+                reported ? status.totalDocuments() : request.pdfFilePaths().size(),
+                status.processedChunks(),
+                submission.submittedAt(),
+                completed ? status.lastUpdated() : null,
+                reported ? status.status() : "PROCESSING",
+                "insurance-car-index-" + submission.batchId(),
+                null
+        );
+        return (completed ? ResponseEntity.ok() : ResponseEntity.accepted())
+                .header("Idempotent-Replayed", "true")
+                .body(response);
+    }
+
+    @PostMapping(value = "/pdf", params = "dryRun=true")
+    @Operation(summary = "Estimate PDF processing",
+            description = "Dry run: project chunks, RPCs, stage durations and storage of a request from PDF metadata and sampled pages, without processing it")
+    public ResponseEntity<ProcessingEstimate> estimatePdfProcessing(@Valid @RequestBody PdfProcessingRequest request) {
+        if (request.pdfFilePaths().isEmpty() && request.sources().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            return ResponseEntity.ok(processingEstimator.estimate(request));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected estimate request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            // Usually a file or source of the request that can't be read
+            log.error("Failed to estimate processing: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/status/{batchId}")
     @Operation(summary = "Get processing status",
             description = "Get the current status of a PDF processing batch")
@@ -68,4 +153,84 @@ public class ProcessingController {
 
         return ResponseEntity.ok(status);
     }
-}
\ No newline at end of file
+
+    @PostMapping("/{batchId}/cancel")
+    @Operation(summary = "Cancel processing",
+            description = "Stop a running batch: running embedding requests, batch prediction jobs and index operations are aborted, and its local files and partial results are deleted")
+    public ResponseEntity<ProcessingStatus> cancelProcessing(@PathVariable String batchId) {
+        if (!processingService.cancelProcessing(batchId)) {
+            return ResponseEntity.notFound().build();
+        }
+        log.info("Cancelling batch {}", batchId);
+        // The batch reports CANCELLED once its work has reached a cancellation point
+        return ResponseEntity.accepted().body(processingService.getProcessingStatus(batchId));
+    }
+
+    @PutMapping("/{batchId}/priority")
+    @Operation(summary = "Reprioritize processing",
+            description = "Change the weight and deadline of a running batch; work it has already queued for capacity moves with it")
+    public ResponseEntity<ProcessingStatus> reprioritize(@PathVariable String batchId,
+                                                         @Valid @RequestBody PriorityRequest request) {
+        if (request.weight() != null && request.weight() < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!processingService.reprioritize(batchId, request.weight(), request.deadline())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(processingService.getProcessingStatus(batchId));
+    }
+
+    @GetMapping(value = "/events/{batchId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream processing status",
+            description = "Server-Sent Events with the status of a batch whenever it changes; the stream ends when the batch has finished")
+    public ResponseEntity<SseEmitter> streamProcessingStatus(@PathVariable String batchId) {
+        return streamStatus(List.of(batchId));
+    }
+
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream processing status of several batches",
+            description = "Server-Sent Events with status changes of the given batches, or of every batch when none is given; "
+                    + "404 when one of the batches is unknown")
+    public ResponseEntity<SseEmitter> streamProcessingStatuses(
+            @RequestParam(value = "batchId", required = false) List<String> batchIds) {
+        return streamStatus(batchIds == null ? List.of() : List.copyOf(new LinkedHashSet<>(batchIds)));
+    }
+
+    /**
+     * An unknown batch would never finish, so its stream would stay open until the timeout
+     */
+    private ResponseEntity<SseEmitter> streamStatus(List<String> batchIds) {
+        if (batchIds.stream().anyMatch(batchId -> "NOT_FOUND".equals(processingService.getProcessingStatus(batchId).status()))) {
+            return ResponseEntity.notFound().build();
+        }
+
+        SseEmitter emitter = new SseEmitter(eventStreamTimeout.toMillis());
+        ProcessingStatusBroadcaster.Subscription subscription = statusBroadcaster.subscribe(batchIds, new StatusSink() {
+            @Override
+            public void send(List<ProcessingStatus> statuses) throws IOException {
+                for (ProcessingStatus status : statuses) {
+                    emitter.send(SseEmitter.event()
+                            .name("status")
+                            .id(status.batchId() + "@" + status.lastUpdated().toEpochMilli())
+                            .data(status, MediaType.APPLICATION_JSON));
+                }
+            }
+
+            @Override
+            public void complete() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(error -> subscription.cancel());
+
+        // Start every stream with the current state, so clients need no extra status call; it is read
+        // after subscribing, so a batch that finished meanwhile still ends the stream
+        batchIds.stream()
+                .map(processingService::getProcessingStatus)
+                .filter(status -> !"NOT_FOUND".equals(status.status()))
+                .forEach(subscription::offer);
+        return ResponseEntity.ok(emitter);
+    }
+}
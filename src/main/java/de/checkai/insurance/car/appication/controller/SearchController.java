@@ -0,0 +1,70 @@
+package de.checkai.insurance.car.appication.controller;
+
+import de.checkai.insurance.car.appication.model.HybridSearchRequest;
+import de.checkai.insurance.car.appication.model.SearchHit;
+import de.checkai.insurance.car.core.service.LocalSearchService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.ConstraintViolationException;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+@RestController
+@RequestMapping("/api/v1/search")
+@RequiredArgsConstructor
+@Slf4j
+@Validated
+@Tag(name = "Local Search", description = "Keyword and hybrid search over processed batches without remote calls")
+public class SearchController {
+    private final LocalSearchService localSearchService;
+
+    @GetMapping("/{batchId}")
+    @Operation(summary = "Keyword search",
+            description = "BM25 search over the chunks of a processed batch, e.g. for clause numbers or tariff codes")
+    public ResponseEntity<List<SearchHit>> keywordSearch(@PathVariable String batchId,
+                                                         @RequestParam("q") String query,
+                                                         @RequestParam(value = "topK", defaultValue = "10")
+                                                         @Min(1) @Max(HybridSearchRequest.MAX_TOP_K) int topK) {
+        return search(batchId, new HybridSearchRequest(query, null, topK, null));
+    }
+
+    @PostMapping("/{batchId}")
+    @Operation(summary = "Hybrid search",
+            description = "Fuse BM25 and vector similarity rankings over the chunks of a processed batch")
+    public ResponseEntity<List<SearchHit>> hybridSearch(@PathVariable String batchId,
+                                                        @Valid @RequestBody HybridSearchRequest request) {
+        return search(batchId, request);
+    }
+
+    /**
+     * Query parameters out of range are rejected like invalid request bodies
+     */
+    @ExceptionHandler(ConstraintViolationException.class)
+    public ResponseEntity<ProblemDetail> invalidParameter(ConstraintViolationException e) {
+        return ResponseEntity.badRequest().body(ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, e.getMessage()));
+    }
+
+    private ResponseEntity<List<SearchHit>> search(String batchId, HybridSearchRequest request) {
+        if (!localSearchService.hasBatch(batchId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(localSearchService.search(batchId, request));
+    }
+}
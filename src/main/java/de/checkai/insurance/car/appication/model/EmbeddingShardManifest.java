@@ -0,0 +1,39 @@
+package de.checkai.insurance.car.appication.model;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Describes the shard files an embedding collection was written to
+ *
+ * @param shardsUri GCS directory holding only the shards, usable as the index contentsDeltaUri
+ */
+public record EmbeddingShardManifest(
+        String collectionId,
+        String description,
+        Instant createdAt,
+        int embeddingDimension,
+        String embeddingModel,
+        int totalEmbeddings,
+        String shardsUri,
+        List<Shard> shards
+) {
+
+    /**
+     * @param crc32c base64 encoded CRC32C of the shard, as reported by GCS
+     */
+    public record Shard(
+            String objectName,
+            int embeddings,
+            long sizeBytes,
+            String crc32c
+    ) {
+    }
+}
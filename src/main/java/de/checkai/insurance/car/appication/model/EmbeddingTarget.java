@@ -0,0 +1,22 @@
+package de.checkai.insurance.car.appication.model;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * An embedding model a processing request is embedded with
+ *
+ * @param model                 publisher model id, either {@code gcp.vertex.embedding-model} or one of
+ *                              {@code gcp.vertex.models}
+ * @param outputDimensionality  dimension the embeddings are stored and indexed with; the model's own
+ *                              dimension when missing
+ */
+public record EmbeddingTarget(
+        String model,
+        Integer outputDimensionality
+) {
+}
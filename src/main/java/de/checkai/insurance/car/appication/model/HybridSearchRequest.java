@@ -0,0 +1,31 @@
+package de.checkai.insurance.car.appication.model;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Request for a local keyword or hybrid search within one batch
+ *
+ * @param query        keyword query, matched with BM25
+ * @param queryVector  optional query embedding; when present vector similarity is fused in
+ * @param topK         number of hits to return, 1..{@value #MAX_TOP_K} (default 10)
+ * @param vectorWeight weight of the vector ranking in the fusion, 0..1 (default 0.5)
+ */
+public record HybridSearchRequest(
+        String query,
+        float[] queryVector,
+        @Min(1) @Max(HybridSearchRequest.MAX_TOP_K) Integer topK,
+        @DecimalMin("0") @DecimalMax("1") Double vectorWeight
+) {
+
+    public static final int MAX_TOP_K = 1000;
+}
@@ -0,0 +1,32 @@
+package de.checkai.insurance.car.appication.model;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Tree-AH parameters a vector search index is created with
+ *
+ * @param estimatedRecall              recall@k the tuner measured for them on a sample, null when not tuned
+ * @param distanceComputationsPerQuery estimated query cost, null when not tuned
+ */
+public record IndexParameters(
+        int approximateNeighborsCount,
+        int leafNodeEmbeddingCount,
+        int leafNodesToSearchPercent,
+        Double estimatedRecall,
+        Long distanceComputationsPerQuery
+) {
+
+    /**
+     * The settings every index was created with before tuning
+     */
+    public static final IndexParameters DEFAULT = new IndexParameters(150, 1000, 10, null, null);
+
+    public boolean isTuned() {
+        return estimatedRecall != null;
+    }
+}
@@ -7,15 +7,44 @@ package de.checkai.insurance.car.appication.model;
  * @github https://github.com/farhadi1360
  */
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Request for PDF processing
+ *
+ * @param pdfFilePaths local PDF files to process
+ * @param weight       share of extraction and embedding capacity relative to other running batches (default 1)
+ * @param deadline     optional time the batch should be finished by; batches close to it are served first
+ * @param sources      ZIP archives, directories or {@code gs://} prefixes whose PDFs are streamed
+ *                     into the batch without listing or unpacking them first
+ * @param include      globs selecting the documents of the sources; all PDFs when empty
+ * @param exclude      globs of documents of the sources to skip
+ * @param embeddingTargets models the chunks are embedded with, each into its own collection and index,
+ *                     from a single extraction pass; the configured model when empty
  */
 public record PdfProcessingRequest(
         List<String> pdfFilePaths,
         String description,
-        Map<String, String> metadata
+        Map<String, String> metadata,
+        Integer weight,
+        Instant deadline,
+        List<String> sources,
+        List<String> include,
+        List<String> exclude,
+        List<EmbeddingTarget> embeddingTargets
 ) {
+
+    public List<String> pdfFilePaths() {
+        return pdfFilePaths == null ? List.of() : pdfFilePaths;
+    }
+
+    public List<String> sources() {
+        return sources == null ? List.of() : sources;
+    }
+
+    public List<EmbeddingTarget> embeddingTargets() {
+        return embeddingTargets == null ? List.of() : embeddingTargets;
+    }
 }
@@ -0,0 +1,23 @@
+package de.checkai.insurance.car.appication.model;
+
+import java.time.Instant;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * New priority of a running batch
+ *
+ * @param weight   share of extraction and embedding capacity relative to other running batches; the
+ *                 current weight is kept when it is missing
+ * @param deadline time the batch should be finished by, or none when it is missing
+ */
+public record PriorityRequest(
+        Integer weight,
+        Instant deadline
+) {
+}
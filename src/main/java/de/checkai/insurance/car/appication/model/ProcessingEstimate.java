@@ -0,0 +1,60 @@
+package de.checkai.insurance.car.appication.model;
+
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Projected size, cost and duration of a processing request, from a dry run that reads PDF
+ * metadata and a few sample pages per document
+ *
+ * @param sampledDocuments    documents whose pages were sampled; the others are projected from their size
+ * @param imageOnlyPages      pages without a text layer, which go to OCR when it is enabled
+ * @param embeddingMode       {@code ONLINE} or {@code BATCH_PREDICTION}
+ * @param gcsUploads          embedding shards, their manifest, the keyword index, a PCA projection and the
+ *                            Arrow export when it is enabled
+ * @param embeddingBytes      size of the local embedding arena
+ * @param shardBytes          size of the JSONL shards uploaded as index input, an upper bound
+ * @param estimatedSeconds    sum of the stage estimates
+ * @param complete            false when the time budget ran out before every source was listed; the
+ *                            projection then only covers the documents seen
+ */
+public record ProcessingEstimate(
+        int documents,
+        int sampledDocuments,
+        long totalBytes,
+        long pages,
+        long imageOnlyPages,
+        long chunks,
+        String embeddingMode,
+        long predictRequests,
+        int batchPredictionJobs,
+        long ocrRequests,
+        int gcsUploads,
+        long embeddingBytes,
+        long shardBytes,
+        List<Stage> stages,
+        double estimatedSeconds,
+        boolean complete
+) {
+
+    /**
+     * @param unitsPerSecond throughput the estimate is based on
+     * @param measured       true when the throughput was measured on recent batches, false when it is
+     *                       the configured default
+     */
+    public record Stage(
+            String name,
+            double units,
+            String unit,
+            double unitsPerSecond,
+            boolean measured,
+            double estimatedSeconds
+    ) {
+    }
+}
@@ -11,6 +11,9 @@ import java.time.Instant;
 
 /**
  * Status update for PDF processing
+ *
+ * @param extractionShare fraction of the recently dispatched extraction capacity used by this batch
+ * @param embeddingShare  fraction of the recently dispatched embedding capacity used by this batch
  */
 public record ProcessingStatus(
         String batchId,
@@ -18,6 +21,9 @@ public record ProcessingStatus(
         int processedDocuments,
         int totalDocuments,
         int processedChunks,
-        Instant lastUpdated
+        Instant lastUpdated,
+        int weight,
+        double extractionShare,
+        double embeddingShare
 ) {
 }
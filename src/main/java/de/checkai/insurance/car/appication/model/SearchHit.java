@@ -0,0 +1,24 @@
+package de.checkai.insurance.car.appication.model;
+
+import java.util.UUID;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * A chunk found by a local search
+ */
+public record SearchHit(
+        UUID chunkId,
+        String sourceDocument,
+        int pageNumber,
+        int position,
+        double score,
+        Float keywordScore,
+        Float vectorScore
+) {
+}
@@ -10,12 +10,12 @@ import java.util.UUID;
  */
 
 /**
- * Represents the vector embedding for a text chunk
+ * Represents the vector embedding for a text chunk. The chunk text is not repeated here; it can be
+ * found by the chunk id, which is the same on every run over the same document.
  */
 public record TextEmbedding(
         UUID id,
         float[] embedding,
-        String textContent,
         String sourceDocument,
         int pageNumber,
         int position
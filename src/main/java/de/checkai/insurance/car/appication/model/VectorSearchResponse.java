@@ -17,6 +17,7 @@ public record VectorSearchResponse(
         String indexEndpointId,
         String status,
         Instant createdAt,
-        String errorMessage
+        String errorMessage,
+        IndexParameters indexParameters
 ) {
 }
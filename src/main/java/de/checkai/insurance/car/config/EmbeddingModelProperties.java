@@ -0,0 +1,41 @@
+package de.checkai.insurance.car.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Embedding models a processing request can name besides {@code gcp.vertex.embedding-model}, keyed
+ * by publisher model id. Each model is embedded through its own predict requests, so it has its own
+ * request size, concurrency and pacing.
+ */
+@ConfigurationProperties(prefix = "gcp.vertex")
+public record EmbeddingModelProperties(
+        @DefaultValue Map<String, Model> models
+) {
+
+    /**
+     * @param embeddingDimension    dimension the model returns
+     * @param maxInstances          instances per predict request
+     * @param linger                how long a partly filled predict request waits for more chunks
+     * @param maxConcurrentRequests predict requests of the model in flight at once
+     * @param predictDelay          minimum time between the starts of two predict requests of the model
+     */
+    public record Model(
+            int embeddingDimension,
+            @DefaultValue("5") int maxInstances,
+            @DefaultValue("25ms") Duration linger,
+            @DefaultValue("4") int maxConcurrentRequests,
+            @DefaultValue("500ms") Duration predictDelay
+    ) {
+    }
+}
@@ -4,19 +4,33 @@ import com.google.api.gax.core.CredentialsProvider;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.aiplatform.v1.IndexEndpointServiceClient;
 import com.google.cloud.aiplatform.v1.IndexServiceClient;
+import com.google.cloud.aiplatform.v1.JobServiceClient;
+import com.google.cloud.aiplatform.v1.JobServiceSettings;
+import com.google.cloud.aiplatform.v1.PredictionServiceClient;
+import com.google.cloud.aiplatform.v1.PredictionServiceSettings;
 import com.google.cloud.documentai.v1.DocumentProcessorServiceClient;
 import com.google.cloud.documentai.v1.DocumentProcessorServiceSettings;
 import com.google.cloud.spring.core.GcpProjectIdProvider;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Mostafa.Farhadi
@@ -27,6 +41,8 @@ import java.io.IOException;
 
 @Configuration
 @RequiredArgsConstructor
+@Slf4j
+@ImportRuntimeHints(NativeRuntimeHints.class)
 public class GoogleCloudConfiguration {
     private final GcpProjectIdProvider projectIdProvider;
     private final CredentialsProvider credentialsProvider;
@@ -34,6 +50,12 @@ public class GoogleCloudConfiguration {
     @Value("${gcp.vertex.region}")
     private String region;
 
+    @Value("${gcp.documentai.location:eu}")
+    private String documentAiLocation;
+
+    @Value("${gcp.clients.warm-up:true}")
+    private boolean warmUp;
+
 
     @Bean
     public CredentialsProvider googleCredentialsProvider() throws IOException {
@@ -46,30 +68,112 @@ public class GoogleCloudConfiguration {
             }
         };
     }
+
+    // The clients and their credentials are created on first use or by warmUpClients, not at startup
+
     @Bean
-    public Storage storage() throws IOException {
-        return StorageOptions.newBuilder()
-                .setProjectId(projectIdProvider.getProjectId())
-                .setCredentials(credentialsProvider.getCredentials())
-                .build()
-                .getService();
+    public LazyCloudClient<Storage> storage() {
+        return LazyCloudClient.of("Storage", () -> {
+            try {
+                return StorageOptions.newBuilder()
+                        .setProjectId(projectIdProvider.getProjectId())
+                        .setCredentials(credentialsProvider.getCredentials())
+                        .build()
+                        .getService();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     @Bean
-    public DocumentProcessorServiceClient documentProcessorServiceClient() throws IOException {
-        DocumentProcessorServiceSettings settings = DocumentProcessorServiceSettings.newBuilder()
-                .setCredentialsProvider(credentialsProvider)
-                .build();
-        return DocumentProcessorServiceClient.create(settings);
+    public LazyCloudClient<DocumentProcessorServiceClient> documentProcessorServiceClient() {
+        return LazyCloudClient.of("DocumentProcessorService", () -> {
+            try {
+                DocumentProcessorServiceSettings settings = DocumentProcessorServiceSettings.newBuilder()
+                        .setEndpoint(String.format("%s-documentai.googleapis.com:443", documentAiLocation))
+                        .setCredentialsProvider(credentialsProvider)
+                        .build();
+                return DocumentProcessorServiceClient.create(settings);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     @Bean
-    public IndexServiceClient indexServiceClient() throws IOException {
-        return IndexServiceClient.create();
+    public LazyCloudClient<IndexServiceClient> indexServiceClient() {
+        return LazyCloudClient.of("IndexService", () -> {
+            try {
+                return IndexServiceClient.create();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     @Bean
-    public IndexEndpointServiceClient indexEndpointServiceClient() throws IOException {
-        return IndexEndpointServiceClient.create();
+    public LazyCloudClient<IndexEndpointServiceClient> indexEndpointServiceClient() {
+        return LazyCloudClient.of("IndexEndpointService", () -> {
+            try {
+                return IndexEndpointServiceClient.create();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Bean
+    public LazyCloudClient<PredictionServiceClient> predictionServiceClient() {
+        return LazyCloudClient.of("PredictionService", () -> {
+            try {
+                PredictionServiceSettings settings = PredictionServiceSettings.newBuilder()
+                        .setEndpoint(String.format("%s-aiplatform.googleapis.com:443", region))
+                        .build();
+                return PredictionServiceClient.create(settings);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Bean
+    public LazyCloudClient<JobServiceClient> jobServiceClient() {
+        return LazyCloudClient.of("JobService", () -> {
+            try {
+                JobServiceSettings settings = JobServiceSettings.newBuilder()
+                        .setEndpoint(String.format("%s-aiplatform.googleapis.com:443", region))
+                        .setCredentialsProvider(credentialsProvider)
+                        .build();
+                return JobServiceClient.create(settings);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Create all clients concurrently once the application is ready, so the first request
+     * doesn't pay for them while readiness isn't delayed either
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpClients(ApplicationReadyEvent event) {
+        if (!warmUp) {
+            return;
+        }
+        ObjectProvider<LazyCloudClient<?>> clients = event.getApplicationContext()
+                .getBeanProvider(ResolvableType.forClass(LazyCloudClient.class));
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        CompletableFuture<?>[] warmUps = clients.stream()
+                .map(client -> client.warmUp(executor))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(warmUps).whenComplete((ignored, error) -> {
+            executor.shutdown();
+            if (error != null) {
+                log.warn("Not all Google Cloud clients could be created up front: {}", error.getMessage());
+            } else {
+                log.info("Created {} Google Cloud clients in the background", warmUps.length);
+            }
+        });
     }
 }
@@ -0,0 +1,102 @@
+package de.checkai.insurance.car.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Holder for a Google Cloud client that is created on first use (or by {@link #warmUp(Executor)}
+ * in the background) instead of during context startup. The gapic clients have final methods,
+ * so Spring's lazy proxies can't be used for them.
+ */
+@Slf4j
+public final class LazyCloudClient<T> implements AutoCloseable {
+
+    private final String name;
+    private final Supplier<T> factory;
+    private final AtomicReference<CompletableFuture<T>> instance = new AtomicReference<>();
+
+    private LazyCloudClient(String name, Supplier<T> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    public static <T> LazyCloudClient<T> of(String name, Supplier<T> factory) {
+        return new LazyCloudClient<>(name, factory);
+    }
+
+    /**
+     * Wrap an already created client, e.g. a fake in tests
+     */
+    public static <T> LazyCloudClient<T> of(T client) {
+        LazyCloudClient<T> lazyClient = new LazyCloudClient<>(client.getClass().getSimpleName(), () -> client);
+        lazyClient.instance.set(CompletableFuture.completedFuture(client));
+        return lazyClient;
+    }
+
+    /**
+     * Get the client, creating it on the calling thread if nobody has started creating it yet
+     */
+    public T get() {
+        CompletableFuture<T> future = instance.get();
+        if (future == null) {
+            CompletableFuture<T> created = new CompletableFuture<>();
+            if (instance.compareAndSet(null, created)) {
+                create(created);
+                future = created;
+            } else {
+                future = instance.get();
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to create " + name + " client", e.getCause());
+        }
+    }
+
+    /**
+     * Start creating the client on the executor unless it is created already
+     */
+    public CompletableFuture<T> warmUp(Executor executor) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        if (instance.compareAndSet(null, created)) {
+            executor.execute(() -> create(created));
+            return created;
+        }
+        return instance.get();
+    }
+
+    private void create(CompletableFuture<T> target) {
+        long start = System.nanoTime();
+        try {
+            T client = factory.get();
+            log.debug("Created {} client in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+            target.complete(client);
+        } catch (Throwable e) {
+            // Allow the next caller to try again
+            instance.compareAndSet(target, null);
+            target.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        CompletableFuture<T> future = instance.getAndSet(null);
+        if (future != null && future.isDone() && !future.isCompletedExceptionally()
+                && future.join() instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
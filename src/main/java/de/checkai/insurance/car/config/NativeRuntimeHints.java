@@ -0,0 +1,44 @@
+package de.checkai.insurance.car.config;
+
+import de.checkai.insurance.car.appication.model.EmbeddingCollection;
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import de.checkai.insurance.car.appication.model.PdfProcessingResponse;
+import de.checkai.insurance.car.appication.model.ProcessingStatus;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.appication.model.VectorSearchResponse;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Reflection and resource hints for the native image build (mvn -Pnative native:compile)
+ */
+public class NativeRuntimeHints implements RuntimeHintsRegistrar {
+
+    private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        // Models written and read with the ObjectMapper outside of controller signatures
+        bindingRegistrar.registerReflectionHints(hints.reflection(),
+                EmbeddingCollection.class,
+                TextEmbedding.class,
+                TextChunk.class,
+                ProcessingStatus.class,
+                PdfProcessingRequest.class,
+                PdfProcessingResponse.class,
+                VectorSearchResponse.class);
+
+        hints.resources().registerPattern("cer/*.json");
+        // PDFBox loads glyph lists, font metrics and ICC profiles from the classpath
+        hints.resources().registerPattern("org/apache/pdfbox/resources/**");
+    }
+}
@@ -0,0 +1,54 @@
+package de.checkai.insurance.car.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Deadline, retry, hedging and circuit breaker settings per remote dependency (vertex, gcs, ...)
+ */
+@ConfigurationProperties(prefix = "rpc")
+public record RpcResilienceProperties(
+        @DefaultValue Map<String, Policy> policies
+) {
+
+    public Policy policy(String dependency) {
+        Policy policy = policies.get(dependency);
+        return policy != null ? policy : Policy.DEFAULT;
+    }
+
+    /**
+     * @param deadline             time limit of a single attempt
+     * @param maxAttempts          attempts including the first one
+     * @param initialBackoff       upper bound of the first (jittered) retry delay, doubled per attempt
+     * @param maxBackoff           cap of the retry delay
+     * @param hedgePercentile      latency percentile after which a second request is sent; 0 disables hedging
+     * @param failureRateThreshold failure percentage in the sliding window that opens the circuit
+     * @param slidingWindowSize    number of recent calls the failure rate is computed over
+     * @param minimumCalls         calls needed in the window before the circuit can open
+     * @param openDuration         time the circuit stays open before a trial call is let through
+     */
+    public record Policy(
+            @DefaultValue("30s") Duration deadline,
+            @DefaultValue("4") int maxAttempts,
+            @DefaultValue("200ms") Duration initialBackoff,
+            @DefaultValue("10s") Duration maxBackoff,
+            @DefaultValue("0") double hedgePercentile,
+            @DefaultValue("50") double failureRateThreshold,
+            @DefaultValue("20") int slidingWindowSize,
+            @DefaultValue("10") int minimumCalls,
+            @DefaultValue("30s") Duration openDuration
+    ) {
+        public static final Policy DEFAULT = new Policy(Duration.ofSeconds(30), 4, Duration.ofMillis(200),
+                Duration.ofSeconds(10), 0, 50, 20, 10, Duration.ofSeconds(30));
+    }
+}
@@ -0,0 +1,48 @@
+package de.checkai.insurance.car.config;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Streamed responses, e.g. the NDJSON exports, are written on virtual threads of their own instead
+ * of the application task executor, whose few threads run the {@code @Async} batches; a slow
+ * export client could otherwise hold a thread a batch is waiting for, and a busy batch pool stall
+ * the exports. The executor is kept out of the context, so it doesn't replace the application
+ * task executor.
+ */
+@Configuration
+@Slf4j
+public class WebAsyncConfiguration implements WebMvcConfigurer {
+
+    private final SimpleAsyncTaskExecutor streamingExecutor;
+
+    public WebAsyncConfiguration(@Value("${export.max-concurrent-streams:64}") int maxConcurrentStreams) {
+        streamingExecutor = new SimpleAsyncTaskExecutor("export-stream-");
+        streamingExecutor.setVirtualThreads(true);
+        // Streams beyond the limit wait for a free one instead of opening more files at once
+        streamingExecutor.setConcurrencyLimit(maxConcurrentStreams);
+        log.info("Streamed responses run on up to {} virtual threads", maxConcurrentStreams);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingExecutor);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        streamingExecutor.close();
+    }
+}
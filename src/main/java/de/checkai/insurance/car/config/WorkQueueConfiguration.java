@@ -0,0 +1,45 @@
+package de.checkai.insurance.car.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.checkai.insurance.car.core.queue.FileWorkQueueStore;
+import de.checkai.insurance.car.core.queue.InMemoryWorkQueueStore;
+import de.checkai.insurance.car.core.queue.WorkQueueStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+@Configuration
+@Slf4j
+public class WorkQueueConfiguration {
+
+    public enum StoreType {
+        MEMORY, FILE
+    }
+
+    /**
+     * Where the shared work queue lives; define a {@link WorkQueueStore} bean to use a database instead
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public WorkQueueStore workQueueStore(@Value("${processing.queue.store:MEMORY}") StoreType storeType,
+                                         @Value("${processing.queue.dir:${java.io.tmpdir}/insurance-car-queue}") Path directory,
+                                         ObjectMapper objectMapper) throws IOException {
+        if (storeType == StoreType.FILE) {
+            log.info("Work queue state is shared through {}", directory);
+            return new FileWorkQueueStore(directory, objectMapper);
+        }
+        return new InMemoryWorkQueueStore();
+    }
+}
@@ -0,0 +1,139 @@
+package de.checkai.insurance.car.core.cancellation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Cooperative cancellation of the batches running on this node.
+ * <p>
+ * Work of a batch runs between {@link #start} and {@link #finish} and calls {@link #check} at its
+ * cancellation points, e.g. for every chunk and before every predict request. Blocking calls
+ * register an abort action with {@link #onCancel} for as long as they wait: cancelling a batch
+ * flips its flag and runs the actions of the batch right away, which cancel futures, Vertex jobs
+ * and operations or interrupt the batch thread, so the batch reaches its next cancellation point
+ * within seconds instead of after the call it is blocked in.
+ */
+@Component
+@Slf4j
+public class BatchCancellation {
+
+    /**
+     * Removes an abort action once the call it guards has returned
+     */
+    public interface Registration extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    private static final Registration NONE = () -> {
+    };
+
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    /**
+     * Start work for a batch; nested starts, e.g. of several work items of one batch, are counted
+     */
+    public void start(String batchId) {
+        batches.compute(batchId, (id, batch) -> {
+            Batch started = batch == null ? new Batch() : batch;
+            started.active++;
+            return started;
+        });
+    }
+
+    /**
+     * End work for a batch started with {@link #start}; the batch is forgotten after its last start
+     */
+    public void finish(String batchId) {
+        batches.computeIfPresent(batchId, (id, batch) -> --batch.active > 0 ? batch : null);
+    }
+
+    /**
+     * Cancel a batch running on this node and run its abort actions
+     *
+     * @return false if the batch isn't running here
+     */
+    public boolean cancel(String batchId) {
+        Batch batch = batches.get(batchId);
+        if (batch == null) {
+            return false;
+        }
+        // Actions run under the lock, so none of them runs after its registration was closed
+        synchronized (batch) {
+            if (batch.cancelled) {
+                return true;
+            }
+            batch.cancelled = true;
+            log.info("Cancelling batch {}, aborting {} running calls", batchId, batch.actions.size());
+            for (Runnable action : new ArrayList<>(batch.actions)) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to abort a call of batch {}: {}", batchId, e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean isCancelled(String batchId) {
+        Batch batch = batchId == null ? null : batches.get(batchId);
+        return batch != null && batch.cancelled;
+    }
+
+    /**
+     * Cancellation point: throw if the batch was cancelled
+     *
+     * @param batchId the batch, or null for work outside of a batch
+     */
+    public void check(String batchId) {
+        if (isCancelled(batchId)) {
+            throw new BatchCancelledException(batchId);
+        }
+    }
+
+    /**
+     * Run an abort action when the batch is cancelled while the returned registration is open; when
+     * it already is, the action runs right away
+     *
+     * @param batchId the batch, or null for work outside of a batch
+     */
+    public Registration onCancel(String batchId, Runnable abort) {
+        Batch batch = batchId == null ? null : batches.get(batchId);
+        if (batch == null) {
+            return NONE;
+        }
+        synchronized (batch) {
+            if (!batch.cancelled) {
+                batch.actions.add(abort);
+                return () -> {
+                    synchronized (batch) {
+                        batch.actions.remove(abort);
+                    }
+                };
+            }
+        }
+        abort.run();
+        return NONE;
+    }
+
+    private static final class Batch {
+
+        private final List<Runnable> actions = new ArrayList<>();
+        private int active;
+        private volatile boolean cancelled;
+    }
+}
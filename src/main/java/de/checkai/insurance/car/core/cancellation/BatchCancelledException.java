@@ -0,0 +1,18 @@
+package de.checkai.insurance.car.core.cancellation;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Thrown at a cancellation point of a batch that was cancelled
+ */
+public class BatchCancelledException extends RuntimeException {
+
+    public BatchCancelledException(String batchId) {
+        super("Batch " + batchId + " was cancelled");
+    }
+}
@@ -0,0 +1,345 @@
+package de.checkai.insurance.car.core.embedding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.gax.paging.Page;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.aiplatform.v1.BatchPredictionJob;
+import com.google.cloud.aiplatform.v1.GcsDestination;
+import com.google.cloud.aiplatform.v1.GcsSource;
+import com.google.cloud.aiplatform.v1.JobServiceClient;
+import com.google.cloud.aiplatform.v1.JobState;
+import com.google.cloud.aiplatform.v1.LocationName;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.protobuf.Struct;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Generates embeddings for large chunk sets with a Vertex AI batch prediction job instead of
+ * online predict calls: chunks are written as JSONL to GCS, the job is polled on a scheduler and
+ * its output shards are streamed back line by line. The scheduler thread only polls; reading the
+ * output and whatever callers chain onto the result run on a worker executor, so one slow job
+ * doesn't hold up the polls of the others. A job still running after
+ * {@code gcp.vertex.batch-prediction.max-wait} is cancelled and its future fails.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class BatchPredictionEmbedder {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final Set<JobState> FINAL_STATES = Set.of(
+            JobState.JOB_STATE_SUCCEEDED,
+            JobState.JOB_STATE_PARTIALLY_SUCCEEDED,
+            JobState.JOB_STATE_FAILED,
+            JobState.JOB_STATE_CANCELLED,
+            JobState.JOB_STATE_EXPIRED);
+
+    private final LazyCloudClient<JobServiceClient> jobServiceClient;
+    private final LazyCloudClient<Storage> storage;
+    private final ObjectMapper objectMapper;
+    private final EmbeddingDimensionality embeddingDimensionality;
+
+    private final ScheduledExecutorService pollScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService workerExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${spring.cloud.gcp.project-id}")
+    private String projectId;
+
+    @Value("${gcp.vertex.region}")
+    private String region;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    @Value("${gcp.vertex.batch-prediction.gcs-prefix:batch-prediction}")
+    private String gcsPrefix;
+
+    @Value("${gcp.vertex.batch-prediction.poll-interval:30s}")
+    private Duration pollInterval;
+
+    @Value("${gcp.vertex.batch-prediction.max-wait:24h}")
+    private Duration maxWait;
+
+    /**
+     * Executor the job output is read on; work chained onto a result belongs there as well, not on
+     * the poll thread
+     */
+    public Executor workerExecutor() {
+        return workerExecutor;
+    }
+
+    /**
+     * Run a batch prediction job for the chunks
+     *
+     * @param textChunks chunks to embed
+     * @param model      publisher model id, e.g. textembedding-gecko@001
+     * @return embeddings keyed by chunk id; chunks the job could not embed are missing
+     */
+    public CompletableFuture<Map<UUID, TextEmbedding>> generateEmbeddings(List<TextChunk> textChunks, String model) {
+        return generateEmbeddings(textChunks, model, embeddingDimensionality.modelOutputDimensionality());
+    }
+
+    /**
+     * Run a batch prediction job for the chunks, asking the model for the given dimension
+     *
+     * @param outputDimensionality the {@code outputDimensionality} parameter, or null for the model's default
+     */
+    public CompletableFuture<Map<UUID, TextEmbedding>> generateEmbeddings(List<TextChunk> textChunks, String model,
+                                                                         Integer outputDimensionality) {
+        CompletableFuture<BatchPredictionJob> finished = runJob(textChunks, model, outputDimensionality);
+        CompletableFuture<Map<UUID, TextEmbedding>> embeddings = finished.thenApplyAsync(finishedJob -> {
+            Map<UUID, TextEmbedding> embeddingsById = new HashMap<>(textChunks.size() * 2);
+            readOutput(finishedJob, textChunks, embedding -> embeddingsById.put(embedding.id(), embedding));
+            return embeddingsById;
+        }, workerExecutor);
+        // Cancelling the embeddings cancels the job
+        embeddings.whenComplete((ignored, error) -> {
+            if (embeddings.isCancelled()) {
+                finished.cancel(true);
+            }
+        });
+        return embeddings;
+    }
+
+    /**
+     * Submit a batch prediction job for the chunks and poll it until it has succeeded; read its
+     * output with {@link #readOutput}. Cancelling the future cancels the job.
+     *
+     * @param outputDimensionality the {@code outputDimensionality} parameter, or null for the model's default
+     */
+    public CompletableFuture<BatchPredictionJob> runJob(List<TextChunk> textChunks, String model,
+                                                        Integer outputDimensionality) {
+        String jobPrefix = String.format("%s/%s_%s", gcsPrefix, model.replace('@', '-'),
+                LocalDateTime.now().format(DATE_FORMATTER));
+        try {
+            String inputUri = writeInput(textChunks, jobPrefix + "/input.jsonl");
+            BatchPredictionJob job = submitJob(inputUri, String.format("gs://%s/%s/output", bucketName, jobPrefix), model,
+                    outputDimensionality);
+            log.info("Submitted batch prediction job {} for {} chunks", job.getName(), textChunks.size());
+            return pollUntilDone(job.getName());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException("Failed to write batch prediction input", e));
+        }
+    }
+
+    /**
+     * Write one {"id", "content"} line per chunk to GCS without buffering the whole file
+     */
+    private String writeInput(List<TextChunk> textChunks, String objectName) throws IOException {
+        BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, objectName))
+                .setContentType("application/jsonl")
+                .build();
+
+        try (WriteChannel channel = storage.get().writer(blobInfo);
+             Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+            Map<String, String> line = new LinkedHashMap<>();
+            for (TextChunk chunk : textChunks) {
+                line.put("id", chunk.id().toString());
+                line.put("content", chunk.content());
+                writer.write(objectMapper.writeValueAsString(line));
+                writer.write('\n');
+            }
+        }
+        return String.format("gs://%s/%s", bucketName, objectName);
+    }
+
+    private BatchPredictionJob submitJob(String inputUri, String outputUriPrefix, String model,
+                                         Integer outputDimensionality) {
+        BatchPredictionJob.Builder job = BatchPredictionJob.newBuilder()
+                .setDisplayName("insurance-car-embeddings-" + model)
+                .setModel(String.format("projects/%s/locations/%s/publishers/google/models/%s", projectId, region, model))
+                .setInputConfig(BatchPredictionJob.InputConfig.newBuilder()
+                        .setInstancesFormat("jsonl")
+                        .setGcsSource(GcsSource.newBuilder().addUris(inputUri)))
+                // The id is only needed to match the output back to the chunk, don't send it to the model
+                .setInstanceConfig(BatchPredictionJob.InstanceConfig.newBuilder()
+                        .addExcludedFields("id"))
+                .setOutputConfig(BatchPredictionJob.OutputConfig.newBuilder()
+                        .setPredictionsFormat("jsonl")
+                        .setGcsDestination(GcsDestination.newBuilder().setOutputUriPrefix(outputUriPrefix)));
+        // Models that support it return fewer dimensions, see EmbeddingDimensionality
+        if (outputDimensionality != null) {
+            job.setModelParameters(com.google.protobuf.Value.newBuilder().setStructValue(Struct.newBuilder()
+                    .putFields("outputDimensionality",
+                            com.google.protobuf.Value.newBuilder().setNumberValue(outputDimensionality).build())));
+        }
+
+        return jobServiceClient.get().createBatchPredictionJob(LocationName.of(projectId, region), job.build());
+    }
+
+    private CompletableFuture<BatchPredictionJob> pollUntilDone(String jobName) {
+        CompletableFuture<BatchPredictionJob> result = new CompletableFuture<>();
+        ScheduledFuture<?> poller = pollScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                BatchPredictionJob job = jobServiceClient.get().getBatchPredictionJob(jobName);
+                if (!FINAL_STATES.contains(job.getState())) {
+                    log.debug("Batch prediction job {} is {}", jobName, job.getState());
+                } else if (job.getState() == JobState.JOB_STATE_SUCCEEDED
+                        || job.getState() == JobState.JOB_STATE_PARTIALLY_SUCCEEDED) {
+                    result.complete(job);
+                } else {
+                    result.completeExceptionally(new IllegalStateException(String.format(
+                            "Batch prediction job %s ended in %s: %s", jobName, job.getState(), job.getError().getMessage())));
+                }
+            } catch (Exception e) {
+                log.warn("Failed to poll batch prediction job {}: {}", jobName, e.getMessage());
+            }
+        }, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> deadline = pollScheduler.schedule(() -> result.completeExceptionally(new TimeoutException(
+                String.format("Batch prediction job %s is not done after %s", jobName, maxWait))),
+                maxWait.toMillis(), TimeUnit.MILLISECONDS);
+
+        result.whenComplete((job, error) -> {
+            poller.cancel(false);
+            deadline.cancel(false);
+            // A job nobody waits for anymore only costs money
+            if (result.isCancelled() || error instanceof TimeoutException) {
+                workerExecutor.execute(() -> cancelJob(jobName));
+            }
+        });
+        return result;
+    }
+
+    private void cancelJob(String jobName) {
+        try {
+            jobServiceClient.get().cancelBatchPredictionJob(jobName);
+            log.info("Cancelled batch prediction job {}", jobName);
+        } catch (Exception e) {
+            log.warn("Failed to cancel batch prediction job {}: {}", jobName, e.getMessage());
+        }
+    }
+
+    /**
+     * Stream every predictions shard of a finished job into the sink, one line at a time, so no more
+     * than one embedding of the output is held at once
+     *
+     * @param textChunks the chunks the job was run for
+     * @param sink       receives the embeddings in the order of the output, on the calling thread
+     * @return the chunks the job could not embed, in chunk order
+     */
+    public List<TextChunk> readOutput(BatchPredictionJob job, List<TextChunk> textChunks, Consumer<TextEmbedding> sink) {
+        Map<UUID, Integer> indexById = new HashMap<>(textChunks.size() * 2);
+        for (int i = 0; i < textChunks.size(); i++) {
+            indexById.put(textChunks.get(i).id(), i);
+        }
+        BitSet embedded = new BitSet(textChunks.size());
+
+        String outputDirectory = job.getOutputInfo().getGcsOutputDirectory();
+        String outputPrefix = outputDirectory.substring(("gs://" + bucketName + "/").length());
+
+        int failedInstances = 0;
+        Page<Blob> blobs = storage.get().list(bucketName, Storage.BlobListOption.prefix(outputPrefix + "/"));
+        for (Blob blob : blobs.iterateAll()) {
+            if (!blob.getName().substring(outputPrefix.length() + 1).startsWith("predictions")) {
+                continue;
+            }
+            try (ReadChannel channel = storage.get().reader(blob.getBlobId());
+                 BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JsonNode prediction = objectMapper.readTree(line);
+                    Integer index = indexById.get(chunkId(prediction));
+                    TextEmbedding embedding = index == null || embedded.get(index)
+                            ? null
+                            : toEmbedding(prediction, textChunks.get(index));
+                    if (embedding == null) {
+                        failedInstances++;
+                    } else {
+                        embedded.set(index);
+                        sink.accept(embedding);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read batch prediction output " + blob.getName(), e);
+            }
+        }
+
+        List<TextChunk> missing = new ArrayList<>(textChunks.size() - embedded.cardinality());
+        for (int i = embedded.nextClearBit(0); i < textChunks.size(); i = embedded.nextClearBit(i + 1)) {
+            missing.add(textChunks.get(i));
+        }
+        log.info("Batch prediction job {} returned {} embeddings, {} failed instances",
+                job.getName(), embedded.cardinality(), failedInstances);
+        return missing;
+    }
+
+    private static UUID chunkId(JsonNode prediction) {
+        JsonNode id = prediction.path("instance").path("id");
+        try {
+            return id.isTextual() ? UUID.fromString(id.asText()) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static TextEmbedding toEmbedding(JsonNode prediction, TextChunk chunk) {
+        JsonNode values = prediction.path("predictions").path(0).path("embeddings").path("values");
+        if (!values.isArray() || !prediction.path("status").asText("").isEmpty()) {
+            return null;
+        }
+
+        float[] embedding = new float[values.size()];
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] = (float) values.get(i).asDouble();
+        }
+        return new TextEmbedding(
+                chunk.id(),
+                embedding,
+                chunk.sourceDocument(),
+                chunk.pageNumber(),
+                chunk.position()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pollScheduler.shutdownNow();
+        workerExecutor.shutdownNow();
+    }
+}
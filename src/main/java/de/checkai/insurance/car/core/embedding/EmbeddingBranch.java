@@ -0,0 +1,52 @@
+package de.checkai.insurance.car.core.embedding;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * One embedding model of a batch with the dimension its embeddings are stored with, resolved by
+ * {@link EmbeddingModels}. Every branch of a batch embeds the same chunks into its own collection.
+ *
+ * @param model                 publisher model id
+ * @param dimensionality        dimension and reduction of the model's embeddings
+ * @param maxInstances          instances per predict request
+ * @param linger                how long a partly filled predict request waits for more chunks
+ * @param maxConcurrentRequests predict requests of the branch in flight at once
+ * @param predictDelay          minimum time between the starts of two predict requests of the branch
+ */
+public record EmbeddingBranch(
+        String model,
+        EmbeddingDimensionality dimensionality,
+        int maxInstances,
+        Duration linger,
+        int maxConcurrentRequests,
+        Duration predictDelay
+) {
+
+    /**
+     * Identifies the model and output dimension; a batch has at most one branch per key
+     */
+    public String key() {
+        return model + "/" + dimensionality.outputDimension();
+    }
+
+    /**
+     * Id of the branch's collection: the batch id for the first branch of a batch, so single-model
+     * batches keep their ids, and the batch id with the model and dimension for the others
+     */
+    public String collectionId(String batchId, int branchIndex) {
+        if (branchIndex == 0) {
+            return batchId;
+        }
+        String suffix = (model + "-" + dimensionality.outputDimension()).toLowerCase(Locale.ROOT)
+                .replaceAll("[^a-z0-9-]", "-");
+        return batchId + "-" + suffix;
+    }
+}
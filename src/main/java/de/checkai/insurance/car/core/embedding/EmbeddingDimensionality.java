@@ -0,0 +1,121 @@
+package de.checkai.insurance.car.core.embedding;
+
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Decides the dimension embeddings are stored and indexed with. With
+ * {@code gcp.vertex.output-dimensionality} below the model's {@code gcp.vertex.embedding-dimension}
+ * the embeddings are reduced by one of
+ * <ul>
+ *     <li>{@code MODEL}: the model returns fewer dimensions itself ({@code outputDimensionality}
+ *     parameter of the newer text embedding models)</li>
+ *     <li>{@code TRUNCATE}: keep the leading components and renormalize</li>
+ *     <li>{@code PCA}: project onto the principal components of a sample of the batch</li>
+ * </ul>
+ * {@code AUTO} asks the model when it supports it and falls back to PCA otherwise.
+ */
+@Component
+@Slf4j
+public class EmbeddingDimensionality {
+
+    public enum Reduction {
+        AUTO, MODEL, TRUNCATE, PCA
+    }
+
+    private static final Pattern MODELS_WITH_OUTPUT_DIMENSIONALITY = Pattern.compile(
+            "^(text-embedding-00[4-9]|text-multilingual-embedding-00[2-9]|text-embedding-large|gemini-embedding).*");
+
+    private final int modelDimension;
+    private final int outputDimension;
+    private final Reduction configuredReduction;
+    private final Reduction reduction;
+    private final int configuredPcaSampleSize;
+    private final int pcaSampleSize;
+    private final int recallQueries;
+
+    public EmbeddingDimensionality(@Value("${gcp.vertex.embedding-model}") String embeddingModel,
+                                   @Value("${gcp.vertex.embedding-dimension}") int modelDimension,
+                                   @Value("${gcp.vertex.output-dimensionality:0}") int outputDimensionality,
+                                   @Value("${gcp.vertex.dimension-reduction.method:AUTO}") Reduction reduction,
+                                   @Value("${gcp.vertex.dimension-reduction.pca-sample-size:2000}") int pcaSampleSize,
+                                   @Value("${gcp.vertex.dimension-reduction.recall-queries:200}") int recallQueries) {
+        this.modelDimension = modelDimension;
+        this.outputDimension = outputDimensionality > 0 && outputDimensionality < modelDimension
+                ? outputDimensionality : modelDimension;
+        this.configuredReduction = reduction;
+        this.configuredPcaSampleSize = pcaSampleSize;
+        this.reduction = reduction == Reduction.AUTO
+                ? MODELS_WITH_OUTPUT_DIMENSIONALITY.matcher(embeddingModel).matches() ? Reduction.MODEL : Reduction.PCA
+                : reduction;
+        this.pcaSampleSize = Math.max(pcaSampleSize, 2 * outputDimension);
+        this.recallQueries = recallQueries;
+        if (isReduced()) {
+            log.info("Embeddings of {} are reduced from {} to {} dimensions with {}",
+                    embeddingModel, modelDimension, outputDimension, this.reduction);
+        }
+    }
+
+    /**
+     * The same reduction settings for another model, e.g. a further embedding target of a request
+     *
+     * @param outputDimensionality dimension to store, or null for the model's own dimension
+     */
+    public EmbeddingDimensionality forModel(String embeddingModel, int modelDimension, Integer outputDimensionality) {
+        return new EmbeddingDimensionality(embeddingModel, modelDimension,
+                outputDimensionality == null ? 0 : outputDimensionality, configuredReduction, configuredPcaSampleSize,
+                recallQueries);
+    }
+
+    /**
+     * Dimension the model returns
+     */
+    public int modelDimension() {
+        return modelDimension;
+    }
+
+    /**
+     * Dimension of the stored embeddings and of the vector search index
+     */
+    public int outputDimension() {
+        return outputDimension;
+    }
+
+    public boolean isReduced() {
+        return outputDimension < modelDimension;
+    }
+
+    /**
+     * The method in use; never {@code AUTO}
+     */
+    public Reduction reduction() {
+        return reduction;
+    }
+
+    /**
+     * The {@code outputDimensionality} to send with predict requests, or null to get the model's default
+     */
+    public Integer modelOutputDimensionality() {
+        return isReduced() && reduction == Reduction.MODEL ? outputDimension : null;
+    }
+
+    /**
+     * Reduction for the embeddings of one batch, passing the reduced embeddings on to the sink
+     */
+    public EmbeddingReduction newReduction(Consumer<TextEmbedding> sink) {
+        return new EmbeddingReduction(isReduced() ? reduction : null, modelDimension, outputDimension,
+                pcaSampleSize, recallQueries, sink);
+    }
+}
@@ -0,0 +1,352 @@
+package de.checkai.insurance.car.core.embedding;
+
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Collects the chunks of any number of callers into shared predict requests. Callers hand over
+ * all their chunks at once and never block; the batcher decides the size, order and pace of the
+ * requests:
+ * <ul>
+ *     <li>a request holds up to {@code maxInstances} chunks and is only formed when one of the
+ *     {@code maxConcurrentRequests} request slots is free, so queued chunks wait as chunks, not as
+ *     ready-made requests</li>
+ *     <li>chunks are taken from the callers' flows (batches) by weighted fair queuing: every taken
+ *     chunk advances its flow by {@code 1 / weight}, and the flow furthest behind goes next, so a
+ *     large job doesn't starve the small ones queued after it</li>
+ *     <li>request starts are at least {@code pace} apart, to stay below the model's rate limit</li>
+ *     <li>a partly filled request is sent once the oldest waiting chunk has lingered for
+ *     {@code linger}, or on {@link #flush()}</li>
+ * </ul>
+ * One batcher runs per model. The output dimensionality is a parameter of the whole request, so
+ * chunks asking for different ones are queued apart and never share a request.
+ */
+@Slf4j
+public class EmbeddingMicroBatcher implements AutoCloseable {
+
+    /**
+     * Sends one predict request
+     */
+    @FunctionalInterface
+    public interface Predictor {
+
+        /**
+         * @param flowId               flow most of the chunks belong to, or null
+         * @param outputDimensionality dimensionality all chunks of the request ask for, or null for the model's
+         * @return the embeddings in chunk order
+         */
+        List<TextEmbedding> predict(String flowId, Integer outputDimensionality, List<TextChunk> chunks);
+    }
+
+    private static final String DEFAULT_FLOW = "default";
+
+    private final Predictor predictor;
+    private final int maxInstances;
+    private final Duration linger;
+    private final int maxConcurrentRequests;
+    private final long paceNanos;
+    private final ToIntFunction<String> weights;
+    private final ExecutorService requestExecutor;
+    private final ScheduledExecutorService lingerTimer;
+    private final DistributionSummary instancesPerRequest;
+
+    private final Object lock = new Object();
+    private final Map<FlowKey, Flow> flows = new LinkedHashMap<>();
+    private int pendingCount;
+    private int inFlight;
+    private double virtualTime;
+    private long lastRequestStart;
+    private boolean lingered;
+    private boolean closed;
+    private ScheduledFuture<?> lingerFlush;
+
+    /**
+     * @param predictor             sends one predict request and returns the embeddings in chunk order
+     * @param maxInstances          instances the model accepts per request
+     * @param linger                how long a partly filled request waits for more chunks
+     * @param maxConcurrentRequests predict requests in flight at once
+     */
+    public EmbeddingMicroBatcher(Function<List<TextChunk>, List<TextEmbedding>> predictor, int maxInstances,
+                                 Duration linger, int maxConcurrentRequests, MeterRegistry meterRegistry) {
+        this((flowId, outputDimensionality, chunks) -> predictor.apply(chunks), maxInstances, linger, maxConcurrentRequests, Duration.ZERO,
+                flowId -> 1, meterRegistry, "default");
+    }
+
+    /**
+     * @param pace    minimum time between the starts of two requests
+     * @param weights weight of a flow, read when its chunks are taken
+     * @param model   tags the metrics, one batcher runs per embedding model
+     */
+    public EmbeddingMicroBatcher(Predictor predictor, int maxInstances, Duration linger, int maxConcurrentRequests,
+                                 Duration pace, ToIntFunction<String> weights, MeterRegistry meterRegistry,
+                                 String model) {
+        this.predictor = predictor;
+        this.maxInstances = maxInstances;
+        this.linger = linger;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.paceNanos = pace.toNanos();
+        this.weights = weights;
+        this.requestExecutor = Executors.newFixedThreadPool(maxConcurrentRequests);
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor();
+        this.lastRequestStart = System.nanoTime() - paceNanos;
+        this.instancesPerRequest = DistributionSummary.builder("vertex.predict.instances")
+                .description("Instances sent per predict request")
+                .tag("model", model)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue a chunk outside of any flow
+     */
+    public CompletableFuture<TextEmbedding> submit(TextChunk chunk) {
+        return submitEach(null, null, List.of(chunk)).get(0);
+    }
+
+    /**
+     * Queue several chunks outside of any flow; the future completes with their embeddings in chunk
+     * order. Cancelling it withdraws the chunks that haven't been sent yet.
+     */
+    public CompletableFuture<List<TextEmbedding>> submitAll(List<TextChunk> chunks) {
+        List<CompletableFuture<TextEmbedding>> futures = submitEach(null, null, chunks);
+        CompletableFuture<List<TextEmbedding>> all = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).toList());
+        all.whenComplete((embeddings, error) -> {
+            if (all.isCancelled()) {
+                futures.forEach(future -> future.cancel(false));
+            }
+        });
+        return all;
+    }
+
+    /**
+     * Queue the chunks of a flow without waiting for them; each future completes with the
+     * embedding of its chunk. Cancelled futures withdraw their chunks if they haven't been sent yet.
+     *
+     * @param flowId               batch the chunks belong to, or null
+     * @param outputDimensionality dimensionality to ask the model for, or null for the model's
+     */
+    public List<CompletableFuture<TextEmbedding>> submitEach(String flowId, Integer outputDimensionality,
+                                                             List<TextChunk> chunks) {
+        List<CompletableFuture<TextEmbedding>> futures = new ArrayList<>(chunks.size());
+        if (chunks.isEmpty()) {
+            return futures;
+        }
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Embedding micro-batcher is shut down");
+            }
+            FlowKey key = new FlowKey(flowKey(flowId), outputDimensionality);
+            Flow flow = flows.get(key);
+            if (flow == null) {
+                // A flow that was idle starts at the current virtual time instead of catching up
+                flow = new Flow(flowId, outputDimensionality, virtualTime);
+                flows.put(key, flow);
+            }
+            for (TextChunk chunk : chunks) {
+                Pending item = new Pending(chunk, new CompletableFuture<>());
+                flow.items.add(item);
+                futures.add(item.future());
+            }
+            pendingCount += chunks.size();
+            sendWhilePossible();
+        }
+        return futures;
+    }
+
+    /**
+     * Send the partly filled request now instead of after the linger time
+     */
+    public void flush() {
+        synchronized (lock) {
+            lingered = true;
+            sendWhilePossible();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Flow flow : flows.values()) {
+                flow.items.forEach(item -> item.future().completeExceptionally(
+                        new IllegalStateException("Embedding micro-batcher is shut down")));
+            }
+            flows.clear();
+            pendingCount = 0;
+            cancelLingerFlush();
+        }
+        lingerTimer.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Form and start requests while a slot is free and there is a full request, or a partly filled
+     * one that has lingered long enough. Called with the lock held.
+     */
+    private void sendWhilePossible() {
+        while (!closed && inFlight < maxConcurrentRequests && pendingCount > 0
+                && (pendingCount >= maxInstances || lingered)) {
+            Request request = takeRequest();
+            if (request.items().isEmpty()) {
+                break;
+            }
+            inFlight++;
+            long start = Math.max(System.nanoTime(), lastRequestStart + paceNanos);
+            lastRequestStart = start;
+            requestExecutor.execute(() -> send(request, start));
+        }
+        if (pendingCount == 0) {
+            lingered = false;
+            cancelLingerFlush();
+        } else if (pendingCount < maxInstances && !lingered && lingerFlush == null) {
+            lingerFlush = lingerTimer.schedule(this::flushLingering, linger.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Take up to maxInstances live chunks, each from the flow with the lowest virtual time among
+     * those asking for the output dimensionality of the first chunk taken
+     */
+    private Request takeRequest() {
+        List<Pending> items = new ArrayList<>(maxInstances);
+        Map<Flow, Integer> chunksPerFlow = new HashMap<>();
+        Integer outputDimensionality = null;
+        while (items.size() < maxInstances && pendingCount > 0) {
+            Flow next = null;
+            for (Iterator<Flow> iterator = flows.values().iterator(); iterator.hasNext(); ) {
+                Flow flow = iterator.next();
+                // Chunks whose caller gave up are dropped, not sent
+                while (!flow.items.isEmpty() && flow.items.peek().future().isDone()) {
+                    flow.items.poll();
+                    pendingCount--;
+                }
+                if (flow.items.isEmpty()) {
+                    iterator.remove();
+                } else if ((items.isEmpty() || Objects.equals(flow.outputDimensionality, outputDimensionality))
+                        && (next == null || flow.virtualTime < next.virtualTime)) {
+                    next = flow;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            outputDimensionality = next.outputDimensionality;
+            items.add(next.items.poll());
+            pendingCount--;
+            virtualTime = Math.max(virtualTime, next.virtualTime);
+            next.virtualTime += 1.0 / Math.max(1, weights.applyAsInt(next.id));
+            chunksPerFlow.merge(next, 1, Integer::sum);
+        }
+        String leadFlow = chunksPerFlow.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .map(entry -> entry.getKey().id)
+                .orElse(null);
+        return new Request(leadFlow, outputDimensionality, items);
+    }
+
+    private void send(Request request, long start) {
+        try {
+            long wait = start - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            List<Pending> batch = request.items().stream().filter(item -> !item.future().isDone()).toList();
+            if (batch.isEmpty()) {
+                return;
+            }
+            instancesPerRequest.record(batch.size());
+            List<TextEmbedding> embeddings = predictor.predict(request.flowId(), request.outputDimensionality(),
+                    batch.stream().map(Pending::chunk).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                if (i < embeddings.size()) {
+                    batch.get(i).future().complete(embeddings.get(i));
+                } else {
+                    batch.get(i).future().completeExceptionally(new IllegalStateException(
+                            "No prediction returned for chunk " + batch.get(i).chunk().id()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.items().forEach(item -> item.future().completeExceptionally(
+                    new IllegalStateException("Embedding micro-batcher is shut down")));
+        } catch (RuntimeException e) {
+            log.warn("Predict request with {} instances failed: {}", request.items().size(), e.getMessage());
+            request.items().forEach(item -> item.future().completeExceptionally(e));
+        } finally {
+            synchronized (lock) {
+                inFlight--;
+                sendWhilePossible();
+            }
+        }
+    }
+
+    private void flushLingering() {
+        synchronized (lock) {
+            lingerFlush = null;
+            lingered = true;
+            sendWhilePossible();
+        }
+    }
+
+    private void cancelLingerFlush() {
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+    }
+
+    private static String flowKey(String flowId) {
+        return flowId == null ? DEFAULT_FLOW : flowId;
+    }
+
+    private record FlowKey(String flowId, Integer outputDimensionality) {
+    }
+
+    private static final class Flow {
+        private final String id;
+        private final Integer outputDimensionality;
+        private final Deque<Pending> items = new ArrayDeque<>();
+        private double virtualTime;
+
+        private Flow(String id, Integer outputDimensionality, double virtualTime) {
+            this.id = id;
+            this.outputDimensionality = outputDimensionality;
+            this.virtualTime = virtualTime;
+        }
+    }
+
+    private record Pending(TextChunk chunk, CompletableFuture<TextEmbedding> future) {
+    }
+
+    private record Request(String flowId, Integer outputDimensionality, List<Pending> items) {
+    }
+}
@@ -0,0 +1,107 @@
+package de.checkai.insurance.car.core.embedding;
+
+import de.checkai.insurance.car.appication.model.EmbeddingTarget;
+import de.checkai.insurance.car.config.EmbeddingModelProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Resolves the embedding targets of a request into {@link EmbeddingBranch}es: the configured
+ * {@code gcp.vertex.embedding-model} with the {@code gcp.vertex.micro-batch} settings, or one of the
+ * further models under {@code gcp.vertex.models}, each with the requested output dimension.
+ */
+@Component
+public class EmbeddingModels {
+
+    private final EmbeddingDimensionality embeddingDimensionality;
+    private final EmbeddingModelProperties properties;
+    private final EmbeddingBranch defaultBranch;
+
+    public EmbeddingModels(EmbeddingDimensionality embeddingDimensionality,
+                           EmbeddingModelProperties properties,
+                           @Value("${gcp.vertex.embedding-model}") String embeddingModel,
+                           @Value("${gcp.vertex.micro-batch.max-instances:5}") int maxInstances,
+                           @Value("${gcp.vertex.micro-batch.linger:25ms}") Duration linger,
+                           @Value("${gcp.vertex.micro-batch.max-concurrent-requests:4}") int maxConcurrentRequests,
+                           @Value("${gcp.vertex.predict-delay:500ms}") Duration predictDelay) {
+        this.embeddingDimensionality = embeddingDimensionality;
+        this.properties = properties;
+        this.defaultBranch = new EmbeddingBranch(embeddingModel, embeddingDimensionality, maxInstances, linger,
+                maxConcurrentRequests, predictDelay);
+    }
+
+    /**
+     * The configured model with the configured output dimension
+     */
+    public EmbeddingBranch defaultBranch() {
+        return defaultBranch;
+    }
+
+    /**
+     * The branches of a request, in target order; the default branch when there are no targets
+     *
+     * @throws IllegalArgumentException for an unknown model, an output dimension the model can't
+     *                                  provide, or the same model and dimension twice
+     */
+    public List<EmbeddingBranch> resolve(List<EmbeddingTarget> targets) {
+        if (targets.isEmpty()) {
+            return List.of(defaultBranch);
+        }
+        List<EmbeddingBranch> branches = new ArrayList<>(targets.size());
+        Set<String> keys = new HashSet<>();
+        for (EmbeddingTarget target : targets) {
+            EmbeddingBranch branch = resolve(target);
+            if (!keys.add(branch.key())) {
+                throw new IllegalArgumentException("Embedding target " + branch.key() + " is requested twice");
+            }
+            branches.add(branch);
+        }
+        return branches;
+    }
+
+    private EmbeddingBranch resolve(EmbeddingTarget target) {
+        String model = target.model() == null ? defaultBranch.model() : target.model();
+        Integer outputDimensionality = target.outputDimensionality();
+        if (model.equals(defaultBranch.model())) {
+            if (outputDimensionality == null || outputDimensionality == embeddingDimensionality.outputDimension()) {
+                return defaultBranch;
+            }
+            checkDimension(model, outputDimensionality, embeddingDimensionality.modelDimension());
+            return new EmbeddingBranch(model,
+                    embeddingDimensionality.forModel(model, embeddingDimensionality.modelDimension(), outputDimensionality),
+                    defaultBranch.maxInstances(), defaultBranch.linger(), defaultBranch.maxConcurrentRequests(),
+                    defaultBranch.predictDelay());
+        }
+
+        EmbeddingModelProperties.Model settings = properties.models().get(model);
+        if (settings == null) {
+            throw new IllegalArgumentException("Unknown embedding model " + model + ", configure it under gcp.vertex.models");
+        }
+        if (outputDimensionality != null) {
+            checkDimension(model, outputDimensionality, settings.embeddingDimension());
+        }
+        return new EmbeddingBranch(model,
+                embeddingDimensionality.forModel(model, settings.embeddingDimension(), outputDimensionality),
+                settings.maxInstances(), settings.linger(), settings.maxConcurrentRequests(), settings.predictDelay());
+    }
+
+    private static void checkDimension(String model, int outputDimensionality, int modelDimension) {
+        if (outputDimensionality < 1 || outputDimensionality > modelDimension) {
+            throw new IllegalArgumentException(String.format("%s returns %d dimensions, %d can't be stored",
+                    model, modelDimension, outputDimensionality));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package de.checkai.insurance.car.core.embedding;
+
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.core.vector.DimensionReducer;
+import de.checkai.insurance.car.core.vector.PcaProjection;
+import de.checkai.insurance.car.core.vector.ReductionRecall;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Reduces the embeddings of one batch on their way to the sink, in chunk order. For PCA the first
+ * embeddings are held back until the sample is complete and the projection is fitted; call
+ * {@link #finish()} after the last embedding to flush them and get the reducer and its recall.
+ */
+@Slf4j
+public class EmbeddingReduction implements Consumer<TextEmbedding> {
+
+    private static final int RECALL_K = 10;
+
+    /**
+     * @param reducer     what the stored vectors went through, null when they are unreduced or
+     *                    reduced by the model
+     * @param recallAtTen recall@10 of the reduced against the full vectors on the sample, null when
+     *                    not measured
+     */
+    public record Result(DimensionReducer reducer, Double recallAtTen) {
+    }
+
+    private final EmbeddingDimensionality.Reduction reduction;
+    private final int inputDimension;
+    private final int outputDimension;
+    private final int sampleSize;
+    private final int recallQueries;
+    private final Consumer<TextEmbedding> sink;
+
+    private final List<float[]> sample = new ArrayList<>();
+    private final List<TextEmbedding> heldBack = new ArrayList<>();
+    private DimensionReducer reducer;
+    private boolean modelMismatchLogged;
+
+    EmbeddingReduction(EmbeddingDimensionality.Reduction reduction, int inputDimension, int outputDimension,
+                       int sampleSize, int recallQueries, Consumer<TextEmbedding> sink) {
+        this.reduction = reduction;
+        this.inputDimension = inputDimension;
+        this.outputDimension = outputDimension;
+        this.sampleSize = sampleSize;
+        this.recallQueries = recallQueries;
+        this.sink = sink;
+        if (reduction == EmbeddingDimensionality.Reduction.TRUNCATE) {
+            reducer = DimensionReducer.truncation(inputDimension, outputDimension);
+        }
+    }
+
+    @Override
+    public void accept(TextEmbedding embedding) {
+        if (reduction == null) {
+            sink.accept(embedding);
+            return;
+        }
+        if (reduction == EmbeddingDimensionality.Reduction.MODEL) {
+            acceptFromModel(embedding);
+            return;
+        }
+
+        if (reducer == null || recallQueries > 0 && sample.size() < sampleSize) {
+            sample.add(embedding.embedding().clone());
+        }
+        if (reducer == null) {
+            heldBack.add(embedding);
+            if (heldBack.size() >= sampleSize) {
+                fitProjection();
+            }
+            return;
+        }
+        sink.accept(reduce(embedding));
+    }
+
+    /**
+     * Flush held back embeddings and measure the recall of the reduction on the sample
+     */
+    public Result finish() {
+        if (reduction == null || reduction == EmbeddingDimensionality.Reduction.MODEL) {
+            return new Result(null, null);
+        }
+        if (reducer == null) {
+            fitProjection();
+        }
+        Double recall = null;
+        if (recallQueries > 0 && sample.size() > RECALL_K) {
+            long started = System.nanoTime();
+            recall = ReductionRecall.recallAtK(sample, reducer, RECALL_K, recallQueries);
+            log.info("Reducing {} to {} dimensions with {} keeps a recall@{} of {} on {} sampled embeddings ({} ms)",
+                    inputDimension, outputDimension, reduction, RECALL_K, String.format("%.3f", recall),
+                    sample.size(), (System.nanoTime() - started) / 1_000_000);
+        }
+        sample.clear();
+        return new Result(reducer, recall);
+    }
+
+    private void fitProjection() {
+        if (sample.size() <= outputDimension) {
+            log.warn("Only {} embeddings to fit a PCA to {} dimensions, truncating instead",
+                    sample.size(), outputDimension);
+            reducer = DimensionReducer.truncation(inputDimension, outputDimension);
+        } else {
+            long started = System.nanoTime();
+            PcaProjection projection = PcaProjection.fit(sample, outputDimension);
+            log.info("Fitted a PCA to {} embeddings in {} ms, {} components capture {}% of the variance",
+                    sample.size(), (System.nanoTime() - started) / 1_000_000, outputDimension,
+                    String.format("%.1f", 100 * projection.explainedVariance()));
+            reducer = projection;
+        }
+        heldBack.forEach(embedding -> sink.accept(reduce(embedding)));
+        heldBack.clear();
+    }
+
+    private void acceptFromModel(TextEmbedding embedding) {
+        if (embedding.embedding().length <= outputDimension) {
+            sink.accept(embedding);
+            return;
+        }
+        // The model ignored outputDimensionality; its leading components are the ones it would have kept
+        if (!modelMismatchLogged) {
+            log.warn("Model returned {} dimensions instead of {}, truncating", embedding.embedding().length, outputDimension);
+            modelMismatchLogged = true;
+        }
+        if (reducer == null) {
+            reducer = DimensionReducer.truncation(embedding.embedding().length, outputDimension);
+        }
+        sink.accept(reduce(embedding));
+    }
+
+    private TextEmbedding reduce(TextEmbedding embedding) {
+        return new TextEmbedding(embedding.id(), reducer.reduce(embedding.embedding()), embedding.sourceDocument(),
+                embedding.pageNumber(), embedding.position());
+    }
+}
@@ -0,0 +1,399 @@
+package de.checkai.insurance.car.core.estimate;
+
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import de.checkai.insurance.car.appication.model.ProcessingEstimate;
+import de.checkai.insurance.car.core.embedding.EmbeddingBranch;
+import de.checkai.insurance.car.core.embedding.EmbeddingDimensionality;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.ingest.DocumentFilter;
+import de.checkai.insurance.car.core.ingest.DocumentSource;
+import de.checkai.insurance.car.core.ingest.DocumentSources;
+import de.checkai.insurance.car.core.pdf.SentenceChunker;
+import de.checkai.insurance.car.core.service.OcrService;
+import de.checkai.insurance.car.core.storage.ShardedEmbeddingWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Projects what a processing request will cost without running it and without calling Vertex.
+ * <p>
+ * Documents are opened for their page count and {@code processing.estimate.sample-pages} evenly
+ * spread pages are stripped and chunked like in extraction; chunks and image-only pages are scaled
+ * up to the page count. Once {@code processing.estimate.max-sampled-documents} documents were
+ * sampled, or half of {@code processing.estimate.max-duration} is used up, the remaining documents
+ * are projected from their size with the chunks per byte seen so far. The budget is only checked
+ * between documents, so a document is only sampled when it fits into what is left of
+ * {@code processing.estimate.max-sampled-mb}; one large document can't hold the estimate up.
+ * Sources are listed until the budget is used up; the estimate is marked incomplete when that
+ * happens. Stage durations divide the projected work by the throughput the {@link ThroughputTracker}
+ * measured recently, for online or batch prediction embedding, whichever the batch will use. Every
+ * embedding branch of the request embeds, stores and indexes all chunks once more.
+ */
+@Component
+@Slf4j
+public class ProcessingEstimator {
+
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private final DocumentSources documentSources;
+    private final ThroughputTracker throughputTracker;
+    private final EmbeddingModels embeddingModels;
+    private final ShardedEmbeddingWriter shardedEmbeddingWriter;
+    private final OcrService ocrService;
+
+    @Value("${pdf.chunk-size:300}")
+    private int chunkSize;
+
+    @Value("${pdf.chunk-overlap:50}")
+    private int chunkOverlap;
+
+    @Value("${pdf.max-main-memory-mb:64}")
+    private long maxMainMemoryMb;
+
+    @Value("${pdf.temp-dir:${java.io.tmpdir}}")
+    private String tempDir;
+
+    @Value("${processing.estimate.sample-pages:3}")
+    private int samplePages;
+
+    @Value("${processing.estimate.max-sampled-documents:50}")
+    private int maxSampledDocuments;
+
+    @Value("${processing.estimate.max-duration:5s}")
+    private Duration maxDuration;
+
+    @Value("${processing.estimate.max-sampled-mb:256}")
+    private long maxSampledMb;
+
+    @Value("${processing.estimate.defaults.chunks-per-mb:40}")
+    private double defaultChunksPerMb;
+
+    @Value("${processing.estimate.defaults.pages-per-mb:10}")
+    private double defaultPagesPerMb;
+
+    @Value("${gcp.vertex.batch-prediction.threshold:20000}")
+    private int batchPredictionThreshold;
+
+    @Value("${scheduler.extraction-concurrency:2}")
+    private int extractionConcurrency;
+
+    @Value("${gcp.storage.arrow-export.enabled:false}")
+    private boolean arrowExportEnabled;
+
+    public ProcessingEstimator(DocumentSources documentSources, ThroughputTracker throughputTracker,
+                               EmbeddingModels embeddingModels,
+                               ShardedEmbeddingWriter shardedEmbeddingWriter, OcrService ocrService) {
+        this.documentSources = documentSources;
+        this.throughputTracker = throughputTracker;
+        this.embeddingModels = embeddingModels;
+        this.shardedEmbeddingWriter = shardedEmbeddingWriter;
+        this.ocrService = ocrService;
+    }
+
+    /**
+     * @throws IllegalArgumentException for embedding targets that can't be resolved
+     */
+    public ProcessingEstimate estimate(PdfProcessingRequest request) throws IOException {
+        List<EmbeddingBranch> branches = embeddingModels.resolve(request.embeddingTargets());
+        long started = System.nanoTime();
+        Totals totals = new Totals(started + maxDuration.toNanos() / 2, started + maxDuration.toNanos());
+
+        for (String pdfPath : request.pdfFilePaths()) {
+            Path path = Paths.get(pdfPath);
+            long size = Files.size(path);
+            if (totals.maySample(size)) {
+                try (PDDocument document = PDDocument.load(path.toFile(), memoryUsageSetting())) {
+                    totals.addSampled(size, sample(document));
+                    continue;
+                } catch (IOException e) {
+                    log.warn("Could not sample {}, projecting it from its size: {}", pdfPath, e.getMessage());
+                }
+            }
+            totals.addProjected(size);
+        }
+
+        DocumentFilter filter = DocumentFilter.of(request.include(), request.exclude());
+        try {
+            for (String location : request.sources()) {
+                DocumentSource source = documentSources.resolve(location);
+                source.forEach(filter, (name, size, content) -> {
+                    if (totals.isOverBudget()) {
+                        throw new BudgetExhaustedException();
+                    }
+                    if (totals.maySample(size)) {
+                        // A document of unknown size is given up once it outgrows the sample budget
+                        CountingInputStream counted = new CountingInputStream(content, totals.remainingSampleBytes());
+                        try (PDDocument document = PDDocument.load(counted, memoryUsageSetting())) {
+                            totals.addSampled(counted.count, sample(document));
+                            return;
+                        } catch (IOException e) {
+                            log.warn("Could not sample {} of {}, projecting it from its size: {}",
+                                    name, source.location(), e.getMessage());
+                        }
+                    }
+                    totals.addProjected(size);
+                });
+            }
+        } catch (BudgetExhaustedException e) {
+            totals.complete = false;
+            log.info("Estimate ran out of its {} budget after {} documents", maxDuration, totals.documents);
+        }
+
+        ProcessingEstimate estimate = project(totals, branches);
+        log.info("Estimated {} documents at {} chunks and {} s in {} ms", estimate.documents(), estimate.chunks(),
+                Math.round(estimate.estimatedSeconds()), (System.nanoTime() - started) / 1_000_000);
+        return estimate;
+    }
+
+    private ProcessingEstimate project(Totals totals, List<EmbeddingBranch> branches) {
+        long chunks = totals.chunks();
+        long imageOnlyPages = totals.imageOnlyPages();
+
+        boolean batchPrediction = batchPredictionThreshold > 0 && chunks >= batchPredictionThreshold;
+        long ocrRequests = ocrService.isEnabled() ? ceilDiv(imageOnlyPages, ocrService.getMaxPagesPerRequest()) : 0;
+        int embeddings = (int) Math.min(Integer.MAX_VALUE, chunks);
+        // The keyword index is shared by the collections of all branches
+        int gcsUploads = 1;
+        long predictRequests = 0;
+        long embeddingBytes = 0;
+        long shardBytes = 0;
+        for (EmbeddingBranch branch : branches) {
+            EmbeddingDimensionality dimensionality = branch.dimensionality();
+            int dimension = dimensionality.outputDimension();
+            boolean pca = dimensionality.isReduced() && dimensionality.reduction() == EmbeddingDimensionality.Reduction.PCA;
+            predictRequests += batchPrediction ? 0 : ceilDiv(chunks, branch.maxInstances());
+            // Shards, their manifest, the projection a PCA is stored with and the Arrow export
+            gcsUploads += shardedEmbeddingWriter.shardCount(embeddings, dimension) + 1 + (pca ? 1 : 0)
+                    + (arrowExportEnabled ? 1 : 0);
+            // Vectors plus id, document, page and position of every record
+            embeddingBytes += chunks * ((long) dimension * Float.BYTES + 2 * Long.BYTES + 3 * Integer.BYTES);
+            shardBytes += chunks * ShardedEmbeddingWriter.estimatedBytesPerEmbedding(dimension);
+        }
+
+        List<ProcessingEstimate.Stage> stages = new ArrayList<>();
+        stages.add(stage(ThroughputTracker.Stage.EXTRACTION, totals.bytes / BYTES_PER_MB, Math.max(1, extractionConcurrency)));
+        stages.add(stage(batchPrediction ? ThroughputTracker.Stage.EMBEDDING_BATCH_PREDICTION
+                : ThroughputTracker.Stage.EMBEDDING, (double) chunks * branches.size(), 1));
+        stages.add(stage(ThroughputTracker.Stage.STORAGE, (double) chunks * branches.size(), 1));
+        stages.add(stage(ThroughputTracker.Stage.INDEXING, branches.size(), 1));
+        double seconds = stages.stream().mapToDouble(ProcessingEstimate.Stage::estimatedSeconds).sum();
+
+        return new ProcessingEstimate(totals.documents, totals.sampledDocuments, totals.bytes, totals.pages(),
+                imageOnlyPages, chunks, batchPrediction ? "BATCH_PREDICTION" : "ONLINE", predictRequests,
+                batchPrediction ? branches.size() : 0, ocrRequests, gcsUploads, embeddingBytes, shardBytes, stages,
+                seconds, totals.complete);
+    }
+
+    private ProcessingEstimate.Stage stage(ThroughputTracker.Stage stage, double units, int parallelism) {
+        ThroughputTracker.Rate rate = throughputTracker.rate(stage);
+        double seconds = units <= 0 ? 0 : units / (rate.unitsPerSecond() * parallelism);
+        return new ProcessingEstimate.Stage(stage.name(), units, stage.unit(), rate.unitsPerSecond(), rate.measured(),
+                seconds);
+    }
+
+    /**
+     * Strip and chunk evenly spread pages of a document
+     */
+    private DocumentSample sample(PDDocument document) throws IOException {
+        int pages = document.getNumberOfPages();
+        int sampled = Math.min(Math.max(1, samplePages), pages);
+        int[] chunks = {0};
+        int imageOnly = 0;
+        SentenceChunker chunker = new SentenceChunker(chunkSize, chunkOverlap, (pageNumber, position, content) -> chunks[0]++);
+        PDFTextStripper stripper = new PDFTextStripper();
+        for (int i = 0; i < sampled; i++) {
+            int page = 1 + (int) ((long) i * pages / sampled);
+            stripper.setStartPage(page);
+            stripper.setEndPage(page);
+            String text = stripper.getText(document);
+            if (text.isBlank()) {
+                imageOnly++;
+                continue;
+            }
+            chunker.startPage(page);
+            chunker.text(text);
+            chunker.endPage(page);
+        }
+        return new DocumentSample(pages, sampled, chunks[0], imageOnly);
+    }
+
+    private MemoryUsageSetting memoryUsageSetting() {
+        MemoryUsageSetting setting = maxMainMemoryMb > 0
+                ? MemoryUsageSetting.setupMixed(maxMainMemoryMb * 1024 * 1024)
+                : MemoryUsageSetting.setupTempFileOnly();
+        return setting.setTempDir(new File(tempDir));
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return divisor <= 0 ? 0 : (value + divisor - 1) / divisor;
+    }
+
+    private record DocumentSample(int pages, int sampledPages, int chunks, int imageOnlyPages) {
+    }
+
+    /**
+     * Documents seen so far; sampled ones count with their projected chunks, the others with their size
+     */
+    private final class Totals {
+
+        private final long sampleDeadline;
+        private final long deadline;
+        private int documents;
+        private int sampledDocuments;
+        private long bytes;
+        private long sampledBytes;
+        private double sampledPages;
+        private double sampledChunks;
+        private double sampledImageOnlyPages;
+        private long projectedBytes;
+        private int projectedUnknownSize;
+        private boolean complete = true;
+
+        private Totals(long sampleDeadline, long deadline) {
+            this.sampleDeadline = sampleDeadline;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @param size bytes of the document, or -1 when the source doesn't know it
+         */
+        boolean maySample(long size) {
+            return sampledDocuments < maxSampledDocuments && System.nanoTime() < sampleDeadline
+                    && remainingSampleBytes() > 0 && size <= remainingSampleBytes();
+        }
+
+        long remainingSampleBytes() {
+            return maxSampledMb * 1024 * 1024 - sampledBytes;
+        }
+
+        boolean isOverBudget() {
+            return System.nanoTime() > deadline;
+        }
+
+        void addSampled(long size, DocumentSample sample) {
+            documents++;
+            sampledDocuments++;
+            bytes += size;
+            sampledBytes += size;
+            sampledPages += sample.pages();
+            if (sample.sampledPages() > 0) {
+                double scale = (double) sample.pages() / sample.sampledPages();
+                sampledChunks += sample.chunks() * scale;
+                sampledImageOnlyPages += sample.imageOnlyPages() * scale;
+            }
+        }
+
+        /**
+         * @param size bytes of the document, or -1 when the source doesn't know it
+         */
+        void addProjected(long size) {
+            documents++;
+            if (size < 0) {
+                projectedUnknownSize++;
+                return;
+            }
+            bytes += size;
+            projectedBytes += size;
+        }
+
+        long pages() {
+            double perByte = sampledBytes > 0 ? sampledPages / sampledBytes : defaultPagesPerMb / BYTES_PER_MB;
+            return Math.round(sampledPages + perByte * projectedBytesWithUnknown());
+        }
+
+        long chunks() {
+            double perByte = sampledBytes > 0 ? sampledChunks / sampledBytes : defaultChunksPerMb / BYTES_PER_MB;
+            return Math.round(sampledChunks + perByte * projectedBytesWithUnknown());
+        }
+
+        long imageOnlyPages() {
+            double perByte = sampledBytes > 0 ? sampledImageOnlyPages / sampledBytes : 0;
+            return Math.round(sampledImageOnlyPages + perByte * projectedBytesWithUnknown());
+        }
+
+        /**
+         * Documents of unknown size count with the average size of the others
+         */
+        private double projectedBytesWithUnknown() {
+            int known = documents - projectedUnknownSize;
+            double averageSize = known > 0 ? (double) bytes / known : 0;
+            return projectedBytes + projectedUnknownSize * averageSize;
+        }
+    }
+
+    /**
+     * Reads through to the wrapped stream and counts the bytes, failing once there are more than the limit
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        CountingInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) throws IOException {
+            count += read;
+            if (count > limit) {
+                throw new IOException("larger than the " + limit + " bytes left of the sample budget");
+            }
+        }
+
+        @Override
+        public void close() {
+            // The source closes the document stream
+        }
+    }
+
+    /**
+     * Ends the listing of a source once the time budget is used up
+     */
+    private static final class BudgetExhaustedException extends RuntimeException {
+
+        BudgetExhaustedException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.checkai.insurance.car.core.estimate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Throughput of the processing stages over their most recent runs on this node, for the
+ * {@link ProcessingEstimator}. Until a stage has run, the rate configured under
+ * {@code processing.estimate.defaults} is reported.
+ */
+@Component
+public class ThroughputTracker {
+
+    public enum Stage {
+        /**
+         * Megabytes of PDF stripped (and OCRed) per second, per extraction slot
+         */
+        EXTRACTION("MB"),
+        /**
+         * Chunks embedded per second by one batch through online predict requests
+         */
+        EMBEDDING("chunks"),
+        /**
+         * Chunks embedded per second by one batch through a batch prediction job, whose queueing and
+         * startup make it slower per chunk on all but the largest batches
+         */
+        EMBEDDING_BATCH_PREDICTION("chunks"),
+        /**
+         * Embeddings saved and uploaded as shards per second
+         */
+        STORAGE("embeddings"),
+        /**
+         * Vector search indexes created and deployed per second
+         */
+        INDEXING("indexes");
+
+        private final String unit;
+
+        Stage(String unit) {
+            this.unit = unit;
+        }
+
+        public String unit() {
+            return unit;
+        }
+    }
+
+    /**
+     * @param unitsPerSecond units of the stage per second
+     * @param samples        runs the rate was measured on, 0 when it is the configured default
+     */
+    public record Rate(double unitsPerSecond, int samples) {
+
+        public boolean measured() {
+            return samples > 0;
+        }
+    }
+
+    private static final int WINDOW = 20;
+
+    private final Map<Stage, Window> windows = new EnumMap<>(Stage.class);
+    private final Map<Stage, Double> defaults = new EnumMap<>(Stage.class);
+
+    public ThroughputTracker(@Value("${processing.estimate.defaults.extraction-mb-per-second:1.0}") double extraction,
+                             @Value("${processing.estimate.defaults.embedding-chunks-per-second:10}") double embedding,
+                             @Value("${processing.estimate.defaults.batch-prediction-chunks-per-second:50}") double batchPrediction,
+                             @Value("${processing.estimate.defaults.storage-embeddings-per-second:2000}") double storage,
+                             @Value("${processing.estimate.defaults.index-creation:45m}") Duration indexCreation) {
+        defaults.put(Stage.EXTRACTION, extraction);
+        defaults.put(Stage.EMBEDDING, embedding);
+        defaults.put(Stage.EMBEDDING_BATCH_PREDICTION, batchPrediction);
+        defaults.put(Stage.STORAGE, storage);
+        defaults.put(Stage.INDEXING, 1.0 / Math.max(1, indexCreation.toSeconds()));
+        for (Stage stage : Stage.values()) {
+            windows.put(stage, new Window());
+        }
+    }
+
+    /**
+     * Run a task and record its duration for the given amount of work
+     */
+    public <T> T time(Stage stage, double units, Callable<T> task) throws Exception {
+        long started = System.nanoTime();
+        T result = task.call();
+        record(stage, units, System.nanoTime() - started);
+        return result;
+    }
+
+    public void record(Stage stage, double units, long nanos) {
+        if (units > 0 && nanos > 0) {
+            windows.get(stage).add(units, nanos);
+        }
+    }
+
+    public Rate rate(Stage stage) {
+        Rate measured = windows.get(stage).rate();
+        return measured != null ? measured : new Rate(defaults.get(stage), 0);
+    }
+
+    /**
+     * The last {@link #WINDOW} runs of a stage; the rate is their total work over their total time,
+     * so a long run counts more than a short one
+     */
+    private static final class Window {
+
+        private final double[] units = new double[WINDOW];
+        private final long[] nanos = new long[WINDOW];
+        private int count;
+        private int next;
+
+        synchronized void add(double runUnits, long runNanos) {
+            units[next] = runUnits;
+            nanos[next] = runNanos;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+        }
+
+        synchronized Rate rate() {
+            if (count == 0) {
+                return null;
+            }
+            double totalUnits = 0;
+            long totalNanos = 0;
+            for (int i = 0; i < count; i++) {
+                totalUnits += units[i];
+                totalNanos += nanos[i];
+            }
+            return new Rate(totalUnits / (totalNanos / 1e9), count);
+        }
+    }
+}
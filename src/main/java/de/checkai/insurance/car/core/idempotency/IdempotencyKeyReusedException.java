@@ -0,0 +1,25 @@
+package de.checkai.insurance.car.core.idempotency;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * An Idempotency-Key was sent again with a request that differs from the one it was first sent with
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    private final String batchId;
+
+    public IdempotencyKeyReusedException(String idempotencyKey, String batchId) {
+        super("Idempotency key " + idempotencyKey + " belongs to batch " + batchId + ", which was submitted with other files or settings");
+        this.batchId = batchId;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+}
@@ -0,0 +1,256 @@
+package de.checkai.insurance.car.core.idempotency;
+
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import de.checkai.insurance.car.core.embedding.EmbeddingBranch;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.pdf.ChunkIds;
+import de.checkai.insurance.car.core.service.ProcessingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Starts processing requests, unless the same request was submitted before: a duplicate is
+ * attached to the batch of the first copy, running or completed, so retries and double submits
+ * cost nothing. Requests are the same when they carry the same Idempotency-Key and name the same
+ * paths, sources, filters, embedding targets and chunking settings, or when their content
+ * fingerprint matches: the SHA-256 of the files, the embedding models and dimensions, and the
+ * chunking settings. Weight, deadline and description don't count.
+ * <p>
+ * Directories and GCS prefixes can change without their location changing, so requests reading
+ * them are only coalesced by key. Batches that failed or were cancelled are started again.
+ * Submissions are remembered on this node for {@code processing.idempotency.retention}. Files
+ * are hashed and batch statuses read without the submission lock, under it the entries are only
+ * looked up, and confirmed or replaced once their batches were checked.
+ */
+@Component
+@Slf4j
+public class SubmissionCoalescer {
+
+    /**
+     * @param submittedAt when the batch was started, by this or the first copy of the request
+     * @param duplicate   true when the request was attached to an earlier batch
+     */
+    public record Submission(String batchId, Instant submittedAt, boolean duplicate) {
+    }
+
+    /**
+     * @param requestFingerprint what the request names, compared when its key is sent again
+     * @param fingerprint        what the request reads, null for requests that are only coalesced by key
+     */
+    private record Entry(String batchId, String requestFingerprint, String fingerprint, Instant submittedAt) {
+    }
+
+    private final ProcessingService processingService;
+    private final EmbeddingModels embeddingModels;
+    private final boolean enabled;
+    private final Duration retention;
+    private final int chunkSize;
+    private final int chunkOverlap;
+    private final boolean normalizeEmbeddings;
+
+    private final Map<String, Entry> byFingerprint = new HashMap<>();
+    private final Map<String, Entry> byKey = new HashMap<>();
+
+    public SubmissionCoalescer(ProcessingService processingService,
+                               EmbeddingModels embeddingModels,
+                               @Value("${processing.idempotency.enabled:true}") boolean enabled,
+                               @Value("${processing.idempotency.retention:24h}") Duration retention,
+                               @Value("${pdf.chunk-size:300}") int chunkSize,
+                               @Value("${pdf.chunk-overlap:50}") int chunkOverlap,
+                               @Value("${gcp.vertex.normalize-embeddings:true}") boolean normalizeEmbeddings) {
+        this.processingService = processingService;
+        this.embeddingModels = embeddingModels;
+        this.enabled = enabled;
+        this.retention = retention;
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        this.normalizeEmbeddings = normalizeEmbeddings;
+    }
+
+    /**
+     * Start a batch for the request, or find the batch an earlier copy of it started
+     *
+     * @param idempotencyKey the client's key for the request, or null
+     * @throws IdempotencyKeyReusedException if the key was first sent with a different request
+     */
+    public Submission submit(String idempotencyKey, PdfProcessingRequest request) {
+        if (!enabled) {
+            return start(request);
+        }
+        // Files are hashed outside the lock, submissions of other requests don't wait for it
+        String requestFingerprint = requestFingerprint(request);
+        String fingerprint = fingerprint(request);
+        while (true) {
+            Entry keyed;
+            Entry previous;
+            synchronized (this) {
+                expire(Instant.now().minus(retention));
+                keyed = idempotencyKey == null ? null : byKey.get(idempotencyKey);
+                previous = fingerprint == null ? null : byFingerprint.get(fingerprint);
+            }
+            // Statuses are read outside the lock, they can take a read of the shared work queue
+            boolean keyedLive = keyed != null && isLive(keyed);
+            boolean previousLive = !keyedLive && previous != null && isLive(previous);
+
+            synchronized (this) {
+                if ((idempotencyKey != null && byKey.get(idempotencyKey) != keyed)
+                        || (fingerprint != null && byFingerprint.get(fingerprint) != previous)) {
+                    // Another submission of the same request got in between, look again
+                    continue;
+                }
+                if (keyedLive) {
+                    // A directory or prefix has no content fingerprint, the key alone must not match another one
+                    if (!requestFingerprint.equals(keyed.requestFingerprint())) {
+                        throw new IdempotencyKeyReusedException(idempotencyKey, keyed.batchId());
+                    }
+                    return attach(keyed);
+                }
+                if (previousLive) {
+                    if (idempotencyKey != null) {
+                        // The key stays with this request's paths, they may differ from those of the first copy
+                        byKey.put(idempotencyKey, new Entry(previous.batchId(), requestFingerprint, fingerprint,
+                                previous.submittedAt()));
+                    }
+                    return attach(previous);
+                }
+
+                Submission submission = start(request);
+                Entry entry = new Entry(submission.batchId(), requestFingerprint, fingerprint, submission.submittedAt());
+                if (fingerprint != null) {
+                    byFingerprint.put(fingerprint, entry);
+                }
+                if (idempotencyKey != null) {
+                    byKey.put(idempotencyKey, entry);
+                }
+                return submission;
+            }
+        }
+    }
+
+    private Submission start(PdfProcessingRequest request) {
+        String batchId = UUID.randomUUID().toString();
+        processingService.processPdfFiles(request, batchId);
+        return new Submission(batchId, Instant.now(), false);
+    }
+
+    private Submission attach(Entry entry) {
+        log.info("Request is a duplicate of batch {}, submitted at {}", entry.batchId(), entry.submittedAt());
+        return new Submission(entry.batchId(), entry.submittedAt(), true);
+    }
+
+    /**
+     * A batch that failed or was cancelled leaves nothing to attach to. One that isn't found yet has
+     * been handed to processing but hasn't reported its first status.
+     */
+    private boolean isLive(Entry entry) {
+        String status = processingService.getProcessingStatus(entry.batchId()).status();
+        return !"CANCELLED".equals(status) && !status.startsWith("FAILED");
+    }
+
+    private void expire(Instant before) {
+        byFingerprint.values().removeIf(entry -> entry.submittedAt().isBefore(before));
+        byKey.values().removeIf(entry -> entry.submittedAt().isBefore(before));
+    }
+
+    /**
+     * Hex SHA-256 over everything that decides the result of a request, or null when a source of
+     * the request can't be hashed by content. The same files in a different order are the same request.
+     */
+    String fingerprint(PdfProcessingRequest request) {
+        List<String> documents = new ArrayList<>();
+        for (String pdfPath : request.pdfFilePaths()) {
+            // A file that can't be read fails the batch anyway, the path is enough to tell duplicates apart
+            String hash = contentHash(pdfPath);
+            documents.add("file " + (hash != null ? hash : "unreadable " + pdfPath));
+        }
+        for (String location : request.sources()) {
+            // Archives are files and hashed like them, directories and prefixes can change under the same name
+            String hash = contentHash(location);
+            if (hash == null) {
+                return null;
+            }
+            documents.add("archive " + hash);
+        }
+        Collections.sort(documents);
+
+        StringBuilder canonical = new StringBuilder();
+        documents.forEach(document -> canonical.append(document).append('\n'));
+        if (!request.sources().isEmpty()) {
+            canonical.append("include ").append(request.include()).append('\n');
+            canonical.append("exclude ").append(request.exclude()).append('\n');
+        }
+        appendSettings(canonical, request);
+        return sha256(canonical);
+    }
+
+    /**
+     * Hex SHA-256 over what a request names, without reading any of it: its paths, sources and
+     * filters, embedding targets and chunking settings. The same paths in a different order are the
+     * same request.
+     */
+    String requestFingerprint(PdfProcessingRequest request) {
+        List<String> locations = new ArrayList<>();
+        request.pdfFilePaths().forEach(pdfPath -> locations.add("file " + pdfPath));
+        request.sources().forEach(location -> locations.add("source " + location));
+        Collections.sort(locations);
+
+        StringBuilder canonical = new StringBuilder();
+        locations.forEach(location -> canonical.append(location).append('\n'));
+        canonical.append("include ").append(request.include()).append('\n');
+        canonical.append("exclude ").append(request.exclude()).append('\n');
+        appendSettings(canonical, request);
+        return sha256(canonical);
+    }
+
+    private void appendSettings(StringBuilder canonical, PdfProcessingRequest request) {
+        for (EmbeddingBranch branch : embeddingModels.resolve(request.embeddingTargets())) {
+            canonical.append("embedding ").append(branch.key())
+                    .append(' ').append(branch.dimensionality().reduction()).append('\n');
+        }
+        canonical.append("chunking ").append(chunkSize).append('/').append(chunkOverlap).append('\n');
+        canonical.append("normalize ").append(normalizeEmbeddings).append('\n');
+    }
+
+    private static String sha256(CharSequence canonical) {
+        byte[] hash = ChunkIds.newDocumentDigest().digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash);
+    }
+
+    /**
+     * SHA-256 of a local regular file, or null for anything else
+     */
+    private static String contentHash(String location) {
+        try {
+            Path path = Path.of(location);
+            if (!Files.isRegularFile(path)) {
+                return null;
+            }
+            return HexFormat.of().formatHex(ChunkIds.hash(path));
+        } catch (InvalidPathException | IOException e) {
+            return null;
+        }
+    }
+}
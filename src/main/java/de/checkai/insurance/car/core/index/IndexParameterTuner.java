@@ -0,0 +1,128 @@
+package de.checkai.insurance.car.core.index;
+
+import de.checkai.insurance.car.appication.model.IndexParameters;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import de.checkai.insurance.car.core.vector.TreeAhSimulation;
+import de.checkai.insurance.car.core.vector.VectorMath;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Picks the tree-AH parameters of a batch's vector search index from its embeddings instead of
+ * using the same ones for 200 and 2 million vectors. Every combination of the configured candidate
+ * values is evaluated with a {@link TreeAhSimulation} on a random sample, and the cheapest one per
+ * query that reaches {@code gcp.vertex.index-tuning.recall-target} wins; when none does, the one
+ * with the best recall.
+ */
+@Component
+@Slf4j
+public class IndexParameterTuner {
+
+    private final boolean enabled;
+    private final double recallTarget;
+    private final int k;
+    private final int sampleSize;
+    private final int queries;
+    private final List<Integer> leafNodeEmbeddingCounts;
+    private final List<Integer> leafNodesToSearchPercents;
+    private final List<Integer> approximateNeighborsCounts;
+
+    public IndexParameterTuner(@Value("${gcp.vertex.index-tuning.enabled:false}") boolean enabled,
+                               @Value("${gcp.vertex.index-tuning.recall-target:0.95}") double recallTarget,
+                               @Value("${gcp.vertex.index-tuning.k:10}") int k,
+                               @Value("${gcp.vertex.index-tuning.sample-size:4000}") int sampleSize,
+                               @Value("${gcp.vertex.index-tuning.queries:100}") int queries,
+                               @Value("${gcp.vertex.index-tuning.leaf-node-embedding-counts:250,500,1000,2000,5000}")
+                               List<Integer> leafNodeEmbeddingCounts,
+                               @Value("${gcp.vertex.index-tuning.leaf-nodes-to-search-percents:1,2,5,10,20,50}")
+                               List<Integer> leafNodesToSearchPercents,
+                               @Value("${gcp.vertex.index-tuning.approximate-neighbors-counts:50,100,150,300}")
+                               List<Integer> approximateNeighborsCounts) {
+        this.enabled = enabled;
+        this.recallTarget = recallTarget;
+        this.k = k;
+        this.sampleSize = sampleSize;
+        this.queries = queries;
+        this.leafNodeEmbeddingCounts = leafNodeEmbeddingCounts;
+        this.leafNodesToSearchPercents = leafNodesToSearchPercents;
+        this.approximateNeighborsCounts = approximateNeighborsCounts;
+    }
+
+    /**
+     * @return the parameters to create the index of the embeddings with; {@link IndexParameters#DEFAULT}
+     * when tuning is off or there are too few embeddings to measure anything
+     */
+    public IndexParameters tune(EmbeddingArena embeddings) {
+        if (!enabled || embeddings.size() <= k) {
+            return IndexParameters.DEFAULT;
+        }
+        long started = System.nanoTime();
+        Random random = new Random(embeddings.size());
+        TreeAhSimulation simulation = TreeAhSimulation.of(sample(embeddings, random), embeddings.size(), k, queries, random);
+
+        List<TreeAhSimulation.Evaluation> evaluations = new ArrayList<>();
+        for (int leafNodeEmbeddingCount : leafNodeEmbeddingCounts) {
+            for (int leafNodesToSearchPercent : leafNodesToSearchPercents) {
+                for (int approximateNeighborsCount : approximateNeighborsCounts) {
+                    if (approximateNeighborsCount >= k) {
+                        evaluations.add(simulation.evaluate(new TreeAhSimulation.Candidate(
+                                approximateNeighborsCount, leafNodeEmbeddingCount, leafNodesToSearchPercent)));
+                    }
+                }
+            }
+        }
+
+        TreeAhSimulation.Evaluation chosen = choose(evaluations, recallTarget);
+        log.info("Tuned index parameters for {} embeddings in {} ms: {} with recall@{} {} at {} distance computations per query{}",
+                embeddings.size(), (System.nanoTime() - started) / 1_000_000, chosen.candidate(), k,
+                String.format("%.3f", chosen.recall()), chosen.distanceComputationsPerQuery(),
+                chosen.recall() < recallTarget ? ", below the target of " + recallTarget : "");
+        TreeAhSimulation.Candidate candidate = chosen.candidate();
+        return new IndexParameters(candidate.approximateNeighborsCount(), candidate.leafNodeEmbeddingCount(),
+                candidate.leafNodesToSearchPercent(), chosen.recall(), chosen.distanceComputationsPerQuery());
+    }
+
+    /**
+     * The cheapest evaluation reaching the recall target, else the one with the highest recall
+     */
+    static TreeAhSimulation.Evaluation choose(List<TreeAhSimulation.Evaluation> evaluations, double recallTarget) {
+        Comparator<TreeAhSimulation.Evaluation> byCost = Comparator
+                .comparingLong(TreeAhSimulation.Evaluation::distanceComputationsPerQuery)
+                .thenComparing(Comparator.comparingDouble(TreeAhSimulation.Evaluation::recall).reversed());
+        return evaluations.stream()
+                .filter(evaluation -> evaluation.recall() >= recallTarget)
+                .min(byCost)
+                .orElseGet(() -> evaluations.stream()
+                        .max(Comparator.comparingDouble(TreeAhSimulation.Evaluation::recall)
+                                .thenComparing(byCost.reversed()))
+                        .orElseThrow());
+    }
+
+    /**
+     * Normalized copies of up to {@code sample-size} embeddings drawn without replacement
+     */
+    private List<float[]> sample(EmbeddingArena embeddings, Random random) {
+        int[] indices = random.ints(0, embeddings.size()).distinct()
+                .limit(Math.min(sampleSize, embeddings.size()))
+                .toArray();
+        EmbeddingArena.View view = embeddings.view();
+        List<float[]> sample = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            sample.add(VectorMath.normalize(view.moveTo(index).vector().clone()));
+        }
+        return sample;
+    }
+}
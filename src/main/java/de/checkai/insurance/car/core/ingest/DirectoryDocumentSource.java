@@ -0,0 +1,55 @@
+package de.checkai.insurance.car.core.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Files below a local directory, walked lazily so huge trees are never listed up front
+ */
+class DirectoryDocumentSource implements DocumentSource {
+
+    private final Path directory;
+
+    DirectoryDocumentSource(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String location() {
+        return directory.toString();
+    }
+
+    @Override
+    public int forEach(DocumentFilter filter, Visitor visitor) throws IOException {
+        int visited = 0;
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                String name = directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                if (!filter.accepts(name)) {
+                    continue;
+                }
+                try (InputStream content = Files.newInputStream(file)) {
+                    visitor.visit(name, Files.size(file), content);
+                }
+                visited++;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,59 @@
+package de.checkai.insurance.car.core.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Remembers the content hashes of the documents of one batch. Chunk ids are derived from the
+ * content, so a document that comes twice - under two names, or from a directory and an archive -
+ * would produce the same chunks and datapoints twice; only its first copy is extracted.
+ */
+@Slf4j
+public final class DocumentDeduplicator {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Map<String, String> documents = new LinkedHashMap<>();
+    private int skipped;
+
+    /**
+     * @param documentName name of the document, for the log
+     * @param documentHash SHA-256 of its content
+     * @return whether no document with this content was seen before
+     */
+    public synchronized boolean isFirstCopy(String documentName, byte[] documentHash) {
+        String first = documents.putIfAbsent(HEX.formatHex(documentHash), documentName);
+        if (first == null) {
+            return true;
+        }
+        skipped++;
+        log.info("Skipping {}, it has the same content as {}", documentName, first);
+        return false;
+    }
+
+    public synchronized int skipped() {
+        return skipped;
+    }
+
+    /**
+     * The first copies by hex content hash, in the order they were seen
+     */
+    public synchronized Map<String, String> documents() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(documents));
+    }
+
+    public static byte[] parseHash(String hexHash) {
+        return HEX.parseHex(hexHash);
+    }
+}
@@ -0,0 +1,71 @@
+package de.checkai.insurance.car.core.ingest;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Include and exclude globs for the documents of a {@link DocumentSource}. Globs containing a
+ * '/' are matched against the path relative to the source, others against the file name only, so
+ * {@code *.pdf} matches PDFs at any depth. Without include globs every PDF is included; excludes
+ * win over includes.
+ */
+public final class DocumentFilter {
+
+    private static final FileSystem FILE_SYSTEM = FileSystems.getDefault();
+
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+
+    private record Glob(PathMatcher matcher, boolean fileNameOnly) {
+
+        static Glob of(String pattern) {
+            return new Glob(FILE_SYSTEM.getPathMatcher("glob:" + pattern), !pattern.contains("/"));
+        }
+
+        boolean matches(Path relativePath) {
+            Path fileName = relativePath.getFileName();
+            return matcher.matches(fileNameOnly && fileName != null ? fileName : relativePath);
+        }
+    }
+
+    private DocumentFilter(List<String> includes, List<String> excludes) {
+        this.includes = includes == null ? List.of() : includes.stream().map(Glob::of).toList();
+        this.excludes = excludes == null ? List.of() : excludes.stream().map(Glob::of).toList();
+    }
+
+    /**
+     * @param includes globs of the documents to process, null or empty for all PDFs
+     * @param excludes globs of documents to skip, may be null
+     */
+    public static DocumentFilter of(List<String> includes, List<String> excludes) {
+        return new DocumentFilter(includes, excludes);
+    }
+
+    /**
+     * @param name path relative to the source, with '/' as separator
+     */
+    public boolean accepts(String name) {
+        if (name.isEmpty() || name.endsWith("/")) {
+            return false;
+        }
+        Path path = FILE_SYSTEM.getPath(name);
+        if (excludes.stream().anyMatch(glob -> glob.matches(path))) {
+            return false;
+        }
+        if (includes.isEmpty()) {
+            return name.toLowerCase(Locale.ROOT).endsWith(".pdf");
+        }
+        return includes.stream().anyMatch(glob -> glob.matches(path));
+    }
+}
@@ -0,0 +1,45 @@
+package de.checkai.insurance.car.core.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * A set of documents that is read one after the other, e.g. the entries of a ZIP archive or the
+ * files below a directory or GCS prefix. Documents are handed out as streams, so nothing has to be
+ * unpacked or listed up front.
+ */
+public interface DocumentSource {
+
+    /**
+     * Receives the documents of a source in order
+     */
+    @FunctionalInterface
+    interface Visitor {
+
+        /**
+         * @param name    path of the document relative to the source, with '/' as separator
+         * @param size    uncompressed size in bytes, or -1 if the source doesn't know it up front
+         * @param content the document; only valid during the call and closed by the source
+         */
+        void visit(String name, long size, InputStream content) throws IOException;
+    }
+
+    /**
+     * Where the documents come from, for logging
+     */
+    String location();
+
+    /**
+     * Stream every document that passes the filter to the visitor
+     *
+     * @return the number of visited documents
+     */
+    int forEach(DocumentFilter filter, Visitor visitor) throws IOException;
+}
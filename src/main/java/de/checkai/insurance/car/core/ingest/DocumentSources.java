@@ -0,0 +1,68 @@
+package de.checkai.insurance.car.core.ingest;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Resolves the {@code sources} of a processing request:
+ * <ul>
+ *     <li>{@code gs://bucket/path/archive.zip} and {@code /local/archive.zip}: the entries of the archive</li>
+ *     <li>{@code gs://bucket/prefix}: the objects whose name starts with the prefix</li>
+ *     <li>{@code /local/directory}: the files below the directory</li>
+ * </ul>
+ */
+@Component
+@RequiredArgsConstructor
+public class DocumentSources {
+
+    private final LazyCloudClient<Storage> storage;
+
+    public DocumentSource resolve(String location) {
+        if (location.startsWith("gs://")) {
+            String path = location.substring("gs://".length());
+            int slash = path.indexOf('/');
+            String bucket = slash < 0 ? path : path.substring(0, slash);
+            String name = slash < 0 ? "" : path.substring(slash + 1);
+            if (bucket.isEmpty()) {
+                throw new IllegalArgumentException("No bucket in document source " + location);
+            }
+            if (isZip(name)) {
+                return new ZipDocumentSource(location, () -> {
+                    ReadChannel channel = storage.get().reader(BlobId.of(bucket, name));
+                    channel.setChunkSize(GcsPrefixDocumentSource.READ_CHUNK_SIZE);
+                    return Channels.newInputStream(channel);
+                });
+            }
+            return new GcsPrefixDocumentSource(storage.get(), bucket, name);
+        }
+
+        Path path = Path.of(location);
+        if (Files.isDirectory(path)) {
+            return new DirectoryDocumentSource(path);
+        }
+        if (Files.isRegularFile(path) && isZip(location)) {
+            return new ZipDocumentSource(location, () -> Files.newInputStream(path));
+        }
+        throw new IllegalArgumentException("Document source " + location + " is neither a ZIP archive nor a directory");
+    }
+
+    private static boolean isZip(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+}
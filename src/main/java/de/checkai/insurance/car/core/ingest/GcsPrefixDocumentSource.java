@@ -0,0 +1,65 @@
+package de.checkai.insurance.car.core.ingest;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Objects below a GCS prefix. The listing is paged lazily and every object is read through a
+ * channel, so neither the listing nor the objects are held in memory or written to disk.
+ */
+class GcsPrefixDocumentSource implements DocumentSource {
+
+    static final int READ_CHUNK_SIZE = 2 * 1024 * 1024;
+
+    private final Storage storage;
+    private final String bucket;
+    private final String prefix;
+
+    GcsPrefixDocumentSource(Storage storage, String bucket, String prefix) {
+        this.storage = storage;
+        this.bucket = bucket;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public String location() {
+        return "gs://" + bucket + "/" + prefix;
+    }
+
+    @Override
+    public int forEach(DocumentFilter filter, Visitor visitor) throws IOException {
+        int visited = 0;
+        for (Blob blob : storage.list(bucket, Storage.BlobListOption.prefix(prefix)).iterateAll()) {
+            String name = blob.getName().substring(prefix.length());
+            if (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+            if (!filter.accepts(name)) {
+                continue;
+            }
+            try (InputStream content = open(storage, blob)) {
+                visitor.visit(name, blob.getSize() == null ? -1 : blob.getSize(), content);
+            }
+            visited++;
+        }
+        return visited;
+    }
+
+    static InputStream open(Storage storage, Blob blob) {
+        ReadChannel channel = storage.reader(blob.getBlobId());
+        channel.setChunkSize(READ_CHUNK_SIZE);
+        return Channels.newInputStream(channel);
+    }
+}
@@ -0,0 +1,80 @@
+package de.checkai.insurance.car.core.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Entries of a ZIP archive, read front to back from a stream. The archive is never unpacked and
+ * doesn't have to be seekable, so it can be read straight from a GCS object; only the entry being
+ * visited is inflated, in small buffers.
+ */
+@Slf4j
+class ZipDocumentSource implements DocumentSource {
+
+    /**
+     * Opens the archive; called once per {@link #forEach}
+     */
+    @FunctionalInterface
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private final String location;
+    private final Opener opener;
+
+    ZipDocumentSource(String location, Opener opener) {
+        this.location = location;
+        this.opener = opener;
+    }
+
+    @Override
+    public String location() {
+        return location;
+    }
+
+    @Override
+    public int forEach(DocumentFilter filter, Visitor visitor) throws IOException {
+        int visited = 0;
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(opener.open(), 64 * 1024))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory() || !filter.accepts(entry.getName())) {
+                    log.debug("Skipping {} in {}", entry.getName(), location);
+                    continue;
+                }
+                visitor.visit(entry.getName(), entry.getSize(), new EntryInputStream(zip));
+                zip.closeEntry();
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Stream of the current entry; closing it must not close the archive
+     */
+    private static final class EntryInputStream extends FilterInputStream {
+
+        EntryInputStream(ZipInputStream zip) {
+            super(zip);
+        }
+
+        @Override
+        public void close() {
+            // The archive moves on to the next entry with closeEntry()
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.checkai.insurance.car.core.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Name-based (version 5) UUIDs for the chunks of one document, derived from the SHA-256 of the
+ * document and the page and position of the chunk. The same document gets the same chunk ids on
+ * every run, so datapoints are overwritten instead of duplicated, and no shared
+ * {@link java.security.SecureRandom} is involved.
+ * <p>
+ * Not thread-safe; create one per document.
+ */
+public final class ChunkIds {
+
+    /**
+     * Namespace of the chunk ids, a random UUID that must never change
+     */
+    static final UUID NAMESPACE = UUID.fromString("5f1c9d2e-7b3a-4e8f-9a61-2c4d8e0b7f13");
+
+    private final MessageDigest documentDigest;
+    private final ByteBuffer location = ByteBuffer.allocate(2 * Integer.BYTES);
+
+    /**
+     * @param documentHash SHA-256 of the document content, see {@link #hash(Path)}
+     */
+    public ChunkIds(byte[] documentHash) {
+        documentDigest = digest("SHA-1");
+        documentDigest.update(ByteBuffer.allocate(16)
+                .putLong(NAMESPACE.getMostSignificantBits())
+                .putLong(NAMESPACE.getLeastSignificantBits())
+                .array());
+        documentDigest.update(documentHash);
+    }
+
+    public UUID id(int pageNumber, int position) {
+        MessageDigest digest;
+        try {
+            // The namespace and document are hashed once, every chunk only adds its location
+            digest = (MessageDigest) documentDigest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-1 digest can't be cloned", e);
+        }
+        location.clear();
+        digest.update(location.putInt(pageNumber).putInt(position).array());
+        byte[] hash = digest.digest();
+
+        hash[6] = (byte) ((hash[6] & 0x0f) | 0x50);
+        hash[8] = (byte) ((hash[8] & 0x3f) | 0x80);
+        ByteBuffer bits = ByteBuffer.wrap(hash, 0, 16);
+        return new UUID(bits.getLong(), bits.getLong());
+    }
+
+    /**
+     * Digest for the document hash, e.g. to hash a document while it is read from a stream
+     */
+    public static MessageDigest newDocumentDigest() {
+        return digest("SHA-256");
+    }
+
+    /**
+     * SHA-256 of a document file
+     */
+    public static byte[] hash(Path file) throws IOException {
+        MessageDigest digest = newDocumentDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not available", e);
+        }
+    }
+}
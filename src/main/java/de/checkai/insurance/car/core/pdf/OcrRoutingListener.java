@@ -0,0 +1,260 @@
+package de.checkai.insurance.car.core.pdf;
+
+import de.checkai.insurance.car.core.service.OcrService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Sits between the stripper and the chunker and sends pages without a text layer to OCR.
+ * <p>
+ * Image-only pages are collected into batches of {@link OcrService#getMaxPagesPerRequest()} and
+ * recognized while stripping continues. Chunks are handed to the sink in page order: pages that
+ * follow a page still waiting for OCR are held back until its text has been chunked.
+ * <p>
+ * With a {@link PageTextSink} the final text of every page, stripped or recognized, is passed on
+ * in page order as well, e.g. for the {@link PageTextCache}.
+ * <p>
+ * {@link #cancel()} may be called from any thread, e.g. by the abort action of a cancelled batch.
+ */
+@Slf4j
+public class OcrRoutingListener implements PageTextListener {
+
+    /**
+     * Receives the complete text of each page in page order
+     */
+    @FunctionalInterface
+    public interface PageTextSink {
+        void page(int pageNumber, String text);
+    }
+
+    private final PDDocument document;
+    private final String documentName;
+    private final OcrService ocrService;
+    private final SentenceChunker.ChunkSink sink;
+    private final SentenceChunker chunker;
+    private final PageTextSink pageTextSink;
+    private final StringBuilder pageText = new StringBuilder();
+    private final AtomicBoolean ocrFailed = new AtomicBoolean();
+
+    private final Deque<PageSegment> segments = new ArrayDeque<>();
+    private final List<PendingChunk> pageChunks = new ArrayList<>();
+    private final List<Integer> ocrBatch = new ArrayList<>();
+    private final List<CompletableFuture<String>> ocrBatchTexts = new ArrayList<>();
+    private final List<CompletableFuture<?>> recognitions = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+    private boolean pageHasText;
+    private int ocrPages;
+
+    public OcrRoutingListener(PDDocument document, String documentName, OcrService ocrService,
+                              int chunkSize, int chunkOverlap, SentenceChunker.ChunkSink sink) {
+        this(document, documentName, ocrService, chunkSize, chunkOverlap, sink, null);
+    }
+
+    public OcrRoutingListener(PDDocument document, String documentName, OcrService ocrService,
+                              int chunkSize, int chunkOverlap, SentenceChunker.ChunkSink sink,
+                              PageTextSink pageTextSink) {
+        this.document = document;
+        this.pageTextSink = pageTextSink;
+        this.documentName = documentName;
+        this.ocrService = ocrService;
+        this.sink = sink;
+        this.chunker = new SentenceChunker(chunkSize, chunkOverlap,
+                (pageNumber, position, content) -> pageChunks.add(new PendingChunk(pageNumber, position, content)));
+    }
+
+    @Override
+    public void startPage(int pageNumber) {
+        pageHasText = false;
+        pageText.setLength(0);
+        chunker.startPage(pageNumber);
+    }
+
+    @Override
+    public void text(CharSequence run) {
+        if (!pageHasText) {
+            pageHasText = containsNonWhitespace(run);
+        }
+        if (pageTextSink != null) {
+            pageText.append(run);
+        }
+        chunker.text(run);
+    }
+
+    @Override
+    public void endPage(int pageNumber) {
+        chunker.endPage(pageNumber);
+
+        if (pageHasText) {
+            segments.add(new PageSegment(pageNumber, List.copyOf(pageChunks), null,
+                    pageTextSink == null ? null : pageText.toString()));
+        } else if (ocrService.isEnabled()) {
+            CompletableFuture<String> ocrText = new CompletableFuture<>();
+            ocrBatch.add(pageNumber);
+            ocrBatchTexts.add(ocrText);
+            segments.add(new PageSegment(pageNumber, List.of(), ocrText, null));
+            if (ocrBatch.size() >= ocrService.getMaxPagesPerRequest()) {
+                submitOcrBatch();
+            }
+        } else {
+            log.debug("Page {} of {} has no text layer and OCR is disabled, skipping", pageNumber, documentName);
+            if (pageTextSink != null) {
+                segments.add(new PageSegment(pageNumber, List.of(), null, ""));
+            }
+        }
+        pageChunks.clear();
+
+        emitReadySegments(false);
+    }
+
+    /**
+     * Submit the last OCR batch and wait until every held-back page has been emitted. Must be called
+     * after stripping while the document is still open.
+     */
+    public void finish() {
+        submitOcrBatch();
+        emitReadySegments(true);
+        if (ocrPages > 0) {
+            log.info("Recognized {} image-only pages of {} with OCR", ocrPages, documentName);
+        }
+    }
+
+    /**
+     * Whether OCR failed for any page, so some page texts are empty although the page is not
+     */
+    public boolean hasOcrFailures() {
+        return ocrFailed.get();
+    }
+
+    /**
+     * Cancel the OCR requests still pending and submit no more; the pages they were recognizing get
+     * no text. Requests already sent to the OCR service are not aborted, their result is dropped.
+     */
+    public void cancel() {
+        cancelled = true;
+        recognitions.forEach(recognition -> recognition.cancel(true));
+    }
+
+    private void submitOcrBatch() {
+        if (ocrBatch.isEmpty()) {
+            return;
+        }
+        List<Integer> pageNumbers = List.copyOf(ocrBatch);
+        List<CompletableFuture<String>> texts = List.copyOf(ocrBatchTexts);
+        ocrBatch.clear();
+        ocrBatchTexts.clear();
+        if (cancelled) {
+            ocrFailed.set(true);
+            texts.forEach(text -> text.complete(""));
+            return;
+        }
+        ocrPages += pageNumbers.size();
+
+        try {
+            // The page subset has to be written out now, the source document is closed after extraction
+            byte[] pdfContent = extractPages(pageNumbers);
+            CompletableFuture<Map<Integer, String>> recognition =
+                    ocrService.recognizePages(documentName, pdfContent, pageNumbers);
+            recognitions.add(recognition);
+            // A cancel running right now may have missed the request
+            if (cancelled) {
+                recognition.cancel(true);
+            }
+            recognition.whenComplete((textByPage, error) -> {
+                if (error instanceof CancellationException) {
+                    ocrFailed.set(true);
+                    log.debug("OCR of pages {} of {} was cancelled", pageNumbers, documentName);
+                } else if (error != null) {
+                    ocrFailed.set(true);
+                    log.error("OCR failed for pages {} of {}: {}", pageNumbers, documentName, error.getMessage());
+                }
+                for (int i = 0; i < pageNumbers.size(); i++) {
+                    String text = textByPage == null ? null : textByPage.get(pageNumbers.get(i));
+                    texts.get(i).complete(text == null ? "" : text);
+                }
+            });
+        } catch (IOException e) {
+            log.error("Could not prepare pages {} of {} for OCR: {}", pageNumbers, documentName, e.getMessage());
+            ocrFailed.set(true);
+            texts.forEach(text -> text.complete(""));
+        }
+    }
+
+    private byte[] extractPages(List<Integer> pageNumbers) throws IOException {
+        try (PDDocument subset = new PDDocument();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int pageNumber : pageNumbers) {
+                subset.importPage(document.getPage(pageNumber - 1));
+            }
+            subset.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Emit segments from the head of the queue as long as they are complete
+     */
+    private void emitReadySegments(boolean wait) {
+        while (!segments.isEmpty()) {
+            PageSegment segment = segments.peek();
+            if (segment.ocrText() != null) {
+                if (!wait && !segment.ocrText().isDone()) {
+                    return;
+                }
+                String text = segment.ocrText().join();
+                chunkOcrText(segment.pageNumber(), text);
+                if (pageTextSink != null) {
+                    pageTextSink.page(segment.pageNumber(), text);
+                }
+            } else {
+                segment.chunks().forEach(chunk -> sink.accept(chunk.pageNumber(), chunk.position(), chunk.content()));
+                if (pageTextSink != null) {
+                    pageTextSink.page(segment.pageNumber(), segment.text());
+                }
+            }
+            segments.poll();
+        }
+    }
+
+    private void chunkOcrText(int pageNumber, String text) {
+        chunker.startPage(pageNumber);
+        chunker.text(text);
+        chunker.endPage(pageNumber);
+        pageChunks.forEach(chunk -> sink.accept(chunk.pageNumber(), chunk.position(), chunk.content()));
+        pageChunks.clear();
+    }
+
+    private static boolean containsNonWhitespace(CharSequence run) {
+        for (int i = 0; i < run.length(); i++) {
+            if (!Character.isWhitespace(run.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record PendingChunk(int pageNumber, int position, String content) {
+    }
+
+    private record PageSegment(int pageNumber, List<PendingChunk> chunks, CompletableFuture<String> ocrText,
+                               String text) {
+    }
+}
@@ -0,0 +1,307 @@
+package de.checkai.insurance.car.core.pdf;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Local cache of the extracted text of PDFs, page by page and gzip compressed, so a document that
+ * was parsed once can be re-chunked without PDFBox, e.g. after changing {@code pdf.chunk-size} or
+ * when a failed batch is retried.
+ * <p>
+ * Entries are keyed by the SHA-256 of the file content plus {@link #EXTRACTOR_VERSION}, which has
+ * to be raised whenever the stripping changes the text it produces. Reading an entry refreshes its
+ * modification time, and the least recently used entries are evicted once the cache outgrows
+ * {@code pdf.text-cache.max-size-mb}.
+ */
+@Component
+@Slf4j
+public class PageTextCache {
+
+    static final int EXTRACTOR_VERSION = 1;
+
+    private static final int MAGIC = 0x50545843;
+    private static final String SUFFIX = ".pages.gz";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final Counter hits;
+    private final Counter misses;
+
+    public PageTextCache(@Value("${pdf.text-cache.enabled:true}") boolean enabled,
+                         @Value("${pdf.text-cache.dir:${java.io.tmpdir}/insurance-car-page-text}") Path directory,
+                         @Value("${pdf.text-cache.max-size-mb:1024}") long maxSizeMb,
+                         MeterRegistry meterRegistry) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+        this.hits = Counter.builder("pdf.text-cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("pdf.text-cache.requests").tag("result", "miss").register(meterRegistry);
+        this.enabled = enabled && initialize();
+    }
+
+    /**
+     * Cache key of a document, or null when the cache is disabled
+     *
+     * @param documentHash SHA-256 of the document content, see {@link ChunkIds#hash}
+     * @param variant      extraction settings the text depends on besides the file, e.g. whether OCR is on
+     */
+    public String key(byte[] documentHash, String variant) {
+        if (!enabled) {
+            return null;
+        }
+        return HexFormat.of().formatHex(documentHash) + "-v" + EXTRACTOR_VERSION + "-" + variant;
+    }
+
+    /**
+     * Feed the cached pages of a document to the listener
+     *
+     * @return false if the document is not cached; the listener has not been called then
+     */
+    public boolean replay(String key, PageTextListener listener) {
+        if (key == null) {
+            return false;
+        }
+        Path file = entryFile(key);
+        List<String> pages;
+        try {
+            pages = read(file);
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+        } catch (NoSuchFileException e) {
+            misses.increment();
+            return false;
+        } catch (IOException e) {
+            log.warn("Dropping unreadable page text cache entry {}: {}", file, e.getMessage());
+            delete(file);
+            misses.increment();
+            return false;
+        }
+
+        hits.increment();
+        for (int i = 0; i < pages.size(); i++) {
+            listener.startPage(i + 1);
+            listener.text(pages.get(i));
+            listener.endPage(i + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Start writing the pages of a document; nothing is visible until {@link Entry#commit()}
+     *
+     * @return the entry, or null when the key is null or the entry can't be created
+     */
+    public Entry newEntry(String key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            return new Entry(key);
+        } catch (IOException e) {
+            log.warn("Not caching page text of {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Written pages of one document. Pages have to arrive in order, starting with page 1.
+     */
+    public final class Entry implements OcrRoutingListener.PageTextSink {
+
+        private final Path target;
+        private final Path temp;
+        private final DataOutputStream out;
+        private int pages;
+        private boolean failed;
+
+        private Entry(String key) throws IOException {
+            this.target = entryFile(key);
+            this.temp = Files.createTempFile(directory, key, ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))));
+            out.writeInt(MAGIC);
+        }
+
+        @Override
+        public void page(int pageNumber, String text) {
+            if (failed) {
+                return;
+            }
+            try {
+                if (pageNumber != pages + 1) {
+                    throw new IOException("Expected page " + (pages + 1) + " but got " + pageNumber);
+                }
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                pages++;
+            } catch (IOException e) {
+                log.warn("Not caching page text of {}: {}", target.getFileName(), e.getMessage());
+                failed = true;
+            }
+        }
+
+        /**
+         * Publish the entry and evict old entries if the cache is over its size
+         */
+        public void commit() {
+            if (failed) {
+                abort();
+                return;
+            }
+            try {
+                // The page count goes last, a truncated file then fails to read instead of losing pages
+                out.writeInt(-1);
+                out.writeInt(pages);
+                out.close();
+                long size = Files.size(temp);
+                long replaced = sizeOf(target);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.debug("Cached text of {} pages in {} ({} bytes)", pages, target.getFileName(), size);
+                if (sizeBytes.addAndGet(size - replaced) > maxSizeBytes) {
+                    evict();
+                }
+            } catch (IOException e) {
+                log.warn("Failed to cache page text in {}: {}", target, e.getMessage());
+                abort();
+            }
+        }
+
+        /**
+         * Throw the written pages away, e.g. when OCR failed for some of them
+         */
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.debug("Failed to close {}: {}", temp, e.getMessage());
+            }
+            delete(temp);
+        }
+    }
+
+    private boolean initialize() {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> {
+                    if (file.getFileName().toString().endsWith(".tmp")) {
+                        delete(file);
+                    } else {
+                        sizeBytes.addAndGet(sizeOf(file));
+                    }
+                });
+            }
+            log.info("Page text cache in {} holds {} MB", directory, sizeBytes.get() / (1024 * 1024));
+            return true;
+        } catch (IOException e) {
+            log.warn("Page text cache disabled, {} is not usable: {}", directory, e.getMessage());
+            return false;
+        }
+    }
+
+    private static List<String> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a page text cache entry");
+            }
+            List<String> pages = new ArrayList<>();
+            int length;
+            while ((length = in.readInt()) >= 0) {
+                pages.add(new String(in.readNBytes(length), StandardCharsets.UTF_8));
+            }
+            if (in.readInt() != pages.size()) {
+                throw new IOException("Page count does not match");
+            }
+            return pages;
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until the cache is back to 90% of its maximum size
+     */
+    private synchronized void evict() {
+        if (sizeBytes.get() <= maxSizeBytes) {
+            return;
+        }
+        long target = maxSizeBytes * 9 / 10;
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> entries = files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(PageTextCache::lastModified))
+                    .toList();
+            int evicted = 0;
+            for (Path entry : entries) {
+                if (sizeBytes.get() <= target) {
+                    break;
+                }
+                long size = sizeOf(entry);
+                if (delete(entry)) {
+                    sizeBytes.addAndGet(-size);
+                    evicted++;
+                }
+            }
+            log.info("Evicted {} page text cache entries, {} MB left", evicted, sizeBytes.get() / (1024 * 1024));
+        } catch (IOException e) {
+            log.warn("Failed to evict page text cache entries: {}", e.getMessage());
+        }
+    }
+
+    private Path entryFile(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Failed to delete {}: {}", file, e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package de.checkai.insurance.car.core.pdf;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Receives the text of a PDF page by page while it is being stripped
+ */
+public interface PageTextListener {
+
+    void startPage(int pageNumber);
+
+    /**
+     * Called for every text run of the current page. The given sequence may be backed by a
+     * buffer that is reused after the call returns, so it must be consumed immediately.
+     */
+    void text(CharSequence run);
+
+    void endPage(int pageNumber);
+}
@@ -0,0 +1,115 @@
+package de.checkai.insurance.car.core.pdf;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Incremental sentence splitter and chunker. Text is fed in runs as the stripper produces it;
+ * completed sentences are packed into overlapping chunks of roughly {@code chunkSize} characters
+ * and emitted per page, so only the unfinished sentence and chunk of the current page are held.
+ */
+public class SentenceChunker implements PageTextListener {
+
+    private static final Pattern SENTENCE_DELIMITER = Pattern.compile("[.!?]\\s+");
+
+    /**
+     * Receives the chunks of a page in order
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(int pageNumber, int position, String content);
+    }
+
+    private final int chunkSize;
+    private final int chunkOverlap;
+    private final ChunkSink sink;
+
+    private final StringBuilder pending = new StringBuilder();
+    private StringBuilder currentChunk = new StringBuilder();
+    private int pageNumber;
+    private int position;
+
+    public SentenceChunker(int chunkSize, int chunkOverlap, ChunkSink sink) {
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        this.sink = sink;
+    }
+
+    @Override
+    public void startPage(int pageNumber) {
+        this.pageNumber = pageNumber;
+        this.position = 0;
+        pending.setLength(0);
+        currentChunk = new StringBuilder();
+    }
+
+    @Override
+    public void text(CharSequence run) {
+        pending.append(run);
+
+        // Emit every sentence that is already terminated and drop it from the buffer
+        Matcher matcher = SENTENCE_DELIMITER.matcher(pending);
+        int consumed = 0;
+        while (matcher.find()) {
+            addSentence(pending.substring(consumed, matcher.start()));
+            consumed = matcher.end();
+        }
+        if (consumed > 0) {
+            pending.delete(0, consumed);
+        }
+    }
+
+    @Override
+    public void endPage(int pageNumber) {
+        addSentence(pending.toString());
+        pending.setLength(0);
+
+        // Add the last chunk if there's any content
+        if (currentChunk.length() > 0) {
+            emit(currentChunk.toString());
+        }
+        currentChunk = new StringBuilder();
+    }
+
+    /**
+     * Add a sentence to the current chunk, closing the chunk first if it would exceed the chunk size
+     */
+    private void addSentence(String rawSentence) {
+        String sentence = rawSentence.trim();
+        if (sentence.isEmpty()) {
+            return;
+        }
+
+        if (currentChunk.length() + sentence.length() > chunkSize && currentChunk.length() > 0) {
+            String chunk = currentChunk.toString();
+            emit(chunk);
+
+            // Keep some overlap for context
+            String[] words = chunk.split("\\s+");
+            int wordsToKeep = Math.min(chunkOverlap, words.length);
+
+            currentChunk = new StringBuilder();
+            for (int i = words.length - wordsToKeep; i < words.length; i++) {
+                currentChunk.append(words[i]).append(" ");
+            }
+        }
+
+        currentChunk.append(sentence).append(". ");
+    }
+
+    private void emit(String chunk) {
+        String content = chunk.trim();
+        // Skip empty chunks but keep their position, as the page-at-once chunker did
+        if (!content.isEmpty()) {
+            sink.accept(pageNumber, position, content);
+        }
+        position++;
+    }
+}
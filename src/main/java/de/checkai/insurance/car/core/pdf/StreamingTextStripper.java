@@ -0,0 +1,84 @@
+package de.checkai.insurance.car.core.pdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * PDFTextStripper that hands every text run to a {@link PageTextListener} as soon as it is
+ * produced instead of collecting the text of a page (or document) into one String
+ */
+public class StreamingTextStripper extends PDFTextStripper {
+
+    private final PageTextListener listener;
+    private final Runnable beforePage;
+
+    public StreamingTextStripper(PageTextListener listener) throws IOException {
+        this(listener, () -> {
+        });
+    }
+
+    /**
+     * @param beforePage runs before every page is stripped, e.g. a cancellation point that throws to
+     *                   stop a cancelled batch between pages
+     */
+    public StreamingTextStripper(PageTextListener listener, Runnable beforePage) throws IOException {
+        this.listener = listener;
+        this.beforePage = beforePage;
+    }
+
+    /**
+     * Strip all pages of the document and stream their text to the listener
+     */
+    public void stream(PDDocument document) throws IOException {
+        writeText(document, new ListenerWriter());
+    }
+
+    @Override
+    protected void startPage(PDPage page) throws IOException {
+        beforePage.run();
+        super.startPage(page);
+        listener.startPage(getCurrentPageNo());
+    }
+
+    @Override
+    protected void endPage(PDPage page) throws IOException {
+        super.endPage(page);
+        listener.endPage(getCurrentPageNo());
+    }
+
+    /**
+     * Writer that forwards everything the stripper writes, including separators, to the listener
+     */
+    private class ListenerWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            listener.text(CharBuffer.wrap(cbuf, off, len));
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            listener.text(str.subSequence(off, off + len));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package de.checkai.insurance.car.core.progress;
+
+import de.checkai.insurance.car.appication.model.ProcessingStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Pushes processing status changes to subscribers instead of having them poll.
+ * <p>
+ * Each subscription holds at most one pending status per batch: a newer status replaces the one
+ * not yet sent, and sends to one subscriber are at least {@code processing.events.min-interval}
+ * apart. A slow client therefore only ever sees fewer, fresher updates, never an ever-growing
+ * queue, and never holds up the batches publishing or the other subscribers.
+ */
+@Component
+@Slf4j
+public class ProcessingStatusBroadcaster {
+
+    private final Set<Subscription> subscriptions = new CopyOnWriteArraySet<>();
+    private final Duration minInterval;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter published;
+    private final Counter coalesced;
+
+    public ProcessingStatusBroadcaster(@Value("${processing.events.min-interval:250ms}") Duration minInterval,
+                                       MeterRegistry meterRegistry) {
+        this.minInterval = minInterval;
+        this.published = Counter.builder("processing.status.published")
+                .description("Status updates offered to subscribers")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("processing.status.coalesced")
+                .description("Status updates replaced by a newer one before they were sent")
+                .register(meterRegistry);
+        meterRegistry.gauge("processing.status.subscribers", subscriptions, Set::size);
+    }
+
+    /**
+     * Subscribe to status changes
+     *
+     * @param batchIds batches to follow; empty follows every batch and never completes on its own
+     * @param sink     where the updates go
+     */
+    public Subscription subscribe(Collection<String> batchIds, StatusSink sink) {
+        Subscription subscription = new Subscription(new HashSet<>(batchIds), sink);
+        subscriptions.add(subscription);
+        log.debug("Status subscription for {} opened, {} active", batchIds.isEmpty() ? "all batches" : batchIds,
+                subscriptions.size());
+        return subscription;
+    }
+
+    /**
+     * Offer a new status to every subscriber of its batch
+     */
+    public void publish(ProcessingStatus status) {
+        published.increment();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.follows(status.batchId())) {
+                subscription.offer(status);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscriptions.forEach(Subscription::complete);
+        timer.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    static boolean isTerminal(ProcessingStatus status) {
+        return "COMPLETED".equals(status.status()) || "CANCELLED".equals(status.status())
+                || status.status().startsWith("FAILED");
+    }
+
+    public final class Subscription {
+
+        private final Set<String> openBatchIds;
+        private final boolean allBatches;
+        private final StatusSink sink;
+        private final Map<String, ProcessingStatus> pending = new LinkedHashMap<>();
+        private boolean scheduled;
+        private volatile boolean cancelled;
+
+        private Subscription(Set<String> batchIds, StatusSink sink) {
+            this.openBatchIds = batchIds;
+            this.allBatches = batchIds.isEmpty();
+            this.sink = sink;
+        }
+
+        /**
+         * Queue a status for this subscriber only, e.g. the current state right after subscribing
+         */
+        public void offer(ProcessingStatus status) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (pending.put(status.batchId(), status) != null) {
+                    coalesced.increment();
+                }
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            senders.execute(this::drain);
+        }
+
+        /**
+         * Stop delivering updates; called when the client goes away
+         */
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        private synchronized boolean follows(String batchId) {
+            return allBatches || openBatchIds.contains(batchId);
+        }
+
+        private void drain() {
+            List<ProcessingStatus> statuses;
+            synchronized (this) {
+                if (cancelled || pending.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+                statuses = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+
+            try {
+                sink.send(statuses);
+            } catch (Exception e) {
+                log.debug("Status subscriber is gone: {}", e.getMessage());
+                cancel();
+                return;
+            }
+
+            boolean finished;
+            synchronized (this) {
+                if (!allBatches) {
+                    statuses.stream().filter(ProcessingStatusBroadcaster::isTerminal)
+                            .forEach(status -> openBatchIds.remove(status.batchId()));
+                }
+                finished = !allBatches && openBatchIds.isEmpty();
+            }
+            if (finished) {
+                complete();
+                return;
+            }
+            // Whatever arrives while the interval runs is merged into the next send
+            timer.schedule(() -> senders.execute(this::drain), minInterval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        private void complete() {
+            cancel();
+            try {
+                sink.complete();
+            } catch (RuntimeException e) {
+                log.debug("Failed to complete status subscription: {}", e.getMessage());
+            }
+        }
+    }
+}
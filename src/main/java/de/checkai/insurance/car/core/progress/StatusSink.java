@@ -0,0 +1,32 @@
+package de.checkai.insurance.car.core.progress;
+
+import de.checkai.insurance.car.appication.model.ProcessingStatus;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Receiving end of a status subscription, e.g. an SSE connection
+ */
+public interface StatusSink {
+
+    /**
+     * Deliver the latest status of each batch that changed since the previous call. May block
+     * while the client is slow; updates arriving meanwhile are coalesced.
+     *
+     * @throws IOException when the client is gone, which ends the subscription
+     */
+    void send(List<ProcessingStatus> statuses) throws IOException;
+
+    /**
+     * Called once when the subscription ends because every subscribed batch has finished
+     */
+    void complete();
+}
@@ -0,0 +1,86 @@
+package de.checkai.insurance.car.core.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Queue state in a JSON file that all nodes can reach, e.g. on a shared volume. A transaction holds
+ * an exclusive lock on a lock file next to it, reads the state, and replaces the file atomically
+ * with the changed state, so a node that dies mid-transaction leaves the previous state behind; a
+ * transaction that changed nothing, like an idle poll, leaves the file alone. Reads take no lock,
+ * the atomic replace hands them either the previous or the next state. Meant for tests and small
+ * deployments; every change rewrites the whole file.
+ */
+public class FileWorkQueueStore implements WorkQueueStore {
+
+    private final Path stateFile;
+    private final Path lockFile;
+    private final ObjectMapper objectMapper;
+    // File locks are held per process, threads of this node queue up here
+    private final ReentrantLock localLock = new ReentrantLock();
+
+    public FileWorkQueueStore(Path directory, ObjectMapper objectMapper) throws IOException {
+        Files.createDirectories(directory);
+        this.stateFile = directory.resolve("queue.json");
+        this.lockFile = directory.resolve("queue.lock");
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public <T> T transact(Function<QueueState, T> transaction) throws IOException {
+        localLock.lock();
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            byte[] before = readBytes();
+            QueueState state = before == null ? new QueueState() : objectMapper.readValue(before, QueueState.class);
+            T result = transaction.apply(state);
+
+            byte[] after = objectMapper.writeValueAsBytes(state);
+            if (Arrays.equals(before, after)) {
+                return result;
+            }
+            Path temp = Files.createTempFile(stateFile.getParent(), "queue", ".tmp");
+            try {
+                Files.write(temp, after);
+                Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return result;
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T read(Function<QueueState, T> query) throws IOException {
+        byte[] content = readBytes();
+        return query.apply(content == null ? new QueueState() : objectMapper.readValue(content, QueueState.class));
+    }
+
+    private byte[] readBytes() throws IOException {
+        try {
+            return Files.readAllBytes(stateFile);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
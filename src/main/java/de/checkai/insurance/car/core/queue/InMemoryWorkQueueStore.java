@@ -0,0 +1,23 @@
+package de.checkai.insurance.car.core.queue;
+
+import java.util.function.Function;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Queue state of a single node, for running the distributed pipeline without shared storage
+ */
+public class InMemoryWorkQueueStore implements WorkQueueStore {
+
+    private final QueueState state = new QueueState();
+
+    @Override
+    public synchronized <T> T transact(Function<QueueState, T> transaction) {
+        return transaction.apply(state);
+    }
+}
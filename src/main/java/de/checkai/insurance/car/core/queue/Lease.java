@@ -0,0 +1,28 @@
+package de.checkai.insurance.car.core.queue;
+
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * A work item this node holds until the lease expires; {@link WorkQueue#heartbeat} extends it
+ *
+ * @param token   identifies this delivery; completing with a token the queue has handed to someone
+ *                else since is refused
+ * @param attempt 1 for the first delivery, higher for re-deliveries
+ */
+public record Lease(
+        String batchId,
+        int index,
+        QueueState.ItemKind kind,
+        List<String> pdfFilePaths,
+        String source,
+        String token,
+        int attempt
+) {
+}
@@ -0,0 +1,73 @@
+package de.checkai.insurance.car.core.queue;
+
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Everything the nodes share about distributed batches: the batches and their work items. A
+ * {@link WorkQueueStore} hands it out inside a transaction; it is plain data so stores can keep it
+ * as JSON or in tables.
+ */
+@Data
+@NoArgsConstructor
+public class QueueState {
+
+    public enum ItemKind {
+        /**
+         * Extract and embed a range of documents into a part
+         */
+        EXTRACT,
+        /**
+         * Merge the parts of a batch, store the embeddings and create the index
+         */
+        FINALIZE
+    }
+
+    public enum ItemState {
+        PENDING, LEASED, DONE, FAILED, CANCELLED
+    }
+
+    private Map<String, Batch> batches = new LinkedHashMap<>();
+    private List<Item> items = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    public static class Batch {
+        private String batchId;
+        private PdfProcessingRequest request;
+        private String status;
+        private long createdAt;
+        private long updatedAt;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class Item {
+        private String batchId;
+        private int index;
+        private ItemKind kind;
+        private List<String> pdfFilePaths = new ArrayList<>();
+        private String source;
+        private ItemState state = ItemState.PENDING;
+        private int attempts;
+        private String leaseOwner;
+        private String leaseToken;
+        private long leaseExpiresAt;
+        private String error;
+        private int processedDocuments;
+        private int processedChunks;
+    }
+}
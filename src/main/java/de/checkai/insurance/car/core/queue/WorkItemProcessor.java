@@ -0,0 +1,30 @@
+package de.checkai.insurance.car.core.queue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Does the work of leased items for the {@link WorkQueueWorker}. Items can be delivered more than
+ * once, so processing has to be idempotent.
+ */
+public interface WorkItemProcessor {
+
+    /**
+     * @param processedDocuments documents the item covered, counted into the batch status
+     * @param processedChunks    chunks the item produced
+     */
+    record Result(int processedDocuments, int processedChunks) {
+    }
+
+    Result process(Lease lease) throws Exception;
+
+    /**
+     * Drop whatever the items of a batch left behind, once the batch failed or left the queue
+     */
+    default void discard(String batchId) throws Exception {
+    }
+}
@@ -0,0 +1,405 @@
+package de.checkai.insurance.car.core.queue;
+
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Work queue shared by all nodes. A batch is split into items of up to
+ * {@code processing.queue.documents-per-item} documents, plus one item per streamed source; any node
+ * can lease an item for {@code processing.queue.lease-duration} and has to heartbeat to keep it. An
+ * item whose lease runs out is delivered again, up to {@code processing.queue.max-attempts} times.
+ * Once every item of a batch is done, a finalize item merges the parts. Finished batches are
+ * dropped from the queue with their items after {@code processing.queue.retention}.
+ */
+@Component
+@Slf4j
+public class WorkQueue {
+
+    /**
+     * Progress of a batch summed over the items of all nodes
+     *
+     * @param totalDocuments listed documents plus the documents found in sources so far
+     */
+    public record BatchProgress(String batchId, String status, int processedDocuments, int totalDocuments,
+                                int processedChunks, int completedItems, int totalItems, Instant updatedAt) {
+    }
+
+    private final WorkQueueStore store;
+    private final String nodeId;
+    private final Duration leaseDuration;
+    private final int maxAttempts;
+    private final int documentsPerItem;
+    private final Duration retention;
+
+    public WorkQueue(WorkQueueStore store,
+                     @Value("${processing.queue.node-id:}") String nodeId,
+                     @Value("${processing.queue.lease-duration:2m}") Duration leaseDuration,
+                     @Value("${processing.queue.max-attempts:3}") int maxAttempts,
+                     @Value("${processing.queue.documents-per-item:20}") int documentsPerItem,
+                     @Value("${processing.queue.retention:24h}") Duration retention) {
+        this.store = store;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.leaseDuration = leaseDuration;
+        this.maxAttempts = maxAttempts;
+        this.documentsPerItem = Math.max(1, documentsPerItem);
+        this.retention = retention;
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public Duration leaseDuration() {
+        return leaseDuration;
+    }
+
+    /**
+     * Split a batch into items and make them available to all nodes
+     */
+    public void submit(String batchId, PdfProcessingRequest request) throws IOException {
+        long now = System.currentTimeMillis();
+        int items = transact(state -> {
+            QueueState.Batch batch = new QueueState.Batch();
+            batch.setBatchId(batchId);
+            batch.setRequest(request);
+            batch.setStatus("QUEUED");
+            batch.setCreatedAt(now);
+            batch.setUpdatedAt(now);
+            state.getBatches().put(batchId, batch);
+
+            List<QueueState.Item> batchItems = new ArrayList<>();
+            List<String> paths = request.pdfFilePaths();
+            for (int from = 0; from < paths.size(); from += documentsPerItem) {
+                QueueState.Item item = newItem(batchId, batchItems.size(), QueueState.ItemKind.EXTRACT);
+                item.setPdfFilePaths(new ArrayList<>(paths.subList(from, Math.min(paths.size(), from + documentsPerItem))));
+                batchItems.add(item);
+            }
+            // A source is read as a stream, it can't be split without listing it first
+            for (String source : request.sources()) {
+                QueueState.Item item = newItem(batchId, batchItems.size(), QueueState.ItemKind.EXTRACT);
+                item.setSource(source);
+                batchItems.add(item);
+            }
+            state.getItems().addAll(batchItems);
+            return batchItems.size();
+        });
+        log.info("Queued batch {} as {} work items", batchId, items);
+    }
+
+    /**
+     * Lease the next pending item, or one whose lease has expired
+     */
+    public Optional<Lease> lease() throws IOException {
+        long now = System.currentTimeMillis();
+        return transact(state -> {
+            for (QueueState.Item item : state.getItems()) {
+                boolean expired = item.getState() == QueueState.ItemState.LEASED && item.getLeaseExpiresAt() < now;
+                if (item.getState() != QueueState.ItemState.PENDING && !expired) {
+                    continue;
+                }
+                if (expired) {
+                    log.warn("Lease of item {} of batch {} held by {} expired", item.getIndex(), item.getBatchId(),
+                            item.getLeaseOwner());
+                }
+                if (item.getAttempts() >= maxAttempts) {
+                    failItem(state, item, expired ? "Lease expired " + item.getAttempts() + " times"
+                            : item.getError(), now);
+                    continue;
+                }
+                item.setState(QueueState.ItemState.LEASED);
+                item.setAttempts(item.getAttempts() + 1);
+                item.setLeaseOwner(nodeId);
+                item.setLeaseToken(UUID.randomUUID().toString());
+                item.setLeaseExpiresAt(now + leaseDuration.toMillis());
+                return Optional.of(new Lease(item.getBatchId(), item.getIndex(), item.getKind(),
+                        List.copyOf(item.getPdfFilePaths()), item.getSource(), item.getLeaseToken(), item.getAttempts()));
+            }
+            return Optional.empty();
+        });
+    }
+
+    /**
+     * Extend a lease
+     *
+     * @return false if the lease was lost, e.g. because it expired and the item went to another node
+     */
+    public boolean heartbeat(Lease lease) throws IOException {
+        long now = System.currentTimeMillis();
+        return transact(state -> find(state, lease)
+                .map(item -> {
+                    item.setLeaseExpiresAt(now + leaseDuration.toMillis());
+                    return true;
+                })
+                .orElse(false));
+    }
+
+    /**
+     * Mark a leased item done; when it was the last part of its batch, queue the finalize item
+     *
+     * @return false if the lease was lost and the result has to be discarded
+     */
+    public boolean complete(Lease lease, WorkItemProcessor.Result result) throws IOException {
+        long now = System.currentTimeMillis();
+        return transact(state -> {
+            Optional<QueueState.Item> leased = find(state, lease);
+            if (leased.isEmpty()) {
+                return false;
+            }
+            QueueState.Item item = leased.get();
+            // The token stays, it names the files of the delivery that won
+            item.setState(QueueState.ItemState.DONE);
+            item.setProcessedDocuments(result.processedDocuments());
+            item.setProcessedChunks(result.processedChunks());
+
+            List<QueueState.Item> batchItems = items(state, lease.batchId());
+            if (item.getKind() == QueueState.ItemKind.EXTRACT
+                    && batchItems.stream().allMatch(other -> other.getState() == QueueState.ItemState.DONE)) {
+                state.getItems().add(newItem(lease.batchId(), batchItems.size(), QueueState.ItemKind.FINALIZE));
+            }
+            QueueState.Batch batch = state.getBatches().get(lease.batchId());
+            if (batch != null) {
+                batch.setUpdatedAt(now);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Give a leased item back after an error; it is retried until it ran out of attempts, which fails the batch
+     *
+     * @return true if the item ran out of attempts and failed its batch
+     */
+    public boolean fail(Lease lease, String error) throws IOException {
+        long now = System.currentTimeMillis();
+        return transact(state -> find(state, lease)
+                .map(item -> {
+                    item.setError(error);
+                    item.setLeaseToken(null);
+                    if (item.getAttempts() >= maxAttempts) {
+                        failItem(state, item, error, now);
+                        return true;
+                    }
+                    item.setState(QueueState.ItemState.PENDING);
+                    return false;
+                })
+                .orElse(false));
+    }
+
+    /**
+     * Drop the batches that finished longer than {@code processing.queue.retention} ago, with their
+     * items, so the state doesn't grow with every batch ever submitted
+     *
+     * @return the ids of the dropped batches, whose leftovers can go too
+     */
+    public List<String> prune() throws IOException {
+        long before = System.currentTimeMillis() - retention.toMillis();
+        List<String> pruned = transact(state -> {
+            List<String> batchIds = state.getBatches().values().stream()
+                    .filter(batch -> isFinished(batch) && batch.getUpdatedAt() < before)
+                    .map(QueueState.Batch::getBatchId)
+                    .toList();
+            batchIds.forEach(state.getBatches()::remove);
+            state.getItems().removeIf(item -> batchIds.contains(item.getBatchId()));
+            return batchIds;
+        });
+        if (!pruned.isEmpty()) {
+            log.info("Dropped {} finished batches from the work queue", pruned.size());
+        }
+        return pruned;
+    }
+
+    /**
+     * Set the status all nodes report for a batch, e.g. the stage its finalize item is in
+     */
+    public void updateStatus(String batchId, String status) throws IOException {
+        long now = System.currentTimeMillis();
+        transact(state -> {
+            QueueState.Batch batch = state.getBatches().get(batchId);
+            if (batch != null && !isFinished(batch)) {
+                batch.setStatus(status);
+                batch.setUpdatedAt(now);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Cancel a batch on all nodes: its pending items are dropped and its leased items lose their
+     * lease, so the next heartbeat of their node fails and the node cancels them
+     *
+     * @return false if the batch is unknown or already finished
+     */
+    public boolean cancel(String batchId) throws IOException {
+        long now = System.currentTimeMillis();
+        boolean cancelled = transact(state -> {
+            QueueState.Batch batch = state.getBatches().get(batchId);
+            if (batch == null || isFinished(batch)) {
+                return false;
+            }
+            for (QueueState.Item item : items(state, batchId)) {
+                if (item.getState() == QueueState.ItemState.PENDING || item.getState() == QueueState.ItemState.LEASED) {
+                    item.setState(QueueState.ItemState.CANCELLED);
+                }
+            }
+            batch.setStatus("CANCELLED");
+            batch.setUpdatedAt(now);
+            return true;
+        });
+        if (cancelled) {
+            log.info("Cancelled batch {}", batchId);
+        }
+        return cancelled;
+    }
+
+    public boolean isCancelled(String batchId) throws IOException {
+        return read(state -> Optional.ofNullable(state.getBatches().get(batchId))
+                .map(batch -> "CANCELLED".equals(batch.getStatus()))
+                .orElse(false));
+    }
+
+    /**
+     * Change the weight and deadline of a batch; nodes apply them to the items they lease from now on
+     *
+     * @param weight the new weight, or null to keep the current one
+     * @return false if the batch is unknown or already finished
+     */
+    public boolean reprioritize(String batchId, Integer weight, Instant deadline) throws IOException {
+        long now = System.currentTimeMillis();
+        return transact(state -> {
+            QueueState.Batch batch = state.getBatches().get(batchId);
+            if (batch == null || isFinished(batch)) {
+                return false;
+            }
+            PdfProcessingRequest request = batch.getRequest();
+            batch.setRequest(new PdfProcessingRequest(request.pdfFilePaths(), request.description(), request.metadata(),
+                    weight == null ? request.weight() : weight, deadline, request.sources(), request.include(),
+                    request.exclude(), request.embeddingTargets()));
+            batch.setUpdatedAt(now);
+            return true;
+        });
+    }
+
+    public Optional<PdfProcessingRequest> request(String batchId) throws IOException {
+        return read(state -> Optional.ofNullable(state.getBatches().get(batchId)).map(QueueState.Batch::getRequest));
+    }
+
+    /**
+     * The deliveries that completed the extract items of a batch, i.e. the parts to merge, in item order
+     */
+    public List<Lease> completedParts(String batchId) throws IOException {
+        return read(state -> items(state, batchId).stream()
+                .filter(item -> item.getKind() == QueueState.ItemKind.EXTRACT)
+                .filter(item -> item.getState() == QueueState.ItemState.DONE)
+                .map(item -> new Lease(item.getBatchId(), item.getIndex(), item.getKind(),
+                        List.copyOf(item.getPdfFilePaths()), item.getSource(), item.getLeaseToken(), item.getAttempts()))
+                .toList());
+    }
+
+    public Optional<BatchProgress> progress(String batchId) throws IOException {
+        return read(state -> {
+            QueueState.Batch batch = state.getBatches().get(batchId);
+            if (batch == null) {
+                return Optional.empty();
+            }
+            int processedDocuments = 0;
+            int totalDocuments = 0;
+            int processedChunks = 0;
+            int completedItems = 0;
+            List<QueueState.Item> batchItems = items(state, batchId);
+            for (QueueState.Item item : batchItems) {
+                boolean done = item.getState() == QueueState.ItemState.DONE;
+                if (item.getKind() == QueueState.ItemKind.EXTRACT) {
+                    processedDocuments += done ? item.getProcessedDocuments() : 0;
+                    processedChunks += done ? item.getProcessedChunks() : 0;
+                    totalDocuments += item.getSource() == null ? item.getPdfFilePaths().size()
+                            : done ? item.getProcessedDocuments() : 0;
+                }
+                completedItems += done ? 1 : 0;
+            }
+            String status = batch.getStatus();
+            if ("QUEUED".equals(status) && batchItems.stream().anyMatch(item -> item.getAttempts() > 0)) {
+                status = "PROCESSING";
+            }
+            return Optional.of(new BatchProgress(batchId, status, processedDocuments, totalDocuments, processedChunks,
+                    completedItems, batchItems.size(), Instant.ofEpochMilli(batch.getUpdatedAt())));
+        });
+    }
+
+    private QueueState.Item newItem(String batchId, int index, QueueState.ItemKind kind) {
+        QueueState.Item item = new QueueState.Item();
+        item.setBatchId(batchId);
+        item.setIndex(index);
+        item.setKind(kind);
+        return item;
+    }
+
+    private void failItem(QueueState state, QueueState.Item item, String error, long now) {
+        item.setState(QueueState.ItemState.FAILED);
+        item.setError(error);
+        log.error("Item {} of batch {} failed after {} attempts: {}", item.getIndex(), item.getBatchId(),
+                item.getAttempts(), error);
+        // The batch can't complete any more, don't spend time on its other items
+        for (QueueState.Item other : items(state, item.getBatchId())) {
+            if (other.getState() == QueueState.ItemState.PENDING) {
+                other.setState(QueueState.ItemState.FAILED);
+            }
+        }
+        QueueState.Batch batch = state.getBatches().get(item.getBatchId());
+        if (batch != null) {
+            batch.setStatus("FAILED: " + error);
+            batch.setUpdatedAt(now);
+        }
+    }
+
+    private static boolean isFinished(QueueState.Batch batch) {
+        String status = batch.getStatus();
+        return "COMPLETED".equals(status) || "CANCELLED".equals(status) || status.startsWith("FAILED");
+    }
+
+    private static Optional<QueueState.Item> find(QueueState state, Lease lease) {
+        return state.getItems().stream()
+                .filter(item -> item.getBatchId().equals(lease.batchId()) && item.getIndex() == lease.index())
+                .filter(item -> item.getState() == QueueState.ItemState.LEASED)
+                .filter(item -> lease.token().equals(item.getLeaseToken()))
+                .findFirst();
+    }
+
+    private static List<QueueState.Item> items(QueueState state, String batchId) {
+        return state.getItems().stream().filter(item -> item.getBatchId().equals(batchId)).toList();
+    }
+
+    private <T> T transact(Function<QueueState, T> transaction) throws IOException {
+        try {
+            return store.transact(transaction);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private <T> T read(Function<QueueState, T> query) throws IOException {
+        try {
+            return store.read(query);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package de.checkai.insurance.car.core.queue;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Storage behind the {@link WorkQueue}. Every queue operation is one transaction: the store hands
+ * the current state to the function, and whatever the function changed is visible to all nodes
+ * afterwards, or not at all. Replace the bean to keep the queue in a database.
+ */
+public interface WorkQueueStore {
+
+    <T> T transact(Function<QueueState, T> transaction) throws IOException;
+
+    /**
+     * Look at the current state without changing it; stores can serve this without the write path
+     */
+    default <T> T read(Function<QueueState, T> query) throws IOException {
+        return transact(query);
+    }
+}
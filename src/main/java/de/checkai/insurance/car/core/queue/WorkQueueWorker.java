@@ -0,0 +1,155 @@
+package de.checkai.insurance.car.core.queue;
+
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.cancellation.BatchCancelledException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Takes work items of any batch from the {@link WorkQueue}, on every node with
+ * {@code processing.queue.enabled}. Each of the {@code processing.queue.workers} loops leases an
+ * item, heartbeats it every third of the lease duration while the {@link WorkItemProcessor} runs,
+ * and completes or gives it back; an idle loop drops the batches past their retention and polls
+ * again after {@code processing.queue.poll-interval}. Leftovers of a failed batch are discarded when
+ * its last attempt fails here, those of the rest when the batch is dropped.
+ */
+@Component
+@ConditionalOnProperty(name = "processing.queue.enabled", havingValue = "true")
+@Slf4j
+public class WorkQueueWorker {
+
+    private final WorkQueue workQueue;
+    private final WorkItemProcessor processor;
+    private final BatchCancellation batchCancellation;
+    private final int workers;
+    private final Duration pollInterval;
+    private final ExecutorService loops;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+    private volatile boolean running;
+
+    public WorkQueueWorker(WorkQueue workQueue,
+                           WorkItemProcessor processor,
+                           BatchCancellation batchCancellation,
+                           @Value("${processing.queue.workers:2}") int workers,
+                           @Value("${processing.queue.poll-interval:2s}") Duration pollInterval) {
+        this.workQueue = workQueue;
+        this.processor = processor;
+        this.batchCancellation = batchCancellation;
+        this.workers = Math.max(1, workers);
+        this.pollInterval = pollInterval;
+        this.loops = Executors.newFixedThreadPool(this.workers);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            loops.execute(this::run);
+        }
+        log.info("Node {} takes work items with {} workers", workQueue.nodeId(), workers);
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Leases of interrupted items run out and the items go to other nodes
+        running = false;
+        loops.shutdownNow();
+        heartbeats.shutdownNow();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Optional<Lease> lease = workQueue.lease();
+                if (lease.isPresent()) {
+                    process(lease.get());
+                } else {
+                    workQueue.prune().forEach(this::discard);
+                    Thread.sleep(pollInterval.toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Work queue unavailable: {}", e.getMessage());
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void process(Lease lease) throws IOException {
+        log.info("Processing {} item {} of batch {} (attempt {})", lease.kind(), lease.index(), lease.batchId(),
+                lease.attempt());
+        long period = Math.max(1, workQueue.leaseDuration().toMillis() / 3);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+            try {
+                if (workQueue.heartbeat(lease)) {
+                    return;
+                }
+                if (workQueue.isCancelled(lease.batchId())) {
+                    // Cancelled on another node, stop working on the item here too
+                    batchCancellation.cancel(lease.batchId());
+                } else {
+                    log.warn("Lost the lease of item {} of batch {}, its result will be discarded",
+                            lease.index(), lease.batchId());
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Heartbeat of item {} of batch {} failed: {}", lease.index(), lease.batchId(), e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        WorkItemProcessor.Result result;
+        try {
+            result = processor.process(lease);
+        } catch (BatchCancelledException e) {
+            log.info("Stopped item {} of batch {}: {}", lease.index(), lease.batchId(), e.getMessage());
+            return;
+        } catch (Exception e) {
+            log.error("Item {} of batch {} failed: {}", lease.index(), lease.batchId(), e.getMessage(), e);
+            if (workQueue.fail(lease, e.getMessage())) {
+                discard(lease.batchId());
+            }
+            return;
+        } finally {
+            heartbeat.cancel(false);
+        }
+        if (!workQueue.complete(lease, result)) {
+            log.warn("Item {} of batch {} was delivered again meanwhile, discarding this result",
+                    lease.index(), lease.batchId());
+        }
+    }
+
+    private void discard(String batchId) {
+        try {
+            processor.discard(batchId);
+        } catch (Exception e) {
+            log.warn("Failed to discard the leftovers of batch {}: {}", batchId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.checkai.insurance.car.core.resilience;
+
+import java.time.Duration;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Count-based circuit breaker. Opens when the failure rate over the last {@code windowSize} calls
+ * reaches the threshold, rejects calls while open, and lets a single trial call through once the
+ * open duration has passed.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final boolean[] window;
+
+    private State state = State.CLOSED;
+    private int recorded;
+    private int next;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(double failureRateThreshold, int windowSize, int minimumCalls, Duration openDuration) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.openDurationNanos = openDuration.toNanos();
+        this.window = new boolean[windowSize];
+    }
+
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (trialInFlight) {
+                    yield false;
+                }
+                trialInFlight = true;
+                yield true;
+            }
+        };
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset(State.CLOSED);
+        } else {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (recorded >= minimumCalls && failures * 100.0 / recorded >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        reset(State.OPEN);
+        openedAt = System.nanoTime();
+    }
+
+    private void reset(State newState) {
+        state = newState;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        trialInFlight = false;
+    }
+}
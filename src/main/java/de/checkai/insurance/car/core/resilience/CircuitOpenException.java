@@ -0,0 +1,18 @@
+package de.checkai.insurance.car.core.resilience;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Thrown instead of calling a dependency whose circuit breaker is open
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String dependency) {
+        super("Circuit breaker for " + dependency + " is open, call not permitted");
+    }
+}
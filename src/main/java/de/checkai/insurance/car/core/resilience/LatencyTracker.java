@@ -0,0 +1,48 @@
+package de.checkai.insurance.car.core.resilience;
+
+import java.util.Arrays;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Keeps the most recent successful call latencies to derive the hedging delay from
+ */
+public class LatencyTracker {
+
+    private static final int MINIMUM_SAMPLES = 20;
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    public LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * @return the latency at the given percentile in nanos, or -1 while there are too few samples
+     */
+    public long percentile(double percentile) {
+        long[] snapshot;
+        synchronized (this) {
+            if (count < MINIMUM_SAMPLES) {
+                return -1;
+            }
+            snapshot = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(snapshot);
+        int index = (int) Math.ceil(percentile / 100.0 * snapshot.length) - 1;
+        return snapshot[Math.max(0, Math.min(index, snapshot.length - 1))];
+    }
+}
@@ -0,0 +1,223 @@
+package de.checkai.insurance.car.core.resilience;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.BaseServiceException;
+import de.checkai.insurance.car.config.RpcResilienceProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Runs remote calls with a per-attempt deadline, jittered exponential backoff for retryable
+ * failures, optional hedging once an attempt is slower than the configured latency percentile,
+ * and a circuit breaker per dependency. Everything is published as rpc.client.* metrics.
+ */
+@Component
+@Slf4j
+public class ResilientRpcExecutor {
+
+    private static final Set<StatusCode.Code> RETRYABLE_CODES = Set.of(
+            StatusCode.Code.UNAVAILABLE,
+            StatusCode.Code.DEADLINE_EXCEEDED,
+            StatusCode.Code.RESOURCE_EXHAUSTED,
+            StatusCode.Code.ABORTED,
+            StatusCode.Code.INTERNAL);
+
+    private static final Set<Integer> RETRYABLE_HTTP_CODES = Set.of(408, 429, 500, 502, 503, 504);
+
+    private final RpcResilienceProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Dependency> dependencies = new ConcurrentHashMap<>();
+    private final ExecutorService attemptExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ResilientRpcExecutor(RpcResilienceProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Execute a call against a dependency
+     *
+     * @param dependency name of the remote dependency, selects the policy and circuit breaker
+     * @param operation  name of the operation, used in logs and metrics
+     * @param call       the call; receives the deadline of the attempt so it can pass it on to the transport
+     * @return the result of the first successful attempt
+     */
+    public <T> T execute(String dependency, String operation, Function<Duration, T> call) {
+        Dependency target = dependencies.computeIfAbsent(dependency, this::createDependency);
+        RpcResilienceProperties.Policy policy = target.policy();
+
+        for (int attempt = 1; ; attempt++) {
+            if (!target.circuitBreaker().tryAcquirePermission()) {
+                timer(dependency, operation, "rejected").record(Duration.ZERO);
+                throw new CircuitOpenException(dependency);
+            }
+
+            long start = System.nanoTime();
+            try {
+                T result = attempt(target, dependency, operation, call);
+                long elapsed = System.nanoTime() - start;
+                target.circuitBreaker().onSuccess();
+                target.latencyTracker().record(elapsed);
+                timer(dependency, operation, "success").record(elapsed, TimeUnit.NANOSECONDS);
+                return result;
+
+            } catch (RuntimeException e) {
+                long elapsed = System.nanoTime() - start;
+                boolean retryable = isRetryable(e);
+                // Only failures that point at a degraded dependency count towards opening the circuit
+                if (retryable) {
+                    target.circuitBreaker().onFailure();
+                } else {
+                    target.circuitBreaker().onSuccess();
+                }
+                timer(dependency, operation, "failure").record(elapsed, TimeUnit.NANOSECONDS);
+
+                if (!retryable || attempt >= policy.maxAttempts()) {
+                    throw e;
+                }
+
+                Duration backoff = backoff(policy, attempt);
+                log.warn("{} {} failed (attempt {}/{}), retrying in {} ms: {}", dependency, operation,
+                        attempt, policy.maxAttempts(), backoff.toMillis(), e.getMessage());
+                counter("rpc.client.retries", dependency, operation).increment();
+                sleep(backoff);
+            }
+        }
+    }
+
+    public CircuitBreaker.State getCircuitState(String dependency) {
+        Dependency target = dependencies.get(dependency);
+        return target == null ? CircuitBreaker.State.CLOSED : target.circuitBreaker().getState();
+    }
+
+    private <T> T attempt(Dependency target, String dependency, String operation, Function<Duration, T> call) {
+        Duration deadline = target.policy().deadline();
+        long deadlineNanos = System.nanoTime() + deadline.toNanos();
+        // Attempts run as plain futures: cancelling one interrupts the thread it is still running on
+        CompletionService<T> attempts = new ExecutorCompletionService<>(attemptExecutor);
+        List<Future<T>> running = new ArrayList<>(2);
+        running.add(attempts.submit(() -> call.apply(deadline)));
+
+        try {
+            long hedgeDelay = target.policy().hedgePercentile() > 0
+                    ? target.latencyTracker().percentile(target.policy().hedgePercentile())
+                    : -1;
+            if (hedgeDelay > 0 && hedgeDelay < deadline.toNanos()) {
+                Future<T> primary = attempts.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+                if (primary != null) {
+                    return primary.get();
+                }
+                // The primary is slower than usual, race it against a second request
+                counter("rpc.client.hedges", dependency, operation).increment();
+                Duration remaining = Duration.ofNanos(deadlineNanos - System.nanoTime());
+                running.add(attempts.submit(() -> call.apply(remaining)));
+            }
+
+            // The first successful attempt wins, a failure counts once no other attempt is left
+            ExecutionException failure = null;
+            for (int pending = running.size(); pending > 0; pending--) {
+                Future<T> completed = attempts.poll(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (completed == null) {
+                    throw new RpcDeadlineExceededException(dependency, operation, deadline);
+                }
+                try {
+                    return completed.get();
+                } catch (ExecutionException e) {
+                    failure = e;
+                }
+            }
+            throw unwrap(failure.getCause());
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + dependency + " " + operation, e);
+        } finally {
+            // Attempts past their deadline or beaten by the hedge must not keep running next to a retry
+            running.forEach(attempt -> attempt.cancel(true));
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during retry backoff", e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RuntimeException runtimeException
+                ? runtimeException
+                : new IllegalStateException(cause);
+    }
+
+    private Dependency createDependency(String dependency) {
+        RpcResilienceProperties.Policy policy = properties.policy(dependency);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(policy.failureRateThreshold(), policy.slidingWindowSize(),
+                policy.minimumCalls(), policy.openDuration());
+        Gauge.builder("rpc.client.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("0 = closed, 1 = half open, 2 = open")
+                .tag("dependency", dependency)
+                .register(meterRegistry);
+        return new Dependency(policy, circuitBreaker, new LatencyTracker(512));
+    }
+
+    private Timer timer(String dependency, String operation, String outcome) {
+        return Timer.builder("rpc.client.latency")
+                .tag("dependency", dependency)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Counter counter(String name, String dependency, String operation) {
+        return Counter.builder(name)
+                .tag("dependency", dependency)
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        attemptExecutor.shutdownNow();
+    }
+
+    private record Dependency(RpcResilienceProperties.Policy policy, CircuitBreaker circuitBreaker,
+                              LatencyTracker latencyTracker) {
+    }
+}
@@ -0,0 +1,20 @@
+package de.checkai.insurance.car.core.resilience;
+
+import java.time.Duration;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Thrown when an attempt did not complete within its deadline
+ */
+public class RpcDeadlineExceededException extends RuntimeException {
+
+    public RpcDeadlineExceededException(String dependency, String operation, Duration deadline) {
+        super(String.format("%s %s did not complete within %d ms", dependency, operation, deadline.toMillis()));
+    }
+}
@@ -0,0 +1,303 @@
+package de.checkai.insurance.car.core.scheduling;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Shares extraction and embedding capacity between concurrently running batches.
+ * <p>
+ * Every batch is a flow with a weight. Work is admitted with weighted fair queuing: each task
+ * gets a virtual finish tag of {@code max(virtualTime, previous finish of its flow) + cost / weight}
+ * and free capacity goes to the lowest tag, so a flow with weight 4 receives four times the
+ * capacity of a flow with weight 1 while both have work queued. Tasks of flows whose deadline is
+ * closer than {@code scheduler.deadline-slack} are dispatched first, earliest deadline first.
+ */
+@Component
+@Slf4j
+public class FairShareScheduler {
+
+    public enum Resource {
+        EXTRACTION, EMBEDDING
+    }
+
+    private static final String DEFAULT_FLOW = "default";
+    private static final int SHARE_WINDOW = 256;
+
+    private final Map<String, Flow> flows = new ConcurrentHashMap<>();
+    private final Map<Resource, ResourceQueue> queues = new EnumMap<>(Resource.class);
+    private final Duration deadlineSlack;
+
+    public FairShareScheduler(@Value("${scheduler.extraction-concurrency:2}") int extractionConcurrency,
+                              @Value("${scheduler.embedding-concurrency:4}") int embeddingConcurrency,
+                              @Value("${scheduler.deadline-slack:2m}") Duration deadlineSlack) {
+        this.deadlineSlack = deadlineSlack;
+        queues.put(Resource.EXTRACTION, new ResourceQueue(extractionConcurrency));
+        queues.put(Resource.EMBEDDING, new ResourceQueue(embeddingConcurrency));
+    }
+
+    /**
+     * Register a batch before it submits work
+     *
+     * @param flowId   batch id
+     * @param weight   relative share of capacity, values below 1 count as 1
+     * @param deadline optional time the batch should be done by
+     */
+    public void register(String flowId, int weight, Instant deadline) {
+        flows.put(flowId, new Flow(flowId, Math.max(1, weight), deadline));
+    }
+
+    /**
+     * Change the weight and deadline of a registered batch; tasks it has queued are re-tagged, so
+     * the change applies to them as well
+     *
+     * @return false if the batch isn't registered
+     */
+    public boolean reprioritize(String flowId, int weight, Instant deadline) {
+        Flow flow = flows.computeIfPresent(flowId, (id, previous) -> new Flow(id, Math.max(1, weight), deadline));
+        if (flow == null) {
+            return false;
+        }
+        queues.values().forEach(queue -> queue.retag(flow));
+        return true;
+    }
+
+    public void unregister(String flowId) {
+        flows.remove(flowId);
+    }
+
+    public int getWeight(String flowId) {
+        Flow flow = flows.get(flowId);
+        return flow == null ? 1 : flow.weight();
+    }
+
+    /**
+     * Run a task once the flow is granted capacity of the resource. Blocks the caller while queued.
+     *
+     * @param flowId   batch id, or null for work outside of a batch
+     * @param resource capacity the task uses
+     * @param cost     relative size of the task, e.g. chunks or megabytes
+     */
+    public <T> T execute(String flowId, Resource resource, double cost, Callable<T> task) throws Exception {
+        Flow flow = flowId == null ? null : flows.get(flowId);
+        if (flow == null) {
+            flow = flows.computeIfAbsent(DEFAULT_FLOW, id -> new Flow(id, 1, null));
+        }
+
+        ResourceQueue queue = queues.get(resource);
+        Ticket ticket = queue.acquire(flow, cost);
+        try {
+            return task.call();
+        } finally {
+            queue.release(ticket);
+        }
+    }
+
+    /**
+     * @return fraction of the recently dispatched cost of the resource that went to the flow
+     */
+    public double getShare(String flowId, Resource resource) {
+        return queues.get(resource).share(flowId);
+    }
+
+    public int getQueuedTasks(Resource resource) {
+        return queues.get(resource).queued();
+    }
+
+    private final class ResourceQueue {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition granted = lock.newCondition();
+        private final List<Ticket> waiting = new ArrayList<>();
+        private final Map<String, Double> lastFinish = new ConcurrentHashMap<>();
+        private final Deque<Ticket> recentlyDispatched = new ArrayDeque<>();
+        private int freePermits;
+        private double virtualTime;
+
+        private ResourceQueue(int permits) {
+            this.freePermits = permits;
+        }
+
+        private Ticket acquire(Flow flow, double cost) throws InterruptedException {
+            lock.lock();
+            try {
+                double start = Math.max(virtualTime, lastFinish.getOrDefault(flow.id(), 0.0));
+                double finish = start + cost / flow.weight();
+                lastFinish.put(flow.id(), finish);
+
+                Ticket ticket = new Ticket(flow, cost, start, finish);
+                waiting.add(ticket);
+                dispatch();
+                while (!ticket.granted) {
+                    try {
+                        granted.await();
+                    } catch (InterruptedException e) {
+                        waiting.remove(ticket);
+                        if (ticket.granted) {
+                            release(ticket);
+                        }
+                        throw e;
+                    }
+                }
+                return ticket;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Give the waiting tickets of a flow its new weight and deadline, chaining their finish tags
+         * again in the order they were queued
+         */
+        private void retag(Flow flow) {
+            lock.lock();
+            try {
+                List<Ticket> tickets = new ArrayList<>();
+                for (Ticket ticket : waiting) {
+                    if (ticket.flow.id().equals(flow.id())) {
+                        tickets.add(ticket);
+                    }
+                }
+                if (tickets.isEmpty()) {
+                    return;
+                }
+                tickets.sort(Comparator.comparingDouble(ticket -> ticket.start));
+                double previousFinish = virtualTime;
+                for (Ticket ticket : tickets) {
+                    ticket.flow = flow;
+                    ticket.start = Math.max(virtualTime, previousFinish);
+                    ticket.finish = ticket.start + ticket.cost / flow.weight();
+                    previousFinish = ticket.finish;
+                }
+                lastFinish.put(flow.id(), previousFinish);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(Ticket ticket) {
+            lock.lock();
+            try {
+                freePermits++;
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void dispatch() {
+            boolean dispatched = false;
+            while (freePermits > 0 && !waiting.isEmpty()) {
+                Ticket next = selectNext();
+                waiting.remove(next);
+                next.granted = true;
+                freePermits--;
+                virtualTime = Math.max(virtualTime, next.start);
+                recordDispatch(next);
+                dispatched = true;
+            }
+            if (dispatched) {
+                granted.signalAll();
+            }
+            if (waiting.isEmpty() && freePermits > 0) {
+                // Drop the finish tags of batches that are gone
+                lastFinish.keySet().retainAll(flows.keySet());
+            }
+        }
+
+        private Ticket selectNext() {
+            Instant urgentBefore = Instant.now().plus(deadlineSlack);
+            Ticket best = null;
+            for (Ticket candidate : waiting) {
+                if (best == null || compare(candidate, best, urgentBefore) < 0) {
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+
+        private int compare(Ticket a, Ticket b, Instant urgentBefore) {
+            boolean aUrgent = a.flow.deadline() != null && a.flow.deadline().isBefore(urgentBefore);
+            boolean bUrgent = b.flow.deadline() != null && b.flow.deadline().isBefore(urgentBefore);
+            if (aUrgent && bUrgent) {
+                return a.flow.deadline().compareTo(b.flow.deadline());
+            }
+            if (aUrgent != bUrgent) {
+                return aUrgent ? -1 : 1;
+            }
+            return Double.compare(a.finish, b.finish);
+        }
+
+        private void recordDispatch(Ticket ticket) {
+            recentlyDispatched.addLast(ticket);
+            if (recentlyDispatched.size() > SHARE_WINDOW) {
+                recentlyDispatched.removeFirst();
+            }
+        }
+
+        private int queued() {
+            lock.lock();
+            try {
+                return waiting.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private double share(String flowId) {
+            lock.lock();
+            try {
+                double total = 0;
+                double flowCost = 0;
+                for (Ticket ticket : recentlyDispatched) {
+                    total += ticket.cost;
+                    if (ticket.flow.id().equals(flowId)) {
+                        flowCost += ticket.cost;
+                    }
+                }
+                return total == 0 ? 0 : flowCost / total;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private record Flow(String id, int weight, Instant deadline) {
+    }
+
+    private static final class Ticket {
+        private Flow flow;
+        private final double cost;
+        private double start;
+        private double finish;
+        private boolean granted;
+
+        private Ticket(Flow flow, double cost, double start, double finish) {
+            this.flow = flow;
+            this.cost = cost;
+            this.start = start;
+            this.finish = finish;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package de.checkai.insurance.car.core.search;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Read-only BM25 index written by {@link Bm25IndexBuilder}. All postings live in one byte array
+ * and are decoded on the fly, so a keyword query touches only the postings of its terms.
+ */
+public class Bm25Index {
+
+    static final int MAGIC = 0x424D3235;
+    static final int VERSION = 1;
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final int chunkCount;
+    private final float averageLength;
+    private final String[] documentNames;
+    private final long[] chunkIdBits;
+    private final int[] chunkMetadata;
+    private final Map<String, Term> terms;
+    private final byte[] postings;
+    private final ThreadLocal<float[]> scratchScores;
+
+    private Bm25Index(int chunkCount, float averageLength, String[] documentNames, long[] chunkIdBits,
+                      int[] chunkMetadata, Map<String, Term> terms, byte[] postings) {
+        this.chunkCount = chunkCount;
+        this.averageLength = averageLength;
+        this.documentNames = documentNames;
+        this.chunkIdBits = chunkIdBits;
+        this.chunkMetadata = chunkMetadata;
+        this.terms = terms;
+        this.postings = postings;
+        this.scratchScores = ThreadLocal.withInitial(() -> new float[chunkCount]);
+    }
+
+    public static Bm25Index load(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return load(in);
+        }
+    }
+
+    public static Bm25Index load(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a BM25 index file or unsupported version");
+        }
+        int chunkCount = in.readInt();
+        long totalLength = in.readLong();
+
+        String[] documentNames = new String[in.readInt()];
+        for (int i = 0; i < documentNames.length; i++) {
+            documentNames[i] = in.readUTF();
+        }
+
+        long[] chunkIdBits = new long[2 * chunkCount];
+        int[] chunkMetadata = new int[4 * chunkCount];
+        for (int docId = 0; docId < chunkCount; docId++) {
+            chunkIdBits[2 * docId] = in.readLong();
+            chunkIdBits[2 * docId + 1] = in.readLong();
+            for (int field = 0; field < 4; field++) {
+                chunkMetadata[4 * docId + field] = in.readInt();
+            }
+        }
+
+        int termCount = in.readInt();
+        Map<String, Term> terms = new HashMap<>(termCount * 2);
+        byte[] postings = new byte[1024];
+        int size = 0;
+        for (int i = 0; i < termCount; i++) {
+            String term = in.readUTF();
+            int documentFrequency = in.readInt();
+            int length = in.readInt();
+            if (size + length > postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(postings.length * 2, size + length));
+            }
+            in.readFully(postings, size, length);
+            terms.put(term, new Term(documentFrequency, size, length));
+            size += length;
+        }
+
+        float averageLength = chunkCount == 0 ? 0 : (float) totalLength / chunkCount;
+        return new Bm25Index(chunkCount, averageLength, documentNames, chunkIdBits, chunkMetadata, terms,
+                Arrays.copyOf(postings, size));
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Score the chunks containing any of the query terms and return the best ones
+     *
+     * @return up to {@code topK} hits ordered by descending score
+     */
+    public List<Hit> search(String query, int topK) {
+        float[] scores = scratchScores.get();
+        int[] touched = new int[64];
+        int touchedCount = 0;
+
+        for (String queryTerm : Tokenizer.tokenize(query)) {
+            Term term = terms.get(queryTerm);
+            if (term == null) {
+                continue;
+            }
+            float idf = (float) Math.log(1 + (chunkCount - term.documentFrequency() + 0.5) / (term.documentFrequency() + 0.5));
+
+            int[] position = {term.offset()};
+            int end = term.offset() + term.length();
+            int docId = 0;
+            while (position[0] < end) {
+                docId += VarInt.read(postings, position);
+                int frequency = VarInt.read(postings, position);
+                float lengthNorm = 1 - B + B * chunkMetadata[4 * docId + 3] / averageLength;
+                if (scores[docId] == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touched.length * 2);
+                    }
+                    touched[touchedCount++] = docId;
+                }
+                scores[docId] += idf * frequency * (K1 + 1) / (frequency + K1 * lengthNorm);
+            }
+        }
+
+        PriorityQueue<Hit> best = new PriorityQueue<>(topK + 1, (a, b) -> Float.compare(a.score(), b.score()));
+        for (int i = 0; i < touchedCount; i++) {
+            int docId = touched[i];
+            best.add(new Hit(docId, scores[docId]));
+            if (best.size() > topK) {
+                best.poll();
+            }
+            // Leave the scratch array clean for the next query on this thread
+            scores[docId] = 0;
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return hits;
+    }
+
+    public UUID chunkId(int docId) {
+        return new UUID(chunkIdBits[2 * docId], chunkIdBits[2 * docId + 1]);
+    }
+
+    public String sourceDocument(int docId) {
+        return documentNames[chunkMetadata[4 * docId]];
+    }
+
+    public int pageNumber(int docId) {
+        return chunkMetadata[4 * docId + 1];
+    }
+
+    public int position(int docId) {
+        return chunkMetadata[4 * docId + 2];
+    }
+
+    /**
+     * A scored chunk, identified by its position in the index
+     */
+    public record Hit(int docId, float score) {
+    }
+
+    private record Term(int documentFrequency, int offset, int length) {
+    }
+}
@@ -0,0 +1,145 @@
+package de.checkai.insurance.car.core.search;
+
+import de.checkai.insurance.car.appication.model.TextChunk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Builds a BM25 inverted index over text chunks as they are extracted. Every term keeps its
+ * postings as varint encoded (doc id delta, term frequency) pairs in a growing byte array, so the
+ * index stays compact while it is built and is written out without re-encoding.
+ * <p>
+ * File layout ({@link Bm25Index#MAGIC}, big-endian): header, source document names, per chunk
+ * id / document / page / position / length, then the terms in sorted order with their postings.
+ */
+public class Bm25IndexBuilder {
+
+    private final Map<String, Postings> postingsByTerm = new HashMap<>();
+    private final Map<String, Integer> documentIds = new HashMap<>();
+    private final List<String> documentNames = new ArrayList<>();
+
+    private long[] chunkIdBits = new long[2 * 1024];
+    private int[] chunkMetadata = new int[4 * 1024];
+    private int chunkCount;
+    private long totalLength;
+
+    /**
+     * Add a chunk to the index; chunks are numbered in the order they are added
+     */
+    public synchronized void add(TextChunk chunk) {
+        int docId = chunkCount;
+        ensureCapacity(docId + 1);
+
+        chunkIdBits[2 * docId] = chunk.id().getMostSignificantBits();
+        chunkIdBits[2 * docId + 1] = chunk.id().getLeastSignificantBits();
+
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        List<String> terms = Tokenizer.tokenize(chunk.content());
+        for (String term : terms) {
+            termFrequencies.merge(term, 1, Integer::sum);
+        }
+        termFrequencies.forEach((term, frequency) ->
+                postingsByTerm.computeIfAbsent(term, t -> new Postings()).add(docId, frequency));
+
+        chunkMetadata[4 * docId] = documentIds.computeIfAbsent(chunk.sourceDocument(), name -> {
+            documentNames.add(name);
+            return documentNames.size() - 1;
+        });
+        chunkMetadata[4 * docId + 1] = chunk.pageNumber();
+        chunkMetadata[4 * docId + 2] = chunk.position();
+        chunkMetadata[4 * docId + 3] = terms.size();
+
+        totalLength += terms.size();
+        chunkCount++;
+    }
+
+    public synchronized int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Write the index to a file
+     *
+     * @return the file path
+     */
+    public synchronized Path writeTo(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            writeTo(out);
+        }
+        return file;
+    }
+
+    public synchronized void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        out.writeInt(Bm25Index.MAGIC);
+        out.writeInt(Bm25Index.VERSION);
+        out.writeInt(chunkCount);
+        out.writeLong(totalLength);
+
+        out.writeInt(documentNames.size());
+        for (String name : documentNames) {
+            out.writeUTF(name);
+        }
+
+        for (int docId = 0; docId < chunkCount; docId++) {
+            out.writeLong(chunkIdBits[2 * docId]);
+            out.writeLong(chunkIdBits[2 * docId + 1]);
+            for (int field = 0; field < 4; field++) {
+                out.writeInt(chunkMetadata[4 * docId + field]);
+            }
+        }
+
+        String[] terms = postingsByTerm.keySet().toArray(String[]::new);
+        Arrays.sort(terms);
+        out.writeInt(terms.length);
+        for (String term : terms) {
+            Postings postings = postingsByTerm.get(term);
+            out.writeUTF(term);
+            out.writeInt(postings.documentFrequency);
+            out.writeInt(postings.size);
+            out.write(postings.bytes, 0, postings.size);
+        }
+        out.flush();
+    }
+
+    private void ensureCapacity(int chunks) {
+        if (chunks * 2 > chunkIdBits.length) {
+            chunkIdBits = Arrays.copyOf(chunkIdBits, chunkIdBits.length * 2);
+            chunkMetadata = Arrays.copyOf(chunkMetadata, chunkMetadata.length * 2);
+        }
+    }
+
+    private static final class Postings {
+        private byte[] bytes = new byte[16];
+        private int size;
+        private int lastDocId;
+        private int documentFrequency;
+
+        private void add(int docId, int frequency) {
+            if (size + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            size = VarInt.write(bytes, size, docId - lastDocId);
+            size = VarInt.write(bytes, size, frequency);
+            lastDocId = docId;
+            documentFrequency++;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.checkai.insurance.car.core.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Splits text into lower-case terms. Letters and digits joined by '.', '/' or '-' stay one term,
+ * so clause numbers like "A.2.5.1" and tariff codes like "KH-100/2" can be matched exactly.
+ */
+public final class Tokenizer {
+
+    private static final Pattern TERM = Pattern.compile("[\\p{L}\\p{N}]+(?:[./-][\\p{L}\\p{N}]+)*");
+
+    private Tokenizer() {
+    }
+
+    public static List<String> tokenize(CharSequence text) {
+        List<String> terms = new ArrayList<>();
+        Matcher matcher = TERM.matcher(text);
+        while (matcher.find()) {
+            terms.add(matcher.group().toLowerCase(Locale.ROOT));
+        }
+        return terms;
+    }
+}
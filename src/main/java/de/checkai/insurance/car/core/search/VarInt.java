@@ -0,0 +1,48 @@
+package de.checkai.insurance.car.core.search;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * LEB128-style variable length encoding of non-negative ints, 7 bits per byte
+ */
+final class VarInt {
+
+    private VarInt() {
+    }
+
+    /**
+     * Write the value at the offset; the buffer must have at least 5 bytes left
+     *
+     * @return offset after the written bytes
+     */
+    static int write(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Read a value starting at {@code position[0]} and advance it
+     */
+    static int read(byte[] buffer, int[] position) {
+        int offset = position[0];
+        int value = 0;
+        int shift = 0;
+        byte current;
+        do {
+            current = buffer[offset++];
+            value |= (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        position[0] = offset;
+        return value;
+    }
+}
@@ -0,0 +1,32 @@
+package de.checkai.insurance.car.core.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+public interface BatchExportService {
+
+    void registerChunks(String batchId, Path chunksFile);
+
+    void registerEmbeddings(String collectionId, Path embeddingsFile);
+
+    void unregister(String id);
+
+    boolean hasChunks(String batchId);
+
+    boolean hasEmbeddings(String collectionId);
+
+    long chunkCount(String batchId);
+
+    long embeddingCount(String collectionId);
+
+    long writeChunks(String batchId, long offset, long limit, OutputStream out) throws IOException;
+
+    long writeEmbeddings(String collectionId, long offset, long limit, OutputStream out) throws IOException;
+}
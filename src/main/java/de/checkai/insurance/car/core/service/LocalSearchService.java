@@ -0,0 +1,24 @@
+package de.checkai.insurance.car.core.service;
+
+import de.checkai.insurance.car.appication.model.HybridSearchRequest;
+import de.checkai.insurance.car.appication.model.SearchHit;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+public interface LocalSearchService {
+
+    void registerBatch(String batchId, Path keywordIndexFile, Path embeddingsFile);
+
+    void unregisterBatch(String batchId);
+
+    boolean hasBatch(String batchId);
+
+    List<SearchHit> search(String batchId, HybridSearchRequest request);
+}
@@ -0,0 +1,26 @@
+package de.checkai.insurance.car.core.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+public interface OcrService {
+
+    boolean isEnabled();
+
+    int getMaxPagesPerRequest();
+
+    /**
+     * Recognize the text of a PDF that holds only the given pages, in that order
+     *
+     * @return text per original page number
+     */
+    CompletableFuture<Map<Integer, String>> recognizePages(String documentName, byte[] pdfContent,
+                                                           List<Integer> pageNumbers);
+}
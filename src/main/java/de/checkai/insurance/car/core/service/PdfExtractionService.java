@@ -3,8 +3,11 @@ package de.checkai.insurance.car.core.service;
 import de.checkai.insurance.car.appication.model.TextChunk;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * @author Mostafa.Farhadi
@@ -14,4 +17,14 @@ import java.util.List;
  */
 public interface PdfExtractionService {
     List<TextChunk> extractTextChunks(Path pdfPath);
+
+    void extractTextChunks(Path pdfPath, Consumer<TextChunk> chunkConsumer);
+
+    void extractTextChunks(String documentName, InputStream content, Consumer<TextChunk> chunkConsumer);
+
+    boolean extractTextChunks(String batchId, Path pdfPath, Predicate<byte[]> extractIf,
+                              Consumer<TextChunk> chunkConsumer);
+
+    boolean extractTextChunks(String batchId, String documentName, InputStream content, Predicate<byte[]> extractIf,
+                              Consumer<TextChunk> chunkConsumer);
 }
@@ -3,6 +3,8 @@ package de.checkai.insurance.car.core.service;
 import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
 import de.checkai.insurance.car.appication.model.ProcessingStatus;
 
+import java.time.Instant;
+
 /**
  * @author Mostafa.Farhadi
  * @email farhadi.kam@gmail.com
@@ -14,4 +16,8 @@ public interface ProcessingService {
     void processPdfFiles(PdfProcessingRequest request, String batchId);
 
     ProcessingStatus getProcessingStatus(String batchId);
+
+    boolean cancelProcessing(String batchId);
+
+    boolean reprioritize(String batchId, Integer weight, Instant deadline);
 }
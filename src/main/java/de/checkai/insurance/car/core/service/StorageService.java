@@ -1,6 +1,10 @@
 package de.checkai.insurance.car.core.service;
 
 import de.checkai.insurance.car.appication.model.EmbeddingCollection;
+import de.checkai.insurance.car.appication.model.EmbeddingShardManifest;
+import de.checkai.insurance.car.core.search.Bm25IndexBuilder;
+import de.checkai.insurance.car.core.storage.ChunkFile;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -15,7 +19,23 @@ public interface StorageService {
 
     Path saveEmbeddingsToLocalFile(EmbeddingCollection collection) throws IOException;
 
+    EmbeddingArena createLocalEmbeddingArena(String batchId, int embeddingDimension) throws IOException;
+
+    ChunkFile.Writer createLocalChunkFile(String batchId) throws IOException;
+
+    Path saveKeywordIndexToLocalFile(String batchId, Bm25IndexBuilder indexBuilder) throws IOException;
+
+    Path saveEmbeddingsToArrowFile(EmbeddingCollection collection) throws IOException;
+
+    Path saveEmbeddingsToArrowFile(EmbeddingArena arena, String collectionId, String description,
+                                   String embeddingModel) throws IOException;
+
     String uploadFileToGcs(Path filePath, String contentType) throws IOException;
 
     String saveEmbeddingsToGcs(EmbeddingCollection collection) throws IOException;
+
+    EmbeddingShardManifest saveEmbeddingShardsToGcs(EmbeddingCollection collection) throws IOException;
+
+    EmbeddingShardManifest saveEmbeddingShardsToGcs(EmbeddingArena arena, String collectionId, String description,
+                                                    String embeddingModel) throws IOException;
 }
@@ -1,5 +1,6 @@
 package de.checkai.insurance.car.core.service;
 
+import de.checkai.insurance.car.appication.model.IndexParameters;
 import de.checkai.insurance.car.appication.model.VectorSearchResponse;
 
 /**
@@ -11,4 +12,12 @@ import de.checkai.insurance.car.appication.model.VectorSearchResponse;
 public interface VectorSearchService {
 
     VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId);
+
+    VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId, int dimensions);
+
+    VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId, int dimensions,
+                                                          IndexParameters parameters);
+
+    VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId, String collectionId,
+                                                          int dimensions, IndexParameters parameters);
 }
@@ -2,8 +2,11 @@ package de.checkai.insurance.car.core.service;
 
 import de.checkai.insurance.car.appication.model.TextChunk;
 import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.core.embedding.EmbeddingBranch;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * @author Mostafa.Farhadi
@@ -13,4 +16,12 @@ import java.util.List;
  */
 public interface VertexEmbeddingsService {
   List<TextEmbedding> generateEmbeddings(List<TextChunk> textChunks);
+
+  List<TextEmbedding> generateEmbeddings(String batchId, List<TextChunk> textChunks);
+
+  void generateEmbeddings(String batchId, List<TextChunk> textChunks, Consumer<TextEmbedding> sink);
+
+  void generateEmbeddings(String batchId, EmbeddingBranch branch, List<TextChunk> textChunks, Consumer<TextEmbedding> sink);
+
+  CompletableFuture<List<TextEmbedding>> generateEmbeddingsInBulk(List<TextChunk> textChunks);
   }
@@ -0,0 +1,172 @@
+package de.checkai.insurance.car.core.service.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.checkai.insurance.car.core.service.BatchExportService;
+import de.checkai.insurance.car.core.storage.ChunkFile;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Streams the chunks and embeddings of processed batches from their local files as NDJSON. Chunk
+ * lines are copied from the {@link ChunkFile} as stored; embeddings are written from the mapped
+ * arena through one reused view. Either way a request holds a buffer, not its records, and a slow
+ * reader slows the writer down instead of filling memory.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class BatchExportServiceImpl implements BatchExportService {
+
+    /**
+     * Records between flushes, so the first records reach the client while the rest are written
+     */
+    private static final int FLUSH_INTERVAL = 1024;
+
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, Path> chunkFiles = new ConcurrentHashMap<>();
+    private final Map<String, Path> embeddingFiles = new ConcurrentHashMap<>();
+    private final Map<String, ChunkFile> openChunkFiles = new ConcurrentHashMap<>();
+    private final Map<String, EmbeddingArena> arenas = new ConcurrentHashMap<>();
+
+    public void registerChunks(String batchId, Path chunksFile) {
+        chunkFiles.put(batchId, chunksFile);
+        openChunkFiles.remove(batchId);
+    }
+
+    public void registerEmbeddings(String collectionId, Path embeddingsFile) {
+        embeddingFiles.put(collectionId, embeddingsFile);
+        closeQuietly(arenas.remove(collectionId));
+    }
+
+    /**
+     * Forget the chunks of a batch or the embeddings of a collection, e.g. of a cancelled batch
+     */
+    public void unregister(String id) {
+        chunkFiles.remove(id);
+        openChunkFiles.remove(id);
+        embeddingFiles.remove(id);
+        closeQuietly(arenas.remove(id));
+    }
+
+    public boolean hasChunks(String batchId) {
+        return chunkFiles.containsKey(batchId);
+    }
+
+    public boolean hasEmbeddings(String collectionId) {
+        return embeddingFiles.containsKey(collectionId);
+    }
+
+    public long chunkCount(String batchId) {
+        return chunkFile(batchId).size();
+    }
+
+    public long embeddingCount(String collectionId) {
+        return arena(collectionId).size();
+    }
+
+    /**
+     * Write chunks {@code [offset, offset + limit)} of a batch, one JSON chunk per line
+     *
+     * @return the number of chunks written
+     */
+    public long writeChunks(String batchId, long offset, long limit, OutputStream out) throws IOException {
+        return chunkFile(batchId).copyTo(out, offset, limit);
+    }
+
+    /**
+     * Write embeddings {@code [offset, offset + limit)} of a collection, one JSON embedding with its
+     * chunk id, source document, page and position per line
+     *
+     * @return the number of embeddings written
+     */
+    public long writeEmbeddings(String collectionId, long offset, long limit, OutputStream out) throws IOException {
+        EmbeddingArena arena = arena(collectionId);
+        int size = arena.size();
+        int from = (int) Math.min(offset, size);
+        int to = (int) Math.min(size, from + Math.min(limit, size));
+
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        EmbeddingArena.View view = arena.view();
+        for (int i = from; i < to; i++) {
+            view.moveTo(i);
+            generator.writeStartObject();
+            generator.writeStringField("id", view.id().toString());
+            generator.writeArrayFieldStart("embedding");
+            for (float value : view.vector()) {
+                generator.writeNumber(value);
+            }
+            generator.writeEndArray();
+            generator.writeStringField("sourceDocument", view.sourceDocument());
+            generator.writeNumberField("pageNumber", view.pageNumber());
+            generator.writeNumberField("position", view.position());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            if ((i - from + 1) % FLUSH_INTERVAL == 0) {
+                generator.flush();
+            }
+        }
+        generator.flush();
+        return to - from;
+    }
+
+    private ChunkFile chunkFile(String batchId) {
+        return openChunkFiles.computeIfAbsent(batchId, id -> {
+            try {
+                return ChunkFile.open(file(chunkFiles, id));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open chunks of batch " + id, e);
+            }
+        });
+    }
+
+    private EmbeddingArena arena(String collectionId) {
+        return arenas.computeIfAbsent(collectionId, id -> {
+            try {
+                EmbeddingArena arena = EmbeddingArena.open(file(embeddingFiles, id));
+                log.info("Mapped {} embeddings of collection {} for export", arena.size(), id);
+                return arena;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load embeddings of collection " + id, e);
+            }
+        });
+    }
+
+    private static Path file(Map<String, Path> files, String id) {
+        Path file = files.get(id);
+        if (file == null) {
+            throw new IllegalArgumentException("Nothing to export for " + id);
+        }
+        return file;
+    }
+
+    private static void closeQuietly(EmbeddingArena arena) {
+        if (arena == null) {
+            return;
+        }
+        try {
+            arena.close();
+        } catch (IOException e) {
+            log.warn("Failed to close embedding arena {}: {}", arena.file(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.checkai.insurance.car.core.service.impl;
+
+import com.google.cloud.documentai.v1.Document;
+import com.google.cloud.documentai.v1.DocumentProcessorServiceClient;
+import com.google.cloud.documentai.v1.ProcessRequest;
+import com.google.cloud.documentai.v1.ProcessResponse;
+import com.google.cloud.documentai.v1.ProcessorName;
+import com.google.cloud.documentai.v1.RawDocument;
+import com.google.protobuf.ByteString;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.core.service.OcrService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+@Service
+@Slf4j
+public class DocumentAiOcrServiceImpl implements OcrService {
+
+    private final LazyCloudClient<DocumentProcessorServiceClient> documentProcessorServiceClient;
+    private final String processorName;
+    private final int maxPagesPerRequest;
+    private final ExecutorService ocrExecutor;
+
+    public DocumentAiOcrServiceImpl(LazyCloudClient<DocumentProcessorServiceClient> documentProcessorServiceClient,
+                                    @Value("${spring.cloud.gcp.project-id}") String projectId,
+                                    @Value("${gcp.documentai.location:eu}") String location,
+                                    @Value("${gcp.documentai.processor-id:}") String processorId,
+                                    @Value("${gcp.documentai.pages-per-request:15}") int maxPagesPerRequest,
+                                    @Value("${gcp.documentai.max-concurrent-requests:4}") int maxConcurrentRequests) {
+        this.documentProcessorServiceClient = documentProcessorServiceClient;
+        this.processorName = processorId.isBlank() ? null : ProcessorName.of(projectId, location, processorId).toString();
+        this.maxPagesPerRequest = maxPagesPerRequest;
+        this.ocrExecutor = Executors.newFixedThreadPool(maxConcurrentRequests);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return processorName != null;
+    }
+
+    @Override
+    public int getMaxPagesPerRequest() {
+        return maxPagesPerRequest;
+    }
+
+    /**
+     * Send a PDF with image-only pages to the Document AI OCR processor. Requests run on a bounded
+     * pool so concurrent documents can't exceed the processor quota.
+     *
+     * @param documentName name of the source document, for logging
+     * @param pdfContent   PDF holding only the pages to recognize
+     * @param pageNumbers  original page numbers of the pages in {@code pdfContent}
+     * @return text per original page number
+     */
+    @Override
+    public CompletableFuture<Map<Integer, String>> recognizePages(String documentName, byte[] pdfContent,
+                                                                  List<Integer> pageNumbers) {
+        if (!isEnabled()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        return CompletableFuture.supplyAsync(() -> processDocument(documentName, pdfContent, pageNumbers), ocrExecutor);
+    }
+
+    private Map<Integer, String> processDocument(String documentName, byte[] pdfContent, List<Integer> pageNumbers) {
+        ProcessRequest request = ProcessRequest.newBuilder()
+                .setName(processorName)
+                .setRawDocument(RawDocument.newBuilder()
+                        .setContent(ByteString.copyFrom(pdfContent))
+                        .setMimeType("application/pdf")
+                        .build())
+                .build();
+
+        ProcessResponse response = documentProcessorServiceClient.get().processDocument(request);
+        Document document = response.getDocument();
+
+        // Pages of the response are numbered within the subset, map them back to the source pages
+        Map<Integer, String> textByPage = new HashMap<>();
+        for (Document.Page page : document.getPagesList()) {
+            int index = page.getPageNumber() - 1;
+            if (index >= 0 && index < pageNumbers.size()) {
+                textByPage.put(pageNumbers.get(index), pageText(document.getText(), page.getLayout().getTextAnchor()));
+            }
+        }
+
+        log.debug("OCR recognized {} of {} pages of {}", textByPage.size(), pageNumbers.size(), documentName);
+        return textByPage;
+    }
+
+    private String pageText(String documentText, Document.TextAnchor textAnchor) {
+        StringBuilder text = new StringBuilder();
+        for (Document.TextAnchor.TextSegment segment : textAnchor.getTextSegmentsList()) {
+            text.append(documentText, (int) segment.getStartIndex(), (int) segment.getEndIndex());
+        }
+        return text.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ocrExecutor.shutdownNow();
+    }
+}
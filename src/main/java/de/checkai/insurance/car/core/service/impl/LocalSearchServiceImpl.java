@@ -0,0 +1,212 @@
+package de.checkai.insurance.car.core.service.impl;
+
+import de.checkai.insurance.car.appication.model.HybridSearchRequest;
+import de.checkai.insurance.car.appication.model.SearchHit;
+import de.checkai.insurance.car.core.search.Bm25Index;
+import de.checkai.insurance.car.core.service.LocalSearchService;
+import de.checkai.insurance.car.core.vector.DimensionReducer;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import de.checkai.insurance.car.core.vector.PcaProjection;
+import de.checkai.insurance.car.core.vector.VectorMath;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+@Service
+@Slf4j
+public class LocalSearchServiceImpl implements LocalSearchService {
+
+    private static final int RRF_K = 60;
+    private static final int DEFAULT_TOP_K = 10;
+
+    private final Map<String, BatchFiles> batchFiles = new ConcurrentHashMap<>();
+    private final Map<String, Bm25Index> keywordIndexes = new ConcurrentHashMap<>();
+    private final Map<String, EmbeddingArena> embeddings = new ConcurrentHashMap<>();
+    private final Map<String, DimensionReducer> queryReducers = new ConcurrentHashMap<>();
+
+    /**
+     * Make the local files of a processed batch searchable; they are loaded on the first query
+     */
+    public void registerBatch(String batchId, Path keywordIndexFile, Path embeddingsFile) {
+        batchFiles.put(batchId, new BatchFiles(keywordIndexFile, embeddingsFile));
+        keywordIndexes.remove(batchId);
+        queryReducers.remove(batchId);
+        EmbeddingArena previous = embeddings.remove(batchId);
+        if (previous != null) {
+            closeQuietly(previous);
+        }
+    }
+
+    /**
+     * Forget a batch, e.g. a cancelled one whose files are deleted
+     */
+    public void unregisterBatch(String batchId) {
+        batchFiles.remove(batchId);
+        keywordIndexes.remove(batchId);
+        queryReducers.remove(batchId);
+        EmbeddingArena previous = embeddings.remove(batchId);
+        if (previous != null) {
+            closeQuietly(previous);
+        }
+    }
+
+    public boolean hasBatch(String batchId) {
+        return batchFiles.containsKey(batchId);
+    }
+
+    /**
+     * Search a batch with BM25 and, if the request has a query vector, fuse the keyword ranking with
+     * the cosine similarity ranking using weighted reciprocal rank fusion
+     */
+    public List<SearchHit> search(String batchId, HybridSearchRequest request) {
+        int topK = request.topK() == null ? DEFAULT_TOP_K : request.topK();
+        double vectorWeight = request.queryVector() == null ? 0
+                : request.vectorWeight() == null ? 0.5 : request.vectorWeight();
+        int candidates = vectorWeight > 0 ? topK * 4 : topK;
+
+        Map<UUID, FusedHit> fused = new LinkedHashMap<>();
+
+        if (request.query() != null && !request.query().isBlank() && vectorWeight < 1) {
+            Bm25Index index = keywordIndex(batchId);
+            List<Bm25Index.Hit> keywordHits = index.search(request.query(), candidates);
+            for (int rank = 0; rank < keywordHits.size(); rank++) {
+                Bm25Index.Hit hit = keywordHits.get(rank);
+                FusedHit fusedHit = fused.computeIfAbsent(index.chunkId(hit.docId()), id -> new FusedHit(id));
+                fusedHit.keywordScore = hit.score();
+                fusedHit.score += (1 - vectorWeight) / (RRF_K + rank + 1);
+                fusedHit.sourceDocument = index.sourceDocument(hit.docId());
+                fusedHit.pageNumber = index.pageNumber(hit.docId());
+                fusedHit.position = index.position(hit.docId());
+            }
+        }
+
+        if (vectorWeight > 0) {
+            EmbeddingArena arena = embeddingArena(batchId);
+            // Stored embeddings are unit vectors (gcp.vertex.normalize-embeddings), so the dot product is the cosine
+            float[] query = request.queryVector().length == arena.dimension()
+                    ? VectorMath.normalize(request.queryVector().clone())
+                    : queryReducer(batchId, arena, request.queryVector().length).reduce(request.queryVector());
+            List<VectorMath.Hit> vectorHits = arena.topK(query, candidates);
+            EmbeddingArena.View view = arena.view();
+            for (int rank = 0; rank < vectorHits.size(); rank++) {
+                view.moveTo(vectorHits.get(rank).index());
+                FusedHit fusedHit = fused.computeIfAbsent(view.id(), id -> new FusedHit(id));
+                fusedHit.vectorScore = vectorHits.get(rank).score();
+                fusedHit.score += vectorWeight / (RRF_K + rank + 1);
+                fusedHit.sourceDocument = view.sourceDocument();
+                fusedHit.pageNumber = view.pageNumber();
+                fusedHit.position = view.position();
+            }
+        }
+
+        return fused.values().stream()
+                .sorted(Comparator.comparingDouble((FusedHit hit) -> hit.score).reversed())
+                .limit(topK)
+                .map(FusedHit::toSearchHit)
+                .toList();
+    }
+
+    private Bm25Index keywordIndex(String batchId) {
+        return keywordIndexes.computeIfAbsent(batchId, id -> {
+            try {
+                Bm25Index index = Bm25Index.load(files(id).keywordIndexFile());
+                log.info("Loaded keyword index of batch {} with {} chunks", id, index.getChunkCount());
+                return index;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load keyword index of batch " + id, e);
+            }
+        });
+    }
+
+    private EmbeddingArena embeddingArena(String batchId) {
+        return embeddings.computeIfAbsent(batchId, id -> {
+            try {
+                EmbeddingArena arena = EmbeddingArena.open(files(id).embeddingsFile());
+                log.info("Mapped {} embeddings of batch {}", arena.size(), id);
+                return arena;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load embeddings of batch " + id, e);
+            }
+        });
+    }
+
+    /**
+     * Full-dimension queries against a batch stored with reduced embeddings go through the batch's
+     * PCA projection if it has one, otherwise they are truncated like the embeddings were
+     */
+    private DimensionReducer queryReducer(String batchId, EmbeddingArena arena, int queryDimension) {
+        if (queryDimension < arena.dimension()) {
+            throw new IllegalArgumentException(String.format(
+                    "Query vector has %d dimensions, batch %s has %d", queryDimension, batchId, arena.dimension()));
+        }
+        DimensionReducer reducer = queryReducers.computeIfAbsent(batchId, id -> {
+            Path projectionFile = PcaProjection.sidecarOf(files(id).embeddingsFile());
+            if (!Files.exists(projectionFile)) {
+                return DimensionReducer.truncation(queryDimension, arena.dimension());
+            }
+            try {
+                return PcaProjection.load(projectionFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load PCA projection of batch " + id, e);
+            }
+        });
+        if (reducer.inputDimension() != queryDimension) {
+            throw new IllegalArgumentException(String.format(
+                    "Query vector has %d dimensions, batch %s expects %d", queryDimension, batchId, reducer.inputDimension()));
+        }
+        return reducer;
+    }
+
+    private static void closeQuietly(EmbeddingArena arena) {
+        try {
+            arena.close();
+        } catch (IOException e) {
+            log.warn("Failed to close embedding arena {}: {}", arena.file(), e.getMessage());
+        }
+    }
+
+    private BatchFiles files(String batchId) {
+        BatchFiles files = batchFiles.get(batchId);
+        if (files == null) {
+            throw new IllegalArgumentException("No searchable batch " + batchId);
+        }
+        return files;
+    }
+
+    private record BatchFiles(Path keywordIndexFile, Path embeddingsFile) {
+    }
+
+    private static final class FusedHit {
+        private final UUID chunkId;
+        private double score;
+        private Float keywordScore;
+        private Float vectorScore;
+        private String sourceDocument;
+        private int pageNumber;
+        private int position;
+
+        private FusedHit(UUID chunkId) {
+            this.chunkId = chunkId;
+        }
+
+        private SearchHit toSearchHit() {
+            return new SearchHit(chunkId, sourceDocument, pageNumber, position, score, keywordScore, vectorScore);
+        }
+    }
+}
@@ -1,20 +1,30 @@
 package de.checkai.insurance.car.core.service.impl;
 
 import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.pdf.ChunkIds;
+import de.checkai.insurance.car.core.pdf.OcrRoutingListener;
+import de.checkai.insurance.car.core.pdf.PageTextCache;
+import de.checkai.insurance.car.core.pdf.SentenceChunker;
+import de.checkai.insurance.car.core.pdf.StreamingTextStripper;
+import de.checkai.insurance.car.core.service.OcrService;
 import de.checkai.insurance.car.core.service.PdfExtractionService;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * @author Mostafa.Farhadi
@@ -24,15 +34,24 @@ import java.util.regex.Pattern;
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class PdfExtractionServiceImpl implements PdfExtractionService {
 
+    private final OcrService ocrService;
+    private final PageTextCache pageTextCache;
+    private final BatchCancellation batchCancellation;
+
     @Value("${pdf.chunk-size:300}")
     private int chunkSize;
 
     @Value("${pdf.chunk-overlap:50}")
     private int chunkOverlap;
 
-    private static final Pattern SENTENCE_DELIMITER = Pattern.compile("[.!?]\\s+");
+    @Value("${pdf.max-main-memory-mb:64}")
+    private long maxMainMemoryMb;
+
+    @Value("${pdf.temp-dir:${java.io.tmpdir}}")
+    private String tempDir;
 
     /**
      * Extract text chunks from a PDF file
@@ -42,42 +61,49 @@ public class PdfExtractionServiceImpl implements PdfExtractionService {
      */
     public List<TextChunk> extractTextChunks(Path pdfPath) {
         List<TextChunk> chunks = new ArrayList<>();
-        String fileName = pdfPath.getFileName().toString();
-
-        try (PDDocument document = PDDocument.load(new File(pdfPath.toString()))) {
-            log.info("Processing PDF: {} with {} pages", fileName, document.getNumberOfPages());
-
-            PDFTextStripper stripper = new PDFTextStripper();
-
-            // Process each page separately
-            for (int pageNum = 1; pageNum <= document.getNumberOfPages(); pageNum++) {
-                stripper.setStartPage(pageNum);
-                stripper.setEndPage(pageNum);
-                String pageText = stripper.getText(document);
-
-                // Split text into sentences and create chunks
-                List<String> sentences = splitIntoSentences(pageText);
-                List<String> textChunks = createChunks(sentences);
-
-                // Create TextChunk objects
-                for (int i = 0; i < textChunks.size(); i++) {
-                    String chunkContent = textChunks.get(i).trim();
-                    // Skip empty chunks
-                    if (!chunkContent.isEmpty()) {
-                        chunks.add(new TextChunk(
-                                UUID.randomUUID(),
-                                chunkContent,
-                                fileName,
-                                pageNum,
-                                i
-                        ));
-                    }
-                }
-            }
+        extractTextChunks(pdfPath, chunks::add);
+        return chunks;
+    }
 
-            log.info("Extracted {} chunks from PDF: {}", chunks.size(), fileName);
-            return chunks;
+    /**
+     * Extract text chunks from a PDF file and hand each one to the consumer as soon as it is complete.
+     * Documents whose page text is in the {@link PageTextCache} are chunked from there without parsing.
+     *
+     * @param pdfPath       Path to the PDF file
+     * @param chunkConsumer Receives the chunks in page and position order
+     */
+    public void extractTextChunks(Path pdfPath, Consumer<TextChunk> chunkConsumer) {
+        extractTextChunks(null, pdfPath, documentHash -> true, chunkConsumer);
+    }
 
+    /**
+     * Extract text chunks from a PDF file if the filter accepts its content hash. The hash is taken
+     * before the document is parsed, so a rejected document costs one read of the file.
+     *
+     * @param batchId       Batch the document belongs to, checked for cancellation before every page
+     *                      and its pending OCR requests cancelled with it; null outside of a batch
+     * @param extractIf     Gets the SHA-256 of the document, e.g. to skip copies within a batch
+     * @param chunkConsumer Receives the chunks in page and position order
+     * @return whether the document was extracted
+     */
+    public boolean extractTextChunks(String batchId, Path pdfPath, Predicate<byte[]> extractIf,
+                                     Consumer<TextChunk> chunkConsumer) {
+        String fileName = pdfPath.getFileName().toString();
+        try {
+            byte[] documentHash = ChunkIds.hash(pdfPath);
+            if (!extractIf.test(documentHash)) {
+                return false;
+            }
+            String cacheKey = pageTextCache.key(documentHash, cacheVariant());
+            ChunkCounter chunkSink = new ChunkCounter(fileName, documentHash, chunkConsumer);
+            if (pageTextCache.replay(cacheKey, new SentenceChunker(chunkSize, chunkOverlap, chunkSink))) {
+                log.info("Extracted {} chunks from cached page text of PDF: {}", chunkSink.count, fileName);
+                return true;
+            }
+            try (PDDocument document = PDDocument.load(pdfPath.toFile(), memoryUsageSetting())) {
+                strip(batchId, document, fileName, cacheKey, chunkSink);
+            }
+            return true;
         } catch (IOException e) {
             log.error("Error extracting text from PDF: {}", fileName, e);
             throw new RuntimeException("Failed to extract text from PDF: " + fileName, e);
@@ -85,53 +111,122 @@ public class PdfExtractionServiceImpl implements PdfExtractionService {
     }
 
     /**
-     * Split text into sentences using a regex pattern
+     * Extract text chunks from a PDF read from a stream, e.g. an entry of a ZIP archive. PDFBox needs
+     * random access, so the document is buffered within {@code pdf.max-main-memory-mb} and spilled to
+     * a scratch file above it; the stream is hashed on the way for the chunk ids and the {@link PageTextCache}.
+     *
+     * @param documentName  Name the chunks are attributed to
+     * @param content       The PDF; read to the end but not closed
+     * @param chunkConsumer Receives the chunks in page and position order
+     */
+    public void extractTextChunks(String documentName, InputStream content, Consumer<TextChunk> chunkConsumer) {
+        extractTextChunks(null, documentName, content, documentHash -> true, chunkConsumer);
+    }
+
+    /**
+     * Extract text chunks from a PDF read from a stream if the filter accepts its content hash. The
+     * stream is read to the end either way, no page of a rejected document is stripped.
+     *
+     * @param batchId       Batch the document belongs to, checked for cancellation before every page
+     *                      and its pending OCR requests cancelled with it; null outside of a batch
+     * @param extractIf     Gets the SHA-256 of the document, e.g. to skip copies within a batch
+     * @param chunkConsumer Receives the chunks in page and position order
+     * @return whether the document was extracted
+     */
+    public boolean extractTextChunks(String batchId, String documentName, InputStream content,
+                                     Predicate<byte[]> extractIf, Consumer<TextChunk> chunkConsumer) {
+        DigestInputStream digestingContent = new DigestInputStream(content, ChunkIds.newDocumentDigest());
+        try (PDDocument document = PDDocument.load(digestingContent, memoryUsageSetting())) {
+            // Loading buffers the whole stream, so the digest is complete before any page is stripped
+            byte[] documentHash = digestingContent.getMessageDigest().digest();
+            if (!extractIf.test(documentHash)) {
+                return false;
+            }
+            String cacheKey = pageTextCache.key(documentHash, cacheVariant());
+            ChunkCounter chunkSink = new ChunkCounter(documentName, documentHash, chunkConsumer);
+            if (pageTextCache.replay(cacheKey, new SentenceChunker(chunkSize, chunkOverlap, chunkSink))) {
+                log.info("Extracted {} chunks from cached page text of PDF: {}", chunkSink.count, documentName);
+                return true;
+            }
+            strip(batchId, document, documentName, cacheKey, chunkSink);
+            return true;
+        } catch (IOException e) {
+            log.error("Error extracting text from PDF: {}", documentName, e);
+            throw new RuntimeException("Failed to extract text from PDF: " + documentName, e);
+        }
+    }
+
+    /**
+     * Cached text was stripped with the same OCR setting, pages recognized before aren't recognized again
      */
-    private List<String> splitIntoSentences(String text) {
-        List<String> sentences = new ArrayList<>();
-        String[] parts = SENTENCE_DELIMITER.split(text);
-
-        for (String part : parts) {
-            String trimmed = part.trim();
-            if (!trimmed.isEmpty()) {
-                sentences.add(trimmed);
+    private String cacheVariant() {
+        return ocrService.isEnabled() ? "ocr" : "text";
+    }
+
+    private void strip(String batchId, PDDocument document, String fileName, String cacheKey, ChunkCounter chunkSink)
+            throws IOException {
+        log.info("Processing PDF: {} with {} pages", fileName, document.getNumberOfPages());
+
+        PageTextCache.Entry cacheEntry = pageTextCache.newEntry(cacheKey);
+        OcrRoutingListener listener = new OcrRoutingListener(document, fileName, ocrService, chunkSize,
+                chunkOverlap, chunkSink, cacheEntry);
+
+        // Text runs are chunked while the page is being stripped, image-only pages go to OCR
+        try (BatchCancellation.Registration ignored = batchCancellation.onCancel(batchId, listener::cancel)) {
+            new StreamingTextStripper(listener, () -> batchCancellation.check(batchId)).stream(document);
+            listener.finish();
+            // Pages whose OCR was cancelled have no text, the document isn't complete
+            batchCancellation.check(batchId);
+        } catch (IOException | RuntimeException e) {
+            if (cacheEntry != null) {
+                cacheEntry.abort();
+            }
+            throw e;
+        }
+        if (cacheEntry != null) {
+            // Pages whose OCR failed would be cached as empty, try them again next time
+            if (listener.hasOcrFailures()) {
+                cacheEntry.abort();
+            } else {
+                cacheEntry.commit();
             }
         }
 
-        return sentences;
+        log.info("Extracted {} chunks from PDF: {}", chunkSink.count, fileName);
     }
 
     /**
-     * Create overlapping chunks from sentences
+     * Turns the chunker's output into {@link TextChunk}s of one document and counts them. All chunks
+     * share one interned name, so documents processed again don't add copies of it.
      */
-    private List<String> createChunks(List<String> sentences) {
-        List<String> chunks = new ArrayList<>();
-        StringBuilder currentChunk = new StringBuilder();
-
-        for (String sentence : sentences) {
-            // If adding this sentence would exceed chunk size, add current chunk to list
-            if (currentChunk.length() + sentence.length() > chunkSize && currentChunk.length() > 0) {
-                chunks.add(currentChunk.toString());
-
-                // Keep some overlap for context
-                String[] words = currentChunk.toString().split("\\s+");
-                int wordsToKeep = Math.min(chunkOverlap, words.length);
-
-                currentChunk = new StringBuilder();
-                // Add the overlap words
-                for (int i = words.length - wordsToKeep; i < words.length; i++) {
-                    currentChunk.append(words[i]).append(" ");
-                }
-            }
+    private static final class ChunkCounter implements SentenceChunker.ChunkSink {
 
-            currentChunk.append(sentence).append(". ");
+        private final String fileName;
+        private final ChunkIds chunkIds;
+        private final Consumer<TextChunk> chunkConsumer;
+        private int count;
+
+        ChunkCounter(String fileName, byte[] documentHash, Consumer<TextChunk> chunkConsumer) {
+            this.fileName = fileName.intern();
+            this.chunkIds = new ChunkIds(documentHash);
+            this.chunkConsumer = chunkConsumer;
         }
 
-        // Add the last chunk if there's any content
-        if (currentChunk.length() > 0) {
-            chunks.add(currentChunk.toString());
+        @Override
+        public void accept(int pageNumber, int position, String content) {
+            chunkConsumer.accept(new TextChunk(chunkIds.id(pageNumber, position), content, fileName, pageNumber, position));
+            count++;
         }
+    }
 
-        return chunks;
+    /**
+     * Keep at most {@code pdf.max-main-memory-mb} of parsed document data on the heap and spill
+     * the rest to scratch files; a budget of 0 uses scratch files only
+     */
+    private MemoryUsageSetting memoryUsageSetting() {
+        MemoryUsageSetting setting = maxMainMemoryMb > 0
+                ? MemoryUsageSetting.setupMixed(maxMainMemoryMb * 1024 * 1024)
+                : MemoryUsageSetting.setupTempFileOnly();
+        return setting.setTempDir(new File(tempDir));
     }
-}
\ No newline at end of file
+}
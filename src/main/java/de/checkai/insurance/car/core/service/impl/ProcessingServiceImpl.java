@@ -1,19 +1,58 @@
 package de.checkai.insurance.car.core.service.impl;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.checkai.insurance.car.appication.model.*;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.cancellation.BatchCancelledException;
+import de.checkai.insurance.car.core.embedding.EmbeddingBranch;
+import de.checkai.insurance.car.core.embedding.EmbeddingDimensionality;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.embedding.EmbeddingReduction;
+import de.checkai.insurance.car.core.estimate.ThroughputTracker;
+import de.checkai.insurance.car.core.index.IndexParameterTuner;
+import de.checkai.insurance.car.core.ingest.DocumentDeduplicator;
+import de.checkai.insurance.car.core.ingest.DocumentFilter;
+import de.checkai.insurance.car.core.ingest.DocumentSource;
+import de.checkai.insurance.car.core.ingest.DocumentSources;
+import de.checkai.insurance.car.core.pdf.ChunkIds;
+import de.checkai.insurance.car.core.progress.ProcessingStatusBroadcaster;
+import de.checkai.insurance.car.core.queue.Lease;
+import de.checkai.insurance.car.core.queue.QueueState;
+import de.checkai.insurance.car.core.queue.WorkItemProcessor;
+import de.checkai.insurance.car.core.queue.WorkQueue;
+import de.checkai.insurance.car.core.scheduling.FairShareScheduler;
+import de.checkai.insurance.car.core.search.Bm25IndexBuilder;
 import de.checkai.insurance.car.core.service.*;
+import de.checkai.insurance.car.core.storage.ChunkFile;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import de.checkai.insurance.car.core.vector.PcaProjection;
+import de.checkai.insurance.car.core.vector.VectorMath;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 /**
  * @author Mostafa.Farhadi
  * @email farhadi.kam@gmail.com
@@ -23,86 +62,649 @@ import java.util.concurrent.ConcurrentHashMap;
 @Service
 @Slf4j
 @RequiredArgsConstructor
-public class ProcessingServiceImpl implements ProcessingService {
+public class ProcessingServiceImpl implements ProcessingService, WorkItemProcessor {
 
     private final PdfExtractionService pdfExtractionService;
     private final VertexEmbeddingsService embeddingsService;
     private final StorageService storageService;
     private final VectorSearchService vectorSearchService;
-    @Value("${gcp.vertex.embedding-model}")
-    private String embeddingModel;
+    private final FairShareScheduler fairShareScheduler;
+    private final LocalSearchService localSearchService;
+    private final BatchExportService batchExportService;
+    private final ProcessingStatusBroadcaster statusBroadcaster;
+    private final EmbeddingModels embeddingModels;
+    private final DocumentSources documentSources;
+    private final IndexParameterTuner indexParameterTuner;
+    private final WorkQueue workQueue;
+    private final ObjectMapper objectMapper;
+    private final ThroughputTracker throughputTracker;
+    private final BatchCancellation batchCancellation;
+    @Value("${gcp.vertex.normalize-embeddings:true}")
+    private boolean normalizeEmbeddings;
 
-    @Value("${gcp.vertex.embedding-dimension}")
-    private int embeddingDimension;
+    @Value("${gcp.storage.arrow-export.enabled:false}")
+    private boolean arrowExportEnabled;
+
+    @Value("${gcp.vertex.batch-prediction.threshold:20000}")
+    private int batchPredictionThreshold;
+
+    @Value("${processing.queue.enabled:false}")
+    private boolean queueEnabled;
+
+    @Value("${processing.queue.dir:${java.io.tmpdir}/insurance-car-queue}")
+    private Path queueDir;
+
+    private static final String CHUNKS_SUFFIX = ".chunks.json.gz";
+    private static final String EMBEDDINGS_SUFFIX = ".f32";
+    private static final String DOCUMENTS_SUFFIX = ".documents.json";
 
     private final Map<String, ProcessingStatus> processingStatusMap = new ConcurrentHashMap<>();
+    private final Map<String, Integer> queuedFlows = new ConcurrentHashMap<>();
 
     /**
      * Process PDF files, extract text, generate embeddings, and create vector search index
      */
     @Async
     public void processPdfFiles(PdfProcessingRequest request, String batchId) {
+        if (queueEnabled) {
+            submitToQueue(request, batchId);
+            return;
+        }
         LocalDateTime startTime = LocalDateTime.now();
         List<String> pdfPaths = request.pdfFilePaths();
+        fairShareScheduler.register(batchId, request.weight() == null ? 1 : request.weight(), request.deadline());
+        batchCancellation.start(batchId);
+        // Blocking calls without an abort action of their own are interrupted
+        BatchCancellation.Registration interruption = batchCancellation.onCancel(batchId, Thread.currentThread()::interrupt);
+
+        int[] totalDocs = {pdfPaths.size()};
 
         try {
             // Initialize processing status
-            updateStatus(batchId, "STARTED", 0, pdfPaths.size(), 0);
+            updateStatus(batchId, "STARTED", 0, totalDocs[0], 0);
+            // One extraction pass feeds an embedding branch per model the request names
+            List<EmbeddingBranch> branches = embeddingModels.resolve(request.embeddingTargets());
 
             // Process each PDF file
             List<TextChunk> allChunks = new ArrayList<>();
-            int processedDocs = 0;
+            Bm25IndexBuilder keywordIndex = new Bm25IndexBuilder();
+            // Copies of a document would get the chunk ids of the first one, they count as processed
+            DocumentDeduplicator documents = new DocumentDeduplicator();
+            int[] processedDocs = {0};
 
             for (String pdfPath : pdfPaths) {
+                batchCancellation.check(batchId);
                 log.info("Processing PDF file: {}", pdfPath);
-                List<TextChunk> chunks = pdfExtractionService.extractTextChunks(Paths.get(pdfPath));
+                Path path = Paths.get(pdfPath);
+                List<TextChunk> chunks = extractFile(batchId, path, documents);
                 allChunks.addAll(chunks);
+                chunks.forEach(keywordIndex::add);
 
-                processedDocs++;
-                updateStatus(batchId, "PROCESSING", processedDocs, pdfPaths.size(), allChunks.size());
+                processedDocs[0]++;
+                updateStatus(batchId, "PROCESSING", processedDocs[0], totalDocs[0], allChunks.size());
+            }
+
+            // Documents of archives and prefixes are streamed into extraction one at a time
+            DocumentFilter filter = DocumentFilter.of(request.include(), request.exclude());
+            for (String location : request.sources()) {
+                DocumentSource source = documentSources.resolve(location);
+                log.info("Processing PDFs from {}", source.location());
+                int visited = source.forEach(filter, (name, size, content) -> {
+                    batchCancellation.check(batchId);
+                    totalDocs[0]++;
+                    List<TextChunk> chunks = extractFromStream(batchId, name, size, content, documents);
+                    allChunks.addAll(chunks);
+                    chunks.forEach(keywordIndex::add);
+
+                    processedDocs[0]++;
+                    updateStatus(batchId, "PROCESSING", processedDocs[0], totalDocs[0], allChunks.size());
+                });
+                log.info("Processed {} PDFs from {}", visited, source.location());
+            }
+            if (documents.skipped() > 0) {
+                log.info("Skipped {} duplicate documents of batch {}", documents.skipped(), batchId);
             }
 
             // Generate embeddings for all chunks
-            updateStatus(batchId, "GENERATING_EMBEDDINGS", processedDocs, pdfPaths.size(), allChunks.size());
-            List<TextEmbedding> embeddings = embeddingsService.generateEmbeddings(allChunks);
-
-            // Create embedding collection
-            EmbeddingCollection collection = new EmbeddingCollection(
-                    batchId,
-                    request.description(),
-                    Instant.now(),
-                    embeddingDimension,
-                    embeddingModel,
-                    embeddings.size(),
-                    embeddings
-            );
-
-            // Save embeddings to local file and upload to GCS
-            updateStatus(batchId, "SAVING_EMBEDDINGS", processedDocs, pdfPaths.size(), allChunks.size());
-            Path embeddingsFile = storageService.saveEmbeddingsToLocalFile(collection);
-            String gcsUri = storageService.uploadFileToGcs(embeddingsFile, "application/json");
-
-            // Create and deploy vector search index
-            updateStatus(batchId, "CREATING_VECTOR_INDEX", processedDocs, pdfPaths.size(), allChunks.size());
-            VectorSearchResponse vectorSearchResponse = vectorSearchService.createAndDeployVectorSearchIndex(gcsUri, batchId);
+            updateStatus(batchId, "GENERATING_EMBEDDINGS", processedDocs[0], totalDocs[0], allChunks.size());
+            Path chunksFile;
+            try (ChunkFile.Writer chunkWriter = storageService.createLocalChunkFile(batchId)) {
+                for (TextChunk chunk : allChunks) {
+                    chunkWriter.append(chunk);
+                }
+                chunksFile = chunkWriter.file();
+            }
+            List<VectorSearchResponse> vectorSearchResponses = storeAndIndex(batchId, request, branches,
+                    (index, branch, sink) -> embed(batchId, branch, allChunks, sink), keywordIndex, chunksFile,
+                    stage -> updateStatus(batchId, stage, processedDocs[0], totalDocs[0], allChunks.size()));
 
             // Complete processing status
-            updateStatus(batchId, "COMPLETED", processedDocs, pdfPaths.size(), allChunks.size());
+            updateStatus(batchId, "COMPLETED", processedDocs[0], totalDocs[0], allChunks.size());
 
-            log.info("Successfully processed batch {}. Created vector index: {}",
-                    batchId, vectorSearchResponse.indexId());
+            log.info("Successfully processed batch {}. Created vector indexes: {}",
+                    batchId, vectorSearchResponses.stream().map(VectorSearchResponse::indexId).toList());
 
         } catch (Exception e) {
-            log.error("Error processing PDF files for batch {}: {}", batchId, e.getMessage(), e);
-            updateStatus(batchId, "FAILED: " + e.getMessage(),
+            boolean cancelled = batchCancellation.isCancelled(batchId);
+            if (cancelled) {
+                log.info("Cancelled batch {}", batchId);
+            } else {
+                log.error("Error processing PDF files for batch {}: {}", batchId, e.getMessage(), e);
+            }
+            updateStatus(batchId, cancelled ? "CANCELLED" : "FAILED: " + e.getMessage(),
                     processingStatusMap.get(batchId).processedDocuments(),
-                    pdfPaths.size(),
+                    totalDocs[0],
                     processingStatusMap.get(batchId).processedChunks());
+        } finally {
+            endCancellableWork(batchId, interruption);
+            fairShareScheduler.unregister(batchId);
+        }
+    }
+
+    /**
+     * Store the embeddings of every embedding branch of a batch locally and in GCS as a collection of
+     * its own, next to the batch's keyword index, and create and deploy a vector search index per
+     * collection. The branches run side by side.
+     *
+     * @param embeddings writes the model output of a branch for all chunks of the batch to a sink, in chunk order
+     * @param chunksFile the chunks of the batch, kept locally for export
+     * @param stages     told about each stage the batch enters
+     * @return the index of each branch, in branch order
+     */
+    private List<VectorSearchResponse> storeAndIndex(String batchId, PdfProcessingRequest request,
+                                                     List<EmbeddingBranch> branches, EmbeddingWriter embeddings,
+                                                     Bm25IndexBuilder keywordIndex, Path chunksFile,
+                                                     StageListener stages) throws Exception {
+        List<Path> localFiles = Collections.synchronizedList(new ArrayList<>());
+        localFiles.add(chunksFile);
+        localFiles.add(ChunkFile.indexFile(chunksFile));
+        try {
+            // The keyword index doesn't depend on the model, the collections of all branches share it
+            Path keywordIndexFile = storageService.saveKeywordIndexToLocalFile(batchId, keywordIndex);
+            localFiles.add(keywordIndexFile);
+            storageService.uploadFileToGcs(keywordIndexFile, "application/octet-stream");
+
+            List<VectorSearchResponse> responses = inBranches(batchId, branches, (index, branch) -> storeAndIndex(
+                    batchId, index, branch, request, embeddings, keywordIndexFile, stages, localFiles));
+            batchExportService.registerChunks(batchId, chunksFile);
+            return responses;
+        } catch (Exception e) {
+            boolean cancelled = batchCancellation.isCancelled(batchId);
+            // A failed or cancelled batch leaves nothing behind on this node, not even its chunks to export
+            for (int i = 0; i < branches.size(); i++) {
+                localSearchService.unregisterBatch(branches.get(i).collectionId(batchId, i));
+                batchExportService.unregister(branches.get(i).collectionId(batchId, i));
+            }
+            for (Path file : localFiles) {
+                try {
+                    // Only the arenas have a metadata sidecar, for the other files there is none to delete
+                    EmbeddingArena.delete(file);
+                } catch (IOException deleteError) {
+                    log.warn("Failed to delete {} of batch {}: {}", file, batchId, deleteError.getMessage());
+                }
+            }
+            if (!cancelled) {
+                throw e;
+            }
+            throw e instanceof BatchCancelledException ? e : new BatchCancelledException(batchId);
+        }
+    }
+
+    private VectorSearchResponse storeAndIndex(String batchId, int branchIndex, EmbeddingBranch branch,
+                                               PdfProcessingRequest request, EmbeddingWriter embeddings,
+                                               Path keywordIndexFile, StageListener stages,
+                                               List<Path> localFiles) throws Exception {
+        // Embeddings go straight into an off-heap arena instead of piling up as records on the heap
+        String collectionId = branch.collectionId(batchId, branchIndex);
+        EmbeddingDimensionality dimensionality = branch.dimensionality();
+        EmbeddingShardManifest shardManifest;
+        IndexParameters indexParameters;
+        Path embeddingsFile;
+        try (EmbeddingArena arena = storageService.createLocalEmbeddingArena(collectionId,
+                dimensionality.outputDimension())) {
+            localFiles.add(arena.file());
+            // Reduced embeddings come out renormalized, model output is normalized here
+            EmbeddingReduction reduction = dimensionality.newReduction(embedding -> {
+                if (normalizeEmbeddings) {
+                    VectorMath.normalize(embedding.embedding());
+                }
+                arena.append(embedding);
+            });
+            embeddings.writeTo(branchIndex, branch, reduction);
+            EmbeddingReduction.Result reductionResult = reduction.finish();
+            // Queries against the collection have to go through the same projection
+            if (reductionResult.reducer() instanceof PcaProjection projection) {
+                Path projectionFile = PcaProjection.sidecarOf(arena.file());
+                localFiles.add(projectionFile);
+                projection.save(projectionFile);
+                storageService.uploadFileToGcs(projectionFile, "application/octet-stream");
+            }
+
+            // Keep the arena locally for search and upload it to GCS as index input shards
+            stages.enter("SAVING_EMBEDDINGS");
+            arena.save();
+            embeddingsFile = arena.file();
+            indexParameters = indexParameterTuner.tune(arena);
+            shardManifest = throughputTracker.time(ThroughputTracker.Stage.STORAGE, arena.size(),
+                    () -> storageService.saveEmbeddingShardsToGcs(arena, collectionId, request.description(),
+                            branch.model()));
+            if (arrowExportEnabled) {
+                // Columnar copy for analytics and offline evaluation, next to the index input shards
+                Path arrowFile = storageService.saveEmbeddingsToArrowFile(arena, collectionId, request.description(),
+                        branch.model());
+                try {
+                    storageService.uploadFileToGcs(arrowFile, "application/vnd.apache.arrow.file");
+                } finally {
+                    // Only the uploaded copy is read, whether the upload worked or not
+                    Files.deleteIfExists(arrowFile);
+                }
+            }
+        }
+
+        // The keyword index lies next to the embeddings so the collection can be searched locally
+        localSearchService.registerBatch(collectionId, keywordIndexFile, embeddingsFile);
+        batchExportService.registerEmbeddings(collectionId, embeddingsFile);
+
+        // Create and deploy vector search index
+        stages.enter("CREATING_VECTOR_INDEX");
+        return throughputTracker.time(ThroughputTracker.Stage.INDEXING, 1,
+                () -> vectorSearchService.createAndDeployVectorSearchIndex(shardManifest.shardsUri(), batchId,
+                        collectionId, shardManifest.embeddingDimension(), indexParameters));
+    }
+
+    /**
+     * Run a task per embedding branch of a batch, side by side when there are several. The first
+     * failure cancels the other branches.
+     */
+    private <T> List<T> inBranches(String batchId, List<EmbeddingBranch> branches, BranchTask<T> task) throws Exception {
+        if (branches.size() == 1) {
+            return List.of(task.run(0, branches.get(0)));
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> futures = new ArrayList<>(branches.size());
+            for (int i = 0; i < branches.size(); i++) {
+                int index = i;
+                EmbeddingBranch branch = branches.get(i);
+                futures.add(executor.submit(() -> {
+                    // Blocking calls of a branch are interrupted like those of the batch thread
+                    try (BatchCancellation.Registration ignored = batchCancellation.onCancel(batchId,
+                            Thread.currentThread()::interrupt)) {
+                        return task.run(index, branch);
+                    }
+                }));
+            }
+            List<T> results = new ArrayList<>(branches.size());
+            try {
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (ExecutionException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw e;
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Split the batch into work items on the shared queue, for whichever nodes are free
+     */
+    private void submitToQueue(PdfProcessingRequest request, String batchId) {
+        try {
+            workQueue.submit(batchId, request);
+            workQueue.progress(batchId).map(this::toStatus).ifPresent(statusBroadcaster::publish);
+        } catch (IOException e) {
+            log.error("Failed to queue batch {}: {}", batchId, e.getMessage(), e);
+            updateStatus(batchId, "FAILED: " + e.getMessage(), 0, request.pdfFilePaths().size(), 0);
+        }
+    }
+
+    /**
+     * Process a work item of a queued batch. An extract item writes the chunks and the model output
+     * of its documents as a part to {@code processing.queue.dir}, which all nodes have to share; the
+     * finalize item merges the parts in item order and stores and indexes them like a local batch.
+     * Part files are named after the delivery, so a node that lost its lease can't overwrite the part
+     * of the node that took over.
+     */
+    @Override
+    public Result process(Lease lease) throws Exception {
+        PdfProcessingRequest request = workQueue.request(lease.batchId())
+                .orElseThrow(() -> new IllegalStateException("Unknown batch " + lease.batchId()));
+        // Items of one batch can run side by side on a node, the flow stays until the last one ends.
+        // It is registered and unregistered inside compute, so a starting item can't lose it to one that ends.
+        queuedFlows.compute(lease.batchId(), (batchId, items) -> {
+            if (items == null) {
+                fairShareScheduler.register(batchId, request.weight() == null ? 1 : request.weight(), request.deadline());
+                return 1;
+            }
+            return items + 1;
+        });
+        batchCancellation.start(lease.batchId());
+        BatchCancellation.Registration interruption = batchCancellation.onCancel(lease.batchId(),
+                Thread.currentThread()::interrupt);
+        try {
+            return lease.kind() == QueueState.ItemKind.FINALIZE
+                    ? finalizeParts(lease, request)
+                    : extractPart(lease, request);
+        } catch (Exception e) {
+            if (!batchCancellation.isCancelled(lease.batchId())) {
+                throw e;
+            }
+            deleteParts(lease.batchId());
+            throw e instanceof BatchCancelledException ? e : new BatchCancelledException(lease.batchId());
+        } finally {
+            endCancellableWork(lease.batchId(), interruption);
+            queuedFlows.compute(lease.batchId(), (batchId, items) -> {
+                if (items == null || items <= 1) {
+                    fairShareScheduler.unregister(batchId);
+                    return null;
+                }
+                return items - 1;
+            });
+        }
+    }
+
+    /**
+     * Delete the parts of a batch that failed or left the queue; parts of items that were still
+     * running when it failed are written later and go when the batch is dropped
+     */
+    @Override
+    public void discard(String batchId) throws IOException {
+        deleteParts(batchId);
+    }
+
+    private Result extractPart(Lease lease, PdfProcessingRequest request) throws Exception {
+        String batchId = lease.batchId();
+        List<TextChunk> chunks = new ArrayList<>();
+        DocumentDeduplicator deduplicator = new DocumentDeduplicator();
+        int documents = 0;
+        for (String pdfPath : lease.pdfFilePaths()) {
+            batchCancellation.check(batchId);
+            Path path = Paths.get(pdfPath);
+            chunks.addAll(extractFile(batchId, path, deduplicator));
+            documents++;
+        }
+        if (lease.source() != null) {
+            DocumentSource source = documentSources.resolve(lease.source());
+            DocumentFilter filter = DocumentFilter.of(request.include(), request.exclude());
+            documents += source.forEach(filter, (name, size, content) -> {
+                batchCancellation.check(batchId);
+                chunks.addAll(extractFromStream(batchId, name, size, content, deduplicator));
+            });
+        }
+
+        Path partsDir = Files.createDirectories(partsDir(batchId));
+        String part = partName(lease);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(partsDir.resolve(part + CHUNKS_SUFFIX)))) {
+            objectMapper.writeValue(out, chunks);
+        }
+        // Copies in other parts are only known when the parts are merged
+        objectMapper.writeValue(partsDir.resolve(part + DOCUMENTS_SUFFIX).toFile(), deduplicator.documents());
+        inBranches(batchId, embeddingModels.resolve(request.embeddingTargets()), (index, branch) -> {
+            embedPart(batchId, branch, chunks, partsDir.resolve(part + branchSuffix(index) + EMBEDDINGS_SUFFIX));
+            return null;
+        });
+        log.info("Wrote part {} of batch {} with {} documents and {} chunks", lease.index(), batchId, documents,
+                chunks.size());
+        return new Result(documents, chunks.size());
+    }
+
+    /**
+     * Write the model output of a branch for the chunks of a part. It is kept unreduced, a PCA has to
+     * be fitted on the whole batch. The file is deleted again when the write fails.
+     */
+    private void embedPart(String batchId, EmbeddingBranch branch, List<TextChunk> chunks, Path file) throws Exception {
+        EmbeddingArena[] embeddings = new EmbeddingArena[1];
+        try {
+            embed(batchId, branch, chunks, embedding -> {
+                try {
+                    if (embeddings[0] == null) {
+                        embeddings[0] = EmbeddingArena.mapped(file, embedding.embedding().length);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                embeddings[0].append(embedding);
+            });
+            if (embeddings[0] != null) {
+                embeddings[0].save();
+            }
+        } catch (Exception e) {
+            // A retry writes a file of its own, this one would only take up space until the batch is dropped
+            try {
+                if (embeddings[0] != null) {
+                    embeddings[0].close();
+                    embeddings[0] = null;
+                }
+                EmbeddingArena.delete(file);
+            } catch (IOException deleteError) {
+                e.addSuppressed(deleteError);
+            }
+            throw e;
+        } finally {
+            if (embeddings[0] != null) {
+                embeddings[0].close();
+            }
+        }
+    }
+
+    private Result finalizeParts(Lease lease, PdfProcessingRequest request) throws Exception {
+        String batchId = lease.batchId();
+        List<Lease> parts = workQueue.completedParts(batchId);
+        Path partsDir = partsDir(batchId);
+        Bm25IndexBuilder keywordIndex = new Bm25IndexBuilder();
+        StageListener stages = stage -> {
+            workQueue.updateStatus(batchId, stage);
+            workQueue.progress(batchId).map(this::toStatus).ifPresent(statusBroadcaster::publish);
+        };
+
+        stages.enter("MERGING_PARTS");
+        Map<Lease, List<byte[]>> copies = documentCopies(parts, partsDir);
+        Path chunksFile;
+        try (ChunkFile.Writer chunkWriter = storageService.createLocalChunkFile(batchId)) {
+            for (Lease part : parts) {
+                Path partChunksFile = partsDir.resolve(partName(part) + CHUNKS_SUFFIX);
+                List<ChunkIds> partCopies = copies.get(part).stream().map(ChunkIds::new).toList();
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(partChunksFile))) {
+                    List<TextChunk> chunks = objectMapper.readValue(in, new TypeReference<List<TextChunk>>() {
+                    });
+                    for (TextChunk chunk : chunks) {
+                        if (isCopy(partCopies, chunk.id(), chunk.pageNumber(), chunk.position())) {
+                            continue;
+                        }
+                        keywordIndex.add(chunk);
+                        chunkWriter.append(chunk);
+                    }
+                }
+            }
+            chunksFile = chunkWriter.file();
+        }
+        List<EmbeddingBranch> branches = embeddingModels.resolve(request.embeddingTargets());
+        List<VectorSearchResponse> vectorSearchResponses = storeAndIndex(batchId, request, branches, (index, branch, sink) -> {
+            for (Lease part : parts) {
+                Path embeddingsFile = partsDir.resolve(partName(part) + branchSuffix(index) + EMBEDDINGS_SUFFIX);
+                if (!Files.exists(embeddingsFile)) {
+                    continue;
+                }
+                // Branches merge concurrently and ChunkIds aren't thread-safe
+                List<ChunkIds> partCopies = copies.get(part).stream().map(ChunkIds::new).toList();
+                try (EmbeddingArena embeddings = EmbeddingArena.open(embeddingsFile)) {
+                    // Views are reused, the reduction may hold embeddings back
+                    embeddings.forEach(0, embeddings.size(), view -> {
+                        if (!isCopy(partCopies, view.id(), view.pageNumber(), view.position())) {
+                            sink.accept(new TextEmbedding(view.id(), view.vector().clone(), view.sourceDocument(),
+                                    view.pageNumber(), view.position()));
+                        }
+                    });
+                }
+            }
+        }, keywordIndex, chunksFile, stages);
+        stages.enter("COMPLETED");
+        log.info("Successfully processed batch {} from {} parts. Created vector indexes: {}",
+                batchId, parts.size(), vectorSearchResponses.stream().map(VectorSearchResponse::indexId).toList());
+
+        deleteParts(batchId);
+        return new Result(0, 0);
+    }
+
+    /**
+     * Content hashes of the documents of each part whose first copy is in an earlier part
+     */
+    private Map<Lease, List<byte[]>> documentCopies(List<Lease> parts, Path partsDir) throws IOException {
+        DocumentDeduplicator deduplicator = new DocumentDeduplicator();
+        Map<Lease, List<byte[]>> copies = new HashMap<>();
+        for (Lease part : parts) {
+            List<byte[]> partCopies = new ArrayList<>();
+            Path documentsFile = partsDir.resolve(partName(part) + DOCUMENTS_SUFFIX);
+            if (Files.exists(documentsFile)) {
+                Map<String, String> documents = objectMapper.readValue(documentsFile.toFile(),
+                        new TypeReference<LinkedHashMap<String, String>>() {
+                        });
+                documents.forEach((hash, name) -> {
+                    byte[] documentHash = DocumentDeduplicator.parseHash(hash);
+                    if (!deduplicator.isFirstCopy(name, documentHash)) {
+                        partCopies.add(documentHash);
+                    }
+                });
+            }
+            copies.put(part, partCopies);
+        }
+        return copies;
+    }
+
+    /**
+     * Whether a chunk id is the one a copied document gives the chunk at this location
+     */
+    private static boolean isCopy(List<ChunkIds> copies, UUID id, int pageNumber, int position) {
+        for (ChunkIds chunkIds : copies) {
+            if (chunkIds.id(pageNumber, position).equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path partsDir(String batchId) {
+        return queueDir.resolve("parts").resolve(batchId);
+    }
+
+    private void deleteParts(String batchId) throws IOException {
+        Path partsDir = partsDir(batchId);
+        if (!Files.exists(partsDir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(partsDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * Close the interruption registered for a batch's work and forget the batch. An interrupt a
+     * cancellation left on the thread is cleared, the thread goes back to its pool.
+     */
+    private void endCancellableWork(String batchId, BatchCancellation.Registration interruption) {
+        interruption.close();
+        if (batchCancellation.isCancelled(batchId)) {
+            Thread.interrupted();
         }
+        batchCancellation.finish(batchId);
+    }
+
+    private static String partName(Lease lease) {
+        return "part-" + lease.index() + "-" + lease.token();
+    }
+
+    /**
+     * Tells the model output files of the embedding branches of a part apart; the first branch has none
+     */
+    private static String branchSuffix(int branchIndex) {
+        return branchIndex == 0 ? "" : "." + branchIndex;
     }
 
     /**
-     * Update the processing status for a batch
+     * Extract a local PDF within the batch's share of extraction capacity
+     */
+    private List<TextChunk> extractFile(String batchId, Path path, DocumentDeduplicator documents) throws Exception {
+        return fairShareScheduler.execute(batchId, FairShareScheduler.Resource.EXTRACTION, extractionCost(path), () -> {
+            List<TextChunk> chunks = new ArrayList<>();
+            throughputTracker.time(ThroughputTracker.Stage.EXTRACTION, megabytes(path),
+                    () -> pdfExtractionService.extractTextChunks(batchId, path,
+                            documentHash -> documents.isFirstCopy(path.toString(), documentHash), chunk -> {
+                                batchCancellation.check(batchId);
+                                chunks.add(chunk);
+                            }));
+            return chunks;
+        });
+    }
+
+    /**
+     * Extract a document of a {@link DocumentSource} while the source is positioned on it
+     */
+    private List<TextChunk> extractFromStream(String batchId, String name, long size, InputStream content,
+                                              DocumentDeduplicator documents) throws IOException {
+        try {
+            return fairShareScheduler.execute(batchId, FairShareScheduler.Resource.EXTRACTION, extractionCost(size), () -> {
+                List<TextChunk> chunks = new ArrayList<>();
+                throughputTracker.time(ThroughputTracker.Stage.EXTRACTION, size / (1024.0 * 1024.0), () -> {
+                    pdfExtractionService.extractTextChunks(batchId, name, content,
+                            documentHash -> documents.isFirstCopy(name, documentHash), chunk -> {
+                                batchCancellation.check(batchId);
+                                chunks.add(chunk);
+                            });
+                    return null;
+                });
+                return chunks;
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to extract " + name, e);
+        }
+    }
+
+    /**
+     * Embed chunks of a batch with the model of a branch and record the embedding throughput, apart
+     * for the chunk sets that go through a batch prediction job
+     */
+    private void embed(String batchId, EmbeddingBranch branch, List<TextChunk> chunks, Consumer<TextEmbedding> sink)
+            throws Exception {
+        ThroughputTracker.Stage stage = batchPredictionThreshold > 0 && chunks.size() >= batchPredictionThreshold
+                ? ThroughputTracker.Stage.EMBEDDING_BATCH_PREDICTION
+                : ThroughputTracker.Stage.EMBEDDING;
+        throughputTracker.time(stage, chunks.size(), () -> {
+            embeddingsService.generateEmbeddings(batchId, branch, chunks, sink);
+            return null;
+        });
+    }
+
+    private static double megabytes(Path path) {
+        try {
+            return Files.size(path) / (1024.0 * 1024.0);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Scheduling cost of extracting a document, in megabytes
+     */
+    private double extractionCost(Path path) {
+        try {
+            return extractionCost(Files.size(path));
+        } catch (IOException e) {
+            return 1.0;
+        }
+    }
+
+    private static double extractionCost(long sizeBytes) {
+        return Math.max(1.0, sizeBytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Update the processing status for a batch and push it to the batch's subscribers
      */
     private void updateStatus(String batchId, String status, int processedDocuments,
                               int totalDocuments, int processedChunks) {
@@ -112,18 +714,128 @@ public class ProcessingServiceImpl implements ProcessingService {
                 processedDocuments,
                 totalDocuments,
                 processedChunks,
-                Instant.now()
+                Instant.now(),
+                fairShareScheduler.getWeight(batchId),
+                fairShareScheduler.getShare(batchId, FairShareScheduler.Resource.EXTRACTION),
+                fairShareScheduler.getShare(batchId, FairShareScheduler.Resource.EMBEDDING)
         );
 
         processingStatusMap.put(batchId, processingStatus);
+        statusBroadcaster.publish(processingStatus);
         log.debug("Updated processing status for batch {}: {}", batchId, status);
     }
 
+    /**
+     * Cancel a batch: its work on this node stops at the next cancellation point and, with the work
+     * queue, the other nodes stop its items once their heartbeat fails
+     *
+     * @return false if the batch isn't running
+     */
+    public boolean cancelProcessing(String batchId) {
+        boolean cancelled = batchCancellation.cancel(batchId);
+        if (queueEnabled) {
+            try {
+                if (workQueue.cancel(batchId)) {
+                    cancelled = true;
+                    deleteParts(batchId);
+                    workQueue.progress(batchId).map(this::toStatus).ifPresent(statusBroadcaster::publish);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to cancel batch {} in the work queue: {}", batchId, e.getMessage());
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Change the weight and deadline of a running batch; work it has already queued for capacity is
+     * re-tagged, with the work queue the other nodes apply the change to the items they lease next
+     *
+     * @param weight   the new weight, or null to keep the current one
+     * @param deadline the new deadline, or null for none
+     * @return false if the batch isn't running
+     */
+    public boolean reprioritize(String batchId, Integer weight, Instant deadline) {
+        boolean changed = fairShareScheduler.reprioritize(batchId,
+                weight == null ? fairShareScheduler.getWeight(batchId) : weight, deadline);
+        if (queueEnabled) {
+            try {
+                changed |= workQueue.reprioritize(batchId, weight, deadline);
+            } catch (IOException e) {
+                log.warn("Failed to reprioritize batch {} in the work queue: {}", batchId, e.getMessage());
+            }
+        }
+        ProcessingStatus status = processingStatusMap.get(batchId);
+        if (changed && status != null) {
+            updateStatus(batchId, status.status(), status.processedDocuments(), status.totalDocuments(),
+                    status.processedChunks());
+        }
+        return changed;
+    }
+
     /**
      * Get the current processing status for a batch
      */
     public ProcessingStatus getProcessingStatus(String batchId) {
-        return processingStatusMap.getOrDefault(batchId,
-                new ProcessingStatus(batchId, "NOT_FOUND", 0, 0, 0, Instant.now()));
+        ProcessingStatus status = processingStatusMap.get(batchId);
+        if (status == null && queueEnabled) {
+            // Queued batches are spread over the nodes, their progress is summed up in the queue
+            try {
+                Optional<WorkQueue.BatchProgress> progress = workQueue.progress(batchId);
+                if (progress.isPresent()) {
+                    return toStatus(progress.get());
+                }
+            } catch (IOException e) {
+                log.warn("Failed to read the progress of batch {} from the work queue: {}", batchId, e.getMessage());
+            }
+        }
+        if (status == null) {
+            return new ProcessingStatus(batchId, "NOT_FOUND", 0, 0, 0, Instant.now(), 1, 0, 0);
+        }
+
+        // Capacity shares move between updates, report the current ones
+        return new ProcessingStatus(
+                status.batchId(),
+                status.status(),
+                status.processedDocuments(),
+                status.totalDocuments(),
+                status.processedChunks(),
+                status.lastUpdated(),
+                status.weight(),
+                fairShareScheduler.getShare(batchId, FairShareScheduler.Resource.EXTRACTION),
+                fairShareScheduler.getShare(batchId, FairShareScheduler.Resource.EMBEDDING)
+        );
+    }
+
+    private ProcessingStatus toStatus(WorkQueue.BatchProgress progress) {
+        return new ProcessingStatus(
+                progress.batchId(),
+                progress.status(),
+                progress.processedDocuments(),
+                progress.totalDocuments(),
+                progress.processedChunks(),
+                progress.updatedAt(),
+                fairShareScheduler.getWeight(progress.batchId()),
+                fairShareScheduler.getShare(progress.batchId(), FairShareScheduler.Resource.EXTRACTION),
+                fairShareScheduler.getShare(progress.batchId(), FairShareScheduler.Resource.EMBEDDING)
+        );
+    }
+
+    /**
+     * Hands the embeddings of an embedding branch of a batch to a sink
+     */
+    @FunctionalInterface
+    private interface EmbeddingWriter {
+        void writeTo(int branchIndex, EmbeddingBranch branch, Consumer<TextEmbedding> sink) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface BranchTask<T> {
+        T run(int branchIndex, EmbeddingBranch branch) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface StageListener {
+        void enter(String stage) throws IOException;
     }
 }
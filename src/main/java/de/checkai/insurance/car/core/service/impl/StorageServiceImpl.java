@@ -12,15 +12,23 @@ import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import de.checkai.insurance.car.appication.model.EmbeddingCollection;
+import de.checkai.insurance.car.appication.model.EmbeddingShardManifest;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.core.resilience.ResilientRpcExecutor;
+import de.checkai.insurance.car.core.search.Bm25IndexBuilder;
 import de.checkai.insurance.car.core.service.StorageService;
+import de.checkai.insurance.car.core.storage.ArrowEmbeddingWriter;
+import de.checkai.insurance.car.core.storage.ChunkFile;
+import de.checkai.insurance.car.core.storage.GcsUploads;
+import de.checkai.insurance.car.core.storage.ShardedEmbeddingWriter;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -30,8 +38,10 @@ import java.time.format.DateTimeFormatter;
 @RequiredArgsConstructor
 public class StorageServiceImpl implements StorageService {
 
-    private final Storage storage;
+    private final LazyCloudClient<Storage> storage;
     private final ObjectMapper objectMapper;
+    private final ResilientRpcExecutor rpcExecutor;
+    private final ShardedEmbeddingWriter shardedEmbeddingWriter;
 
     @Value("${gcp.storage.bucket-name}")
     private String bucketName;
@@ -59,7 +69,95 @@ public class StorageServiceImpl implements StorageService {
     }
 
     /**
-     * Upload a file to Google Cloud Storage
+     * Save embeddings collection to a local Arrow IPC file
+     *
+     * @param collection the embedding collection to save
+     * @return the path to the saved file
+     */
+    public Path saveEmbeddingsToArrowFile(EmbeddingCollection collection) throws IOException {
+        Path filePath = arrowFile(collection.id());
+        ArrowEmbeddingWriter.write(collection, filePath);
+        log.info("Saved embeddings collection to Arrow file: {}", filePath);
+
+        return filePath;
+    }
+
+    /**
+     * Save the embeddings of an arena to a local Arrow IPC file, read straight from the arena
+     *
+     * @param arena          the embeddings to save
+     * @param collectionId   id of the collection, usually the batch id
+     * @param description    description of the collection
+     * @param embeddingModel model the embeddings were generated with
+     * @return the path to the saved file
+     */
+    public Path saveEmbeddingsToArrowFile(EmbeddingArena arena, String collectionId, String description,
+                                          String embeddingModel) throws IOException {
+        Path filePath = arrowFile(collectionId);
+        ArrowEmbeddingWriter.write(arena, collectionId, description, embeddingModel, filePath);
+        log.info("Saved {} embeddings of collection {} to Arrow file: {}", arena.size(), collectionId, filePath);
+
+        return filePath;
+    }
+
+    private static Path arrowFile(String collectionId) {
+        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
+        String filename = String.format("insurance-car-embeddings_%s_%s.arrow", collectionId, timestamp);
+        return Path.of(System.getProperty("java.io.tmpdir"), filename);
+    }
+
+    /**
+     * Create a memory-mapped embedding arena for a batch in the local temp directory
+     *
+     * @param batchId            the batch the embeddings belong to
+     * @param embeddingDimension dimension of the embeddings
+     * @return the empty arena; {@link EmbeddingArena#save()} persists it
+     */
+    public EmbeddingArena createLocalEmbeddingArena(String batchId, int embeddingDimension) throws IOException {
+        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
+        String filename = String.format("insurance-car-embeddings_%s_%s.f32", batchId, timestamp);
+
+        Path filePath = Path.of(System.getProperty("java.io.tmpdir"), filename);
+        log.info("Writing embeddings of batch {} to local arena: {}", batchId, filePath);
+
+        return EmbeddingArena.mapped(filePath, embeddingDimension);
+    }
+
+    /**
+     * Create the local NDJSON file the chunks of a batch are exported from
+     *
+     * @param batchId the batch the chunks belong to
+     * @return the empty file's writer; closing it writes the line index
+     */
+    public ChunkFile.Writer createLocalChunkFile(String batchId) throws IOException {
+        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
+        String filename = String.format("insurance-car-chunks_%s_%s.ndjson", batchId, timestamp);
+
+        Path filePath = Path.of(System.getProperty("java.io.tmpdir"), filename);
+        log.info("Writing chunks of batch {} to local file: {}", batchId, filePath);
+
+        return ChunkFile.create(filePath, objectMapper);
+    }
+
+    /**
+     * Save the keyword index of a batch next to its embeddings file
+     *
+     * @param batchId      the batch the index was built for
+     * @param indexBuilder the index built during extraction
+     * @return the path to the saved file
+     */
+    public Path saveKeywordIndexToLocalFile(String batchId, Bm25IndexBuilder indexBuilder) throws IOException {
+        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
+        String filename = String.format("insurance-car-bm25_%s_%s.idx", batchId, timestamp);
+
+        Path filePath = indexBuilder.writeTo(Path.of(System.getProperty("java.io.tmpdir"), filename));
+        log.info("Saved keyword index with {} chunks to local file: {}", indexBuilder.getChunkCount(), filePath);
+
+        return filePath;
+    }
+
+    /**
+     * Upload a file to Google Cloud Storage, streamed from disk so large exports don't have to fit in memory
      *
      * @param filePath    the path to the file to upload
      * @param contentType the content type of the file
@@ -67,16 +165,20 @@ public class StorageServiceImpl implements StorageService {
      */
     public String uploadFileToGcs(Path filePath, String contentType) throws IOException {
         String objectName = filePath.getFileName().toString();
-        byte[] content = Files.readAllBytes(filePath);
 
         BlobId blobId = BlobId.of(bucketName, objectName);
         BlobInfo blobInfo = BlobInfo.newBuilder(blobId)
                 .setContentType(contentType)
                 .build();
 
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(content)) {
-            storage.create(blobInfo, inputStream);
-        }
+        rpcExecutor.execute("gcs", "upload", deadline -> {
+            try {
+                GcsUploads.upload(storage.get(), blobInfo, filePath, deadline);
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
 
         String gcsUri = String.format("gs://%s/%s", bucketName, objectName);
         log.info("Successfully uploaded file to GCS: {}", gcsUri);
@@ -93,4 +195,28 @@ public class StorageServiceImpl implements StorageService {
         Path localFile = saveEmbeddingsToLocalFile(collection);
         return uploadFileToGcs(localFile, "application/json");
     }
-}
\ No newline at end of file
+
+    /**
+     * Write embeddings as parallel uploaded shards under one GCS prefix
+     *
+     * @param collection the embedding collection to save
+     * @return the manifest of the written shards
+     */
+    public EmbeddingShardManifest saveEmbeddingShardsToGcs(EmbeddingCollection collection) throws IOException {
+        return shardedEmbeddingWriter.write(collection);
+    }
+
+    /**
+     * Write the embeddings of an arena as parallel uploaded shards under one GCS prefix
+     *
+     * @param arena          the embeddings to save
+     * @param collectionId   id of the collection, usually the batch id
+     * @param description    description of the collection
+     * @param embeddingModel model the embeddings were generated with
+     * @return the manifest of the written shards
+     */
+    public EmbeddingShardManifest saveEmbeddingShardsToGcs(EmbeddingArena arena, String collectionId, String description,
+                                                           String embeddingModel) throws IOException {
+        return shardedEmbeddingWriter.write(arena, collectionId, description, embeddingModel);
+    }
+}
@@ -1,15 +1,24 @@
 package de.checkai.insurance.car.core.service.impl;
 
 import com.google.cloud.aiplatform.v1.*;
+import com.google.api.gax.longrunning.OperationFuture;
 import com.google.protobuf.Struct;
+import de.checkai.insurance.car.appication.model.IndexParameters;
 import de.checkai.insurance.car.appication.model.VectorSearchResponse;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.cancellation.BatchCancelledException;
+import de.checkai.insurance.car.core.embedding.EmbeddingDimensionality;
 import de.checkai.insurance.car.core.service.VectorSearchService;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Value;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Locale;
+import java.util.function.Consumer;
 
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
@@ -24,8 +33,10 @@ import java.util.concurrent.TimeoutException;
 @RequiredArgsConstructor
 public class VectorSearchServiceImpl implements VectorSearchService {
 
-    private final IndexServiceClient indexServiceClient;
-    private final IndexEndpointServiceClient indexEndpointServiceClient;
+    private final LazyCloudClient<IndexServiceClient> indexServiceClient;
+    private final LazyCloudClient<IndexEndpointServiceClient> indexEndpointServiceClient;
+    private final EmbeddingDimensionality embeddingDimensionality;
+    private final BatchCancellation batchCancellation;
 
     @Value("${spring.cloud.gcp.project-id}")
     private String projectId;
@@ -33,49 +44,116 @@ public class VectorSearchServiceImpl implements VectorSearchService {
     @Value("${gcp.vertex.region}")
     private String region;
 
-    @Value("${gcp.vertex.embedding-dimension}")
-    private int embeddingDimension;
-
     @Value("${gcp.vertex.vector-search-index-name}")
     private String indexName;
 
     @Value("${gcp.vertex.vector-search-endpoint-name}")
     private String endpointName;
 
+    @Value("${gcp.vertex.distance-measure-type:}")
+    private String distanceMeasureType;
+
+    @Value("${gcp.vertex.normalize-embeddings:true}")
+    private boolean normalizeEmbeddings;
+
+    /**
+     * Derive the distance measure from gcp.vertex.normalize-embeddings when none is configured; the
+     * dot product only ranks like the cosine when the embeddings are unit vectors, so it is refused
+     * for embeddings that are written as the model returns them
+     */
+    @PostConstruct
+    void resolveDistanceMeasure() {
+        if (distanceMeasureType.isBlank()) {
+            distanceMeasureType = normalizeEmbeddings ? "DOT_PRODUCT_DISTANCE" : "COSINE_DISTANCE";
+        } else if ("DOT_PRODUCT_DISTANCE".equals(distanceMeasureType) && !normalizeEmbeddings) {
+            throw new IllegalStateException("gcp.vertex.distance-measure-type DOT_PRODUCT_DISTANCE needs "
+                    + "gcp.vertex.normalize-embeddings, use COSINE_DISTANCE for embeddings that aren't normalized");
+        }
+        log.info("Vector search indexes use {}", distanceMeasureType);
+    }
+
     /**
      * Create and deploy a vector search index in Vertex AI
      *
-     * @param gcsUri GCS URI of the embeddings file
+     * @param gcsUri GCS URI of the directory holding the embedding shards
      * @param batchId Batch ID for the processing job
      * @return Response with details of the created index and endpoint
      */
     public VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId) {
+        return createAndDeployVectorSearchIndex(gcsUri, batchId, embeddingDimensionality.outputDimension());
+    }
+
+    /**
+     * Create and deploy a vector search index for embeddings of the given dimension
+     *
+     * @param gcsUri     GCS URI of the directory holding the embedding shards
+     * @param batchId    Batch ID for the processing job
+     * @param dimensions dimension of the embeddings, e.g. from the shard manifest
+     * @return Response with details of the created index and endpoint
+     */
+    public VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId, int dimensions) {
+        return createAndDeployVectorSearchIndex(gcsUri, batchId, dimensions, IndexParameters.DEFAULT);
+    }
+
+    /**
+     * Create and deploy a vector search index with the given tree-AH parameters, e.g. from the
+     * {@link de.checkai.insurance.car.core.index.IndexParameterTuner}
+     *
+     * @param gcsUri     GCS URI of the directory holding the embedding shards
+     * @param batchId    Batch ID for the processing job
+     * @param dimensions dimension of the embeddings, e.g. from the shard manifest
+     * @param parameters tree-AH parameters; recorded in the index labels and description
+     * @return Response with details of the created index and endpoint
+     * @throws BatchCancelledException when the batch is cancelled; the running operation is cancelled
+     *                                 and the index and endpoint created so far are deleted
+     */
+    public VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId, int dimensions,
+                                                                 IndexParameters parameters) {
+        return createAndDeployVectorSearchIndex(gcsUri, batchId, batchId, dimensions, parameters);
+    }
+
+    /**
+     * Create and deploy the vector search index of one embedding collection of a batch, e.g. of a
+     * further embedding model the batch was embedded with
+     *
+     * @param collectionId id of the collection, used in the index and endpoint names instead of the batch id
+     */
+    public VectorSearchResponse createAndDeployVectorSearchIndex(String gcsUri, String batchId, String collectionId,
+                                                                 int dimensions, IndexParameters parameters) {
+        String indexId = null;
+        String endpointId = null;
         try {
             // Create the index
-            String indexId = createIndex(gcsUri, batchId);
+            indexId = createIndex(gcsUri, batchId, collectionId, dimensions, parameters);
 
             // Create the endpoint
-            String endpointId = createEndpoint(batchId);
+            endpointId = createEndpoint(batchId, collectionId);
 
             // Deploy the index to the endpoint
-            deployIndex(indexId, endpointId);
+            deployIndex(batchId, indexId, endpointId);
 
             return new VectorSearchResponse(
                     indexId,
                     endpointId,
                     "DEPLOYED",
                     Instant.now(),
-                    null
+                    null,
+                    parameters
             );
 
         } catch (Exception e) {
+            if (batchCancellation.isCancelled(batchId)) {
+                deleteResources(indexId, endpointId);
+                throw new BatchCancelledException(batchId);
+            }
             log.error("Error creating vector search index: {}", e.getMessage(), e);
             return new VectorSearchResponse(
                     null,
                     null,
                     "FAILED",
                     Instant.now(),
-                    e.getMessage()
+                    e.getMessage(),
+                    parameters
             );
         }
     }
@@ -83,27 +161,28 @@ public class VectorSearchServiceImpl implements VectorSearchService {
     /**
      * Create a vector search endpoint
      */
-    private String createEndpoint(String batchId) throws IOException,
+    private String createEndpoint(String batchId, String collectionId) throws IOException,
             InterruptedException, ExecutionException, TimeoutException {
 
         // Set the location path
         LocationName parent = LocationName.of(projectId, region);
 
         // Set unique endpoint ID
-        String uniqueEndpointId = endpointName + "-" + batchId;
+        String uniqueEndpointId = endpointName + "-" + collectionId;
 
         // Create endpoint object
         IndexEndpoint endpoint = IndexEndpoint.newBuilder()
                 .setDisplayName(uniqueEndpointId)
-                .setDescription("Insurance car embeddings endpoint for batch " + batchId)
+                .setDescription("Insurance car embeddings endpoint for collection " + collectionId)
                 .build();
 
         // Create the endpoint - trying a different approach with the Future
-        var futureResult = indexEndpointServiceClient.createIndexEndpointAsync(parent, endpoint);
+        var futureResult = indexEndpointServiceClient.get().createIndexEndpointAsync(parent, endpoint);
 
         // Wait for completion (alternative to get with timeout)
         try {
-            IndexEndpoint createdEndpoint = futureResult.get();
+            IndexEndpoint createdEndpoint = await(batchId, futureResult,
+                    indexEndpointServiceClient.get().getOperationsClient()::cancelOperation);
             String endpointId = createdEndpoint.getName();
             log.info("Created vector search endpoint: {}", endpointId);
             return endpointId;
@@ -116,7 +195,7 @@ public class VectorSearchServiceImpl implements VectorSearchService {
     /**
      * Deploy an index to an endpoint
      */
-    private void deployIndex(String indexId, String endpointId) throws IOException,
+    private void deployIndex(String batchId, String indexId, String endpointId) throws IOException,
             InterruptedException, ExecutionException, TimeoutException {
 
         // Create the deployed index object - simplifying to only use available methods
@@ -135,7 +214,8 @@ public class VectorSearchServiceImpl implements VectorSearchService {
 
         // Wait for completion without timeout parameter
         try {
-            indexEndpointServiceClient.deployIndexAsync(request).get();
+            await(batchId, indexEndpointServiceClient.get().deployIndexAsync(request),
+                    indexEndpointServiceClient.get().getOperationsClient()::cancelOperation);
             log.info("Deployed index {} to endpoint {}", indexId, endpointId);
         } catch (Exception e) {
             log.error("Error deploying index: {}", e.getMessage(), e);
@@ -146,14 +226,15 @@ public class VectorSearchServiceImpl implements VectorSearchService {
     /**
      * Create a vector search index
      */
-    private String createIndex(String gcsUri, String batchId) throws IOException,
+    private String createIndex(String gcsUri, String batchId, String collectionId, int dimensions,
+                               IndexParameters parameters) throws IOException,
             InterruptedException, ExecutionException, TimeoutException {
 
         // Set the location path
         LocationName parent = LocationName.of(projectId, region);
 
         // Set unique index ID
-        String uniqueIndexId = indexName + "-" + batchId;
+        String uniqueIndexId = indexName + "-" + collectionId;
 
         // Create metadata for the index using Struct
         Struct.Builder metadataStructBuilder = Struct.newBuilder();
@@ -164,19 +245,19 @@ public class VectorSearchServiceImpl implements VectorSearchService {
         // Add dimensions
         configStruct.putFields(
                 "dimensions",
-                com.google.protobuf.Value.newBuilder().setNumberValue(embeddingDimension).build()
+                com.google.protobuf.Value.newBuilder().setNumberValue(dimensions).build()
         );
 
         // Add approximate neighbors count
         configStruct.putFields(
                 "approximateNeighborsCount",
-                com.google.protobuf.Value.newBuilder().setNumberValue(150).build()
+                com.google.protobuf.Value.newBuilder().setNumberValue(parameters.approximateNeighborsCount()).build()
         );
 
-        // Add distance measure type
+        // Add distance measure type, DOT_PRODUCT_DISTANCE skips the norms for pre-normalized embeddings
         configStruct.putFields(
                 "distanceMeasureType",
-                com.google.protobuf.Value.newBuilder().setStringValue("COSINE").build()
+                com.google.protobuf.Value.newBuilder().setStringValue(distanceMeasureType).build()
         );
 
         // Create algorithm config
@@ -186,11 +267,11 @@ public class VectorSearchServiceImpl implements VectorSearchService {
         Struct.Builder treeAhConfigStruct = Struct.newBuilder();
         treeAhConfigStruct.putFields(
                 "leafNodeEmbeddingCount",
-                com.google.protobuf.Value.newBuilder().setNumberValue(1000).build()
+                com.google.protobuf.Value.newBuilder().setNumberValue(parameters.leafNodeEmbeddingCount()).build()
         );
         treeAhConfigStruct.putFields(
                 "leafNodesToSearchPercent",
-                com.google.protobuf.Value.newBuilder().setNumberValue(10).build()
+                com.google.protobuf.Value.newBuilder().setNumberValue(parameters.leafNodesToSearchPercent()).build()
         );
 
         // Add tree AH config to algorithm config
@@ -222,16 +303,29 @@ public class VectorSearchServiceImpl implements VectorSearchService {
                 .setStructValue(metadataStructBuilder.build())
                 .build();
 
+        // Record the parameters and how they were chosen with the index
+        String description = "Insurance car embeddings index for collection " + collectionId;
+        if (parameters.isTuned()) {
+            description += String.format(Locale.ROOT,
+                    "; tree-AH parameters tuned for an estimated recall of %.3f at %d distance computations per query",
+                    parameters.estimatedRecall(), parameters.distanceComputationsPerQuery());
+        }
+
         // Create index object
         Index index = Index.newBuilder()
                 .setDisplayName(uniqueIndexId)
                 .setMetadata(metadata)
-                .setDescription("Insurance car embeddings index for batch " + batchId)
+                .setDescription(description)
+                .putLabels("approximate-neighbors-count", String.valueOf(parameters.approximateNeighborsCount()))
+                .putLabels("leaf-node-embedding-count", String.valueOf(parameters.leafNodeEmbeddingCount()))
+                .putLabels("leaf-nodes-to-search-percent", String.valueOf(parameters.leafNodesToSearchPercent()))
+                .putLabels("parameters", parameters.isTuned() ? "tuned" : "default")
                 .build();
 
         // Create the index - without timeout parameter
         try {
-            Index createdIndex = indexServiceClient.createIndexAsync(parent, index).get();
+            Index createdIndex = await(batchId, indexServiceClient.get().createIndexAsync(parent, index),
+                    indexServiceClient.get().getOperationsClient()::cancelOperation);
             String indexId = createdIndex.getName();
             log.info("Created vector search index: {}", indexId);
             return indexId;
@@ -240,4 +334,44 @@ public class VectorSearchServiceImpl implements VectorSearchService {
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Wait for a long-running operation; cancelling the batch cancels the operation in Vertex AI
+     * and stops waiting
+     */
+    private <T> T await(String batchId, OperationFuture<T, ?> operation, Consumer<String> cancelOperation)
+            throws InterruptedException, ExecutionException {
+        try (BatchCancellation.Registration ignored = batchCancellation.onCancel(batchId, () -> {
+            try {
+                cancelOperation.accept(operation.getName());
+            } catch (Exception e) {
+                log.warn("Failed to cancel operation for batch {}: {}", batchId, e.getMessage());
+            }
+            operation.cancel(true);
+        })) {
+            return operation.get();
+        }
+    }
+
+    /**
+     * Delete what a cancelled batch created, without waiting for the deletion
+     */
+    private void deleteResources(String indexId, String endpointId) {
+        if (endpointId != null) {
+            try {
+                indexEndpointServiceClient.get().deleteIndexEndpointAsync(endpointId);
+                log.info("Deleting vector search endpoint {} of a cancelled batch", endpointId);
+            } catch (Exception e) {
+                log.warn("Failed to delete vector search endpoint {}: {}", endpointId, e.getMessage());
+            }
+        }
+        if (indexId != null) {
+            try {
+                indexServiceClient.get().deleteIndexAsync(indexId);
+                log.info("Deleting vector search index {} of a cancelled batch", indexId);
+            } catch (Exception e) {
+                log.warn("Failed to delete vector search index {}: {}", indexId, e.getMessage());
+            }
+        }
+    }
+}
@@ -1,19 +1,37 @@
 package de.checkai.insurance.car.core.service.impl;
 
+import com.google.api.gax.grpc.GrpcCallContext;
 import com.google.cloud.aiplatform.v1.*;
 import com.google.protobuf.util.JsonFormat;
 import de.checkai.insurance.car.appication.model.TextChunk;
 import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.embedding.BatchPredictionEmbedder;
+import de.checkai.insurance.car.core.embedding.EmbeddingBranch;
+import de.checkai.insurance.car.core.embedding.EmbeddingMicroBatcher;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.resilience.ResilientRpcExecutor;
+import de.checkai.insurance.car.core.scheduling.FairShareScheduler;
 import de.checkai.insurance.car.core.service.VertexEmbeddingsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * @author Mostafa.Farhadi
@@ -24,66 +42,239 @@ import java.util.Map;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class VertexEmbeddingsServiceImpl implements VertexEmbeddingsService {
+   private final BatchPredictionEmbedder batchPredictionEmbedder;
+   private final ResilientRpcExecutor rpcExecutor;
+   private final FairShareScheduler fairShareScheduler;
+   private final MeterRegistry meterRegistry;
+   private final LazyCloudClient<PredictionServiceClient> predictionServiceClient;
+   private final EmbeddingModels embeddingModels;
+   private final BatchCancellation batchCancellation;
+
    @Value("${spring.cloud.gcp.project-id}")
    private String projectId;
 
    @Value("${gcp.vertex.region}")
    private String region;
 
-   @Value("${gcp.vertex.embedding-model}")
-   private String embeddingModel;
+   @Value("${gcp.vertex.batch-prediction.threshold:20000}")
+   private int batchPredictionThreshold;
+
+   /**
+    * One micro-batcher per model, so each model has its own request size, concurrency and pace. Models
+    * are limited to the configured ones; branches of a model with different output dimensions share
+    * its batcher, which keeps their chunks in separate requests.
+    */
+   private final Map<String, EmbeddingMicroBatcher> microBatchers = new ConcurrentHashMap<>();
+
+   /**
+    * Start the micro-batcher of the configured model, shared by all callers, so concurrent jobs fill
+    * predict requests together; those of further models start with their first job
+    */
+   @PostConstruct
+   void startMicroBatcher() {
+      microBatcher(embeddingModels.defaultBranch());
+   }
+
+   @PreDestroy
+   void stopMicroBatcher() {
+      microBatchers.values().forEach(EmbeddingMicroBatcher::close);
+   }
+
+   private EmbeddingMicroBatcher microBatcher(EmbeddingBranch branch) {
+      // The limits come from the model's settings, any branch of the model has the same
+      return microBatchers.computeIfAbsent(branch.model(), model -> new EmbeddingMicroBatcher(
+              (flowId, outputDimensionality, chunks) -> processBatchWhenScheduled(flowId, model, outputDimensionality,
+                      chunks), branch.maxInstances(),
+              branch.linger(), branch.maxConcurrentRequests(), branch.predictDelay(),
+              flowId -> flowId == null ? 1 : fairShareScheduler.getWeight(flowId), meterRegistry, branch.model()));
+   }
 
    /**
-    * Generate embeddings for a list of text chunks using Vertex AI
+    * Generate embeddings for a list of text chunks using Vertex AI. Chunk sets of at least
+    * {@code gcp.vertex.batch-prediction.threshold} chunks go through a batch prediction job.
     *
     * @param textChunks list of text chunks to generate embeddings for
     * @return list of text embeddings
     */
    public List<TextEmbedding> generateEmbeddings(List<TextChunk> textChunks) {
-      List<TextEmbedding> embeddings = new ArrayList<>();
+      return generateEmbeddings(null, textChunks);
+   }
 
-      try (PredictionServiceClient predictionServiceClient = createPredictionServiceClient()) {
-         // Process chunks in batches of 5 to avoid rate limiting
-         List<List<TextChunk>> batches = batchList(textChunks, 5);
+   /**
+    * Generate embeddings for the chunks of a processing batch. Predict requests are admitted by the
+    * shared {@link FairShareScheduler}, so concurrent batches get embedding capacity by their weight.
+    *
+    * @param batchId    processing batch the chunks belong to, or null
+    * @param textChunks list of text chunks to generate embeddings for
+    * @return list of text embeddings
+    */
+   public List<TextEmbedding> generateEmbeddings(String batchId, List<TextChunk> textChunks) {
+      List<TextEmbedding> embeddings = new ArrayList<>(textChunks.size());
+      generateEmbeddings(batchId, textChunks, embeddings::add);
+      return embeddings;
+   }
 
-         for (List<TextChunk> batch : batches) {
-            List<TextEmbedding> batchEmbeddings = processBatch(predictionServiceClient, batch);
-            embeddings.addAll(batchEmbeddings);
+   /**
+    * Generate embeddings for the chunks of a processing batch and hand each one to the sink as soon
+    * as its predict request returns, so callers can move them off the heap instead of collecting
+    * them in a list.
+    *
+    * @param batchId    processing batch the chunks belong to, or null
+    * @param textChunks list of text chunks to generate embeddings for
+    * @param sink       receives the embeddings in chunk order, or in the order of the batch
+    *                   prediction job's output for batches of at least the batch prediction threshold
+    */
+   public void generateEmbeddings(String batchId, List<TextChunk> textChunks, Consumer<TextEmbedding> sink) {
+      generateEmbeddings(batchId, embeddingModels.defaultBranch(), textChunks, sink);
+   }
 
-            // Add a small delay to avoid rate limiting
-            try {
-               Thread.sleep(500);
-            } catch (InterruptedException e) {
-               Thread.currentThread().interrupt();
-            }
-         }
+   /**
+    * Generate the embeddings of one embedding branch of a batch, with the branch's model, output
+    * dimension and request limits
+    *
+    * @param batchId    processing batch the chunks belong to, or null
+    * @param branch     model and dimension, see {@link EmbeddingModels}
+    * @param textChunks list of text chunks to generate embeddings for
+    * @param sink       receives the embeddings in chunk order, or in the order of the batch
+    *                   prediction job's output for batches of at least the batch prediction threshold
+    */
+   public void generateEmbeddings(String batchId, EmbeddingBranch branch, List<TextChunk> textChunks,
+                                  Consumer<TextEmbedding> sink) {
+      if (batchPredictionThreshold > 0 && textChunks.size() >= batchPredictionThreshold) {
+         generateEmbeddingsWithJob(batchId, branch, textChunks, sink);
+         return;
+      }
+      generateEmbeddingsOnline(batchId, branch, textChunks, sink);
+   }
 
-         log.info("Generated {} embeddings successfully", embeddings.size());
-         return embeddings;
+   /**
+    * Run a batch prediction job and stream its output into the sink file by file, so the large
+    * batches this is used for never have all their embeddings on the heap. Chunks the job fails to
+    * embed are embedded online afterwards.
+    */
+   private void generateEmbeddingsWithJob(String batchId, EmbeddingBranch branch, List<TextChunk> textChunks,
+                                          Consumer<TextEmbedding> sink) {
+      log.info("Using batch prediction with {} for {} chunks", branch.model(), textChunks.size());
+      CompletableFuture<BatchPredictionJob> job = batchPredictionEmbedder.runJob(textChunks, branch.model(),
+              branch.dimensionality().modelOutputDimensionality());
+      BatchPredictionJob finishedJob;
+      // Cancelling the batch cancels the prediction job instead of waiting for it
+      try (BatchCancellation.Registration ignored = batchCancellation.onCancel(batchId, () -> job.cancel(true))) {
+         finishedJob = job.join();
+      } catch (CancellationException e) {
+         batchCancellation.check(batchId);
+         throw e;
+      }
 
-      } catch (IOException e) {
-         log.error("Error generating embeddings: {}", e.getMessage(), e);
-         throw new RuntimeException("Failed to generate embeddings", e);
+      List<TextChunk> missing = batchPredictionEmbedder.readOutput(finishedJob, textChunks, embedding -> {
+         batchCancellation.check(batchId);
+         sink.accept(embedding);
+      });
+      if (!missing.isEmpty()) {
+         log.warn("Batch prediction missed {} chunks, embedding them online", missing.size());
+         generateEmbeddingsOnline(batchId, branch, missing, sink);
       }
    }
 
-   private PredictionServiceClient createPredictionServiceClient() throws IOException {
-      String endpoint = String.format("%s-aiplatform.googleapis.com:443", region);
-      PredictionServiceSettings predictionServiceSettings = PredictionServiceSettings.newBuilder()
-              .setEndpoint(endpoint)
-              .build();
-      return PredictionServiceClient.create(predictionServiceSettings);
+   /**
+    * Generate embeddings with a Vertex AI batch prediction job. Chunks the job fails to embed are
+    * retried with online predictions.
+    *
+    * @param textChunks list of text chunks to generate embeddings for
+    * @return future list of text embeddings in chunk order
+    */
+   public CompletableFuture<List<TextEmbedding>> generateEmbeddingsInBulk(List<TextChunk> textChunks) {
+      return generateEmbeddingsInBulk(embeddingModels.defaultBranch(), textChunks);
+   }
+
+   private CompletableFuture<List<TextEmbedding>> generateEmbeddingsInBulk(EmbeddingBranch branch, List<TextChunk> textChunks) {
+      log.info("Using batch prediction with {} for {} chunks", branch.model(), textChunks.size());
+      CompletableFuture<Map<UUID, TextEmbedding>> predicted = batchPredictionEmbedder.generateEmbeddings(textChunks,
+              branch.model(), branch.dimensionality().modelOutputDimensionality());
+      // The online fallback blocks on predict requests, keep it off the job poll thread
+      CompletableFuture<List<TextEmbedding>> result = predicted
+              .thenApplyAsync(embeddingsById -> {
+                 List<TextChunk> missing = textChunks.stream()
+                         .filter(chunk -> !embeddingsById.containsKey(chunk.id()))
+                         .toList();
+                 if (!missing.isEmpty()) {
+                    log.warn("Batch prediction missed {} chunks, embedding them online", missing.size());
+                    generateEmbeddingsOnline(null, branch, missing, embedding -> embeddingsById.put(embedding.id(), embedding));
+                 }
+
+                 List<TextEmbedding> embeddings = new ArrayList<>(textChunks.size());
+                 for (TextChunk chunk : textChunks) {
+                    embeddings.add(embeddingsById.get(chunk.id()));
+                 }
+                 return embeddings;
+              }, batchPredictionEmbedder.workerExecutor());
+      // Cancelling the result cancels the job
+      result.whenComplete((embeddings, error) -> {
+         if (result.isCancelled()) {
+            predicted.cancel(true);
+         }
+      });
+      return result;
+   }
+
+   /**
+    * Hand all chunks to the branch's micro-batcher at once; it forms, orders and paces the predict
+    * requests, and the embeddings go to the sink in chunk order as their requests return
+    */
+   private void generateEmbeddingsOnline(String batchId, EmbeddingBranch branch, List<TextChunk> textChunks,
+                                         Consumer<TextEmbedding> sink) {
+      batchCancellation.check(batchId);
+      List<CompletableFuture<TextEmbedding>> embeddings = microBatcher(branch).submitEach(batchId,
+              branch.dimensionality().modelOutputDimensionality(), textChunks);
+      try (BatchCancellation.Registration ignored = batchCancellation.onCancel(batchId,
+              () -> embeddings.forEach(embedding -> embedding.cancel(true)))) {
+         for (CompletableFuture<TextEmbedding> embedding : embeddings) {
+            sink.accept(embedding.join());
+         }
+      } catch (CancellationException e) {
+         batchCancellation.check(batchId);
+         throw e;
+      } catch (CompletionException e) {
+         throw e.getCause() instanceof RuntimeException cause ? cause
+                 : new RuntimeException("Failed to process text batch for embeddings", e.getCause());
+      } finally {
+         // Chunks that are still queued after a failure are withdrawn
+         embeddings.forEach(embedding -> embedding.cancel(false));
+      }
+
+      log.info("Generated {} embeddings with {} successfully", textChunks.size(), branch.model());
+   }
+
+   /**
+    * Send one predict request once the batch its chunks mostly belong to is granted embedding
+    * capacity by the shared {@link FairShareScheduler}
+    */
+   private List<TextEmbedding> processBatchWhenScheduled(String batchId, String model, Integer outputDimensionality,
+                                                         List<TextChunk> chunks) {
+      try {
+         return fairShareScheduler.execute(batchId, FairShareScheduler.Resource.EMBEDDING, chunks.size(),
+                 () -> processBatch(predictionServiceClient.get(), model, outputDimensionality, chunks));
+      } catch (RuntimeException e) {
+         throw e;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while waiting for embedding capacity", e);
+      } catch (Exception e) {
+         throw new RuntimeException("Failed to process text batch for embeddings", e);
+      }
    }
 
-   private List<TextEmbedding> processBatch(PredictionServiceClient client, List<TextChunk> chunks) {
+   private List<TextEmbedding> processBatch(PredictionServiceClient client, String model, Integer outputDimensionality,
+                                            List<TextChunk> chunks) {
       List<TextEmbedding> batchEmbeddings = new ArrayList<>();
 
       try {
          // Format the request for the text-embedding model
-         String publisherModel = "publishers/google/models/" + embeddingModel;
+         String publisherModel = "publishers/google/models/" + model;
          EndpointName endpointName = EndpointName.ofProjectLocationPublisherModelName(
-                 projectId, region, "google", embeddingModel);
+                 projectId, region, "google", model);
 
          // Create instances for each text chunk
          List<com.google.protobuf.Value> instances = new ArrayList<>();
@@ -97,8 +288,8 @@ public class VertexEmbeddingsServiceImpl implements VertexEmbeddingsService {
             instances.add(instanceValue.build());
          }
 
-         // Create parameters (empty in this case)
-         com.google.protobuf.Value parameters = com.google.protobuf.Value.newBuilder().build();
+         // Ask models that support it for fewer dimensions, otherwise send no parameters
+         com.google.protobuf.Value parameters = predictParameters(outputDimensionality);
 
          // Make the prediction request
          PredictRequest request = PredictRequest.newBuilder()
@@ -107,7 +298,9 @@ public class VertexEmbeddingsServiceImpl implements VertexEmbeddingsService {
                  .setParameters(parameters)
                  .build();
 
-         PredictResponse response = client.predict(request);
+         // Transient failures are retried with backoff, the deadline is enforced by gRPC as well
+         PredictResponse response = rpcExecutor.execute("vertex", "predict", deadline ->
+                 client.predictCallable().call(request, GrpcCallContext.createDefault().withTimeoutDuration(deadline)));
 
          // Process the response
          List<com.google.protobuf.Value> predictions = response.getPredictionsList();
@@ -122,7 +315,6 @@ public class VertexEmbeddingsServiceImpl implements VertexEmbeddingsService {
             batchEmbeddings.add(new TextEmbedding(
                     chunk.id(),
                     embedding,
-                    chunk.content(),
                     chunk.sourceDocument(),
                     chunk.pageNumber(),
                     chunk.position()
@@ -137,6 +329,17 @@ public class VertexEmbeddingsServiceImpl implements VertexEmbeddingsService {
       return batchEmbeddings;
    }
 
+   private com.google.protobuf.Value predictParameters(Integer outputDimensionality) {
+      if (outputDimensionality == null) {
+         return com.google.protobuf.Value.newBuilder().build();
+      }
+      return com.google.protobuf.Value.newBuilder()
+              .setStructValue(com.google.protobuf.Struct.newBuilder()
+                      .putFields("outputDimensionality",
+                              com.google.protobuf.Value.newBuilder().setNumberValue(outputDimensionality).build()))
+              .build();
+   }
+
    private float[] extractEmbeddingArray(com.google.protobuf.Value prediction) {
 
       try {
@@ -211,11 +414,4 @@ public class VertexEmbeddingsServiceImpl implements VertexEmbeddingsService {
       json.append("]}");
       return json.toString();
    }
-   private <T> List<List<T>> batchList(List<T> list, int batchSize) {
-      List<List<T>> batches = new ArrayList<>();
-      for (int i = 0; i < list.size(); i += batchSize) {
-         batches.add(list.subList(i, Math.min(i + batchSize, list.size())));
-      }
-      return batches;
-   }
 }
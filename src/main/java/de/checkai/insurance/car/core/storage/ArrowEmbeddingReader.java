@@ -0,0 +1,260 @@
+package de.checkai.insurance.car.core.storage;
+
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import org.apache.arrow.flatbuf.MessageHeader;
+import org.apache.arrow.flatbuf.RecordBatch;
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.ForeignAllocation;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.memory.util.MemoryUtil;
+import org.apache.arrow.vector.FixedSizeBinaryVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.FixedSizeListVector;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ReadChannel;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.ipc.message.MessageMetadataResult;
+import org.apache.arrow.vector.ipc.message.MessageSerializer;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Reads the Arrow IPC files of {@link ArrowEmbeddingWriter}. The footer, schema and document
+ * dictionary are read once; each record batch is then mapped from the file and its column buffers
+ * point into the mapping, so the vectors of a batch are never copied onto the heap or into direct
+ * memory. Batches have to be closed before the reader.
+ */
+public final class ArrowEmbeddingReader implements AutoCloseable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final BufferAllocator allocator;
+    private final ArrowFileReader fileReader;
+    private final Schema schema;
+    private final List<ArrowBlock> blocks;
+    private final List<String> sourceDocuments;
+    private final int dimension;
+
+    private ArrowEmbeddingReader(Path file, FileChannel channel, BufferAllocator allocator,
+                                 ArrowFileReader fileReader) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.allocator = allocator;
+        this.fileReader = fileReader;
+        this.schema = fileReader.getVectorSchemaRoot().getSchema();
+        this.blocks = fileReader.getRecordBlocks();
+        this.dimension = ((ArrowType.FixedSizeList) schema.findField(ArrowEmbeddingWriter.EMBEDDING).getType()).getListSize();
+
+        long dictionaryId = schema.findField(ArrowEmbeddingWriter.SOURCE_DOCUMENT).getDictionary().getId();
+        Dictionary dictionary = fileReader.getDictionaryVectors().get(dictionaryId);
+        VarCharVector names = (VarCharVector) dictionary.getVector();
+        List<String> documents = new ArrayList<>(names.getValueCount());
+        for (int i = 0; i < names.getValueCount(); i++) {
+            documents.add(new String(names.get(i), StandardCharsets.UTF_8));
+        }
+        this.sourceDocuments = List.copyOf(documents);
+    }
+
+    public static ArrowEmbeddingReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        BufferAllocator allocator = new RootAllocator();
+        ArrowFileReader fileReader = new ArrowFileReader(channel, allocator);
+        try {
+            return new ArrowEmbeddingReader(file, channel, allocator, fileReader);
+        } catch (IOException | RuntimeException e) {
+            fileReader.close();
+            allocator.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Collection id, description, model, dimension and creation time, keyed as in {@link ArrowEmbeddingWriter}
+     */
+    public Map<String, String> metadata() {
+        return schema.getCustomMetadata();
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public List<String> sourceDocuments() {
+        return sourceDocuments;
+    }
+
+    public int batchCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Map one record batch. The message header is parsed from the file; the body is wrapped as it
+     * is mapped and the vectors are loaded as slices of it.
+     */
+    public synchronized Batch batch(int index) throws IOException {
+        ArrowBlock block = blocks.get(index);
+        channel.position(block.getOffset());
+        MessageMetadataResult message = MessageSerializer.readMessage(new ReadChannel(channel));
+        if (message == null || message.getMessage().headerType() != MessageHeader.RecordBatch) {
+            throw new IOException("Block " + index + " of " + file + " is not a record batch");
+        }
+        RecordBatch header = (RecordBatch) message.getMessage().header(new RecordBatch());
+        MappedByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY,
+                block.getOffset() + block.getMetadataLength(), block.getBodyLength());
+
+        VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+        try (ArrowBuf bodyBuffer = allocator.wrapForeignAllocation(new MappedRegion(body));
+             ArrowRecordBatch recordBatch = MessageSerializer.deserializeRecordBatch(header, bodyBuffer)) {
+            new VectorLoader(root).load(recordBatch);
+        } catch (IOException | RuntimeException e) {
+            root.close();
+            throw e;
+        }
+        return new Batch(root);
+    }
+
+    /**
+     * Visit every record as a {@link TextEmbedding}, for callers that want objects rather than
+     * columns; this copies each vector
+     */
+    public void forEach(Consumer<TextEmbedding> action) throws IOException {
+        for (int i = 0; i < blocks.size(); i++) {
+            try (Batch batch = batch(i)) {
+                for (int row = 0; row < batch.rowCount(); row++) {
+                    action.accept(new TextEmbedding(batch.id(row), batch.vector(row, new float[dimension]),
+                            batch.sourceDocument(row), batch.pageNumber(row), batch.position(row)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileReader.close();
+        } finally {
+            allocator.close();
+        }
+    }
+
+    /**
+     * The columns of one record batch, backed by the mapped file
+     */
+    public final class Batch implements AutoCloseable {
+
+        private final VectorSchemaRoot root;
+        private final FixedSizeBinaryVector ids;
+        private final Float4Vector values;
+        private final IntVector documentIds;
+        private final IntVector pageNumbers;
+        private final IntVector positions;
+
+        private Batch(VectorSchemaRoot root) {
+            this.root = root;
+            this.ids = (FixedSizeBinaryVector) root.getVector(ArrowEmbeddingWriter.ID);
+            this.values = (Float4Vector) ((FixedSizeListVector) root.getVector(ArrowEmbeddingWriter.EMBEDDING)).getDataVector();
+            this.documentIds = (IntVector) root.getVector(ArrowEmbeddingWriter.SOURCE_DOCUMENT);
+            this.pageNumbers = (IntVector) root.getVector(ArrowEmbeddingWriter.PAGE_NUMBER);
+            this.positions = (IntVector) root.getVector(ArrowEmbeddingWriter.POSITION);
+        }
+
+        public int rowCount() {
+            return root.getRowCount();
+        }
+
+        public UUID id(int row) {
+            // The id bytes are big-endian, Arrow buffers are read little-endian
+            ArrowBuf data = ids.getDataBuffer();
+            long offset = 16L * row;
+            return new UUID(Long.reverseBytes(data.getLong(offset)), Long.reverseBytes(data.getLong(offset + 8)));
+        }
+
+        public float[] vector(int row, float[] into) {
+            ArrowBuf data = values.getDataBuffer();
+            long offset = (long) row * dimension * Float.BYTES;
+            for (int j = 0; j < dimension; j++) {
+                into[j] = data.getFloat(offset + (long) j * Float.BYTES);
+            }
+            return into;
+        }
+
+        /**
+         * All vectors of the batch, row after row, as a view of the mapped file
+         */
+        public FloatBuffer vectors() {
+            return values.getDataBuffer()
+                    .nioBuffer(0, rowCount() * dimension * Float.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asFloatBuffer();
+        }
+
+        public String sourceDocument(int row) {
+            return sourceDocuments.get(documentIds.get(row));
+        }
+
+        public int pageNumber(int row) {
+            return pageNumbers.get(row);
+        }
+
+        public int position(int row) {
+            return positions.get(row);
+        }
+
+        public VectorSchemaRoot root() {
+            return root;
+        }
+
+        @Override
+        public void close() {
+            root.close();
+        }
+    }
+
+    /**
+     * A mapped file region handed to Arrow as foreign memory. Holding the buffer keeps the mapping
+     * alive while any vector still slices it; once the last one is released the mapping is left to
+     * the collector, like every {@link MappedByteBuffer}.
+     */
+    private static final class MappedRegion extends ForeignAllocation {
+
+        private MappedByteBuffer region;
+
+        MappedRegion(MappedByteBuffer region) {
+            super(region.capacity(), MemoryUtil.getByteBufferAddress(region));
+            this.region = region;
+        }
+
+        @Override
+        protected void release0() {
+            region = null;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package de.checkai.insurance.car.core.storage;
+
+import de.checkai.insurance.car.appication.model.EmbeddingCollection;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FixedSizeBinaryVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.FixedSizeListVector;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Writes an embedding collection as an Arrow IPC file (Feather v2), so analytics and evaluation
+ * jobs load the vectors as columns instead of parsing JSON floats. Columns:
+ * <pre>
+ * id               fixed_size_binary[16]   UUID, most significant bytes first
+ * embedding        fixed_size_list&lt;float&gt;[dimension]
+ * source_document  dictionary&lt;int32, utf8&gt;
+ * page_number      int32
+ * position         int32
+ * </pre>
+ * Collection id, description, model, dimension and creation time are kept in the schema metadata.
+ * Rows are written in record batches of {@link #ROWS_PER_BATCH}; {@link ArrowEmbeddingReader}
+ * maps them back without copying.
+ */
+public final class ArrowEmbeddingWriter {
+
+    public static final String ID = "id";
+    public static final String EMBEDDING = "embedding";
+    public static final String SOURCE_DOCUMENT = "source_document";
+    public static final String PAGE_NUMBER = "page_number";
+    public static final String POSITION = "position";
+
+    public static final String COLLECTION_ID = "collection_id";
+    public static final String DESCRIPTION = "description";
+    public static final String EMBEDDING_MODEL = "embedding_model";
+    public static final String EMBEDDING_DIMENSION = "embedding_dimension";
+    public static final String CREATED_AT = "created_at";
+
+    /**
+     * Rows per record batch; 64k embeddings of 768 dimensions are about 200 MB of vectors
+     */
+    static final int ROWS_PER_BATCH = 65_536;
+
+    private static final long DOCUMENT_DICTIONARY_ID = 0;
+
+    private ArrowEmbeddingWriter() {
+    }
+
+    /**
+     * Write the records of a collection as they are; their source documents are numbered in the
+     * order they first appear
+     */
+    public static void write(EmbeddingCollection collection, Path file) throws IOException {
+        List<TextEmbedding> embeddings = collection.embeddings() instanceof RandomAccess
+                ? collection.embeddings()
+                : new ArrayList<>(collection.embeddings());
+        Map<String, Integer> documentIds = new LinkedHashMap<>();
+        for (TextEmbedding embedding : embeddings) {
+            documentIds.putIfAbsent(embedding.sourceDocument(), documentIds.size());
+        }
+        write(embeddings.size(), collection.embeddingDimension(), new ArrayList<>(documentIds.keySet()),
+                (columns, from, rows) -> {
+                    for (int row = 0; row < rows; row++) {
+                        TextEmbedding embedding = embeddings.get(from + row);
+                        columns.set(row, embedding.id().getMostSignificantBits(), embedding.id().getLeastSignificantBits(),
+                                embedding.embedding(), documentIds.get(embedding.sourceDocument()),
+                                embedding.pageNumber(), embedding.position());
+                    }
+                },
+                metadata(collection.id(), collection.description(), collection.embeddingModel(),
+                        collection.embeddingDimension(), collection.createdAt()), file);
+    }
+
+    public static void write(EmbeddingArena arena, String collectionId, String description, String embeddingModel,
+                             Path file) throws IOException {
+        write(arena, metadata(collectionId, description, embeddingModel, arena.dimension(), Instant.now()), file);
+    }
+
+    /**
+     * Write the records of an arena straight from its view. The arena already numbers its source
+     * documents, so those numbers become the dictionary indices as they are.
+     */
+    static void write(EmbeddingArena arena, Map<String, String> metadata, Path file) throws IOException {
+        EmbeddingArena.View view = arena.view();
+        write(arena.size(), arena.dimension(), arena.sourceDocuments(), (columns, from, rows) -> {
+            for (int row = 0; row < rows; row++) {
+                view.moveTo(from + row);
+                columns.set(row, view.idMostSignificantBits(), view.idLeastSignificantBits(), view.vector(),
+                        view.sourceDocumentIndex(), view.pageNumber(), view.position());
+            }
+        }, metadata, file);
+    }
+
+    /**
+     * Write the records in record batches; a file whose write failed is deleted again
+     *
+     * @param documents the source documents, at the index the records refer to them by
+     */
+    private static void write(int size, int dimension, List<String> documents, Records records,
+                              Map<String, String> metadata, Path file) throws IOException {
+        try {
+            writeFile(size, dimension, documents, records, metadata, file);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException deleteError) {
+                e.addSuppressed(deleteError);
+            }
+            throw e;
+        }
+    }
+
+    private static void writeFile(int size, int dimension, List<String> names, Records records,
+                                  Map<String, String> metadata, Path file) throws IOException {
+        DictionaryEncoding documentEncoding =
+                new DictionaryEncoding(DOCUMENT_DICTIONARY_ID, false, new ArrowType.Int(32, true));
+        Schema schema = schema(dimension, documentEncoding, metadata);
+
+        try (BufferAllocator allocator = new RootAllocator();
+             VarCharVector documents = new VarCharVector(SOURCE_DOCUMENT, allocator);
+             VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            documents.allocateNew(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                documents.setSafe(i, names.get(i).getBytes(StandardCharsets.UTF_8));
+            }
+            documents.setValueCount(names.size());
+            DictionaryProvider.MapDictionaryProvider dictionaries =
+                    new DictionaryProvider.MapDictionaryProvider(new Dictionary(documents, documentEncoding));
+
+            Columns columns = new Columns(root, dimension);
+            try (ArrowFileWriter writer = new ArrowFileWriter(root, dictionaries, channel)) {
+                writer.start();
+                for (int from = 0; from < size; from += ROWS_PER_BATCH) {
+                    int rows = Math.min(ROWS_PER_BATCH, size - from);
+                    columns.allocate(rows);
+                    records.put(columns, from, rows);
+                    root.setRowCount(rows);
+                    writer.writeBatch();
+                }
+                writer.end();
+            }
+        }
+    }
+
+    static Map<String, String> metadata(String collectionId, String description, String embeddingModel,
+                                        int dimension, Instant createdAt) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put(COLLECTION_ID, collectionId);
+        if (description != null) {
+            metadata.put(DESCRIPTION, description);
+        }
+        if (embeddingModel != null) {
+            metadata.put(EMBEDDING_MODEL, embeddingModel);
+        }
+        metadata.put(EMBEDDING_DIMENSION, Integer.toString(dimension));
+        metadata.put(CREATED_AT, (createdAt != null ? createdAt : Instant.now()).toString());
+        return metadata;
+    }
+
+    private static Schema schema(int dimension, DictionaryEncoding documentEncoding, Map<String, String> metadata) {
+        ArrowType int32 = new ArrowType.Int(32, true);
+        // In memory a dictionary encoded column holds the indices; the writer puts the value type in the file
+        Field item = new Field("item", FieldType.notNullable(new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE)), null);
+        return new Schema(List.of(
+                new Field(ID, FieldType.notNullable(new ArrowType.FixedSizeBinary(16)), null),
+                new Field(EMBEDDING, FieldType.notNullable(new ArrowType.FixedSizeList(dimension)), List.of(item)),
+                new Field(SOURCE_DOCUMENT, new FieldType(false, int32, documentEncoding), null),
+                new Field(PAGE_NUMBER, FieldType.notNullable(int32), null),
+                new Field(POSITION, FieldType.notNullable(int32), null)
+        ), metadata);
+    }
+
+    /**
+     * Puts records {@code [from, from + rows)} into the rows from 0 of the current record batch
+     */
+    @FunctionalInterface
+    private interface Records {
+
+        void put(Columns columns, int from, int rows);
+    }
+
+    /**
+     * The vectors of the current record batch; every record is copied into them once
+     */
+    private static final class Columns {
+
+        private final int dimension;
+        private final FixedSizeBinaryVector ids;
+        private final FixedSizeListVector embeddings;
+        private final IntVector documentIds;
+        private final IntVector pageNumbers;
+        private final IntVector positions;
+        private final ByteBuffer id = ByteBuffer.allocate(16);
+        private Float4Vector values;
+
+        private Columns(VectorSchemaRoot root, int dimension) {
+            this.dimension = dimension;
+            this.ids = (FixedSizeBinaryVector) root.getVector(ID);
+            this.embeddings = (FixedSizeListVector) root.getVector(EMBEDDING);
+            this.documentIds = (IntVector) root.getVector(SOURCE_DOCUMENT);
+            this.pageNumbers = (IntVector) root.getVector(PAGE_NUMBER);
+            this.positions = (IntVector) root.getVector(POSITION);
+        }
+
+        void allocate(int rows) {
+            ids.allocateNew(rows);
+            embeddings.setInitialCapacity(rows);
+            embeddings.allocateNew();
+            documentIds.allocateNew(rows);
+            pageNumbers.allocateNew(rows);
+            positions.allocateNew(rows);
+            values = (Float4Vector) embeddings.getDataVector();
+        }
+
+        void set(int row, long idMostSignificantBits, long idLeastSignificantBits, float[] vector, int documentId,
+                 int pageNumber, int position) {
+            id.clear();
+            id.putLong(idMostSignificantBits).putLong(idLeastSignificantBits);
+            ids.set(row, id.array());
+
+            embeddings.setNotNull(row);
+            int offset = row * dimension;
+            for (int j = 0; j < dimension; j++) {
+                values.set(offset + j, vector[j]);
+            }
+
+            documentIds.set(row, documentId);
+            pageNumbers.set(row, pageNumber);
+            positions.set(row, position);
+        }
+    }
+}
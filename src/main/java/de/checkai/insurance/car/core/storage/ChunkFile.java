@@ -0,0 +1,183 @@
+package de.checkai.insurance.car.core.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.checkai.insurance.car.appication.model.TextChunk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * The chunks of a batch on local disk, one JSON {@link TextChunk} per line, with a {@code .idx}
+ * sidecar holding the byte offset of every {@link #INDEX_INTERVAL}th line. A range of chunks is
+ * copied out as it is stored: the reader seeks to the nearest indexed line before it, skips at
+ * most an interval of lines and then copies bytes, without parsing a record or holding more than
+ * a buffer.
+ */
+public final class ChunkFile {
+
+    static final int INDEX_INTERVAL = 1024;
+
+    private static final int INDEX_MAGIC = 0x43484B31;
+    private static final int INDEX_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final long size;
+    private final long[] offsets;
+
+    private ChunkFile(Path file, long size, long[] offsets) {
+        this.file = file;
+        this.size = size;
+        this.offsets = offsets;
+    }
+
+    public static Writer create(Path file, ObjectMapper objectMapper) throws IOException {
+        return new Writer(file, objectMapper);
+    }
+
+    public static ChunkFile open(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(indexFile(file)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Not a chunk file index: " + indexFile(file));
+            }
+            long size = in.readLong();
+            long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new ChunkFile(file, size, offsets);
+        }
+    }
+
+    public static void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(indexFile(file));
+    }
+
+    public static Path indexFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Copy the lines of chunks {@code [from, from + limit)}, flushing the output after every
+     * {@link #INDEX_INTERVAL} lines so the reader gets them while the rest is still being copied
+     *
+     * @return the number of chunks copied
+     */
+    public long copyTo(OutputStream out, long from, long limit) throws IOException {
+        long end = Math.min(size, from + Math.min(limit, size));
+        if (from >= end) {
+            return 0;
+        }
+        int checkpoint = (int) (from / INDEX_INTERVAL);
+        long line = (long) checkpoint * INDEX_INTERVAL;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            InputStream in = Channels.newInputStream(channel.position(offsets[checkpoint]));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while (line < end && (read = in.read(buffer)) > 0) {
+                int start = 0;
+                for (int i = 0; i < read && line < end; i++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    if (line >= from) {
+                        out.write(buffer, start, i + 1 - start);
+                    }
+                    start = i + 1;
+                    line++;
+                    if (line > from && (line - from) % INDEX_INTERVAL == 0) {
+                        out.flush();
+                    }
+                }
+                // The part of a line the buffer ends in
+                if (line >= from && line < end && start < read) {
+                    out.write(buffer, start, read - start);
+                }
+            }
+        }
+        out.flush();
+        return end - from;
+    }
+
+    /**
+     * Appends chunks in the order they are given; {@link #close()} writes the index
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final Path file;
+        private final ObjectMapper objectMapper;
+        private final OutputStream out;
+        private long[] offsets = new long[16];
+        private long size;
+        private long position;
+
+        private Writer(Path file, ObjectMapper objectMapper) throws IOException {
+            this.file = file;
+            this.objectMapper = objectMapper;
+            this.out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public void append(TextChunk chunk) throws IOException {
+            if (size % INDEX_INTERVAL == 0) {
+                int checkpoint = (int) (size / INDEX_INTERVAL);
+                if (checkpoint == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+                }
+                offsets[checkpoint] = position;
+            }
+            // Jackson escapes line breaks inside strings, every record is exactly one line
+            byte[] line = objectMapper.writeValueAsBytes(chunk);
+            out.write(line);
+            out.write('\n');
+            position += line.length + 1;
+            size++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            int checkpoints = (int) ((size + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+            try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(indexFile(file))))) {
+                index.writeInt(INDEX_MAGIC);
+                index.writeInt(INDEX_VERSION);
+                index.writeLong(size);
+                index.writeInt(checkpoints);
+                for (int i = 0; i < checkpoints; i++) {
+                    index.writeLong(offsets[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.checkai.insurance.car.core.storage;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Uploads that end with the attempt of the {@code ResilientRpcExecutor} they run in. The content
+ * is streamed through a resumable write channel; between blocks the upload stops once the deadline
+ * of its attempt has passed or its thread was interrupted, e.g. because the attempt was given up.
+ * The channel of a stopped upload isn't closed, so the object is never created and the retry is
+ * the only upload of it.
+ */
+public final class GcsUploads {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private GcsUploads() {
+    }
+
+    public static void upload(Storage storage, BlobInfo blobInfo, Path file, Duration deadline,
+                              Storage.BlobWriteOption... options) throws IOException {
+        try (InputStream content = Files.newInputStream(file)) {
+            upload(storage, blobInfo, content, deadline, options);
+        }
+    }
+
+    public static void upload(Storage storage, BlobInfo blobInfo, byte[] content, Duration deadline,
+                              Storage.BlobWriteOption... options) throws IOException {
+        upload(storage, blobInfo, new ByteArrayInputStream(content), deadline, options);
+    }
+
+    private static void upload(Storage storage, BlobInfo blobInfo, InputStream content, Duration deadline,
+                               Storage.BlobWriteOption... options) throws IOException {
+        long deadlineNanos = System.nanoTime() + deadline.toNanos();
+        WriteChannel channel = storage.writer(blobInfo, options);
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int read; (read = content.readNBytes(block, 0, block.length)) > 0; ) {
+            if (Thread.currentThread().isInterrupted() || System.nanoTime() - deadlineNanos >= 0) {
+                throw new InterruptedIOException(String.format("Upload of gs://%s/%s stopped after its deadline of %d ms",
+                        blobInfo.getBucket(), blobInfo.getName(), deadline.toMillis()));
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, read);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        // Closing writes the last block and creates the object
+        channel.close();
+    }
+}
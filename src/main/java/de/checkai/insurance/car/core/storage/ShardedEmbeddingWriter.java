@@ -0,0 +1,315 @@
+package de.checkai.insurance.car.core.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import de.checkai.insurance.car.appication.model.EmbeddingCollection;
+import de.checkai.insurance.car.appication.model.EmbeddingShardManifest;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.core.resilience.ResilientRpcExecutor;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Writes an embedding collection as size-bounded JSONL shards of {"id", "embedding"} datapoints
+ * under one GCS prefix. Shards are written and uploaded in parallel; each upload is verified
+ * against the CRC32C computed while writing. Layout:
+ * <pre>
+ * insurance-car-embeddings_&lt;id&gt;_&lt;ts&gt;/manifest.json
+ * insurance-car-embeddings_&lt;id&gt;_&lt;ts&gt;/shards/shard-00000-of-00008.json
+ * </pre>
+ * The manifest is kept outside {@code shards/} because the index reads every file below its
+ * contentsDeltaUri.
+ */
+@Component
+@Slf4j
+public class ShardedEmbeddingWriter {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    private final LazyCloudClient<Storage> storage;
+    private final ObjectMapper objectMapper;
+    private final ResilientRpcExecutor rpcExecutor;
+    private final String bucketName;
+    private final long maxShardBytes;
+    private final int minEmbeddingsPerShard;
+    private final int parallelism;
+    private final ExecutorService shardExecutor;
+
+    public ShardedEmbeddingWriter(LazyCloudClient<Storage> storage,
+                                  ObjectMapper objectMapper,
+                                  ResilientRpcExecutor rpcExecutor,
+                                  @Value("${gcp.storage.bucket-name}") String bucketName,
+                                  @Value("${gcp.storage.shards.max-shard-size-mb:64}") long maxShardSizeMb,
+                                  @Value("${gcp.storage.shards.min-embeddings-per-shard:1000}") int minEmbeddingsPerShard,
+                                  @Value("${gcp.storage.shards.parallelism:0}") int parallelism) {
+        this.storage = storage;
+        this.objectMapper = objectMapper;
+        this.rpcExecutor = rpcExecutor;
+        this.bucketName = bucketName;
+        this.maxShardBytes = maxShardSizeMb * 1024 * 1024;
+        this.minEmbeddingsPerShard = Math.max(1, minEmbeddingsPerShard);
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.shardExecutor = Executors.newFixedThreadPool(this.parallelism);
+    }
+
+    /**
+     * Write and upload the shards of a collection, then the manifest describing them
+     *
+     * @return the manifest; {@code shardsUri} points at the directory holding the shards
+     */
+    public EmbeddingShardManifest write(EmbeddingCollection collection) throws IOException {
+        // The records are written as they are, a copy into an arena would only double the memory
+        List<TextEmbedding> embeddings = collection.embeddings() instanceof RandomAccess
+                ? collection.embeddings()
+                : new ArrayList<>(collection.embeddings());
+        return write(embeddings.size(), collection.embeddingDimension(), (generator, range) -> {
+            for (int i = range.from(); i < range.to(); i++) {
+                TextEmbedding embedding = embeddings.get(i);
+                writeDatapoint(generator, embedding.id(), embedding.embedding());
+            }
+        }, collection.id(), collection.description(), collection.embeddingModel());
+    }
+
+    /**
+     * Write and upload the shards of an embedding arena, then the manifest describing them. Every
+     * shard thread reads the arena through its own view, so no per-embedding objects are created.
+     *
+     * @return the manifest; {@code shardsUri} points at the directory holding the shards
+     */
+    public EmbeddingShardManifest write(EmbeddingArena arena, String collectionId, String description,
+                                        String embeddingModel) throws IOException {
+        return write(arena.size(), arena.dimension(), (generator, range) -> {
+            EmbeddingArena.View view = arena.view();
+            for (int i = range.from(); i < range.to(); i++) {
+                view.moveTo(i);
+                writeDatapoint(generator, view.id(), view.vector());
+            }
+        }, collectionId, description, embeddingModel);
+    }
+
+    private EmbeddingShardManifest write(int size, int dimension, Datapoints datapoints, String collectionId,
+                                         String description, String embeddingModel) throws IOException {
+        String prefix = String.format("insurance-car-embeddings_%s_%s",
+                collectionId, LocalDateTime.now().format(DATE_FORMATTER));
+        Path localRoot = Path.of(System.getProperty("java.io.tmpdir"), prefix);
+        Path localDirectory = Files.createDirectories(localRoot.resolve("shards"));
+        try {
+            return write(size, dimension, datapoints, collectionId, description, embeddingModel, prefix, localDirectory);
+        } finally {
+            deleteLocalDirectory(localRoot);
+        }
+    }
+
+    private EmbeddingShardManifest write(int size, int dimension, Datapoints datapoints, String collectionId,
+                                         String description, String embeddingModel, String prefix,
+                                         Path localDirectory) throws IOException {
+        List<ShardRange> ranges = partition(size, dimension);
+        List<CompletableFuture<EmbeddingShardManifest.Shard>> shardFutures = new ArrayList<>(ranges.size());
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int i = 0; i < ranges.size(); i++) {
+            String fileName = String.format("shard-%05d-of-%05d.json", i, ranges.size());
+            ShardRange range = ranges.get(i);
+            shardFutures.add(CompletableFuture.supplyAsync(() -> {
+                // Shards still queued behind a failed one aren't written anymore
+                if (failed.get()) {
+                    return null;
+                }
+                try {
+                    return writeAndUpload(datapoints, range, localDirectory.resolve(fileName), prefix + "/shards/" + fileName);
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }, shardExecutor));
+        }
+
+        // Every shard thread is done before the local directory is deleted
+        CompletableFuture.allOf(shardFutures.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        List<EmbeddingShardManifest.Shard> shards;
+        try {
+            shards = shardFutures.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+
+        EmbeddingShardManifest manifest = new EmbeddingShardManifest(
+                collectionId,
+                description,
+                Instant.now(),
+                dimension,
+                embeddingModel,
+                size,
+                String.format("gs://%s/%s/shards", bucketName, prefix),
+                shards
+        );
+        byte[] manifestContent = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(manifest);
+        BlobInfo manifestInfo = BlobInfo.newBuilder(BlobId.of(bucketName, prefix + "/manifest.json"))
+                .setContentType("application/json")
+                .build();
+        rpcExecutor.execute("gcs", "upload", deadline -> {
+            try {
+                GcsUploads.upload(storage.get(), manifestInfo, manifestContent, deadline);
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        log.info("Wrote {} embeddings of collection {} as {} shards to gs://{}/{}",
+                manifest.totalEmbeddings(), collectionId, shards.size(), bucketName, prefix);
+        return manifest;
+    }
+
+    /**
+     * Number of shards a collection of the given size is written as
+     */
+    public int shardCount(int embeddings, int dimension) {
+        return partition(embeddings, dimension).size();
+    }
+
+    /**
+     * Upper bound of the size of one datapoint in a shard
+     */
+    public static long estimatedBytesPerEmbedding(int dimension) {
+        // A float is written as up to ~12 characters, plus the id and the JSON punctuation
+        return dimension * 12L + 64;
+    }
+
+    /**
+     * Split the embeddings into contiguous shards that stay below the size bound, using more and
+     * smaller shards for large collections so every upload thread gets work
+     */
+    List<ShardRange> partition(int embeddings, int dimension) {
+        if (embeddings == 0) {
+            return List.of(new ShardRange(0, 0));
+        }
+        int bySize = (int) Math.max(1, maxShardBytes / estimatedBytesPerEmbedding(dimension));
+        int byParallelism = Math.max(minEmbeddingsPerShard, (embeddings + parallelism - 1) / parallelism);
+        int perShard = Math.min(bySize, byParallelism);
+
+        List<ShardRange> ranges = new ArrayList<>();
+        for (int from = 0; from < embeddings; from += perShard) {
+            ranges.add(new ShardRange(from, Math.min(embeddings, from + perShard)));
+        }
+        return ranges;
+    }
+
+    /**
+     * Write one {"id", "embedding"} datapoint per line straight from the source
+     */
+    private EmbeddingShardManifest.Shard writeAndUpload(Datapoints datapoints, ShardRange range, Path file,
+                                                        String objectName) {
+        try {
+            CRC32C checksum = new CRC32C();
+            OutputStream out = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16), checksum);
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                datapoints.write(generator, range);
+            }
+            String crc32c = Base64.getEncoder().encodeToString(
+                    ByteBuffer.allocate(Integer.BYTES).putInt((int) checksum.getValue()).array());
+            long sizeBytes = Files.size(file);
+
+            BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, objectName))
+                    .setContentType("application/json")
+                    .setCrc32c(crc32c)
+                    .build();
+            rpcExecutor.execute("gcs", "upload", deadline -> {
+                try {
+                    GcsUploads.upload(storage.get(), blobInfo, file, deadline, Storage.BlobWriteOption.crc32cMatch());
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Files.deleteIfExists(file);
+
+            log.debug("Uploaded shard {} with {} embeddings ({} bytes)", objectName, range.to() - range.from(), sizeBytes);
+            return new EmbeddingShardManifest.Shard(objectName, range.to() - range.from(), sizeBytes, crc32c);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write shard " + objectName, e);
+        }
+    }
+
+    private static void deleteLocalDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to delete local shard directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static void writeDatapoint(JsonGenerator generator, UUID id, float[] vector) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", id.toString());
+        generator.writeArrayFieldStart("embedding");
+        for (float value : vector) {
+            generator.writeNumber(value);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shardExecutor.shutdownNow();
+    }
+
+    /**
+     * Records {@code [from, to)} of the collection
+     */
+    record ShardRange(int from, int to) {
+    }
+
+    /**
+     * The embeddings a collection is written from; called by every shard thread for its range
+     */
+    @FunctionalInterface
+    private interface Datapoints {
+
+        void write(JsonGenerator generator, ShardRange range) throws IOException;
+    }
+}
@@ -0,0 +1,53 @@
+package de.checkai.insurance.car.core.vector;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Maps embeddings to fewer dimensions. Stored embeddings and query vectors of a collection have to
+ * go through the same reducer.
+ */
+public interface DimensionReducer {
+
+    int inputDimension();
+
+    int outputDimension();
+
+    /**
+     * @return a new unit-length vector of {@link #outputDimension()} components
+     */
+    float[] reduce(float[] vector);
+
+    /**
+     * Keep the leading components and renormalize; preserves the ranking well for models trained
+     * with Matryoshka representation learning, poorly for others
+     */
+    static DimensionReducer truncation(int inputDimension, int outputDimension) {
+        if (outputDimension <= 0 || outputDimension > inputDimension) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot truncate %d dimensions to %d", inputDimension, outputDimension));
+        }
+        return new DimensionReducer() {
+            @Override
+            public int inputDimension() {
+                return inputDimension;
+            }
+
+            @Override
+            public int outputDimension() {
+                return outputDimension;
+            }
+
+            @Override
+            public float[] reduce(float[] vector) {
+                float[] reduced = new float[outputDimension];
+                System.arraycopy(vector, 0, reduced, 0, Math.min(outputDimension, vector.length));
+                return VectorMath.normalize(reduced);
+            }
+        };
+    }
+}
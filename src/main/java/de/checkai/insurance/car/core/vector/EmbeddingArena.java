@@ -0,0 +1,370 @@
+package de.checkai.insurance.car.core.vector;
+
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Embedding store that keeps the vectors outside the heap, as fixed-stride little-endian float
+ * records in direct or memory-mapped segments, and the chunk metadata in primitive side arrays
+ * with a dictionary of source document names. A million 768 dimension embeddings are a handful of
+ * objects instead of millions, so the collector has nothing to trace as the corpus grows.
+ * <p>
+ * Records are read through a reusable {@link View}. A file backed arena is written once, persisted
+ * with {@link #save()} (vectors in the file, metadata in a {@code .meta} sidecar) and can be mapped
+ * again read-only with {@link #open(Path)}.
+ */
+public final class EmbeddingArena implements AutoCloseable {
+
+    private static final int META_MAGIC = 0x454D4231;
+    private static final int META_VERSION = 1;
+    private static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    private final int dimension;
+    private final int recordsPerSegment;
+    private final Path file;
+    private final FileChannel channel;
+    private final boolean readOnly;
+
+    private final List<ByteBuffer> segmentBuffers = new CopyOnWriteArrayList<>();
+    private final List<FloatBuffer> segments = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Integer> documentIds = new HashMap<>();
+    private final List<String> documentNames = new CopyOnWriteArrayList<>();
+    private long[] idBits;
+    private int[] metadata;
+    private volatile int size;
+
+    private EmbeddingArena(int dimension, long segmentBytes, Path file, FileChannel channel, boolean readOnly, int capacity) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Embedding dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+        this.recordsPerSegment = (int) Math.max(1, segmentBytes / ((long) dimension * Float.BYTES));
+        this.file = file;
+        this.channel = channel;
+        this.readOnly = readOnly;
+        this.idBits = new long[2 * Math.max(16, capacity)];
+        this.metadata = new int[3 * Math.max(16, capacity)];
+    }
+
+    /**
+     * Arena in direct memory, for collections that are only needed while the process runs
+     */
+    public static EmbeddingArena offHeap(int dimension) {
+        return new EmbeddingArena(dimension, DEFAULT_SEGMENT_BYTES, null, null, false, 0);
+    }
+
+    /**
+     * Arena backed by a new memory-mapped file; pages are flushed by the OS, so the heap and the
+     * resident set stay small even for corpora larger than memory
+     */
+    public static EmbeddingArena mapped(Path file, int dimension) throws IOException {
+        return mapped(file, dimension, DEFAULT_SEGMENT_BYTES);
+    }
+
+    static EmbeddingArena mapped(Path file, int dimension, long segmentBytes) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new EmbeddingArena(dimension, segmentBytes, file, channel, false, 0);
+    }
+
+    /**
+     * Map an arena written with {@link #save()} read-only
+     */
+    public static EmbeddingArena open(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(metaFile(file))))) {
+            if (in.readInt() != META_MAGIC || in.readInt() != META_VERSION) {
+                throw new IOException("Not an embedding arena: " + file);
+            }
+            int dimension = in.readInt();
+            int size = in.readInt();
+
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            EmbeddingArena arena = new EmbeddingArena(dimension, DEFAULT_SEGMENT_BYTES, file, channel, true, size);
+            int documentCount = in.readInt();
+            for (int i = 0; i < documentCount; i++) {
+                arena.documentId(in.readUTF());
+            }
+            for (int i = 0; i < size; i++) {
+                arena.idBits[2 * i] = in.readLong();
+                arena.idBits[2 * i + 1] = in.readLong();
+                arena.metadata[3 * i] = in.readInt();
+                arena.metadata[3 * i + 1] = in.readInt();
+                arena.metadata[3 * i + 2] = in.readInt();
+            }
+
+            for (int first = 0; first < size; first += arena.recordsPerSegment) {
+                int records = Math.min(arena.recordsPerSegment, size - first);
+                arena.addSegment(channel.map(FileChannel.MapMode.READ_ONLY,
+                        (long) first * dimension * Float.BYTES, (long) records * dimension * Float.BYTES));
+            }
+            arena.size = size;
+            return arena;
+        }
+    }
+
+    /**
+     * Copy an embedding into the arena; the caller can drop the record and its array afterwards
+     *
+     * @return the index of the record
+     */
+    public int append(TextEmbedding embedding) {
+        return append(embedding.id(), embedding.embedding(), embedding.sourceDocument(),
+                embedding.pageNumber(), embedding.position());
+    }
+
+    public synchronized int append(UUID id, float[] vector, String sourceDocument, int pageNumber, int position) {
+        if (readOnly) {
+            throw new IllegalStateException("Embedding arena " + file + " is read-only");
+        }
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException(String.format(
+                    "Expected an embedding of dimension %d but got %d", dimension, vector.length));
+        }
+        int index = size;
+        int segment = index / recordsPerSegment;
+        if (segment == segments.size()) {
+            addSegment(allocateSegment(segment));
+        }
+        segments.get(segment).put((index % recordsPerSegment) * dimension, vector, 0, dimension);
+
+        if (2 * index + 1 >= idBits.length) {
+            idBits = Arrays.copyOf(idBits, idBits.length * 2);
+            metadata = Arrays.copyOf(metadata, metadata.length * 2);
+        }
+        idBits[2 * index] = id.getMostSignificantBits();
+        idBits[2 * index + 1] = id.getLeastSignificantBits();
+        metadata[3 * index] = documentId(sourceDocument);
+        metadata[3 * index + 1] = pageNumber;
+        metadata[3 * index + 2] = position;
+
+        // Publishing the size makes the record and the side arrays visible to readers
+        size = index + 1;
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Names of the source documents in the order they were first appended; the index of a name is
+     * what {@link View#sourceDocumentIndex()} returns
+     */
+    public List<String> sourceDocuments() {
+        return List.copyOf(documentNames);
+    }
+
+    /**
+     * The backing file, or null for a direct memory arena
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Flush the mapped vectors and write the metadata sidecar, so the arena can be {@link #open opened} again
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("A direct memory arena has no file to save to");
+        }
+        for (ByteBuffer buffer : segmentBuffers) {
+            ((MappedByteBuffer) buffer).force();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(metaFile(file))))) {
+            out.writeInt(META_MAGIC);
+            out.writeInt(META_VERSION);
+            out.writeInt(dimension);
+            out.writeInt(size);
+            out.writeInt(documentNames.size());
+            for (String name : documentNames) {
+                out.writeUTF(name);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeLong(idBits[2 * i]);
+                out.writeLong(idBits[2 * i + 1]);
+                out.writeInt(metadata[3 * i]);
+                out.writeInt(metadata[3 * i + 1]);
+                out.writeInt(metadata[3 * i + 2]);
+            }
+        }
+    }
+
+    /**
+     * A new cursor over the records. Views are cheap but not thread-safe; use one per thread.
+     */
+    public View view() {
+        return new View();
+    }
+
+    /**
+     * Visit the records {@code [from, to)} with a single reused view
+     */
+    public void forEach(int from, int to, Consumer<View> action) {
+        View view = new View();
+        for (int i = from; i < to; i++) {
+            action.accept(view.moveTo(i));
+        }
+    }
+
+    /**
+     * The k records with the highest dot product with the query, best first; for unit vectors this
+     * is the cosine ranking
+     */
+    public List<VectorMath.Hit> topK(float[] query, int k) {
+        int count = size;
+        if (k <= 0 || count == 0) {
+            return List.of();
+        }
+        TopKCollector collector = new TopKCollector(Math.min(k, count));
+        View view = new View();
+        for (int i = 0; i < count; i++) {
+            collector.offer(i, view.moveTo(i).dot(query));
+        }
+        return collector.hits();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer allocateSegment(int segment) {
+        long bytes = (long) recordsPerSegment * dimension * Float.BYTES;
+        if (channel == null) {
+            return ByteBuffer.allocateDirect((int) bytes);
+        }
+        try {
+            // Mapping past the end grows the file; untouched pages of the last segment stay sparse
+            return channel.map(FileChannel.MapMode.READ_WRITE, segment * bytes, bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to map segment " + segment + " of " + file, e);
+        }
+    }
+
+    private void addSegment(ByteBuffer buffer) {
+        segmentBuffers.add(buffer);
+        segments.add(buffer.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+    }
+
+    private int documentId(String sourceDocument) {
+        return documentIds.computeIfAbsent(sourceDocument, name -> {
+            documentNames.add(name);
+            return documentNames.size() - 1;
+        });
+    }
+
+    /**
+     * Delete a saved arena, i.e. its vectors and its metadata sidecar
+     */
+    public static void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(metaFile(file));
+    }
+
+    private static Path metaFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".meta");
+    }
+
+    /**
+     * Flyweight over one record at a time. The vector is copied into a scratch array owned by the
+     * view, so iterating allocates nothing; the array returned by {@link #vector()} is overwritten
+     * by the next {@link #moveTo}.
+     */
+    public final class View {
+
+        private final float[] vector = new float[dimension];
+        private int index = -1;
+        private boolean loaded;
+
+        private View() {
+        }
+
+        public View moveTo(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Record " + index + " of " + size);
+            }
+            this.index = index;
+            this.loaded = false;
+            return this;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public long idMostSignificantBits() {
+            return idBits[2 * index];
+        }
+
+        public long idLeastSignificantBits() {
+            return idBits[2 * index + 1];
+        }
+
+        public UUID id() {
+            return new UUID(idMostSignificantBits(), idLeastSignificantBits());
+        }
+
+        public String sourceDocument() {
+            return documentNames.get(sourceDocumentIndex());
+        }
+
+        public int sourceDocumentIndex() {
+            return metadata[3 * index];
+        }
+
+        public int pageNumber() {
+            return metadata[3 * index + 1];
+        }
+
+        public int position() {
+            return metadata[3 * index + 2];
+        }
+
+        public float[] vector() {
+            if (!loaded) {
+                segments.get(index / recordsPerSegment).get((index % recordsPerSegment) * dimension, vector, 0, dimension);
+                loaded = true;
+            }
+            return vector;
+        }
+
+        public float dot(float[] query) {
+            return VectorMath.dot(vector(), query);
+        }
+    }
+}
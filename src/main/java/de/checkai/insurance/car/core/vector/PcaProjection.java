@@ -0,0 +1,268 @@
+package de.checkai.insurance.car.core.vector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Projection onto the principal components of a sample of the corpus, followed by
+ * renormalization. Unlike truncation it works for any embedding model, at the price of fitting it
+ * per collection and keeping it next to the collection for the queries.
+ * <p>
+ * The components are found by subspace iteration on the sample covariance matrix, which needs only
+ * a handful of passes for the few hundred leading components of a 768 dimension embedding.
+ */
+public final class PcaProjection implements DimensionReducer {
+
+    private static final int MAGIC = 0x50434131;
+    private static final int ITERATIONS = 12;
+
+    private final float[] mean;
+    private final float[][] components;
+    private final float[] meanOffsets;
+    private final double explainedVariance;
+
+    private PcaProjection(float[] mean, float[][] components, double explainedVariance) {
+        this.mean = mean;
+        this.components = components;
+        this.explainedVariance = explainedVariance;
+        // Projecting x - mean is the projection of x minus the projection of the mean
+        this.meanOffsets = new float[components.length];
+        for (int i = 0; i < components.length; i++) {
+            meanOffsets[i] = VectorMath.dot(components[i], mean);
+        }
+    }
+
+    /**
+     * Fit the projection to a sample of embeddings
+     *
+     * @param sample          embeddings of the collection, all of the same dimension
+     * @param outputDimension number of principal components to keep
+     */
+    public static PcaProjection fit(List<float[]> sample, int outputDimension) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("Cannot fit a projection to an empty sample");
+        }
+        int dimension = sample.get(0).length;
+        if (outputDimension <= 0 || outputDimension > dimension) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot project %d dimensions to %d", dimension, outputDimension));
+        }
+
+        double[] mean = new double[dimension];
+        for (float[] vector : sample) {
+            for (int j = 0; j < dimension; j++) {
+                mean[j] += vector[j];
+            }
+        }
+        for (int j = 0; j < dimension; j++) {
+            mean[j] /= sample.size();
+        }
+
+        // Upper triangle of the covariance matrix, mirrored afterwards
+        double[][] covariance = new double[dimension][dimension];
+        double[] centered = new double[dimension];
+        for (float[] vector : sample) {
+            for (int j = 0; j < dimension; j++) {
+                centered[j] = vector[j] - mean[j];
+            }
+            for (int a = 0; a < dimension; a++) {
+                double value = centered[a];
+                double[] row = covariance[a];
+                for (int b = a; b < dimension; b++) {
+                    row[b] += value * centered[b];
+                }
+            }
+        }
+        double totalVariance = 0;
+        for (int a = 0; a < dimension; a++) {
+            for (int b = a; b < dimension; b++) {
+                covariance[a][b] /= sample.size();
+                covariance[b][a] = covariance[a][b];
+            }
+            totalVariance += covariance[a][a];
+        }
+
+        // Subspace iteration: Q <- orthonormalize(C * Q)
+        double[][] basis = new double[outputDimension][dimension];
+        Random random = new Random(42);
+        for (double[] vector : basis) {
+            for (int j = 0; j < dimension; j++) {
+                vector[j] = random.nextGaussian();
+            }
+        }
+        orthonormalize(basis, random);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int i = 0; i < outputDimension; i++) {
+                basis[i] = multiply(covariance, basis[i]);
+            }
+            orthonormalize(basis, random);
+        }
+
+        // Order by captured variance, which the iteration only approximately does
+        double[] variances = new double[outputDimension];
+        for (int i = 0; i < outputDimension; i++) {
+            variances[i] = dot(basis[i], multiply(covariance, basis[i]));
+        }
+        Integer[] order = new Integer[outputDimension];
+        for (int i = 0; i < outputDimension; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(variances[b], variances[a]));
+
+        float[][] components = new float[outputDimension][];
+        double captured = 0;
+        for (int i = 0; i < outputDimension; i++) {
+            components[i] = toFloats(basis[order[i]]);
+            captured += variances[order[i]];
+        }
+        return new PcaProjection(toFloats(mean), components, totalVariance == 0 ? 1 : captured / totalVariance);
+    }
+
+    public static PcaProjection load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a PCA projection: " + file);
+            }
+            int inputDimension = in.readInt();
+            int outputDimension = in.readInt();
+            double explainedVariance = in.readDouble();
+            float[] mean = readFloats(in, inputDimension);
+            float[][] components = new float[outputDimension][];
+            for (int i = 0; i < outputDimension; i++) {
+                components[i] = readFloats(in, inputDimension);
+            }
+            return new PcaProjection(mean, components, explainedVariance);
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(inputDimension());
+            out.writeInt(outputDimension());
+            out.writeDouble(explainedVariance);
+            writeFloats(out, mean);
+            for (float[] component : components) {
+                writeFloats(out, component);
+            }
+        }
+    }
+
+    /**
+     * File next to an embedding arena that holds the projection its vectors went through
+     */
+    public static Path sidecarOf(Path embeddingsFile) {
+        return embeddingsFile.resolveSibling(embeddingsFile.getFileName() + ".pca");
+    }
+
+    @Override
+    public int inputDimension() {
+        return mean.length;
+    }
+
+    @Override
+    public int outputDimension() {
+        return components.length;
+    }
+
+    /**
+     * Share of the sample's variance the kept components capture
+     */
+    public double explainedVariance() {
+        return explainedVariance;
+    }
+
+    @Override
+    public float[] reduce(float[] vector) {
+        if (vector.length != mean.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Expected a vector of dimension %d but got %d", mean.length, vector.length));
+        }
+        float[] reduced = new float[components.length];
+        for (int i = 0; i < components.length; i++) {
+            reduced[i] = VectorMath.dot(components[i], vector) - meanOffsets[i];
+        }
+        return VectorMath.normalize(reduced);
+    }
+
+    private static double[] multiply(double[][] matrix, double[] vector) {
+        double[] result = new double[vector.length];
+        for (int a = 0; a < matrix.length; a++) {
+            result[a] = dot(matrix[a], vector);
+        }
+        return result;
+    }
+
+    /**
+     * Modified Gram-Schmidt, in place
+     */
+    private static void orthonormalize(double[][] basis, Random random) {
+        for (int i = 0; i < basis.length; i++) {
+            double[] vector = basis[i];
+            for (int j = 0; j < i; j++) {
+                double projection = dot(vector, basis[j]);
+                double[] previous = basis[j];
+                for (int k = 0; k < vector.length; k++) {
+                    vector[k] -= projection * previous[k];
+                }
+            }
+            double norm = Math.sqrt(dot(vector, vector));
+            if (norm < 1e-12) {
+                // Rank deficient sample; any direction orthogonal to the others will do
+                for (int k = 0; k < vector.length; k++) {
+                    vector[k] = random.nextGaussian();
+                }
+                i--;
+                continue;
+            }
+            for (int k = 0; k < vector.length; k++) {
+                vector[k] /= norm;
+            }
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    private static float[] readFloats(DataInputStream in, int length) throws IOException {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+}
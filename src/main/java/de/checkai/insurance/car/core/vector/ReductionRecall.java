@@ -0,0 +1,64 @@
+package de.checkai.insurance.car.core.vector;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Measures what a dimension reduction costs in search quality: every vector of a sample is used as
+ * a query against the rest, once at full and once at reduced dimension, and recall@k is the share
+ * of the full-dimension neighbours the reduced search still finds.
+ */
+public final class ReductionRecall {
+
+    private ReductionRecall() {
+    }
+
+    /**
+     * @param sample  full-dimension embeddings, e.g. the ones a PCA was fitted to
+     * @param reducer reduction to evaluate
+     * @param k       neighbours per query
+     * @param queries how many of the sample vectors to use as queries
+     * @return mean recall@k between 0 and 1
+     */
+    public static double recallAtK(List<float[]> sample, DimensionReducer reducer, int k, int queries) {
+        if (sample.size() <= k) {
+            return 1.0;
+        }
+        List<float[]> full = new ArrayList<>(sample.size());
+        List<float[]> reduced = new ArrayList<>(sample.size());
+        for (float[] vector : sample) {
+            full.add(VectorMath.normalize(vector.clone()));
+            reduced.add(reducer.reduce(vector));
+        }
+
+        int queryCount = Math.min(queries, sample.size());
+        double recall = 0;
+        for (int q = 0; q < queryCount; q++) {
+            Set<Integer> expected = neighbours(full, q, k);
+            Set<Integer> found = neighbours(reduced, q, k);
+            found.retainAll(expected);
+            recall += (double) found.size() / expected.size();
+        }
+        return recall / queryCount;
+    }
+
+    private static Set<Integer> neighbours(List<float[]> vectors, int query, int k) {
+        // One extra hit, as the query finds itself
+        Set<Integer> indices = new HashSet<>();
+        for (VectorMath.Hit hit : VectorMath.topK(vectors.get(query), vectors, k + 1)) {
+            if (hit.index() != query && indices.size() < k) {
+                indices.add(hit.index());
+            }
+        }
+        return indices;
+    }
+}
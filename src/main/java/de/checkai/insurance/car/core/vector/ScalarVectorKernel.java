@@ -0,0 +1,35 @@
+package de.checkai.insurance.car.core.vector;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Plain loops, used when the vector API module is not available
+ */
+final class ScalarVectorKernel implements VectorKernel {
+
+    @Override
+    public float dot(float[] a, float[] b, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float sumOfSquares(float[] vector) {
+        return dot(vector, vector, vector.length);
+    }
+
+    @Override
+    public void scale(float[] vector, float factor) {
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= factor;
+        }
+    }
+}
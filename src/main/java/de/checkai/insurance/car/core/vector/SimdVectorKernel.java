@@ -0,0 +1,60 @@
+package de.checkai.insurance.car.core.vector;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Loops on {@code jdk.incubator.vector} using the widest lanes the CPU offers. Only loaded when
+ * the JVM runs with {@code --add-modules jdk.incubator.vector}.
+ */
+final class SimdVectorKernel implements VectorKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public float dot(float[] a, float[] b, int length) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            sum = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, b, i), sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+
+    @Override
+    public float sumOfSquares(float[] vector) {
+        return dot(vector, vector, vector.length);
+    }
+
+    @Override
+    public void scale(float[] vector, float factor) {
+        int upperBound = SPECIES.loopBound(vector.length);
+        int i = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, vector, i).mul(factor).intoArray(vector, i);
+        }
+        for (; i < vector.length; i++) {
+            vector[i] *= factor;
+        }
+    }
+
+    /**
+     * The species the kernel runs with, e.g. 256 bits on AVX2
+     */
+    static int laneBits() {
+        return SPECIES.vectorBitSize();
+    }
+}
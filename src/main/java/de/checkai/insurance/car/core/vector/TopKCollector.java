@@ -0,0 +1,92 @@
+package de.checkai.insurance.car.core.vector;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Keeps the k highest scores seen so far in a min-heap on parallel primitive arrays; the root is
+ * the weakest of the current best
+ */
+final class TopKCollector {
+
+    private final int[] indices;
+    private final float[] scores;
+    private int size;
+
+    TopKCollector(int capacity) {
+        this.indices = new int[capacity];
+        this.scores = new float[capacity];
+    }
+
+    void offer(int index, float score) {
+        if (size < indices.length) {
+            indices[size] = index;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (size > 0 && score > scores[0]) {
+            indices[0] = index;
+            scores[0] = score;
+            siftDown();
+        }
+    }
+
+    /**
+     * The collected hits, best first
+     */
+    List<VectorMath.Hit> hits() {
+        List<VectorMath.Hit> hits = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            hits.add(new VectorMath.Hit(indices[i], scores[i]));
+        }
+        hits.sort(Comparator.comparingDouble(VectorMath.Hit::score).reversed());
+        return hits;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (scores[parent] <= scores[position]) {
+                return;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown() {
+        int position = 0;
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && scores[left] < scores[smallest]) {
+                smallest = left;
+            }
+            if (right < size && scores[right] < scores[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(smallest, position);
+            position = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+        float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -0,0 +1,258 @@
+package de.checkai.insurance.car.core.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Local stand-in for a Vertex AI tree-AH index, used to estimate recall@k and query cost of index
+ * parameters on a sample of a collection before the index is built. The sample is partitioned into
+ * leaves by spherical k-means, a query probes the leaves with the closest centroids, scores their
+ * embeddings on 4-bit quantized copies like asymmetric hashing does, and reorders the
+ * {@code approximateNeighborsCount} best of them exactly.
+ * <p>
+ * Recall is measured against exact brute-force neighbours within the sample. The sample holds
+ * fewer embeddings per leaf than the collection would, so the leaf count is capped at
+ * {@link #MIN_SAMPLE_PER_LEAF} embeddings per simulated leaf; the probed fraction of the leaves is
+ * what carries over. Query cost is counted at collection scale, as distance computations per query.
+ */
+public final class TreeAhSimulation {
+
+    static final int MIN_SAMPLE_PER_LEAF = 20;
+    private static final int KMEANS_ITERATIONS = 8;
+    private static final int QUANTIZATION_LEVELS = 16;
+
+    /**
+     * Tree-AH settings of a Vertex AI index
+     */
+    public record Candidate(int approximateNeighborsCount, int leafNodeEmbeddingCount, int leafNodesToSearchPercent) {
+    }
+
+    /**
+     * @param recall                          mean recall@k on the sample, between 0 and 1
+     * @param distanceComputationsPerQuery    centroid, approximate and exact scores a query needs at
+     *                                        collection scale
+     */
+    public record Evaluation(Candidate candidate, double recall, long distanceComputationsPerQuery) {
+    }
+
+    private final List<float[]> sample;
+    private final long collectionSize;
+    private final int k;
+    private final int queryCount;
+    private final float[][] exactScores;
+    private final float[][] approximateScores;
+    private final int[][] groundTruth;
+    private final Random random;
+    private final Map<Integer, Partition> partitions = new HashMap<>();
+
+    private TreeAhSimulation(List<float[]> sample, long collectionSize, int k, int queries, Random random) {
+        this.sample = sample;
+        this.collectionSize = Math.max(collectionSize, sample.size());
+        this.k = k;
+        this.queryCount = Math.min(queries, sample.size());
+        this.random = random;
+
+        List<float[]> quantized = quantize(sample);
+        exactScores = new float[queryCount][];
+        approximateScores = new float[queryCount][];
+        groundTruth = new int[queryCount][];
+        IntStream.range(0, queryCount).parallel().forEach(q -> {
+            float[] query = sample.get(q);
+            float[] exact = new float[sample.size()];
+            float[] approximate = new float[sample.size()];
+            for (int i = 0; i < sample.size(); i++) {
+                exact[i] = VectorMath.dot(query, sample.get(i));
+                approximate[i] = VectorMath.dot(query, quantized.get(i));
+            }
+            exactScores[q] = exact;
+            approximateScores[q] = approximate;
+            groundTruth[q] = best(exact, allExcept(sample.size(), q), sample.size() - 1, k);
+        });
+    }
+
+    /**
+     * Compute the exact neighbours of the queries; the first {@code queries} sample vectors are used
+     * as queries against the whole sample
+     *
+     * @param sample         normalized embeddings drawn at random from the collection
+     * @param collectionSize number of embeddings the index will hold
+     * @param k              neighbours per query
+     */
+    public static TreeAhSimulation of(List<float[]> sample, long collectionSize, int k, int queries, Random random) {
+        if (sample.size() <= k) {
+            throw new IllegalArgumentException("Need more than " + k + " sampled embeddings, got " + sample.size());
+        }
+        return new TreeAhSimulation(sample, collectionSize, k, queries, random);
+    }
+
+    public Evaluation evaluate(Candidate candidate) {
+        long fullLeaves = Math.max(1, ceilDiv(collectionSize, candidate.leafNodeEmbeddingCount()));
+        int leaves = (int) Math.min(fullLeaves, Math.max(1, sample.size() / MIN_SAMPLE_PER_LEAF));
+        Partition partition = partitions.computeIfAbsent(leaves, this::partition);
+        int probedLeaves = Math.max(1, (int) Math.ceil(leaves * candidate.leafNodesToSearchPercent() / 100.0));
+
+        double recall = 0;
+        for (int q = 0; q < queryCount; q++) {
+            int[] leafOrder = partition.leafOrder[q];
+            int[] scanned = new int[sample.size()];
+            int scannedCount = 0;
+            for (int l = 0; l < probedLeaves; l++) {
+                for (int i : partition.members.get(leafOrder[l])) {
+                    if (i != q) {
+                        scanned[scannedCount++] = i;
+                    }
+                }
+            }
+            int[] shortlist = best(approximateScores[q], scanned, scannedCount, candidate.approximateNeighborsCount());
+            int[] found = best(exactScores[q], shortlist, shortlist.length, k);
+            recall += overlap(found, groundTruth[q]) / (double) groundTruth[q].length;
+        }
+
+        long fullProbedLeaves = Math.max(1, (long) Math.ceil(fullLeaves * candidate.leafNodesToSearchPercent() / 100.0));
+        long scannedAtScale = Math.min(collectionSize, fullProbedLeaves * candidate.leafNodeEmbeddingCount());
+        long cost = fullLeaves + scannedAtScale + Math.min(scannedAtScale, candidate.approximateNeighborsCount());
+        return new Evaluation(candidate, recall / queryCount, cost);
+    }
+
+    private record Partition(List<int[]> members, int[][] leafOrder) {
+    }
+
+    /**
+     * Spherical k-means over the sample, and for every query the leaves in order of centroid score
+     */
+    private Partition partition(int leaves) {
+        int dimension = sample.get(0).length;
+        float[][] centroids = new float[leaves][];
+        int[] seeds = random.ints(0, sample.size()).distinct().limit(leaves).toArray();
+        for (int c = 0; c < leaves; c++) {
+            centroids[c] = sample.get(seeds[c]).clone();
+        }
+
+        int[] assignment = new int[sample.size()];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            float[][] current = centroids;
+            IntStream.range(0, sample.size()).parallel()
+                    .forEach(i -> assignment[i] = closest(sample.get(i), current));
+            float[][] sums = new float[leaves][dimension];
+            int[] counts = new int[leaves];
+            for (int i = 0; i < sample.size(); i++) {
+                float[] vector = sample.get(i);
+                float[] sum = sums[assignment[i]];
+                for (int j = 0; j < dimension; j++) {
+                    sum[j] += vector[j];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < leaves; c++) {
+                // An empty leaf is restarted on a random embedding
+                centroids[c] = counts[c] == 0 ? sample.get(random.nextInt(sample.size())).clone()
+                        : VectorMath.normalize(sums[c]);
+            }
+        }
+
+        float[][] fitted = centroids;
+        IntStream.range(0, sample.size()).parallel().forEach(i -> assignment[i] = closest(sample.get(i), fitted));
+        List<List<Integer>> members = new ArrayList<>(leaves);
+        for (int c = 0; c < leaves; c++) {
+            members.add(new ArrayList<>());
+        }
+        for (int i = 0; i < sample.size(); i++) {
+            members.get(assignment[i]).add(i);
+        }
+        int[][] leafOrder = new int[queryCount][];
+        IntStream.range(0, queryCount).parallel().forEach(q -> {
+            float[] scores = new float[leaves];
+            for (int c = 0; c < leaves; c++) {
+                scores[c] = VectorMath.dot(sample.get(q), fitted[c]);
+            }
+            leafOrder[q] = IntStream.range(0, leaves).boxed()
+                    .sorted(Comparator.comparingDouble(c -> -scores[c]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        });
+        return new Partition(members.stream().map(m -> m.stream().mapToInt(Integer::intValue).toArray()).toList(),
+                leafOrder);
+    }
+
+    private static int closest(float[] vector, float[][] centroids) {
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < centroids.length; c++) {
+            float score = VectorMath.dot(vector, centroids[c]);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Per-dimension uniform 4-bit quantization over the range of the sample
+     */
+    private static List<float[]> quantize(List<float[]> sample) {
+        int dimension = sample.get(0).length;
+        float[] min = new float[dimension];
+        float[] max = new float[dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (float[] vector : sample) {
+            for (int j = 0; j < dimension; j++) {
+                min[j] = Math.min(min[j], vector[j]);
+                max[j] = Math.max(max[j], vector[j]);
+            }
+        }
+        List<float[]> quantized = new ArrayList<>(sample.size());
+        for (float[] vector : sample) {
+            float[] codes = new float[dimension];
+            for (int j = 0; j < dimension; j++) {
+                float step = (max[j] - min[j]) / (QUANTIZATION_LEVELS - 1);
+                codes[j] = step == 0 ? vector[j] : min[j] + Math.round((vector[j] - min[j]) / step) * step;
+            }
+            quantized.add(codes);
+        }
+        return quantized;
+    }
+
+    private static int[] allExcept(int size, int excluded) {
+        return IntStream.range(0, size).filter(i -> i != excluded).toArray();
+    }
+
+    private static int[] best(float[] scores, int[] indices, int count, int n) {
+        TopKCollector collector = new TopKCollector(Math.min(n, count));
+        for (int i = 0; i < count; i++) {
+            collector.offer(indices[i], scores[indices[i]]);
+        }
+        return collector.hits().stream().mapToInt(VectorMath.Hit::index).toArray();
+    }
+
+    private static int overlap(int[] found, int[] expected) {
+        int overlap = 0;
+        for (int i : found) {
+            for (int e : expected) {
+                if (i == e) {
+                    overlap++;
+                    break;
+                }
+            }
+        }
+        return overlap;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+}
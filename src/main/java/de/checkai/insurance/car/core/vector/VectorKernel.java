@@ -0,0 +1,20 @@
+package de.checkai.insurance.car.core.vector;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Primitive loops behind {@link VectorMath}
+ */
+interface VectorKernel {
+
+    float dot(float[] a, float[] b, int length);
+
+    float sumOfSquares(float[] vector);
+
+    void scale(float[] vector, float factor);
+}
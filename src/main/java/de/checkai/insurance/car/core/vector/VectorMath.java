@@ -0,0 +1,98 @@
+package de.checkai.insurance.car.core.vector;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Vector math for embeddings. Runs on the SIMD kernel when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector} and on plain loops otherwise;
+ * {@code -Dvector-math.scalar=true} forces the plain loops.
+ */
+@Slf4j
+public final class VectorMath {
+
+    private static final VectorKernel KERNEL = loadKernel();
+
+    private VectorMath() {
+    }
+
+    public static boolean isSimdEnabled() {
+        return !(KERNEL instanceof ScalarVectorKernel);
+    }
+
+    /**
+     * Dot product over the common length of both vectors
+     */
+    public static float dot(float[] a, float[] b) {
+        return KERNEL.dot(a, b, Math.min(a.length, b.length));
+    }
+
+    public static float norm(float[] vector) {
+        return (float) Math.sqrt(KERNEL.sumOfSquares(vector));
+    }
+
+    /**
+     * Scale a vector to unit length in place; zero vectors are left as they are
+     *
+     * @return the same array
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = norm(vector);
+        if (norm > 0 && Math.abs(norm - 1f) > 1e-6f) {
+            KERNEL.scale(vector, 1f / norm);
+        }
+        return vector;
+    }
+
+    /**
+     * Cosine similarity; for unit vectors {@link #dot} gives the same result without the norms
+     */
+    public static float cosine(float[] a, float[] b) {
+        float denominator = norm(a) * norm(b);
+        return denominator == 0 ? 0 : dot(a, b) / denominator;
+    }
+
+    /**
+     * The k vectors with the highest dot product with the query, best first
+     */
+    public static List<Hit> topK(float[] query, List<float[]> vectors, int k) {
+        if (k <= 0 || vectors.isEmpty()) {
+            return List.of();
+        }
+        TopKCollector collector = new TopKCollector(Math.min(k, vectors.size()));
+        for (int i = 0; i < vectors.size(); i++) {
+            collector.offer(i, dot(query, vectors.get(i)));
+        }
+        return collector.hits();
+    }
+
+    private static VectorKernel loadKernel() {
+        if (Boolean.getBoolean("vector-math.scalar")
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.info("Vector math runs on scalar loops, start with --add-modules jdk.incubator.vector for SIMD");
+            return new ScalarVectorKernel();
+        }
+        try {
+            VectorKernel kernel = new SimdVectorKernel();
+            log.info("Vector math runs on {} bit SIMD lanes", SimdVectorKernel.laneBits());
+            return kernel;
+        } catch (LinkageError e) {
+            log.warn("Vector API unavailable, falling back to scalar loops: {}", e.getMessage());
+            return new ScalarVectorKernel();
+        }
+    }
+
+    /**
+     * @param index position of the vector in the searched list
+     */
+    public record Hit(int index, float score) {
+    }
+}
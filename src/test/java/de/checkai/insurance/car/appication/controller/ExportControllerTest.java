@@ -0,0 +1,132 @@
+package de.checkai.insurance.car.appication.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.core.service.impl.BatchExportServiceImpl;
+import de.checkai.insurance.car.core.storage.ChunkFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ExportControllerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<TextChunk> chunks = IntStream.range(0, 10)
+            .mapToObj(i -> new TextChunk(UUID.randomUUID(), "clause " + i, "policy.pdf", 1, i))
+            .toList();
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path file = tempDir.resolve("batch-1.ndjson");
+        try (ChunkFile.Writer writer = ChunkFile.create(file, objectMapper)) {
+            for (TextChunk chunk : chunks) {
+                writer.append(chunk);
+            }
+        }
+        BatchExportServiceImpl exportService = new BatchExportServiceImpl(objectMapper);
+        exportService.registerChunks("batch-1", file);
+        mockMvc = MockMvcBuilders.standaloneSetup(new ExportController(exportService)).build();
+    }
+
+    @Test
+    void pageOfChunksTellsWhereTheNextOneStarts() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/v1/export/batch-1/chunks").param("offset", "2").param("limit", "3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "10"))
+                .andExpect(header().string("X-Next-Offset", "5"))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andReturn();
+
+        assertEquals(chunks.subList(2, 5), parse(new ByteArrayInputStream(result.getResponse().getContentAsByteArray())));
+    }
+
+    @Test
+    void lastPageHasNoNextOffset() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/v1/export/batch-1/chunks").param("offset", "8").param("limit", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "10"))
+                .andReturn();
+
+        assertFalse(result.getResponse().containsHeader("X-Next-Offset"));
+        assertEquals(chunks.subList(8, 10), parse(new ByteArrayInputStream(result.getResponse().getContentAsByteArray())));
+    }
+
+    @Test
+    void clientsAcceptingGzipGetACompressedStream() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/v1/export/batch-1/chunks")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andReturn();
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+            assertEquals(chunks, parse(in));
+        }
+    }
+
+    @Test
+    void unknownBatchesAndNegativeOffsetsAreRejected() throws Exception {
+        mockMvc.perform(get("/api/v1/export/batch-2/chunks")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/v1/export/batch-1/chunks").param("offset", "-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/export/batch-1/embeddings")).andExpect(status().isNotFound());
+    }
+
+    private List<TextChunk> parse(InputStream in) throws Exception {
+        String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        return Arrays.stream(body.split("\n"))
+                .filter(line -> !line.isEmpty())
+                .map(line -> {
+                    try {
+                        return objectMapper.readValue(line, TextChunk.class);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                })
+                .toList();
+    }
+}
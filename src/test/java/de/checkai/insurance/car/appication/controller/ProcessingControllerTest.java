@@ -0,0 +1,95 @@
+package de.checkai.insurance.car.appication.controller;
+
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import de.checkai.insurance.car.appication.model.ProcessingStatus;
+import de.checkai.insurance.car.core.progress.ProcessingStatusBroadcaster;
+import de.checkai.insurance.car.core.service.ProcessingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ProcessingControllerTest {
+
+    private final ProcessingStatusBroadcaster statusBroadcaster =
+            new ProcessingStatusBroadcaster(Duration.ofMillis(10), new SimpleMeterRegistry());
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        ProcessingController controller = new ProcessingController(new FixedProcessingService(
+                Map.of("done", "COMPLETED", "running", "PROCESSING")), statusBroadcaster, null, null, null);
+        ReflectionTestUtils.setField(controller, "eventStreamTimeout", Duration.ofMinutes(1));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        statusBroadcaster.shutdown();
+    }
+
+    @Test
+    void unknownBatchesAreRejectedInsteadOfStreamedUntilTheTimeout() throws Exception {
+        mockMvc.perform(get("/api/v1/processing/events").param("batchId", "done", "unknown"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/v1/processing/events/unknown"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void streamOfFinishedBatchesEndsWithTheirStatus() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/v1/processing/events").param("batchId", "done", "done"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String events = result.getResponse().getContentAsString();
+        assertTrue(events.contains("event:status"), events);
+        assertTrue(events.contains("\"status\":\"COMPLETED\""), events);
+    }
+
+    private record FixedProcessingService(Map<String, String> statuses) implements ProcessingService {
+
+        @Override
+        public void processPdfFiles(PdfProcessingRequest request, String batchId) {
+        }
+
+        @Override
+        public ProcessingStatus getProcessingStatus(String batchId) {
+            return new ProcessingStatus(batchId, statuses.getOrDefault(batchId, "NOT_FOUND"), 0, 0, 0, Instant.now(), 1, 0, 0);
+        }
+
+        @Override
+        public boolean cancelProcessing(String batchId) {
+            return false;
+        }
+
+        @Override
+        public boolean reprioritize(String batchId, Integer weight, Instant deadline) {
+            return false;
+        }
+    }
+}
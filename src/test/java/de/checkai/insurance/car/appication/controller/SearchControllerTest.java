@@ -0,0 +1,86 @@
+package de.checkai.insurance.car.appication.controller;
+
+import de.checkai.insurance.car.appication.model.HybridSearchRequest;
+import de.checkai.insurance.car.appication.model.SearchHit;
+import de.checkai.insurance.car.core.service.LocalSearchService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.validation.beanvalidation.MethodValidationInterceptor;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class SearchControllerTest {
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        // The controller is proxied like in the application context, where @Validated checks the parameters
+        ProxyFactory proxyFactory = new ProxyFactory(new SearchController(new SingleHitSearch()));
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new MethodValidationInterceptor());
+        mockMvc = MockMvcBuilders.standaloneSetup(proxyFactory.getProxy()).build();
+    }
+
+    @Test
+    void keywordSearchRejectsTopKOutOfRange() throws Exception {
+        mockMvc.perform(get("/api/v1/search/batch").param("q", "Haftpflicht").param("topK", "-1"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/search/batch").param("q", "Haftpflicht").param("topK", "1000000000"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/search/batch").param("q", "Haftpflicht").param("topK", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1));
+    }
+
+    @Test
+    void hybridSearchRejectsTopKAndVectorWeightOutOfRange() throws Exception {
+        mockMvc.perform(post("/api/v1/search/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"Haftpflicht\", \"topK\": 0}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/v1/search/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"Haftpflicht\", \"topK\": 5, \"vectorWeight\": 1.5}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/v1/search/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"Haftpflicht\", \"topK\": 5, \"vectorWeight\": 0.5}"))
+                .andExpect(status().isOk());
+    }
+
+    private static class SingleHitSearch implements LocalSearchService {
+
+        @Override
+        public void registerBatch(String batchId, Path keywordIndexFile, Path embeddingsFile) {
+        }
+
+        @Override
+        public void unregisterBatch(String batchId) {
+        }
+
+        @Override
+        public boolean hasBatch(String batchId) {
+            return true;
+        }
+
+        @Override
+        public List<SearchHit> search(String batchId, HybridSearchRequest request) {
+            return List.of(new SearchHit(UUID.randomUUID(), "policy.pdf", 1, 0, 1.0, 1.0f, null));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.checkai.insurance.car.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class LazyCloudClientTest {
+
+    @Test
+    void clientIsCreatedOnFirstUseOnlyOnceForConcurrentCallers() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LazyCloudClient<Object> client = LazyCloudClient.of("Test", () -> {
+            created.incrementAndGet();
+            creating.countDown();
+            await(release);
+            return new Object();
+        });
+        assertEquals(0, created.get());
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> clients = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                clients.add(callers.submit(client::get));
+            }
+            // Everybody asks while the first caller is still creating the client
+            assertTrue(creating.await(10, TimeUnit.SECONDS));
+            release.countDown();
+
+            Object first = clients.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Object> other : clients) {
+                assertSame(first, other.get(10, TimeUnit.SECONDS));
+            }
+            assertSame(first, client.get());
+            assertEquals(1, created.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void warmUpCreatesTheClientInTheBackgroundAndGetWaitsForIt() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        LazyCloudClient<Object> client = LazyCloudClient.of("Test", () -> {
+            created.incrementAndGet();
+            return new Object();
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Object warmedUp = client.warmUp(executor).get(10, TimeUnit.SECONDS);
+
+            assertSame(warmedUp, client.get());
+            assertSame(warmedUp, client.warmUp(executor).get(10, TimeUnit.SECONDS));
+            assertEquals(1, created.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void failedCreationIsTriedAgainByTheNextCaller() {
+        AtomicInteger attempts = new AtomicInteger();
+        LazyCloudClient<String> client = LazyCloudClient.of("Test", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("no credentials");
+            }
+            return "client";
+        });
+
+        assertThrows(IllegalStateException.class, client::get);
+        assertEquals("client", client.get());
+        assertEquals(2, attempts.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.checkai.insurance.car.core.cancellation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class BatchCancellationTest {
+
+    private final BatchCancellation cancellation = new BatchCancellation();
+
+    @Test
+    void cancellingAbortsOpenCallsOnlyAndFailsTheNextCheck() {
+        cancellation.start("batch");
+        CompletableFuture<Void> waiting = new CompletableFuture<>();
+        AtomicInteger closedCalls = new AtomicInteger();
+        try (BatchCancellation.Registration ignored = cancellation.onCancel("batch", closedCalls::incrementAndGet)) {
+            assertDoesNotThrow(() -> cancellation.check("batch"));
+        }
+        BatchCancellation.Registration open = cancellation.onCancel("batch", () -> waiting.cancel(true));
+
+        assertTrue(cancellation.cancel("batch"));
+        assertThrows(CancellationException.class, waiting::join);
+        assertEquals(0, closedCalls.get());
+        assertThrows(BatchCancelledException.class, () -> cancellation.check("batch"));
+        open.close();
+
+        // Calls started after the cancellation are aborted right away
+        AtomicInteger late = new AtomicInteger();
+        cancellation.onCancel("batch", late::incrementAndGet).close();
+        assertEquals(1, late.get());
+
+        cancellation.finish("batch");
+        assertFalse(cancellation.isCancelled("batch"));
+    }
+
+    @Test
+    void batchesThatAreNotRunningCannotBeCancelled() {
+        assertFalse(cancellation.cancel("unknown"));
+        assertDoesNotThrow(() -> cancellation.check(null));
+
+        // Two work items of one batch: the batch stays known until both are finished
+        cancellation.start("batch");
+        cancellation.start("batch");
+        cancellation.finish("batch");
+        assertTrue(cancellation.cancel("batch"));
+        cancellation.finish("batch");
+        assertFalse(cancellation.cancel("batch"));
+    }
+}
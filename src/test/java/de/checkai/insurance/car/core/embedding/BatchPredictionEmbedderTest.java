@@ -0,0 +1,152 @@
+package de.checkai.insurance.car.core.embedding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.aiplatform.v1.BatchPredictionJob;
+import com.google.cloud.aiplatform.v1.JobServiceClient;
+import com.google.cloud.aiplatform.v1.JobState;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class BatchPredictionEmbedderTest {
+
+    private static final int DIMENSION = 4;
+
+    private final Storage storage = LocalStorageHelper.getOptions().getService();
+    private final FakeJobServiceStub jobService = new FakeJobServiceStub(storage, DIMENSION);
+    private final BatchPredictionEmbedder embedder = embedder(jobService, storage, Duration.ofMinutes(1));
+
+    @AfterEach
+    void tearDown() {
+        embedder.shutdown();
+    }
+
+    @Test
+    void jobIsPolledUntilItSucceedsAndItsOutputIsRead() throws Exception {
+        jobService.reporting(JobState.JOB_STATE_PENDING, JobState.JOB_STATE_RUNNING, JobState.JOB_STATE_SUCCEEDED);
+        List<TextChunk> chunks = chunks(20);
+
+        Map<UUID, TextEmbedding> embeddings = embedder.generateEmbeddings(chunks, "text-embedding-005", 256)
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, jobService.submitted.size());
+        BatchPredictionJob job = jobService.submitted.get(0);
+        assertEquals("projects/test-project/locations/europe-west4/publishers/google/models/text-embedding-005", job.getModel());
+        assertEquals(List.of("id"), job.getInstanceConfig().getExcludedFieldsList());
+        assertEquals(256, job.getModelParameters().getStructValue().getFieldsOrThrow("outputDimensionality").getNumberValue());
+        assertTrue(jobService.polls.get() >= 3);
+
+        assertEquals(chunks.size(), embeddings.size());
+        for (TextChunk chunk : chunks) {
+            TextEmbedding embedding = embeddings.get(chunk.id());
+            assertArrayEquals(FakeJobServiceStub.embedding(chunk.content(), DIMENSION), embedding.embedding());
+            assertEquals(chunk.pageNumber(), embedding.pageNumber());
+        }
+        assertTrue(jobService.cancelled.isEmpty());
+    }
+
+    @Test
+    void instancesTheJobFailedAreLeftOut() throws Exception {
+        jobService.reporting(JobState.JOB_STATE_PARTIALLY_SUCCEEDED).failingInstance("clause 3");
+        List<TextChunk> chunks = chunks(5);
+
+        Map<UUID, TextEmbedding> embeddings = embedder.generateEmbeddings(chunks, "text-embedding-005", null)
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(4, embeddings.size());
+        assertFalse(embeddings.containsKey(chunks.get(3).id()));
+        assertFalse(jobService.submitted.get(0).hasModelParameters());
+    }
+
+    @Test
+    void failedJobFailsTheFuture() {
+        jobService.reporting(JobState.JOB_STATE_RUNNING).failingWith("quota exceeded");
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> embedder.generateEmbeddings(chunks(3), "text-embedding-005", null).get(10, TimeUnit.SECONDS));
+
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        assertTrue(error.getCause().getMessage().contains("quota exceeded"));
+        assertTrue(jobService.cancelled.isEmpty());
+    }
+
+    @Test
+    void jobStillRunningAtTheDeadlineIsCancelled() throws Exception {
+        BatchPredictionEmbedder impatient = embedder(jobService, storage, Duration.ofMillis(200));
+        jobService.reporting(JobState.JOB_STATE_RUNNING);
+        try {
+            ExecutionException error = assertThrows(ExecutionException.class,
+                    () -> impatient.generateEmbeddings(chunks(3), "text-embedding-005", null).get(10, TimeUnit.SECONDS));
+
+            assertInstanceOf(TimeoutException.class, error.getCause());
+            awaitCancelled(jobService.submitted.get(0).getName());
+        } finally {
+            impatient.shutdown();
+        }
+    }
+
+    @Test
+    void cancellingTheResultCancelsTheJob() throws Exception {
+        jobService.reporting(JobState.JOB_STATE_RUNNING);
+
+        CompletableFuture<Map<UUID, TextEmbedding>> embeddings = embedder.generateEmbeddings(chunks(3), "text-embedding-005", null);
+        embeddings.cancel(true);
+
+        awaitCancelled(jobService.submitted.get(0).getName());
+    }
+
+    private void awaitCancelled(String jobName) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!jobService.cancelled.contains(jobName) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of(jobName), jobService.cancelled);
+    }
+
+    static BatchPredictionEmbedder embedder(FakeJobServiceStub jobService, Storage storage, Duration maxWait) {
+        BatchPredictionEmbedder embedder = new BatchPredictionEmbedder(LazyCloudClient.of(JobServiceClient.create(jobService)),
+                LazyCloudClient.of(storage), new ObjectMapper(),
+                new EmbeddingDimensionality("text-embedding-005", DIMENSION, 0, EmbeddingDimensionality.Reduction.AUTO, 2000, 0));
+        ReflectionTestUtils.setField(embedder, "projectId", "test-project");
+        ReflectionTestUtils.setField(embedder, "region", "europe-west4");
+        ReflectionTestUtils.setField(embedder, "bucketName", "test-bucket");
+        ReflectionTestUtils.setField(embedder, "gcsPrefix", "batch-prediction");
+        ReflectionTestUtils.setField(embedder, "pollInterval", Duration.ofMillis(20));
+        ReflectionTestUtils.setField(embedder, "maxWait", maxWait);
+        return embedder;
+    }
+
+    static List<TextChunk> chunks(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new TextChunk(UUID.randomUUID(), "clause " + i, "policy.pdf", i / 4 + 1, i))
+                .toList();
+    }
+}
@@ -0,0 +1,232 @@
+package de.checkai.insurance.car.core.embedding;
+
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class EmbeddingMicroBatcherTest {
+
+    private final List<Integer> requestSizes = new CopyOnWriteArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private EmbeddingMicroBatcher batcher;
+
+    @AfterEach
+    void tearDown() {
+        batcher.close();
+    }
+
+    @Test
+    void smallConcurrentCallersShareFullRequests() throws Exception {
+        // The linger never runs out during the test, only full requests and flush() send
+        batcher = new EmbeddingMicroBatcher(this::predict, 5, Duration.ofHours(1), 2, meterRegistry);
+        ExecutorService callers = Executors.newFixedThreadPool(10);
+
+        // Ten jobs with a single chunk each
+        List<CompletableFuture<CompletableFuture<List<TextEmbedding>>>> submitted = new ArrayList<>();
+        List<TextChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            TextChunk chunk = chunk("chunk " + i);
+            chunks.add(chunk);
+            submitted.add(CompletableFuture.supplyAsync(() -> batcher.submitAll(List.of(chunk)), callers));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            TextEmbedding embedding = submitted.get(i).get().get(10, TimeUnit.SECONDS).get(0);
+            assertEquals(chunks.get(i).id(), embedding.id());
+        }
+        assertEquals(List.of(5, 5), requestSizes);
+        assertEquals(5.0, meterRegistry.get("vertex.predict.instances").summary().mean());
+        callers.shutdown();
+    }
+
+    @Test
+    void partlyFilledRequestWaitsForTheLingerOrAFlush() throws Exception {
+        batcher = new EmbeddingMicroBatcher(this::predict, 5, Duration.ofHours(1), 1, meterRegistry);
+
+        CompletableFuture<List<TextEmbedding>> embeddings = batcher.submitAll(List.of(chunk("a"), chunk("b")));
+        assertFalse(embeddings.isDone());
+        assertTrue(requestSizes.isEmpty());
+
+        batcher.flush();
+
+        assertEquals(2, embeddings.get(10, TimeUnit.SECONDS).size());
+        assertEquals(List.of(2), requestSizes);
+    }
+
+    @Test
+    void partlyFilledRequestIsSentAfterTheLingerTime() {
+        batcher = new EmbeddingMicroBatcher(this::predict, 5, Duration.ofMillis(20), 1, meterRegistry);
+
+        List<TextEmbedding> embeddings = batcher.submitAll(List.of(chunk("a"), chunk("b"))).join();
+
+        assertEquals(2, embeddings.size());
+        assertEquals(List.of(2), requestSizes);
+    }
+
+    @Test
+    void failedRequestFailsEveryWaitingCaller() {
+        Function<List<TextChunk>, List<TextEmbedding>> failing = chunks -> {
+            throw new IllegalStateException("quota exceeded");
+        };
+        batcher = new EmbeddingMicroBatcher(failing, 2, Duration.ofMillis(20), 1, meterRegistry);
+
+        CompletableFuture<TextEmbedding> first = batcher.submit(chunk("a"));
+        CompletableFuture<TextEmbedding> second = batcher.submit(chunk("b"));
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(CompletionException.class, first::join).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(CompletionException.class, second::join).getCause());
+    }
+
+    @Test
+    void queuedChunksAreTakenByFlowWeight() throws Exception {
+        CountDownLatch firstRequest = new CountDownLatch(1);
+        List<List<String>> requests = new CopyOnWriteArrayList<>();
+        EmbeddingMicroBatcher.Predictor predictor = (flowId, outputDimensionality, chunks) -> {
+            requests.add(chunks.stream().map(TextChunk::sourceDocument).toList());
+            await(firstRequest);
+            return embed(chunks);
+        };
+        batcher = new EmbeddingMicroBatcher(predictor, 4, Duration.ofHours(1), 1, Duration.ZERO,
+                flowId -> "light".equals(flowId) ? 3 : 1, meterRegistry, "test");
+
+        // The large job queues first and holds the only request slot
+        List<CompletableFuture<TextEmbedding>> heavy = batcher.submitEach("heavy", null, chunks("heavy", 20));
+        List<CompletableFuture<TextEmbedding>> light = batcher.submitEach("light", null, chunks("light", 6));
+        firstRequest.countDown();
+        CompletableFuture.allOf(heavy.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        CompletableFuture.allOf(light.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+        // Three chunks of the job with weight 3 for every chunk of the other, instead of after all of them
+        assertEquals(List.of("heavy", "heavy", "heavy", "heavy"), requests.get(0));
+        assertEquals(3, requests.get(1).stream().filter("light"::equals).count());
+        assertEquals(3, requests.get(2).stream().filter("light"::equals).count());
+        assertEquals(0, requests.get(3).stream().filter("light"::equals).count());
+    }
+
+    @Test
+    void requestStartsKeepThePace() throws Exception {
+        List<Long> starts = new CopyOnWriteArrayList<>();
+        EmbeddingMicroBatcher.Predictor predictor = (flowId, outputDimensionality, chunks) -> {
+            starts.add(System.nanoTime());
+            return embed(chunks);
+        };
+        batcher = new EmbeddingMicroBatcher(predictor, 2, Duration.ofHours(1), 4, Duration.ofMillis(50),
+                flowId -> 1, meterRegistry, "test");
+
+        long submitted = System.nanoTime();
+        List<CompletableFuture<TextEmbedding>> embeddings = batcher.submitEach("job", null, chunks("job", 8));
+        CompletableFuture.allOf(embeddings.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+        // Four slots, yet the n-th request starts no earlier than n paces after the first could
+        List<Long> sorted = starts.stream().sorted().toList();
+        assertEquals(4, sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertTrue(sorted.get(i) - submitted >= TimeUnit.MILLISECONDS.toNanos(50L * i));
+        }
+    }
+
+    @Test
+    void cancelledChunksAreNotSent() throws Exception {
+        CountDownLatch firstRequest = new CountDownLatch(1);
+        EmbeddingMicroBatcher.Predictor predictor = (flowId, outputDimensionality, chunks) -> {
+            requestSizes.add(chunks.size());
+            await(firstRequest);
+            return embed(chunks);
+        };
+        batcher = new EmbeddingMicroBatcher(predictor, 4, Duration.ofHours(1), 1, Duration.ZERO,
+                flowId -> 1, meterRegistry, "test");
+
+        List<CompletableFuture<TextEmbedding>> running = batcher.submitEach("a", null, chunks("a", 4));
+        List<CompletableFuture<TextEmbedding>> cancelled = batcher.submitEach("b", null, chunks("b", 4));
+        cancelled.forEach(embedding -> embedding.cancel(true));
+        List<CompletableFuture<TextEmbedding>> queued = batcher.submitEach("c", null, chunks("c", 4));
+        firstRequest.countDown();
+
+        CompletableFuture.allOf(running.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        CompletableFuture.allOf(queued.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of(4, 4), requestSizes);
+    }
+
+    @Test
+    void chunksAskingForDifferentDimensionalitiesNeverShareARequest() throws Exception {
+        List<String> requests = new CopyOnWriteArrayList<>();
+        EmbeddingMicroBatcher.Predictor predictor = (flowId, outputDimensionality, chunks) -> {
+            requests.add(outputDimensionality + ":" + chunks.stream().map(TextChunk::sourceDocument).distinct().toList());
+            return embed(chunks);
+        };
+        batcher = new EmbeddingMicroBatcher(predictor, 4, Duration.ofHours(1), 1, Duration.ZERO,
+                flowId -> 1, meterRegistry, "test");
+
+        // Two branches of one job with the same model, and another job with the model's dimensionality
+        List<CompletableFuture<TextEmbedding>> embeddings = new ArrayList<>();
+        embeddings.addAll(batcher.submitEach("job", 256, chunks("small", 3)));
+        embeddings.addAll(batcher.submitEach("job", 768, chunks("large", 3)));
+        embeddings.addAll(batcher.submitEach("other", null, chunks("full", 2)));
+        batcher.flush();
+        CompletableFuture.allOf(embeddings.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(List.of("256:[small]", "768:[large]", "null:[full]"), requests.stream().sorted().toList());
+    }
+
+    private List<TextEmbedding> predict(List<TextChunk> chunks) {
+        requestSizes.add(chunks.size());
+        return embed(chunks);
+    }
+
+    private static List<TextEmbedding> embed(List<TextChunk> chunks) {
+        return chunks.stream()
+                .map(chunk -> new TextEmbedding(chunk.id(), new float[]{chunk.content().length()},
+                        chunk.sourceDocument(), chunk.pageNumber(), chunk.position()))
+                .toList();
+    }
+
+    private static TextChunk chunk(String content) {
+        return new TextChunk(UUID.randomUUID(), content, "doc.pdf", 1, 0);
+    }
+
+    /**
+     * Chunks of one job, with the job as their source document
+     */
+    private static List<TextChunk> chunks(String job, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new TextChunk(UUID.randomUUID(), job + " " + i, job, 1, i))
+                .toList();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.checkai.insurance.car.core.embedding;
+
+import de.checkai.insurance.car.appication.model.EmbeddingTarget;
+import de.checkai.insurance.car.config.EmbeddingModelProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class EmbeddingModelsTest {
+
+    private final EmbeddingModels models = new EmbeddingModels(
+            new EmbeddingDimensionality("textembedding-gecko@001", 768, 0, EmbeddingDimensionality.Reduction.AUTO, 2000, 0),
+            new EmbeddingModelProperties(Map.of("text-embedding-005", new EmbeddingModelProperties.Model(
+                    768, 5, Duration.ofMillis(25), 2, Duration.ofMillis(100)))),
+            "textembedding-gecko@001", 5, Duration.ofMillis(25), 4, Duration.ofMillis(500));
+
+    @Test
+    void requestsWithoutTargetsUseTheConfiguredModel() {
+        List<EmbeddingBranch> branches = models.resolve(List.of());
+
+        assertEquals(1, branches.size());
+        assertSame(models.defaultBranch(), branches.get(0));
+        assertEquals("batch", branches.get(0).collectionId("batch", 0));
+    }
+
+    @Test
+    void furtherModelsGetTheirOwnDimensionLimitsAndCollection() {
+        List<EmbeddingBranch> branches = models.resolve(List.of(
+                new EmbeddingTarget("textembedding-gecko@001", null),
+                new EmbeddingTarget("text-embedding-005", 256)));
+
+        EmbeddingBranch migration = branches.get(1);
+        assertEquals(256, migration.dimensionality().outputDimension());
+        assertEquals(EmbeddingDimensionality.Reduction.MODEL, migration.dimensionality().reduction());
+        assertEquals(2, migration.maxConcurrentRequests());
+        assertEquals("batch", branches.get(0).collectionId("batch", 0));
+        assertEquals("batch-text-embedding-005-256", migration.collectionId("batch", 1));
+    }
+
+    @Test
+    void unknownDuplicateAndOversizedTargetsAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> models.resolve(List.of(new EmbeddingTarget("gemini-embedding-001", null))));
+        assertThrows(IllegalArgumentException.class, () -> models.resolve(List.of(
+                new EmbeddingTarget("text-embedding-005", null), new EmbeddingTarget("text-embedding-005", 768))));
+        assertThrows(IllegalArgumentException.class,
+                () -> models.resolve(List.of(new EmbeddingTarget("text-embedding-005", 1024))));
+    }
+}
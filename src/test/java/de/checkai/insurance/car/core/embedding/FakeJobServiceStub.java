@@ -0,0 +1,208 @@
+package de.checkai.insurance.car.core.embedding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.aiplatform.v1.BatchPredictionJob;
+import com.google.cloud.aiplatform.v1.CancelBatchPredictionJobRequest;
+import com.google.cloud.aiplatform.v1.CreateBatchPredictionJobRequest;
+import com.google.cloud.aiplatform.v1.GetBatchPredictionJobRequest;
+import com.google.cloud.aiplatform.v1.JobState;
+import com.google.cloud.aiplatform.v1.stub.JobServiceStub;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.protobuf.Empty;
+import com.google.rpc.Status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Local stand-in for the Vertex AI job service. A job reports the given states one poll after the
+ * other and stays in the last one; when it reports success, its predictions are written to the
+ * output prefix in the job's storage, with an error status for the instances listed as failing.
+ * The fake embedding of a chunk is its content length followed by ones.
+ */
+public class FakeJobServiceStub extends JobServiceStub {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Storage storage;
+    private final int dimension;
+    private final Deque<BatchPredictionJob> states = new ArrayDeque<>();
+    private final Set<String> failingContents = ConcurrentHashMap.newKeySet();
+
+    public final List<BatchPredictionJob> submitted = new CopyOnWriteArrayList<>();
+    public final List<String> cancelled = new CopyOnWriteArrayList<>();
+    public final AtomicInteger polls = new AtomicInteger();
+
+    private volatile BatchPredictionJob job;
+
+    public FakeJobServiceStub(Storage storage, int dimension) {
+        this.storage = storage;
+        this.dimension = dimension;
+    }
+
+    public FakeJobServiceStub reporting(JobState... jobStates) {
+        for (JobState state : jobStates) {
+            states.add(BatchPredictionJob.newBuilder().setState(state).build());
+        }
+        return this;
+    }
+
+    public FakeJobServiceStub failingWith(String message) {
+        states.add(BatchPredictionJob.newBuilder()
+                .setState(JobState.JOB_STATE_FAILED)
+                .setError(Status.newBuilder().setMessage(message))
+                .build());
+        return this;
+    }
+
+    /**
+     * Chunks with this content get an error status instead of a prediction
+     */
+    public FakeJobServiceStub failingInstance(String content) {
+        failingContents.add(content);
+        return this;
+    }
+
+    public static float[] embedding(String content, int dimension) {
+        float[] embedding = new float[dimension];
+        Arrays.fill(embedding, 1);
+        embedding[0] = content.length();
+        return embedding;
+    }
+
+    @Override
+    public UnaryCallable<CreateBatchPredictionJobRequest, BatchPredictionJob> createBatchPredictionJobCallable() {
+        return callable(request -> {
+            BatchPredictionJob created = request.getBatchPredictionJob().toBuilder()
+                    .setName(request.getParent() + "/batchPredictionJobs/" + (submitted.size() + 1))
+                    .setState(JobState.JOB_STATE_PENDING)
+                    .build();
+            submitted.add(created);
+            job = created;
+            return created;
+        });
+    }
+
+    @Override
+    public UnaryCallable<GetBatchPredictionJobRequest, BatchPredictionJob> getBatchPredictionJobCallable() {
+        return callable(request -> {
+            polls.incrementAndGet();
+            BatchPredictionJob state;
+            synchronized (states) {
+                state = states.size() > 1 ? states.poll() : states.peek();
+            }
+            BatchPredictionJob.Builder reported = job.toBuilder().setState(state.getState()).setError(state.getError());
+            if (state.getState() == JobState.JOB_STATE_SUCCEEDED
+                    || state.getState() == JobState.JOB_STATE_PARTIALLY_SUCCEEDED) {
+                reported.setOutputInfo(BatchPredictionJob.OutputInfo.newBuilder()
+                        .setGcsOutputDirectory(writeOutput(job)));
+            }
+            return reported.build();
+        });
+    }
+
+    @Override
+    public UnaryCallable<CancelBatchPredictionJobRequest, Empty> cancelBatchPredictionJobCallable() {
+        return callable(request -> {
+            cancelled.add(request.getName());
+            return Empty.getDefaultInstance();
+        });
+    }
+
+    private String writeOutput(BatchPredictionJob job) {
+        String inputUri = job.getInputConfig().getGcsSource().getUris(0);
+        String outputDirectory = job.getOutputConfig().getGcsDestination().getOutputUriPrefix() + "/prediction-model";
+        BlobId input = blobId(inputUri);
+
+        StringBuilder predictions = new StringBuilder();
+        try {
+            for (String line : new String(storage.readAllBytes(input), StandardCharsets.UTF_8).split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                JsonNode instance = OBJECT_MAPPER.readTree(line);
+                ObjectNode prediction = OBJECT_MAPPER.createObjectNode();
+                prediction.set("instance", instance);
+                String content = instance.get("content").asText();
+                if (failingContents.contains(content)) {
+                    prediction.put("status", "INVALID_ARGUMENT: content rejected");
+                } else {
+                    prediction.putArray("predictions").addObject().putObject("embeddings")
+                            .set("values", OBJECT_MAPPER.valueToTree(embedding(content, dimension)));
+                }
+                predictions.append(OBJECT_MAPPER.writeValueAsString(prediction)).append('\n');
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to write predictions of " + job.getName(), e);
+        }
+        BlobId output = blobId(outputDirectory + "/predictions_00001.jsonl");
+        storage.create(BlobInfo.newBuilder(output).build(), predictions.toString().getBytes(StandardCharsets.UTF_8));
+        return outputDirectory;
+    }
+
+    private static BlobId blobId(String uri) {
+        String path = uri.substring("gs://".length());
+        int slash = path.indexOf('/');
+        return BlobId.of(path.substring(0, slash), path.substring(slash + 1));
+    }
+
+    private static <Q, R> UnaryCallable<Q, R> callable(Function<Q, R> handler) {
+        return new UnaryCallable<>() {
+            @Override
+            public ApiFuture<R> futureCall(Q request, ApiCallContext context) {
+                return ApiFutures.immediateFuture(handler.apply(request));
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public void shutdownNow() {
+    }
+
+    @Override
+    public boolean awaitTermination(long duration, TimeUnit unit) {
+        return true;
+    }
+}
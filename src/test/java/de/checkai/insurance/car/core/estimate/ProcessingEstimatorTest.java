@@ -0,0 +1,212 @@
+package de.checkai.insurance.car.core.estimate;
+
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import de.checkai.insurance.car.appication.model.ProcessingEstimate;
+import de.checkai.insurance.car.config.EmbeddingModelProperties;
+import de.checkai.insurance.car.core.embedding.EmbeddingDimensionality;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.ingest.DocumentSources;
+import de.checkai.insurance.car.core.service.OcrService;
+import de.checkai.insurance.car.core.storage.ShardedEmbeddingWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ProcessingEstimatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ShardedEmbeddingWriter shardedEmbeddingWriter;
+    private ProcessingEstimator estimator;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddingModels embeddingModels = new EmbeddingModels(
+                new EmbeddingDimensionality("textembedding-gecko@001", 768, 0, EmbeddingDimensionality.Reduction.AUTO, 2000, 0),
+                new EmbeddingModelProperties(Map.of()),
+                "textembedding-gecko@001", 5, Duration.ofMillis(25), 4, Duration.ofMillis(500));
+        shardedEmbeddingWriter = new ShardedEmbeddingWriter(null, null, null, "bucket", 64, 1000, 1);
+        estimator = new ProcessingEstimator(new DocumentSources(null),
+                new ThroughputTracker(1.0, 10, 50, 2000, Duration.ofMinutes(45)), embeddingModels,
+                shardedEmbeddingWriter, new DisabledOcr());
+        ReflectionTestUtils.setField(estimator, "chunkSize", 300);
+        ReflectionTestUtils.setField(estimator, "chunkOverlap", 50);
+        ReflectionTestUtils.setField(estimator, "maxMainMemoryMb", 1L);
+        ReflectionTestUtils.setField(estimator, "tempDir", tempDir.toString());
+        ReflectionTestUtils.setField(estimator, "samplePages", 3);
+        ReflectionTestUtils.setField(estimator, "maxSampledDocuments", 50);
+        ReflectionTestUtils.setField(estimator, "maxDuration", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(estimator, "maxSampledMb", 256L);
+        ReflectionTestUtils.setField(estimator, "defaultChunksPerMb", 40.0);
+        ReflectionTestUtils.setField(estimator, "defaultPagesPerMb", 10.0);
+        ReflectionTestUtils.setField(estimator, "batchPredictionThreshold", 20000);
+        ReflectionTestUtils.setField(estimator, "extractionConcurrency", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        shardedEmbeddingWriter.shutdown();
+    }
+
+    @Test
+    void sampledDocumentsOfPathsAndSourcesAddUp() throws IOException {
+        Path policy = createPdf(tempDir.resolve("policy.pdf"), "Policy", 3, 0);
+        Path claim = createPdf(tempDir.resolve("claim.pdf"), "Claim", 3, 0);
+        Path archive = Files.createDirectories(tempDir.resolve("archive"));
+        Path scan = createPdf(archive.resolve("scan.pdf"), "Scan", 2, 1);
+
+        ProcessingEstimate estimate = estimator.estimate(request(List.of(policy, claim), List.of(archive)));
+
+        assertTrue(estimate.complete());
+        assertEquals(3, estimate.documents());
+        assertEquals(3, estimate.sampledDocuments());
+        assertEquals(Files.size(policy) + Files.size(claim) + Files.size(scan), estimate.totalBytes());
+        assertEquals(9, estimate.pages());
+        assertEquals(1, estimate.imageOnlyPages());
+        // Every text page is one short sentence, so one chunk
+        assertEquals(8, estimate.chunks());
+        assertEquals("ONLINE", estimate.embeddingMode());
+        assertEquals(2, estimate.predictRequests());
+        assertEquals(0, estimate.batchPredictionJobs());
+        // One shard, its manifest and the keyword index
+        assertEquals(3, estimate.gcsUploads());
+        assertEquals(List.of("EXTRACTION", "EMBEDDING", "STORAGE", "INDEXING"),
+                estimate.stages().stream().map(ProcessingEstimate.Stage::name).toList());
+        assertEquals(8.0 / 10, estimate.stages().get(1).estimatedSeconds(), 1e-9);
+    }
+
+    @Test
+    void documentsBeyondTheSampleLimitsAreProjectedFromTheirSize() throws IOException {
+        Path policy = createPdf(tempDir.resolve("policy.pdf"), "Policy", 3, 0);
+        Path copy = Files.copy(policy, tempDir.resolve("copy.pdf"));
+        ReflectionTestUtils.setField(estimator, "maxSampledDocuments", 1);
+
+        ProcessingEstimate estimate = estimator.estimate(request(List.of(policy, copy), List.of()));
+
+        assertEquals(2, estimate.documents());
+        assertEquals(1, estimate.sampledDocuments());
+        // The copy has the size of the sampled document, so it projects to the same pages and chunks
+        assertEquals(6, estimate.pages());
+        assertEquals(6, estimate.chunks());
+
+        // Nothing fits into an empty byte budget, the defaults per megabyte apply
+        ReflectionTestUtils.setField(estimator, "maxSampledDocuments", 50);
+        ReflectionTestUtils.setField(estimator, "maxSampledMb", 0L);
+        estimate = estimator.estimate(request(List.of(policy, copy), List.of()));
+
+        assertEquals(2, estimate.documents());
+        assertEquals(0, estimate.sampledDocuments());
+        assertEquals(Math.round(40.0 * estimate.totalBytes() / (1024 * 1024)), estimate.chunks());
+    }
+
+    @Test
+    void sourcesAreNoLongerListedOnceTheBudgetIsUsedUp() throws IOException {
+        Path policy = createPdf(tempDir.resolve("policy.pdf"), "Policy", 3, 0);
+        Path first = Files.createDirectories(tempDir.resolve("first"));
+        Path second = Files.createDirectories(tempDir.resolve("second"));
+        createPdf(first.resolve("a.pdf"), "A", 1, 0);
+        createPdf(first.resolve("b.pdf"), "B", 1, 0);
+        createPdf(second.resolve("c.pdf"), "C", 1, 0);
+        PdfProcessingRequest request = request(List.of(policy), List.of(first, second));
+
+        ProcessingEstimate estimate = estimator.estimate(request);
+        assertTrue(estimate.complete());
+        assertEquals(4, estimate.documents());
+
+        // Listed paths are always counted, the sources stop at their first document
+        ReflectionTestUtils.setField(estimator, "maxDuration", Duration.ZERO);
+        estimate = estimator.estimate(request);
+
+        assertFalse(estimate.complete());
+        assertEquals(1, estimate.documents());
+        assertEquals(0, estimate.sampledDocuments());
+        assertEquals(Files.size(policy), estimate.totalBytes());
+    }
+
+    @Test
+    void largeBatchesAreEstimatedWithTheBatchPredictionThroughput() throws IOException {
+        Path policy = createPdf(tempDir.resolve("policy.pdf"), "Policy", 3, 0);
+        ReflectionTestUtils.setField(estimator, "batchPredictionThreshold", 2);
+
+        ProcessingEstimate estimate = estimator.estimate(request(List.of(policy), List.of()));
+
+        assertEquals("BATCH_PREDICTION", estimate.embeddingMode());
+        assertEquals(0, estimate.predictRequests());
+        assertEquals(1, estimate.batchPredictionJobs());
+        ProcessingEstimate.Stage embedding = estimate.stages().get(1);
+        assertEquals("EMBEDDING_BATCH_PREDICTION", embedding.name());
+        assertEquals(50.0, embedding.unitsPerSecond(), 1e-9);
+        assertFalse(embedding.measured());
+        assertEquals(3.0 / 50, embedding.estimatedSeconds(), 1e-9);
+    }
+
+    private static PdfProcessingRequest request(List<Path> pdfFilePaths, List<Path> sources) {
+        return new PdfProcessingRequest(pdfFilePaths.stream().map(Path::toString).toList(), "test", null, null, null,
+                sources.stream().map(Path::toString).toList(), null, null, null);
+    }
+
+    private static Path createPdf(Path path, String title, int textPages, int blankPages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 1; i <= textPages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(50, 700);
+                    content.showText(title + " page " + i + ".");
+                    content.endText();
+                }
+            }
+            for (int i = 0; i < blankPages; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(path.toFile());
+        }
+        return path;
+    }
+
+    private static class DisabledOcr implements OcrService {
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public int getMaxPagesPerRequest() {
+            return 1;
+        }
+
+        @Override
+        public CompletableFuture<Map<Integer, String>> recognizePages(String documentName, byte[] pdfContent,
+                                                                      List<Integer> pageNumbers) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException("OCR is disabled"));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package de.checkai.insurance.car.core.estimate;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ThroughputTrackerTest {
+
+    @Test
+    void defaultsApplyUntilAStageIsMeasured() {
+        ThroughputTracker tracker = new ThroughputTracker(1.5, 10, 50, 2000, Duration.ofMinutes(50));
+
+        ThroughputTracker.Rate extraction = tracker.rate(ThroughputTracker.Stage.EXTRACTION);
+        assertFalse(extraction.measured());
+        assertEquals(1.5, extraction.unitsPerSecond(), 1e-9);
+        assertEquals(1.0 / 3000, tracker.rate(ThroughputTracker.Stage.INDEXING).unitsPerSecond(), 1e-12);
+
+        // Runs count by their work: 30 chunks in 2 s and 10 chunks in 2 s are 10 chunks per second
+        tracker.record(ThroughputTracker.Stage.EMBEDDING, 30, 2_000_000_000L);
+        tracker.record(ThroughputTracker.Stage.EMBEDDING, 10, 2_000_000_000L);
+        tracker.record(ThroughputTracker.Stage.EMBEDDING, 0, 5_000_000_000L);
+        ThroughputTracker.Rate embedding = tracker.rate(ThroughputTracker.Stage.EMBEDDING);
+        assertTrue(embedding.measured());
+        assertEquals(2, embedding.samples());
+        assertEquals(10.0, embedding.unitsPerSecond(), 1e-9);
+        // Batch prediction runs are tracked apart from online ones
+        assertFalse(tracker.rate(ThroughputTracker.Stage.EMBEDDING_BATCH_PREDICTION).measured());
+        assertEquals(50.0, tracker.rate(ThroughputTracker.Stage.EMBEDDING_BATCH_PREDICTION).unitsPerSecond(), 1e-9);
+    }
+
+    @Test
+    void onlyTheMostRecentRunsCount() {
+        ThroughputTracker tracker = new ThroughputTracker(1, 10, 50, 2000, Duration.ofMinutes(45));
+
+        for (int i = 0; i < 100; i++) {
+            tracker.record(ThroughputTracker.Stage.STORAGE, 100, 1_000_000_000L);
+        }
+        for (int i = 0; i < 20; i++) {
+            tracker.record(ThroughputTracker.Stage.STORAGE, 500, 1_000_000_000L);
+        }
+
+        assertEquals(500.0, tracker.rate(ThroughputTracker.Stage.STORAGE).unitsPerSecond(), 1e-9);
+    }
+}
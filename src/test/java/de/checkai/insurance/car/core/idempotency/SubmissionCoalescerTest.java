@@ -0,0 +1,181 @@
+package de.checkai.insurance.car.core.idempotency;
+
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import de.checkai.insurance.car.appication.model.ProcessingStatus;
+import de.checkai.insurance.car.config.EmbeddingModelProperties;
+import de.checkai.insurance.car.core.embedding.EmbeddingDimensionality;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.service.ProcessingService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class SubmissionCoalescerTest {
+
+    @TempDir
+    Path directory;
+
+    private final RecordingProcessingService processingService = new RecordingProcessingService();
+
+    private final SubmissionCoalescer coalescer = new SubmissionCoalescer(processingService,
+            new EmbeddingModels(
+                    new EmbeddingDimensionality("textembedding-gecko@001", 768, 0, EmbeddingDimensionality.Reduction.AUTO, 2000, 0),
+                    new EmbeddingModelProperties(Map.of()),
+                    "textembedding-gecko@001", 5, Duration.ofMillis(25), 4, Duration.ofMillis(500)),
+            true, Duration.ofHours(1), 300, 50, true);
+
+    @Test
+    void duplicatesAttachToTheRunningAndTheCompletedBatchUntilItFails() throws Exception {
+        Path a = Files.writeString(directory.resolve("a.pdf"), "first document");
+        Path b = Files.writeString(directory.resolve("b.pdf"), "second document");
+
+        SubmissionCoalescer.Submission first = coalescer.submit(null, request(List.of(a.toString(), b.toString()), List.of()));
+        assertFalse(first.duplicate());
+
+        // Order, weight and description don't make a different request
+        SubmissionCoalescer.Submission running = coalescer.submit(null, new PdfProcessingRequest(
+                List.of(b.toString(), a.toString()), "again", null, 5, null, List.of(), null, null, null));
+        assertTrue(running.duplicate());
+        assertEquals(first.batchId(), running.batchId());
+
+        processingService.statuses.put(first.batchId(), "COMPLETED");
+        assertEquals(first.batchId(), coalescer.submit(null, request(List.of(a.toString(), b.toString()), List.of())).batchId());
+
+        // Changed content is another request
+        Files.writeString(b, "second document, amended");
+        assertFalse(coalescer.submit(null, request(List.of(a.toString(), b.toString()), List.of())).duplicate());
+
+        processingService.statuses.put(first.batchId(), "FAILED: quota");
+        Files.writeString(b, "second document");
+        SubmissionCoalescer.Submission retry = coalescer.submit(null, request(List.of(a.toString(), b.toString()), List.of()));
+        assertFalse(retry.duplicate());
+        assertEquals(3, processingService.started.size());
+    }
+
+    @Test
+    void idempotencyKeysCoalesceSourcesThatCanNotBeFingerprinted() throws Exception {
+        Path documents = Files.createDirectory(directory.resolve("claims"));
+        Path other = Files.writeString(directory.resolve("other.pdf"), "other document");
+
+        SubmissionCoalescer.Submission first = coalescer.submit("key-1", request(List.of(), List.of(documents.toString())));
+        assertNotEquals(first.batchId(),
+                coalescer.submit(null, request(List.of(), List.of(documents.toString()))).batchId());
+        assertEquals(first.batchId(),
+                coalescer.submit("key-1", request(List.of(), List.of(documents.toString()))).batchId());
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> coalescer.submit("key-1", request(List.of(other.toString()), List.of())));
+        assertEquals(2, processingService.started.size());
+    }
+
+    @Test
+    void reusedKeyWithAnotherDirectoryOrPrefixIsRejected() throws Exception {
+        Path claims = Files.createDirectory(directory.resolve("claims"));
+        Path policies = Files.createDirectory(directory.resolve("policies"));
+
+        SubmissionCoalescer.Submission first = coalescer.submit("key-1", request(List.of(), List.of(claims.toString())));
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> coalescer.submit("key-1", request(List.of(), List.of(policies.toString()))));
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> coalescer.submit("key-1", new PdfProcessingRequest(List.of(), "test", null, null, null,
+                        List.of(claims.toString()), List.of("2024/**"), null, null)));
+
+        SubmissionCoalescer.Submission prefix = coalescer.submit("key-2", request(List.of(), List.of("gs://claims/2024/")));
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> coalescer.submit("key-2", request(List.of(), List.of("gs://claims/2025/"))));
+        assertEquals(prefix.batchId(), coalescer.submit("key-2", request(List.of(), List.of("gs://claims/2024/"))).batchId());
+        assertEquals(List.of(first.batchId(), prefix.batchId()), processingService.started);
+    }
+
+    @Test
+    void statusReadsDontHoldOffOtherSubmissions() throws Exception {
+        Path a = Files.writeString(directory.resolve("a.pdf"), "first document");
+        Path b = Files.writeString(directory.resolve("b.pdf"), "second document");
+        SubmissionCoalescer.Submission first = coalescer.submit(null, request(List.of(a.toString()), List.of()));
+
+        // The duplicate waits in the status read of the first batch, as on a slow shared disk
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        processingService.onStatusRead = () -> {
+            reading.countDown();
+            release.await();
+        };
+        CompletableFuture<SubmissionCoalescer.Submission> duplicate = CompletableFuture.supplyAsync(
+                () -> coalescer.submit(null, request(List.of(a.toString()), List.of())));
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+        SubmissionCoalescer.Submission other = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> coalescer.submit(null, request(List.of(b.toString()), List.of())));
+        assertFalse(other.duplicate());
+
+        release.countDown();
+        assertEquals(first.batchId(), duplicate.get(5, TimeUnit.SECONDS).batchId());
+        assertEquals(List.of(first.batchId(), other.batchId()), processingService.started);
+    }
+
+    private static PdfProcessingRequest request(List<String> pdfFilePaths, List<String> sources) {
+        return new PdfProcessingRequest(pdfFilePaths, "test", null, null, null, sources, null, null, null);
+    }
+
+    private static final class RecordingProcessingService implements ProcessingService {
+
+        final List<String> started = new CopyOnWriteArrayList<>();
+        final Map<String, String> statuses = new ConcurrentHashMap<>();
+        volatile StatusRead onStatusRead = () -> {
+        };
+
+        @Override
+        public void processPdfFiles(PdfProcessingRequest request, String batchId) {
+            started.add(batchId);
+            statuses.put(batchId, "PROCESSING");
+        }
+
+        @Override
+        public ProcessingStatus getProcessingStatus(String batchId) {
+            try {
+                onStatusRead.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ProcessingStatus(batchId, statuses.getOrDefault(batchId, "NOT_FOUND"), 0, 0, 0, Instant.now(), 1, 0, 0);
+        }
+
+        @Override
+        public boolean cancelProcessing(String batchId) {
+            return false;
+        }
+
+        @Override
+        public boolean reprioritize(String batchId, Integer weight, Instant deadline) {
+            return false;
+        }
+    }
+
+    private interface StatusRead {
+        void run() throws InterruptedException;
+    }
+}
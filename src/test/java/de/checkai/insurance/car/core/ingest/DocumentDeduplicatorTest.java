@@ -0,0 +1,121 @@
+package de.checkai.insurance.car.core.ingest;
+
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.pdf.PageTextCache;
+import de.checkai.insurance.car.core.service.OcrService;
+import de.checkai.insurance.car.core.service.impl.PdfExtractionServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class DocumentDeduplicatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private PdfExtractionServiceImpl extractionService;
+
+    @BeforeEach
+    void setUp() {
+        PageTextCache pageTextCache = new PageTextCache(false, tempDir.resolve("page-text"), 16, new SimpleMeterRegistry());
+        extractionService = new PdfExtractionServiceImpl(new DisabledOcr(), pageTextCache, new BatchCancellation());
+        ReflectionTestUtils.setField(extractionService, "chunkSize", 300);
+        ReflectionTestUtils.setField(extractionService, "chunkOverlap", 50);
+        ReflectionTestUtils.setField(extractionService, "maxMainMemoryMb", 1L);
+        ReflectionTestUtils.setField(extractionService, "tempDir", tempDir.toString());
+    }
+
+    @Test
+    void secondCopyOfADocumentIsNotExtracted() throws IOException {
+        Path policy = createPdf(tempDir.resolve("policy.pdf"), "Policy");
+        Path copy = Files.copy(policy, tempDir.resolve("policy-copy.pdf"));
+        Path claim = createPdf(tempDir.resolve("claim.pdf"), "Claim");
+        DocumentDeduplicator documents = new DocumentDeduplicator();
+        List<TextChunk> chunks = new ArrayList<>();
+
+        assertTrue(extract(policy, documents, chunks));
+        // The copy comes as a stream, as from an archive; it is read but not stripped
+        try (InputStream content = Files.newInputStream(copy)) {
+            assertFalse(extractionService.extractTextChunks(null, "archive/policy-copy.pdf", content,
+                    documentHash -> documents.isFirstCopy("archive/policy-copy.pdf", documentHash), chunks::add));
+        }
+        assertTrue(extract(claim, documents, chunks));
+
+        assertEquals(1, documents.skipped());
+        assertEquals(List.of("policy.pdf", "claim.pdf"), List.copyOf(documents.documents().values()));
+        assertEquals(Set.of("policy.pdf", "claim.pdf"),
+                chunks.stream().map(TextChunk::sourceDocument).collect(Collectors.toSet()));
+        assertEquals(chunks.size(), chunks.stream().map(TextChunk::id).distinct().count());
+    }
+
+    private boolean extract(Path pdf, DocumentDeduplicator documents, List<TextChunk> chunks) {
+        String name = pdf.getFileName().toString();
+        return extractionService.extractTextChunks(null, pdf, documentHash -> documents.isFirstCopy(name, documentHash),
+                chunks::add);
+    }
+
+    private static Path createPdf(Path path, String title) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 1; i <= 3; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(50, 700);
+                    content.showText(title + " page " + i + ".");
+                    content.endText();
+                }
+            }
+            document.save(path.toFile());
+        }
+        return path;
+    }
+
+    private static class DisabledOcr implements OcrService {
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public int getMaxPagesPerRequest() {
+            return 1;
+        }
+
+        @Override
+        public CompletableFuture<Map<Integer, String>> recognizePages(String documentName, byte[] pdfContent,
+                                                                      List<Integer> pageNumbers) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException("OCR is disabled"));
+        }
+    }
+}
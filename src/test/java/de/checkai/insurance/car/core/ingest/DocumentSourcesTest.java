@@ -0,0 +1,109 @@
+package de.checkai.insurance.car.core.ingest;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class DocumentSourcesTest {
+
+    private static final List<String> ENTRIES = List.of(
+            "claims/2024/a.pdf", "claims/2024/b.PDF", "claims/2024/notes.txt", "drafts/c.pdf", "d.pdf");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void filterAppliesIncludesToFileNamesAndPathsAndExcludesWin() {
+        DocumentFilter allPdfs = DocumentFilter.of(null, null);
+        assertTrue(allPdfs.accepts("claims/2024/b.PDF"));
+        assertFalse(allPdfs.accepts("claims/2024/notes.txt"));
+        assertFalse(allPdfs.accepts("claims/"));
+
+        DocumentFilter claims = DocumentFilter.of(List.of("claims/**"), List.of("*.txt"));
+        assertTrue(claims.accepts("claims/2024/a.pdf"));
+        assertFalse(claims.accepts("claims/2024/notes.txt"));
+        assertFalse(claims.accepts("d.pdf"));
+    }
+
+    @Test
+    void zipEntriesAreStreamedWithoutUnpacking() throws Exception {
+        Path archive = Files.write(directory.resolve("claims.zip"), zip());
+        DocumentSources sources = new DocumentSources(LazyCloudClient.of(LocalStorageHelper.getOptions().getService()));
+
+        List<String> visited = new ArrayList<>();
+        int count = sources.resolve(archive.toString())
+                .forEach(DocumentFilter.of(null, List.of("drafts/**")), (name, size, content) -> {
+                    visited.add(name + "=" + new String(content.readAllBytes(), StandardCharsets.UTF_8));
+                    content.close();
+                });
+
+        assertEquals(3, count);
+        assertEquals(List.of("claims/2024/a.pdf=claims/2024/a.pdf", "claims/2024/b.PDF=claims/2024/b.PDF",
+                "d.pdf=d.pdf"), visited);
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void directoriesAndGcsPrefixesYieldRelativeNames() throws Exception {
+        Storage storage = LocalStorageHelper.getOptions().getService();
+        DocumentSources sources = new DocumentSources(LazyCloudClient.of(storage));
+        for (String entry : ENTRIES) {
+            Path file = directory.resolve("upload").resolve(entry);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, entry);
+            storage.create(BlobInfo.newBuilder(BlobId.of("bucket", "incoming/" + entry)).build(),
+                    entry.getBytes(StandardCharsets.UTF_8));
+        }
+        storage.create(BlobInfo.newBuilder(BlobId.of("bucket", "incoming/claims.zip")).build(), zip());
+        DocumentFilter filter = DocumentFilter.of(List.of("claims/**/*.pdf"), null);
+
+        List<String> local = new ArrayList<>();
+        sources.resolve(directory.resolve("upload").toString()).forEach(filter, (name, size, content) -> local.add(name));
+        List<String> remote = new ArrayList<>();
+        sources.resolve("gs://bucket/incoming/").forEach(filter, (name, size, content) ->
+                remote.add(name + "=" + new String(content.readAllBytes(), StandardCharsets.UTF_8)));
+        List<String> archived = new ArrayList<>();
+        sources.resolve("gs://bucket/incoming/claims.zip").forEach(filter, (name, size, content) -> archived.add(name));
+
+        assertEquals(List.of("claims/2024/a.pdf"), local);
+        assertEquals(List.of("claims/2024/a.pdf=claims/2024/a.pdf"), remote);
+        assertEquals(List.of("claims/2024/a.pdf"), archived);
+    }
+
+    private static byte[] zip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (String entry : ENTRIES) {
+                zip.putNextEntry(new ZipEntry(entry));
+                zip.write(entry.getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,46 @@
+package de.checkai.insurance.car.core.pdf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ChunkIdsTest {
+
+    @Test
+    void idsAreStableVersionFiveUuidsOfContentPageAndPosition(@TempDir Path directory) throws Exception {
+        byte[] first = ChunkIds.hash(Files.writeString(directory.resolve("a.pdf"), "%PDF-1.4 a"));
+        byte[] copy = ChunkIds.hash(Files.writeString(directory.resolve("b.pdf"), "%PDF-1.4 a"));
+        byte[] other = ChunkIds.hash(Files.writeString(directory.resolve("c.pdf"), "%PDF-1.4 c"));
+
+        UUID id = new ChunkIds(first).id(3, 7);
+
+        assertEquals(5, id.version());
+        assertEquals(2, id.variant());
+        assertEquals(id, new ChunkIds(copy).id(3, 7));
+        assertNotEquals(id, new ChunkIds(other).id(3, 7));
+
+        ChunkIds chunkIds = new ChunkIds(first);
+        Set<UUID> ids = new HashSet<>();
+        for (int page = 1; page <= 50; page++) {
+            for (int position = 0; position < 50; position++) {
+                ids.add(chunkIds.id(page, position));
+            }
+        }
+        assertEquals(2500, ids.size());
+        assertEquals(id, chunkIds.id(3, 7));
+    }
+}
@@ -0,0 +1,112 @@
+package de.checkai.insurance.car.core.pdf;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class PageTextCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void committedPagesAreReplayedInOrderAndAbortedOnesNever() throws Exception {
+        PageTextCache cache = new PageTextCache(true, directory, 16, new SimpleMeterRegistry());
+
+        PageTextCache.Entry entry = cache.newEntry("doc");
+        entry.page(1, "Erste Seite.");
+        entry.page(2, "");
+        entry.page(3, "Dritte Seite mit Umlauten: Kündigung.");
+        entry.commit();
+        PageTextCache.Entry aborted = cache.newEntry("other");
+        aborted.page(1, "Never visible.");
+        aborted.abort();
+
+        List<String> pages = new ArrayList<>();
+        assertTrue(cache.replay("doc", recorder(pages)));
+        assertEquals(List.of("1:Erste Seite.", "2:", "3:Dritte Seite mit Umlauten: Kündigung."), pages);
+        assertFalse(cache.replay("other", recorder(new ArrayList<>())));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedAboveTheMaximumSize() throws Exception {
+        PageTextCache cache = new PageTextCache(true, directory, 1, new SimpleMeterRegistry());
+        // Random letters compress to about 5 bits each, so each entry takes about 300 KB
+        for (int i = 0; i < 3; i++) {
+            write(cache, "doc-" + i, 500_000);
+            Files.setLastModifiedTime(directory.resolve("doc-" + i + ".pages.gz"), FileTime.fromMillis(1_000_000L * (i + 1)));
+        }
+        // Reading doc-0 makes doc-1 the least recently used entry
+        assertTrue(cache.replay("doc-0", recorder(new ArrayList<>())));
+
+        write(cache, "doc-3", 500_000);
+
+        assertTrue(cache.replay("doc-0", recorder(new ArrayList<>())));
+        assertFalse(cache.replay("doc-1", recorder(new ArrayList<>())));
+        assertTrue(cache.replay("doc-3", recorder(new ArrayList<>())));
+    }
+
+    @Test
+    void keyDependsOnContentAndVariant() throws Exception {
+        PageTextCache cache = new PageTextCache(true, directory.resolve("cache"), 16, new SimpleMeterRegistry());
+        Path first = Files.writeString(directory.resolve("a.pdf"), "%PDF-1.4 a");
+        Path copy = Files.writeString(directory.resolve("b.pdf"), "%PDF-1.4 a");
+        Path other = Files.writeString(directory.resolve("c.pdf"), "%PDF-1.4 c");
+
+        assertEquals(cache.key(ChunkIds.hash(first), "text"), cache.key(ChunkIds.hash(copy), "text"));
+        assertFalse(cache.key(ChunkIds.hash(first), "text").equals(cache.key(ChunkIds.hash(other), "text")));
+        assertFalse(cache.key(ChunkIds.hash(first), "text").equals(cache.key(ChunkIds.hash(first), "ocr")));
+    }
+
+    private static void write(PageTextCache cache, String key, int characters) {
+        Random random = new Random(key.hashCode());
+        StringBuilder text = new StringBuilder(characters);
+        for (int i = 0; i < characters; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        PageTextCache.Entry entry = cache.newEntry(key);
+        entry.page(1, text.toString());
+        entry.commit();
+    }
+
+    private static PageTextListener recorder(List<String> pages) {
+        return new PageTextListener() {
+            private final StringBuilder text = new StringBuilder();
+
+            @Override
+            public void startPage(int pageNumber) {
+                text.setLength(0);
+            }
+
+            @Override
+            public void text(CharSequence run) {
+                text.append(run);
+            }
+
+            @Override
+            public void endPage(int pageNumber) {
+                pages.add(pageNumber + ":" + text);
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+package de.checkai.insurance.car.core.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class SentenceChunkerTest {
+
+    private static final int CHUNK_SIZE = 120;
+    private static final int CHUNK_OVERLAP = 5;
+
+    private static final List<String> PAGES = List.of(
+            """
+            Kfz-Versicherungsschein Nr. 4711-0815
+            Versicherungsnehmer: Max Mustermann, Musterstraße 1, 10115 Berlin.
+            Die Haftpflichtversicherung deckt Personen-, Sach- und Vermögensschäden bis 100 Mio. EUR pauschal!
+            Ist die Teilkasko enthalten? Ja, mit 150 EUR Selbstbeteiligung.
+            Die Vollkasko gilt mit 300 EUR Selbstbeteiligung je Schadenfall.
+            """,
+            "",
+            """
+            Schadenmeldung vom 12.03.2024
+
+            Der Versicherungsnehmer fuhr auf der A100 in Richtung Neukölln, als ein vorausfahrendes Fahrzeug \
+            ohne erkennbaren Grund stark abbremste. Trotz sofortiger Vollbremsung kam es zum Auffahrunfall.
+            Sachschaden am Frontstoßfänger, an der Motorhaube und am linken Scheinwerfer.
+            Ein Gutachten wurde beauftragt.Der Gutachter ist Dipl.-Ing. Schmidt.   Zeugen: keine
+            """,
+            "Ende der Seite ohne Satzzeichen",
+            "Nur ein Satz mit einem sehr langen Wort: " + "Donaudampfschifffahrtsgesellschaft".repeat(5) + ". Danach kurz.");
+
+    @Test
+    void streamedRunsProduceTheChunksOfThePageAtOnceChunker() {
+        List<String> expected = pageAtOnceChunks(PAGES);
+        assertTrue(expected.size() > PAGES.size(), "the text should span several chunks per page");
+
+        // The stripper hands over runs of any length, a sentence delimiter may be split between them
+        for (int runLength : new int[]{1, 2, 7, 64, Integer.MAX_VALUE}) {
+            assertEquals(expected, streamedChunks(PAGES, runLength), "runs of " + runLength + " characters");
+        }
+    }
+
+    private static List<String> streamedChunks(List<String> pages, int runLength) {
+        List<String> chunks = new ArrayList<>();
+        SentenceChunker chunker = new SentenceChunker(CHUNK_SIZE, CHUNK_OVERLAP,
+                (pageNumber, position, content) -> chunks.add(pageNumber + "/" + position + ": " + content));
+        for (int page = 1; page <= pages.size(); page++) {
+            String text = pages.get(page - 1);
+            chunker.startPage(page);
+            for (int from = 0; from < text.length(); from += Math.min(runLength, text.length() - from)) {
+                chunker.text(text.substring(from, from + Math.min(runLength, text.length() - from)));
+            }
+            chunker.endPage(page);
+        }
+        return chunks;
+    }
+
+    /**
+     * The chunking PdfExtractionServiceImpl did on the whole text of every page before it was
+     * streamed through {@link SentenceChunker}
+     */
+    private static List<String> pageAtOnceChunks(List<String> pages) {
+        Pattern sentenceDelimiter = Pattern.compile("[.!?]\\s+");
+        List<String> chunks = new ArrayList<>();
+        for (int page = 1; page <= pages.size(); page++) {
+            List<String> sentences = new ArrayList<>();
+            for (String part : sentenceDelimiter.split(pages.get(page - 1))) {
+                String trimmed = part.trim();
+                if (!trimmed.isEmpty()) {
+                    sentences.add(trimmed);
+                }
+            }
+
+            List<String> textChunks = new ArrayList<>();
+            StringBuilder currentChunk = new StringBuilder();
+            for (String sentence : sentences) {
+                if (currentChunk.length() + sentence.length() > CHUNK_SIZE && currentChunk.length() > 0) {
+                    textChunks.add(currentChunk.toString());
+                    String[] words = currentChunk.toString().split("\\s+");
+                    int wordsToKeep = Math.min(CHUNK_OVERLAP, words.length);
+                    currentChunk = new StringBuilder();
+                    for (int i = words.length - wordsToKeep; i < words.length; i++) {
+                        currentChunk.append(words[i]).append(" ");
+                    }
+                }
+                currentChunk.append(sentence).append(". ");
+            }
+            if (currentChunk.length() > 0) {
+                textChunks.add(currentChunk.toString());
+            }
+
+            for (int i = 0; i < textChunks.size(); i++) {
+                String content = textChunks.get(i).trim();
+                if (!content.isEmpty()) {
+                    chunks.add(page + "/" + i + ": " + content);
+                }
+            }
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,112 @@
+package de.checkai.insurance.car.core.progress;
+
+import de.checkai.insurance.car.appication.model.ProcessingStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ProcessingStatusBroadcasterTest {
+
+    private final ProcessingStatusBroadcaster broadcaster =
+            new ProcessingStatusBroadcaster(Duration.ofMillis(50), new SimpleMeterRegistry());
+
+    @AfterEach
+    void shutdown() {
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void slowSubscriberGetsCoalescedUpdatesAndCompletesWithTheBatch() throws Exception {
+        RecordingSink sink = new RecordingSink(Duration.ofMillis(100));
+        broadcaster.subscribe(List.of("a"), sink);
+
+        long started = System.nanoTime();
+        for (int i = 1; i <= 200; i++) {
+            broadcaster.publish(status("a", "PROCESSING", i));
+        }
+        broadcaster.publish(status("b", "PROCESSING", 1));
+        broadcaster.publish(status("a", "COMPLETED", 200));
+        // Publishing never waits for the slow subscriber
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertTrue(sink.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(sink.received.size() < 10, "updates are coalesced: " + sink.received.size());
+        assertTrue(sink.received.stream().allMatch(status -> status.batchId().equals("a")));
+        assertEquals("COMPLETED", sink.received.get(sink.received.size() - 1).status());
+    }
+
+    @Test
+    void failingSinkEndsTheSubscription() throws Exception {
+        CountDownLatch attempted = new CountDownLatch(1);
+        List<ProcessingStatus> afterFailure = new CopyOnWriteArrayList<>();
+        broadcaster.subscribe(List.of(), new StatusSink() {
+            @Override
+            public void send(List<ProcessingStatus> statuses) throws IOException {
+                if (attempted.getCount() == 0) {
+                    afterFailure.addAll(statuses);
+                }
+                attempted.countDown();
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void complete() {
+            }
+        });
+
+        broadcaster.publish(status("a", "PROCESSING", 1));
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        broadcaster.publish(status("a", "PROCESSING", 2));
+        Thread.sleep(200);
+
+        assertTrue(afterFailure.isEmpty());
+    }
+
+    private static ProcessingStatus status(String batchId, String status, int processedChunks) {
+        return new ProcessingStatus(batchId, status, 0, 1, processedChunks, Instant.now(), 1, 0, 0);
+    }
+
+    private static final class RecordingSink implements StatusSink {
+
+        private final Duration sendTime;
+        private final List<ProcessingStatus> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        private RecordingSink(Duration sendTime) {
+            this.sendTime = sendTime;
+        }
+
+        @Override
+        public void send(List<ProcessingStatus> statuses) {
+            try {
+                Thread.sleep(sendTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.addAll(statuses);
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package de.checkai.insurance.car.core.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.checkai.insurance.car.appication.model.PdfProcessingRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class WorkQueueTest {
+
+    private static final Duration RETENTION = Duration.ofHours(24);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void nodesShareItemsAndProgressThroughTheStore() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        WorkQueue first = new WorkQueue(new FileWorkQueueStore(directory, objectMapper), "first", Duration.ofMinutes(1), 3, 2, RETENTION);
+        WorkQueue second = new WorkQueue(new FileWorkQueueStore(directory, objectMapper), "second", Duration.ofMinutes(1), 3, 2, RETENTION);
+
+        first.submit("batch", request(List.of("a.pdf", "b.pdf", "c.pdf"), List.of()));
+        Lease a = first.lease().orElseThrow();
+        Lease b = second.lease().orElseThrow();
+        assertEquals(List.of("a.pdf", "b.pdf"), a.pdfFilePaths());
+        assertEquals(List.of("c.pdf"), b.pdfFilePaths());
+        assertTrue(first.lease().isEmpty());
+
+        assertTrue(second.complete(b, new WorkItemProcessor.Result(1, 4)));
+        WorkQueue.BatchProgress progress = first.progress("batch").orElseThrow();
+        assertEquals("PROCESSING", progress.status());
+        assertEquals(1, progress.processedDocuments());
+        assertEquals(3, progress.totalDocuments());
+        assertEquals(4, progress.processedChunks());
+
+        // The finalize item appears once every part is done
+        assertTrue(first.complete(a, new WorkItemProcessor.Result(2, 6)));
+        Lease finalize = second.lease().orElseThrow();
+        assertEquals(QueueState.ItemKind.FINALIZE, finalize.kind());
+        assertEquals(List.of(a.token(), b.token()), second.completedParts("batch").stream().map(Lease::token).toList());
+
+        second.updateStatus("batch", "COMPLETED");
+        assertTrue(second.complete(finalize, new WorkItemProcessor.Result(0, 0)));
+        progress = first.progress("batch").orElseThrow();
+        assertEquals("COMPLETED", progress.status());
+        assertEquals(3, progress.processedDocuments());
+        assertEquals(10, progress.processedChunks());
+        assertEquals(3, progress.completedItems());
+    }
+
+    @Test
+    void expiredLeasesAreDeliveredAgainAndTheStaleResultIsRefused() throws Exception {
+        WorkQueue first = new WorkQueue(new InMemoryWorkQueueStore(), "first", Duration.ofMillis(50), 3, 20, RETENTION);
+        first.submit("batch", request(List.of(), List.of("claims.zip")));
+
+        Lease stale = first.lease().orElseThrow();
+        assertEquals("claims.zip", stale.source());
+        assertTrue(first.lease().isEmpty());
+        Thread.sleep(100);
+
+        Lease retry = first.lease().orElseThrow();
+        assertEquals(2, retry.attempt());
+        assertNotEquals(stale.token(), retry.token());
+        assertFalse(first.heartbeat(stale));
+        assertFalse(first.complete(stale, new WorkItemProcessor.Result(5, 50)));
+        assertTrue(first.heartbeat(retry));
+        assertTrue(first.complete(retry, new WorkItemProcessor.Result(5, 50)));
+        assertEquals(5, first.progress("batch").orElseThrow().totalDocuments());
+    }
+
+    @Test
+    void itemsFailTheBatchOnceTheyRunOutOfAttempts() throws Exception {
+        WorkQueue queue = new WorkQueue(new InMemoryWorkQueueStore(), "node", Duration.ofMinutes(1), 2, 1, RETENTION);
+        queue.submit("batch", request(List.of("a.pdf", "b.pdf"), List.of()));
+
+        assertFalse(queue.fail(queue.lease().orElseThrow(), "broken"));
+        Optional<Lease> retry = queue.lease();
+        assertEquals(0, retry.orElseThrow().index());
+        assertTrue(queue.fail(retry.get(), "broken again"));
+
+        assertEquals("FAILED: broken again", queue.progress("batch").orElseThrow().status());
+        assertTrue(queue.lease().isEmpty());
+    }
+
+    @Test
+    void cancelledBatchesLoseTheirLeasesAndHandOutNoMoreItems() throws Exception {
+        WorkQueue queue = new WorkQueue(new InMemoryWorkQueueStore(), "node", Duration.ofMinutes(1), 3, 1, RETENTION);
+        queue.submit("batch", request(List.of("a.pdf", "b.pdf"), List.of()));
+        Lease running = queue.lease().orElseThrow();
+
+        assertTrue(queue.reprioritize("batch", null, null));
+        assertTrue(queue.cancel("batch"));
+        assertTrue(queue.isCancelled("batch"));
+        assertFalse(queue.heartbeat(running));
+        assertFalse(queue.complete(running, new WorkItemProcessor.Result(1, 3)));
+        assertTrue(queue.lease().isEmpty());
+
+        queue.updateStatus("batch", "PROCESSING");
+        assertEquals("CANCELLED", queue.progress("batch").orElseThrow().status());
+        assertFalse(queue.cancel("batch"));
+        assertFalse(queue.reprioritize("batch", 5, null));
+    }
+
+    @Test
+    void transactionsThatChangeNothingLeaveTheFileAloneAndReadsTakeNoLock() throws Exception {
+        FileWorkQueueStore store = new FileWorkQueueStore(directory, new ObjectMapper().findAndRegisterModules());
+        WorkQueue queue = new WorkQueue(store, "node", Duration.ofMinutes(1), 3, 1, RETENTION);
+        queue.submit("batch", request(List.of("a.pdf"), List.of()));
+        Lease lease = queue.lease().orElseThrow();
+        Path stateFile = directory.resolve("queue.json");
+        FileTime written = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(stateFile, written);
+
+        // Idle polls and queries don't replace the file
+        assertTrue(queue.lease().isEmpty());
+        assertTrue(queue.prune().isEmpty());
+        assertEquals(List.of("a.pdf"), queue.request("batch").orElseThrow().pdfFilePaths());
+        assertEquals("PROCESSING", queue.progress("batch").orElseThrow().status());
+        assertEquals(written, Files.getLastModifiedTime(stateFile));
+
+        assertTrue(queue.heartbeat(lease));
+        assertNotEquals(written, Files.getLastModifiedTime(stateFile));
+    }
+
+    @Test
+    void finishedBatchesAreDroppedWithTheirItemsAfterTheRetention() throws Exception {
+        WorkQueue queue = new WorkQueue(new InMemoryWorkQueueStore(), "node", Duration.ofMinutes(1), 1, 1,
+                Duration.ofMillis(50));
+        queue.submit("failed", request(List.of("a.pdf", "b.pdf"), List.of()));
+        queue.submit("cancelled", request(List.of("c.pdf"), List.of()));
+        queue.submit("running", request(List.of("d.pdf"), List.of()));
+        assertTrue(queue.fail(queue.lease().orElseThrow(), "broken"));
+        assertTrue(queue.cancel("cancelled"));
+        Lease running = queue.lease().orElseThrow();
+        assertEquals("running", running.batchId());
+
+        // Finished, but not long enough ago
+        assertTrue(queue.prune().isEmpty());
+        Thread.sleep(100);
+
+        assertEquals(List.of("failed", "cancelled"), queue.prune());
+        assertTrue(queue.progress("failed").isEmpty());
+        assertTrue(queue.completedParts("cancelled").isEmpty());
+        assertTrue(queue.heartbeat(running));
+        assertEquals(1, queue.progress("running").orElseThrow().totalItems());
+        assertTrue(queue.prune().isEmpty());
+    }
+
+    private static PdfProcessingRequest request(List<String> pdfFilePaths, List<String> sources) {
+        return new PdfProcessingRequest(pdfFilePaths, "test", null, null, null, sources, null, null, null);
+    }
+}
@@ -0,0 +1,161 @@
+package de.checkai.insurance.car.core.resilience;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import de.checkai.insurance.car.config.RpcResilienceProperties;
+import io.grpc.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ResilientRpcExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ResilientRpcExecutor executor = new ResilientRpcExecutor(new RpcResilienceProperties(Map.of(
+            "test", new RpcResilienceProperties.Policy(Duration.ofMillis(300), 3, Duration.ofMillis(1),
+                    Duration.ofMillis(5), 0, 50, 4, 4, Duration.ofMinutes(1)),
+            "hedged", new RpcResilienceProperties.Policy(Duration.ofSeconds(2), 1, Duration.ofMillis(1),
+                    Duration.ofMillis(5), 90, 50, 20, 20, Duration.ofMinutes(1)))), meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void retriesUnavailableUntilSuccess() {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.execute("test", "op", deadline -> {
+            if (calls.incrementAndGet() < 3) {
+                throw apiException(Status.Code.UNAVAILABLE);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+        assertEquals(2.0, meterRegistry.counter("rpc.client.retries", "dependency", "test", "operation", "op").count());
+    }
+
+    @Test
+    void doesNotRetryInvalidArgument() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(ApiException.class, () -> executor.execute("test", "op", deadline -> {
+            calls.incrementAndGet();
+            throw apiException(Status.Code.INVALID_ARGUMENT);
+        }));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void deadlineExceededAttemptsAreRetried() {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.execute("test", "op", deadline -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(deadline.plusMillis(200));
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void timedOutAttemptIsInterruptedBeforeTheRetryStarts() {
+        AtomicReference<Thread> firstAttempt = new AtomicReference<>();
+        AtomicBoolean firstAttemptEnded = new AtomicBoolean();
+        AtomicBoolean interruptedBeforeRetry = new AtomicBoolean();
+
+        String result = executor.execute("test", "op", deadline -> {
+            if (firstAttempt.compareAndSet(null, Thread.currentThread())) {
+                // Like a transport ignoring the deadline, the attempt only ends when it is interrupted
+                while (!Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(Duration.ofSeconds(10).toNanos());
+                }
+                firstAttemptEnded.set(true);
+                return "too late";
+            }
+            interruptedBeforeRetry.set(firstAttemptEnded.get() || firstAttempt.get().isInterrupted());
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertTrue(interruptedBeforeRetry.get());
+    }
+
+    @Test
+    void circuitOpensAfterRepeatedFailuresAndShedsLoad() {
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(RuntimeException.class, () -> executor.execute("test", "op", deadline -> {
+                calls.incrementAndGet();
+                throw apiException(Status.Code.UNAVAILABLE);
+            }));
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, executor.getCircuitState("test"));
+        assertThrows(CircuitOpenException.class, () -> executor.execute("test", "op", deadline -> "never"));
+        // The first call used all three attempts, the circuit opened during the second one
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void slowAttemptIsHedged() {
+        for (int i = 0; i < 30; i++) {
+            executor.execute("hedged", "op", deadline -> {
+                sleep(Duration.ofMillis(5));
+                return "warm-up";
+            });
+        }
+
+        double hedgesBefore = meterRegistry.counter("rpc.client.hedges", "dependency", "hedged", "operation", "op").count();
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.nanoTime();
+        String result = executor.execute("hedged", "op", deadline -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(Duration.ofSeconds(1));
+                return "slow";
+            }
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+        assertEquals(hedgesBefore + 1, meterRegistry.counter("rpc.client.hedges", "dependency", "hedged", "operation", "op").count());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 900);
+    }
+
+    private static ApiException apiException(Status.Code code) {
+        return ApiExceptionFactory.createException(new RuntimeException(code.name()), GrpcStatusCode.of(code), false);
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package de.checkai.insurance.car.core.scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class FairShareSchedulerTest {
+
+    private final FairShareScheduler scheduler = new FairShareScheduler(1, 1, Duration.ofMinutes(2));
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> dispatchOrder = new CopyOnWriteArrayList<>();
+
+    @Test
+    void heavierFlowGetsProportionallyMoreCapacity() throws Exception {
+        scheduler.register("backfill", 1, null);
+        scheduler.register("urgent", 3, null);
+
+        CountDownLatch release = blockResource();
+        for (int i = 0; i < 6; i++) {
+            submit("backfill");
+            submit("urgent");
+        }
+        awaitQueued(12);
+        release.countDown();
+        awaitDispatched(13);
+
+        List<String> firstFour = dispatchOrder.subList(1, 5);
+        assertTrue(firstFour.stream().filter("urgent"::equals).count() >= 3, dispatchOrder.toString());
+        // Once everything ran, both flows got the same total
+        assertEquals(6 / 13.0, scheduler.getShare("urgent", FairShareScheduler.Resource.EMBEDDING), 1e-9);
+    }
+
+    @Test
+    void flowCloseToItsDeadlineIsServedFirst() throws Exception {
+        scheduler.register("backfill", 10, null);
+        scheduler.register("claim", 1, Instant.now().plusSeconds(30));
+
+        CountDownLatch release = blockResource();
+        for (int i = 0; i < 3; i++) {
+            submit("backfill");
+        }
+        awaitQueued(3);
+        submit("claim");
+        awaitQueued(4);
+        release.countDown();
+        awaitDispatched(5);
+
+        assertEquals("claim", dispatchOrder.get(1));
+    }
+
+    @Test
+    void reprioritizedFlowOvertakesWorkQueuedBeforeTheChange() throws Exception {
+        scheduler.register("backfill", 1, null);
+        scheduler.register("claim", 1, null);
+
+        CountDownLatch release = blockResource();
+        for (int i = 0; i < 3; i++) {
+            submit("backfill");
+        }
+        awaitQueued(3);
+        for (int i = 0; i < 3; i++) {
+            submit("claim");
+        }
+        awaitQueued(6);
+        assertTrue(scheduler.reprioritize("claim", 10, null));
+        assertFalse(scheduler.reprioritize("unknown", 10, null));
+        release.countDown();
+        awaitDispatched(7);
+
+        assertEquals(List.of("claim", "claim", "claim"), dispatchOrder.subList(1, 4));
+        assertEquals(10, scheduler.getWeight("claim"));
+    }
+
+    private CountDownLatch blockResource() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> run("blocker", () -> {
+            started.countDown();
+            release.await();
+        }));
+        started.await();
+        return release;
+    }
+
+    private void submit(String flowId) {
+        executor.execute(() -> run(flowId, () -> {
+        }));
+    }
+
+    private void run(String flowId, Interruptible task) {
+        try {
+            scheduler.execute(flowId, FairShareScheduler.Resource.EMBEDDING, 1, () -> {
+                dispatchOrder.add(flowId);
+                task.run();
+                return null;
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void awaitQueued(int tasks) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getQueuedTasks(FairShareScheduler.Resource.EMBEDDING) < tasks && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitDispatched(int tasks) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(tasks, dispatchOrder.size());
+    }
+
+    @FunctionalInterface
+    private interface Interruptible {
+        void run() throws InterruptedException;
+    }
+}
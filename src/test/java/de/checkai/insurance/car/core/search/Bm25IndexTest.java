@@ -0,0 +1,66 @@
+package de.checkai.insurance.car.core.search;
+
+import de.checkai.insurance.car.appication.model.TextChunk;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class Bm25IndexTest {
+
+    @Test
+    void clauseNumbersSurviveTokenizationAndRankFirst() throws Exception {
+        TextChunk clause = chunk("Nach Ziffer A.2.5.1 sind Glasschäden in der Teilkasko versichert.", "avb.pdf", 3);
+        Bm25IndexBuilder builder = new Bm25IndexBuilder();
+        builder.add(chunk("Die Teilkasko umfasst Brand, Diebstahl und Sturm.", "avb.pdf", 1));
+        builder.add(clause);
+        builder.add(chunk("Tarif KH-2024 gilt für Privatkunden.", "tarif.pdf", 1));
+
+        Bm25Index index = roundTrip(builder);
+
+        List<Bm25Index.Hit> hits = index.search("A.2.5.1", 10);
+        assertEquals(1, hits.size());
+        assertEquals(clause.id(), index.chunkId(hits.get(0).docId()));
+        assertEquals("avb.pdf", index.sourceDocument(hits.get(0).docId()));
+        assertEquals(3, index.pageNumber(hits.get(0).docId()));
+    }
+
+    @Test
+    void postingsSpanningManyChunksDecodeCorrectly() throws Exception {
+        Bm25IndexBuilder builder = new Bm25IndexBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String content = i % 1000 == 0 ? "kasko kasko kasko selbstbeteiligung" : "kasko haftpflicht " + i;
+            builder.add(chunk(content, "doc-" + (i % 7) + ".pdf", i));
+        }
+
+        Bm25Index index = roundTrip(builder);
+
+        assertEquals(5000, index.getChunkCount());
+        List<Bm25Index.Hit> hits = index.search("Selbstbeteiligung", 10);
+        assertEquals(5, hits.size());
+        hits.forEach(hit -> assertEquals(0, hit.docId() % 1000));
+        assertTrue(index.search("kasko", 3).get(0).docId() % 1000 == 0);
+        assertTrue(index.search("unbekannt", 3).isEmpty());
+    }
+
+    private static Bm25Index roundTrip(Bm25IndexBuilder builder) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeTo(out);
+        return Bm25Index.load(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static TextChunk chunk(String content, String document, int page) {
+        return new TextChunk(UUID.randomUUID(), content, document, page, 0);
+    }
+}
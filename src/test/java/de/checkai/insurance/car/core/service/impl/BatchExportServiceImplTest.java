@@ -0,0 +1,127 @@
+package de.checkai.insurance.car.core.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.core.storage.ChunkFile;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class BatchExportServiceImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BatchExportServiceImpl exportService = new BatchExportServiceImpl(objectMapper);
+
+    @Test
+    void chunksAreWrittenFromOffsetUpToTheLimit() throws Exception {
+        List<TextChunk> chunks = chunks(10);
+        exportService.registerChunks("batch-1", chunkFile(chunks));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, exportService.writeChunks("batch-1", 4, 3, out));
+
+        assertEquals(10, exportService.chunkCount("batch-1"));
+        assertEquals(chunks.subList(4, 7), lines(out).stream().map(line -> objectMapper.convertValue(line, TextChunk.class)).toList());
+        assertEquals(0, exportService.writeChunks("batch-1", 10, 5, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void embeddingsAreWrittenWithTheirChunkFields() throws Exception {
+        List<TextChunk> chunks = chunks(5);
+        exportService.registerEmbeddings("batch-1", arena(chunks));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, exportService.writeEmbeddings("batch-1", 3, 100, out));
+
+        List<JsonNode> lines = lines(out);
+        assertEquals(5, exportService.embeddingCount("batch-1"));
+        assertEquals(2, lines.size());
+        JsonNode first = lines.get(0);
+        assertEquals(chunks.get(3).id().toString(), first.get("id").asText());
+        assertEquals(List.of(3.0, 1.0, 0.5), toList(first.get("embedding")));
+        assertEquals("policy.pdf", first.get("sourceDocument").asText());
+        assertEquals(chunks.get(3).pageNumber(), first.get("pageNumber").asInt());
+        assertEquals(3, first.get("position").asInt());
+    }
+
+    @Test
+    void unregisteredBatchesHaveNothingToExport() throws Exception {
+        exportService.registerChunks("batch-1", chunkFile(chunks(2)));
+        exportService.registerEmbeddings("batch-1", arena(chunks(2)));
+        assertTrue(exportService.hasChunks("batch-1"));
+
+        exportService.unregister("batch-1");
+
+        assertFalse(exportService.hasChunks("batch-1"));
+        assertFalse(exportService.hasEmbeddings("batch-1"));
+        assertThrows(IllegalArgumentException.class, () -> exportService.chunkCount("batch-1"));
+    }
+
+    private Path chunkFile(List<TextChunk> chunks) throws Exception {
+        Path file = tempDir.resolve(UUID.randomUUID() + ".ndjson");
+        try (ChunkFile.Writer writer = ChunkFile.create(file, objectMapper)) {
+            for (TextChunk chunk : chunks) {
+                writer.append(chunk);
+            }
+        }
+        return file;
+    }
+
+    private Path arena(List<TextChunk> chunks) throws Exception {
+        Path file = tempDir.resolve(UUID.randomUUID() + ".f32");
+        try (EmbeddingArena arena = EmbeddingArena.mapped(file, 3)) {
+            for (TextChunk chunk : chunks) {
+                arena.append(new TextEmbedding(chunk.id(), new float[]{chunk.position(), 1, 0.5f},
+                        chunk.sourceDocument(), chunk.pageNumber(), chunk.position()));
+            }
+            arena.save();
+        }
+        return file;
+    }
+
+    private List<JsonNode> lines(ByteArrayOutputStream out) throws Exception {
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(objectMapper.readTree(line));
+            }
+        }
+        return lines;
+    }
+
+    private static List<Double> toList(JsonNode array) {
+        List<Double> values = new ArrayList<>();
+        array.forEach(value -> values.add(value.asDouble()));
+        return values;
+    }
+
+    static List<TextChunk> chunks(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new TextChunk(UUID.randomUUID(), "clause " + i, "policy.pdf", i / 4 + 1, i))
+                .toList();
+    }
+}
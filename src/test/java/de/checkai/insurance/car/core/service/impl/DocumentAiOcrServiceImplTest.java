@@ -0,0 +1,206 @@
+package de.checkai.insurance.car.core.service.impl;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.documentai.v1.Document;
+import com.google.cloud.documentai.v1.DocumentProcessorServiceClient;
+import com.google.cloud.documentai.v1.ProcessRequest;
+import com.google.cloud.documentai.v1.ProcessResponse;
+import com.google.cloud.documentai.v1.stub.DocumentProcessorServiceStub;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.pdf.PageTextCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class DocumentAiOcrServiceImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final FakeProcessorStub processor = new FakeProcessorStub();
+    private DocumentAiOcrServiceImpl ocrService;
+    private PdfExtractionServiceImpl extractionService;
+
+    @BeforeEach
+    void setUp() {
+        ocrService = new DocumentAiOcrServiceImpl(LazyCloudClient.of(DocumentProcessorServiceClient.create(processor)),
+                "test-project", "eu", "test-processor", 2, 2);
+        PageTextCache pageTextCache = new PageTextCache(true, tempDir.resolve("page-text"), 16, new SimpleMeterRegistry());
+        extractionService = new PdfExtractionServiceImpl(ocrService, pageTextCache, new BatchCancellation());
+        ReflectionTestUtils.setField(extractionService, "chunkSize", 300);
+        ReflectionTestUtils.setField(extractionService, "chunkOverlap", 50);
+        ReflectionTestUtils.setField(extractionService, "maxMainMemoryMb", 1L);
+        ReflectionTestUtils.setField(extractionService, "tempDir", tempDir.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        ocrService.shutdown();
+    }
+
+    @Test
+    void onlyImagePagesAreSentToOcrAndMergedInPageOrder() throws IOException {
+        Path pdf = createPdf(List.of(true, false, false, true, false));
+
+        List<TextChunk> chunks = extractionService.extractTextChunks(pdf);
+
+        assertEquals(List.of(1, 2, 3, 4, 5), chunks.stream().map(TextChunk::pageNumber).toList());
+        assertTrue(chunks.get(0).content().startsWith("Text layer of page 1"));
+        assertTrue(chunks.get(1).content().startsWith("Recognized text of page 1 of 2"));
+        assertTrue(chunks.get(2).content().startsWith("Recognized text of page 2 of 2"));
+        assertTrue(chunks.get(3).content().startsWith("Text layer of page 4"));
+        assertTrue(chunks.get(4).content().startsWith("Recognized text of page 1 of 1"));
+
+        // Pages 2 and 3 fill one request, page 5 goes into the last one; both run concurrently
+        assertEquals(List.of(1, 2), processor.requestPageCounts.stream().sorted().toList());
+    }
+
+    @Test
+    void textOnlyDocumentsNeverCallTheProcessor() throws IOException {
+        Path pdf = createPdf(List.of(true, true));
+
+        List<TextChunk> chunks = extractionService.extractTextChunks(pdf);
+
+        assertEquals(2, chunks.size());
+        assertTrue(processor.requestPageCounts.isEmpty());
+    }
+
+    @Test
+    void recognizedPagesAreServedFromThePageTextCacheNextTime() throws IOException {
+        Path pdf = createPdf(List.of(true, false, false, true, false));
+        List<TextChunk> parsed = extractionService.extractTextChunks(pdf);
+        int requests = processor.requestPageCounts.size();
+
+        List<TextChunk> cached = extractionService.extractTextChunks(pdf);
+
+        // Neither parsed nor recognized again, yet the same chunks
+        assertEquals(requests, processor.requestPageCounts.size());
+        assertEquals(parsed.stream().map(TextChunk::content).toList(), cached.stream().map(TextChunk::content).toList());
+        assertEquals(parsed.stream().map(TextChunk::pageNumber).toList(), cached.stream().map(TextChunk::pageNumber).toList());
+    }
+
+    private Path createPdf(List<Boolean> textLayers) throws IOException {
+        Path path = tempDir.resolve("scanned.pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDImageXObject image = LosslessFactory.createFromImage(document,
+                    new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB));
+            for (int i = 0; i < textLayers.size(); i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    if (textLayers.get(i)) {
+                        content.beginText();
+                        content.setFont(PDType1Font.HELVETICA, 12);
+                        content.newLineAtOffset(50, 700);
+                        content.showText("Text layer of page " + (i + 1) + ".");
+                        content.endText();
+                    } else {
+                        content.drawImage(image, 50, 500);
+                    }
+                }
+            }
+            document.save(path.toFile());
+        }
+        return path;
+    }
+
+    /**
+     * Local stand-in for a Document AI OCR processor that answers with a text line per page
+     */
+    private static class FakeProcessorStub extends DocumentProcessorServiceStub {
+
+        private final List<Integer> requestPageCounts = new CopyOnWriteArrayList<>();
+
+        @Override
+        public UnaryCallable<ProcessRequest, ProcessResponse> processDocumentCallable() {
+            return new UnaryCallable<>() {
+                @Override
+                public ApiFuture<ProcessResponse> futureCall(ProcessRequest request, ApiCallContext context) {
+                    return ApiFutures.immediateFuture(process(request));
+                }
+            };
+        }
+
+        private ProcessResponse process(ProcessRequest request) {
+            int pageCount;
+            try (PDDocument document = PDDocument.load(request.getRawDocument().getContent().toByteArray())) {
+                pageCount = document.getNumberOfPages();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            requestPageCounts.add(pageCount);
+
+            StringBuilder text = new StringBuilder();
+            Document.Builder document = Document.newBuilder();
+            for (int page = 1; page <= pageCount; page++) {
+                int start = text.length();
+                text.append("Recognized text of page ").append(page).append(" of ").append(pageCount).append(".\n");
+                document.addPages(Document.Page.newBuilder()
+                        .setPageNumber(page)
+                        .setLayout(Document.Page.Layout.newBuilder()
+                                .setTextAnchor(Document.TextAnchor.newBuilder()
+                                        .addTextSegments(Document.TextAnchor.TextSegment.newBuilder()
+                                                .setStartIndex(start)
+                                                .setEndIndex(text.length())))));
+            }
+            return ProcessResponse.newBuilder().setDocument(document.setText(text.toString())).build();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public void shutdownNow() {
+        }
+
+        @Override
+        public boolean awaitTermination(long duration, TimeUnit unit) {
+            return true;
+        }
+    }
+}
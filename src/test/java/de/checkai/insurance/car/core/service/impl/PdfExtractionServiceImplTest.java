@@ -0,0 +1,154 @@
+package de.checkai.insurance.car.core.service.impl;
+
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.cancellation.BatchCancelledException;
+import de.checkai.insurance.car.core.pdf.PageTextCache;
+import de.checkai.insurance.car.core.service.OcrService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class PdfExtractionServiceImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final BatchCancellation batchCancellation = new BatchCancellation();
+    private final PendingOcr ocrService = new PendingOcr();
+    private PdfExtractionServiceImpl extractionService;
+
+    @BeforeEach
+    void setUp() {
+        PageTextCache pageTextCache = new PageTextCache(false, tempDir.resolve("page-text"), 16, new SimpleMeterRegistry());
+        extractionService = new PdfExtractionServiceImpl(ocrService, pageTextCache, batchCancellation);
+        ReflectionTestUtils.setField(extractionService, "chunkSize", 300);
+        ReflectionTestUtils.setField(extractionService, "chunkOverlap", 50);
+        ReflectionTestUtils.setField(extractionService, "maxMainMemoryMb", 1L);
+        ReflectionTestUtils.setField(extractionService, "tempDir", tempDir.toString());
+        batchCancellation.start("batch");
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchCancellation.finish("batch");
+    }
+
+    @Test
+    void cancelledBatchStopsExtractingALocalFileAtTheNextPage() throws IOException {
+        Path pdf = createPdf(tempDir.resolve("policy.pdf"), 50, 0);
+        List<TextChunk> chunks = new ArrayList<>();
+
+        assertThrows(BatchCancelledException.class, () -> extractionService.extractTextChunks("batch", pdf,
+                documentHash -> true, chunk -> {
+                    chunks.add(chunk);
+                    if (chunk.pageNumber() == 3) {
+                        batchCancellation.cancel("batch");
+                    }
+                }));
+
+        // The consumer doesn't check for cancellation itself, the stripper stops before page 4
+        assertEquals(List.of(1, 2, 3), chunks.stream().map(TextChunk::pageNumber).toList());
+    }
+
+    @Test
+    void pendingOcrRequestsAreCancelledWithTheBatch() throws IOException {
+        Path pdf = createPdf(tempDir.resolve("scan.pdf"), 0, 5);
+        // The batch is cancelled while the second page is sent to OCR, the first one is still pending
+        ocrService.onRequest = requests -> {
+            if (requests == 2) {
+                batchCancellation.cancel("batch");
+            }
+        };
+        List<TextChunk> chunks = new ArrayList<>();
+
+        assertThrows(BatchCancelledException.class,
+                () -> extractionService.extractTextChunks("batch", pdf, documentHash -> true, chunks::add));
+
+        assertEquals(2, ocrService.requests.size());
+        assertTrue(ocrService.requests.stream().allMatch(Future::isCancelled));
+        assertTrue(chunks.isEmpty());
+    }
+
+    private static Path createPdf(Path path, int textPages, int scannedPages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 1; i <= textPages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(50, 700);
+                    content.showText("Text layer of page " + i + ".");
+                    content.endText();
+                }
+            }
+            for (int i = 0; i < scannedPages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                // Drawn content without a text layer, as of a scanned page
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.addRect(50, 500, 200, 100);
+                    content.stroke();
+                }
+            }
+            document.save(path.toFile());
+        }
+        return path;
+    }
+
+    /**
+     * OCR service whose requests never complete on their own
+     */
+    private static class PendingOcr implements OcrService {
+
+        private final List<CompletableFuture<Map<Integer, String>>> requests = new ArrayList<>();
+        private IntConsumer onRequest = count -> {
+        };
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public int getMaxPagesPerRequest() {
+            return 1;
+        }
+
+        @Override
+        public CompletableFuture<Map<Integer, String>> recognizePages(String documentName, byte[] pdfContent,
+                                                                      List<Integer> pageNumbers) {
+            CompletableFuture<Map<Integer, String>> request = new CompletableFuture<>();
+            requests.add(request);
+            onRequest.accept(requests.size());
+            return request;
+        }
+    }
+}
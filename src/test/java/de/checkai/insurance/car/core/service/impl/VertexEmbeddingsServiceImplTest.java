@@ -0,0 +1,203 @@
+package de.checkai.insurance.car.core.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.aiplatform.v1.JobServiceClient;
+import com.google.cloud.aiplatform.v1.JobState;
+import com.google.cloud.aiplatform.v1.PredictRequest;
+import com.google.cloud.aiplatform.v1.PredictResponse;
+import com.google.cloud.aiplatform.v1.PredictionServiceClient;
+import com.google.cloud.aiplatform.v1.stub.PredictionServiceStub;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.config.EmbeddingModelProperties;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.config.RpcResilienceProperties;
+import de.checkai.insurance.car.core.cancellation.BatchCancellation;
+import de.checkai.insurance.car.core.embedding.BatchPredictionEmbedder;
+import de.checkai.insurance.car.core.embedding.EmbeddingDimensionality;
+import de.checkai.insurance.car.core.embedding.EmbeddingModels;
+import de.checkai.insurance.car.core.embedding.FakeJobServiceStub;
+import de.checkai.insurance.car.core.resilience.ResilientRpcExecutor;
+import de.checkai.insurance.car.core.scheduling.FairShareScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class VertexEmbeddingsServiceImplTest {
+
+    private static final int DIMENSION = 4;
+
+    private final Storage storage = LocalStorageHelper.getOptions().getService();
+    private final FakeJobServiceStub jobService = new FakeJobServiceStub(storage, DIMENSION);
+    private final FakePredictionStub prediction = new FakePredictionStub();
+    private final BatchPredictionEmbedder batchPredictionEmbedder = batchPredictionEmbedder();
+    private final ResilientRpcExecutor rpcExecutor = new ResilientRpcExecutor(new RpcResilienceProperties(Map.of()),
+            new SimpleMeterRegistry());
+    private final VertexEmbeddingsServiceImpl embeddingsService = embeddingsService();
+
+    @AfterEach
+    void tearDown() {
+        embeddingsService.stopMicroBatcher();
+        batchPredictionEmbedder.shutdown();
+        rpcExecutor.shutdown();
+    }
+
+    @Test
+    void chunksTheJobMissedAreEmbeddedOnline() throws Exception {
+        jobService.reporting(JobState.JOB_STATE_RUNNING, JobState.JOB_STATE_PARTIALLY_SUCCEEDED)
+                .failingInstance("clause 3")
+                .failingInstance("clause 7");
+        List<TextChunk> chunks = IntStream.range(0, 10)
+                .mapToObj(i -> new TextChunk(UUID.randomUUID(), "clause " + i, "policy.pdf", 1, i))
+                .toList();
+
+        List<TextEmbedding> embeddings = embeddingsService.generateEmbeddingsInBulk(chunks).get(10, TimeUnit.SECONDS);
+
+        // In chunk order, the two missed ones from predict requests
+        assertEquals(chunks.stream().map(TextChunk::id).toList(), embeddings.stream().map(TextEmbedding::id).toList());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertArrayEquals(FakeJobServiceStub.embedding(chunks.get(i).content(), DIMENSION), embeddings.get(i).embedding());
+        }
+        assertEquals(List.of("clause 3", "clause 7"), prediction.contents.stream().sorted().toList());
+    }
+
+    @Test
+    void largeBatchesStreamTheJobOutputIntoTheSink() {
+        jobService.reporting(JobState.JOB_STATE_SUCCEEDED).failingInstance("clause 4");
+        ReflectionTestUtils.setField(embeddingsService, "batchPredictionThreshold", 5);
+        List<TextChunk> chunks = IntStream.range(0, 10)
+                .mapToObj(i -> new TextChunk(UUID.randomUUID(), "clause " + i, "policy.pdf", 1, i))
+                .toList();
+        Thread caller = Thread.currentThread();
+        List<TextEmbedding> embeddings = new ArrayList<>();
+
+        embeddingsService.generateEmbeddings(null, chunks, embedding -> {
+            // Read on the caller's thread, so the sink can write into a file it doesn't share
+            assertSame(caller, Thread.currentThread());
+            embeddings.add(embedding);
+        });
+
+        assertEquals(1, jobService.submitted.size());
+        assertEquals(List.of("clause 4"), prediction.contents);
+        assertEquals(chunks.stream().map(TextChunk::id).collect(Collectors.toSet()),
+                embeddings.stream().map(TextEmbedding::id).collect(Collectors.toSet()));
+        assertEquals(chunks.size(), embeddings.size());
+        // The chunk the job missed comes last, from a predict request
+        assertEquals(chunks.get(4).id(), embeddings.get(embeddings.size() - 1).id());
+    }
+
+    private BatchPredictionEmbedder batchPredictionEmbedder() {
+        BatchPredictionEmbedder embedder = new BatchPredictionEmbedder(LazyCloudClient.of(JobServiceClient.create(jobService)),
+                LazyCloudClient.of(storage), new ObjectMapper(), dimensionality());
+        ReflectionTestUtils.setField(embedder, "projectId", "test-project");
+        ReflectionTestUtils.setField(embedder, "region", "europe-west4");
+        ReflectionTestUtils.setField(embedder, "bucketName", "test-bucket");
+        ReflectionTestUtils.setField(embedder, "gcsPrefix", "batch-prediction");
+        ReflectionTestUtils.setField(embedder, "pollInterval", Duration.ofMillis(20));
+        ReflectionTestUtils.setField(embedder, "maxWait", Duration.ofMinutes(1));
+        return embedder;
+    }
+
+    private VertexEmbeddingsServiceImpl embeddingsService() {
+        VertexEmbeddingsServiceImpl service = new VertexEmbeddingsServiceImpl(batchPredictionEmbedder, rpcExecutor,
+                new FairShareScheduler(2, 4, Duration.ofMinutes(2)), new SimpleMeterRegistry(),
+                LazyCloudClient.of(PredictionServiceClient.create(prediction)),
+                new EmbeddingModels(dimensionality(), new EmbeddingModelProperties(Map.of()), "text-embedding-005",
+                        5, Duration.ofMillis(5), 2, Duration.ZERO),
+                new BatchCancellation());
+        ReflectionTestUtils.setField(service, "projectId", "test-project");
+        ReflectionTestUtils.setField(service, "region", "europe-west4");
+        return service;
+    }
+
+    private static EmbeddingDimensionality dimensionality() {
+        return new EmbeddingDimensionality("text-embedding-005", DIMENSION, 0, EmbeddingDimensionality.Reduction.AUTO, 2000, 0);
+    }
+
+    /**
+     * Local stand-in for online predictions, answering with the same embeddings as the job
+     */
+    private static class FakePredictionStub extends PredictionServiceStub {
+
+        private final List<String> contents = new CopyOnWriteArrayList<>();
+
+        @Override
+        public UnaryCallable<PredictRequest, PredictResponse> predictCallable() {
+            return new UnaryCallable<>() {
+                @Override
+                public ApiFuture<PredictResponse> futureCall(PredictRequest request, ApiCallContext context) {
+                    PredictResponse.Builder response = PredictResponse.newBuilder();
+                    for (Value instance : request.getInstancesList()) {
+                        String content = instance.getStructValue().getFieldsOrThrow("content").getStringValue();
+                        contents.add(content);
+                        ListValue.Builder values = ListValue.newBuilder();
+                        for (float value : FakeJobServiceStub.embedding(content, DIMENSION)) {
+                            values.addValues(Value.newBuilder().setNumberValue(value));
+                        }
+                        response.addPredictions(Value.newBuilder().setStructValue(Struct.newBuilder()
+                                .putFields("embeddings", Value.newBuilder().setStructValue(Struct.newBuilder()
+                                        .putFields("values", Value.newBuilder().setListValue(values).build())).build())));
+                    }
+                    return ApiFutures.immediateFuture(response.build());
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public void shutdownNow() {
+        }
+
+        @Override
+        public boolean awaitTermination(long duration, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package de.checkai.insurance.car.core.storage;
+
+import de.checkai.insurance.car.appication.model.EmbeddingCollection;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.core.vector.EmbeddingArena;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ArrowEmbeddingFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Random random = new Random(11);
+
+    @Test
+    void arenaSpanningSeveralRecordBatchesReadsBackFromTheMappedFile() throws Exception {
+        int records = ArrowEmbeddingWriter.ROWS_PER_BATCH + 100;
+        Path file = tempDir.resolve("embeddings.arrow");
+        List<UUID> ids = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+
+        try (EmbeddingArena arena = EmbeddingArena.offHeap(8)) {
+            for (int i = 0; i < records; i++) {
+                UUID id = UUID.randomUUID();
+                float[] vector = randomVector(8);
+                ids.add(id);
+                vectors.add(vector.clone());
+                arena.append(id, vector, "doc-" + (i % 5) + ".pdf", i / 100 + 1, i);
+            }
+            ArrowEmbeddingWriter.write(arena, "batch", "claims", "text-embedding-005", file);
+        }
+
+        try (ArrowEmbeddingReader reader = ArrowEmbeddingReader.open(file)) {
+            assertEquals(8, reader.dimension());
+            assertEquals(2, reader.batchCount());
+            assertEquals("batch", reader.metadata().get(ArrowEmbeddingWriter.COLLECTION_ID));
+            assertEquals("text-embedding-005", reader.metadata().get(ArrowEmbeddingWriter.EMBEDDING_MODEL));
+            assertEquals(List.of("doc-0.pdf", "doc-1.pdf", "doc-2.pdf", "doc-3.pdf", "doc-4.pdf"), reader.sourceDocuments());
+
+            int record = 0;
+            float[] vector = new float[8];
+            for (int b = 0; b < reader.batchCount(); b++) {
+                try (ArrowEmbeddingReader.Batch batch = reader.batch(b)) {
+                    FloatBuffer columns = batch.vectors();
+                    for (int row = 0; row < batch.rowCount(); row++, record++) {
+                        assertEquals(ids.get(record), batch.id(row));
+                        assertArrayEquals(vectors.get(record), batch.vector(row, vector));
+                        assertEquals(vectors.get(record)[3], columns.get(row * 8 + 3));
+                        assertEquals("doc-" + (record % 5) + ".pdf", batch.sourceDocument(row));
+                        assertEquals(record / 100 + 1, batch.pageNumber(row));
+                        assertEquals(record, batch.position(row));
+                    }
+                }
+            }
+            assertEquals(records, record);
+        }
+    }
+
+    @Test
+    void collectionRoundTripsThroughTextEmbeddings() throws Exception {
+        Path file = tempDir.resolve("collection.arrow");
+        List<TextEmbedding> embeddings = List.of(
+                new TextEmbedding(UUID.randomUUID(), randomVector(4), "a.pdf", 1, 0),
+                new TextEmbedding(UUID.randomUUID(), randomVector(4), "b.pdf", 2, 1),
+                new TextEmbedding(UUID.randomUUID(), randomVector(4), "a.pdf", 3, 2));
+        EmbeddingCollection collection = new EmbeddingCollection("batch", "claims", Instant.parse("2026-01-01T00:00:00Z"),
+                4, "text-embedding-005", embeddings.size(), embeddings);
+        ArrowEmbeddingWriter.write(collection, file);
+
+        List<TextEmbedding> read = new ArrayList<>();
+        try (ArrowEmbeddingReader reader = ArrowEmbeddingReader.open(file)) {
+            assertEquals("2026-01-01T00:00:00Z", reader.metadata().get(ArrowEmbeddingWriter.CREATED_AT));
+            reader.forEach(read::add);
+        }
+        assertEquals(embeddings.size(), read.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            assertEquals(embeddings.get(i).id(), read.get(i).id());
+            assertArrayEquals(embeddings.get(i).embedding(), read.get(i).embedding());
+            assertEquals(embeddings.get(i).sourceDocument(), read.get(i).sourceDocument());
+            assertEquals(embeddings.get(i).pageNumber(), read.get(i).pageNumber());
+        }
+    }
+
+    @Test
+    void fileOfAFailedWriteIsDeleted() {
+        Path file = tempDir.resolve("broken.arrow");
+        // The second record is shorter than the dimension of the collection
+        List<TextEmbedding> embeddings = List.of(
+                new TextEmbedding(UUID.randomUUID(), randomVector(4), "a.pdf", 1, 0),
+                new TextEmbedding(UUID.randomUUID(), randomVector(2), "a.pdf", 1, 1));
+        EmbeddingCollection collection = new EmbeddingCollection("batch", "claims", Instant.now(), 4,
+                "text-embedding-005", embeddings.size(), embeddings);
+
+        assertThrows(RuntimeException.class, () -> ArrowEmbeddingWriter.write(collection, file));
+        assertFalse(Files.exists(file));
+    }
+
+    private float[] randomVector(int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,65 @@
+package de.checkai.insurance.car.core.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.checkai.insurance.car.appication.model.TextChunk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ChunkFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void rangesAcrossIndexedLinesCopyExactlyTheirChunks() throws Exception {
+        Path file = tempDir.resolve("chunks.ndjson");
+        List<TextChunk> chunks = new ArrayList<>();
+        try (ChunkFile.Writer writer = ChunkFile.create(file, objectMapper)) {
+            for (int i = 0; i < 2 * ChunkFile.INDEX_INTERVAL + 500; i++) {
+                // Line breaks in the content must not end a record
+                TextChunk chunk = new TextChunk(UUID.randomUUID(), "clause " + i + "\nof the policy " + "x".repeat(i % 97),
+                        "doc-" + (i % 4) + ".pdf", i / 20 + 1, i);
+                chunks.add(chunk);
+                writer.append(chunk);
+            }
+        }
+
+        ChunkFile chunkFile = ChunkFile.open(file);
+        assertEquals(chunks.size(), chunkFile.size());
+        assertEquals(chunks, copy(chunkFile, 0, Long.MAX_VALUE));
+        assertEquals(chunks.subList(1000, 1100), copy(chunkFile, 1000, 100));
+        assertEquals(chunks.subList(ChunkFile.INDEX_INTERVAL, ChunkFile.INDEX_INTERVAL + 1),
+                copy(chunkFile, ChunkFile.INDEX_INTERVAL, 1));
+        assertEquals(chunks.subList(2000, chunks.size()), copy(chunkFile, 2000, 10_000));
+        assertEquals(List.of(), copy(chunkFile, chunks.size(), 10));
+    }
+
+    private List<TextChunk> copy(ChunkFile chunkFile, long from, long limit) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chunkFile.copyTo(out, from, limit);
+        List<TextChunk> chunks = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                chunks.add(objectMapper.readValue(line, TextChunk.class));
+            }
+        }
+        return chunks;
+    }
+}
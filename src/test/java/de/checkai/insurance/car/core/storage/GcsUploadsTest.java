@@ -0,0 +1,63 @@
+package de.checkai.insurance.car.core.storage;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class GcsUploadsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Storage storage = LocalStorageHelper.getOptions().getService();
+
+    @Test
+    void filesAreUploadedInBlocks() throws Exception {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(content);
+        Path file = Files.write(tempDir.resolve("shard.json"), content);
+        BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of("bucket", "shard.json")).build();
+
+        GcsUploads.upload(storage, blobInfo, file, Duration.ofMinutes(1));
+
+        assertArrayEquals(content, storage.readAllBytes(blobInfo.getBlobId()));
+    }
+
+    @Test
+    void uploadsOfAGivenUpAttemptDontCreateTheObject() throws Exception {
+        Path file = Files.write(tempDir.resolve("shard.json"), new byte[1024]);
+        BlobInfo expired = BlobInfo.newBuilder(BlobId.of("bucket", "expired.json")).build();
+        BlobInfo interrupted = BlobInfo.newBuilder(BlobId.of("bucket", "interrupted.json")).build();
+
+        assertThrows(InterruptedIOException.class, () -> GcsUploads.upload(storage, expired, file, Duration.ZERO));
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class,
+                    () -> GcsUploads.upload(storage, interrupted, file, Duration.ofMinutes(1)));
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertNull(storage.get(expired.getBlobId()));
+        assertNull(storage.get(interrupted.getBlobId()));
+    }
+}
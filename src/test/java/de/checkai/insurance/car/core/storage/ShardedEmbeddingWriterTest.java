@@ -0,0 +1,144 @@
+package de.checkai.insurance.car.core.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import de.checkai.insurance.car.appication.model.EmbeddingCollection;
+import de.checkai.insurance.car.appication.model.EmbeddingShardManifest;
+import de.checkai.insurance.car.appication.model.TextEmbedding;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import de.checkai.insurance.car.config.RpcResilienceProperties;
+import de.checkai.insurance.car.core.resilience.ResilientRpcExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class ShardedEmbeddingWriterTest {
+
+    @Test
+    void smallCollectionsStayInOneShard() {
+        ShardedEmbeddingWriter writer = writer(64, 1000, 8);
+
+        assertEquals(1, writer.partition(500, 768).size());
+    }
+
+    @Test
+    void largeCollectionsAreSpreadOverAllThreads() {
+        ShardedEmbeddingWriter writer = writer(64, 1000, 8);
+
+        List<ShardedEmbeddingWriter.ShardRange> shards = writer.partition(40_000, 768);
+
+        assertEquals(8, shards.size());
+        assertEquals(40_000, shards.stream().mapToInt(shard -> shard.to() - shard.from()).sum());
+    }
+
+    @Test
+    void shardsStayBelowTheSizeBound() {
+        ShardedEmbeddingWriter writer = writer(1, 1000, 2);
+
+        List<ShardedEmbeddingWriter.ShardRange> shards = writer.partition(10_000, 768);
+
+        // 1 MB holds 112 embeddings of 768 dimensions at the estimated 9280 bytes each
+        assertTrue(shards.stream().allMatch(shard -> shard.to() - shard.from() <= 112));
+        assertEquals(10_000, shards.stream().mapToInt(shard -> shard.to() - shard.from()).sum());
+    }
+
+    @Test
+    void collectionsAreUploadedAsShardsStraightFromTheirRecords() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        Storage storage = LocalStorageHelper.getOptions().getService();
+        ResilientRpcExecutor rpcExecutor = new ResilientRpcExecutor(new RpcResilienceProperties(Map.of()),
+                new SimpleMeterRegistry());
+        ShardedEmbeddingWriter writer = new ShardedEmbeddingWriter(LazyCloudClient.of(storage), objectMapper,
+                rpcExecutor, "bucket", 64, 1, 2);
+        List<TextEmbedding> embeddings = IntStream.range(0, 5)
+                .mapToObj(i -> new TextEmbedding(UUID.randomUUID(), new float[]{i, 0.5f, -1f}, "policy.pdf", 1, i))
+                .toList();
+        try {
+            EmbeddingShardManifest manifest = writer.write(new EmbeddingCollection("batch", "test", Instant.now(), 3,
+                    "textembedding-gecko@001", embeddings.size(), embeddings));
+
+            assertEquals(5, manifest.totalEmbeddings());
+            assertEquals(2, manifest.shards().size());
+            String prefix = manifest.shardsUri().substring("gs://bucket/".length(), manifest.shardsUri().lastIndexOf('/'));
+            assertNotNull(storage.get(BlobId.of("bucket", prefix + "/manifest.json")));
+            List<String> lines = new ArrayList<>();
+            for (EmbeddingShardManifest.Shard shard : manifest.shards()) {
+                String content = new String(storage.readAllBytes(BlobId.of("bucket", shard.objectName())),
+                        StandardCharsets.UTF_8);
+                assertEquals(shard.sizeBytes(), content.getBytes(StandardCharsets.UTF_8).length);
+                lines.addAll(content.lines().toList());
+            }
+            assertEquals(embeddings.size(), lines.size());
+            for (int i = 0; i < embeddings.size(); i++) {
+                Map<?, ?> datapoint = objectMapper.readValue(lines.get(i), Map.class);
+                assertEquals(embeddings.get(i).id().toString(), datapoint.get("id"));
+                float[] vector = objectMapper.convertValue(datapoint.get("embedding"), float[].class);
+                assertArrayEquals(embeddings.get(i).embedding(), vector);
+            }
+            // The shards are only written locally until they are uploaded
+            assertFalse(Files.exists(Path.of(System.getProperty("java.io.tmpdir"), prefix)));
+        } finally {
+            writer.shutdown();
+            rpcExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void localShardsOfAFailedUploadAreDeleted() throws Exception {
+        ResilientRpcExecutor rpcExecutor = new ResilientRpcExecutor(new RpcResilienceProperties(Map.of()),
+                new SimpleMeterRegistry());
+        LazyCloudClient<Storage> unavailable = LazyCloudClient.of("Storage", () -> {
+            throw new IllegalStateException("no credentials");
+        });
+        ShardedEmbeddingWriter writer = new ShardedEmbeddingWriter(unavailable, new ObjectMapper(), rpcExecutor,
+                "bucket", 64, 1, 2);
+        String collectionId = UUID.randomUUID().toString();
+        List<TextEmbedding> embeddings = IntStream.range(0, 5)
+                .mapToObj(i -> new TextEmbedding(UUID.randomUUID(), new float[]{i, 0.5f, -1f}, "policy.pdf", 1, i))
+                .toList();
+        try {
+            assertThrows(RuntimeException.class, () -> writer.write(new EmbeddingCollection(collectionId, "test",
+                    Instant.now(), 3, "textembedding-gecko@001", embeddings.size(), embeddings)));
+
+            try (Stream<Path> entries = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+                assertTrue(entries.noneMatch(entry -> entry.getFileName().toString()
+                        .startsWith("insurance-car-embeddings_" + collectionId + "_")));
+            }
+        } finally {
+            writer.shutdown();
+            rpcExecutor.shutdown();
+        }
+    }
+
+    private static ShardedEmbeddingWriter writer(long maxShardSizeMb, int minEmbeddingsPerShard, int parallelism) {
+        ShardedEmbeddingWriter writer = new ShardedEmbeddingWriter(null, null, null, "bucket",
+                maxShardSizeMb, minEmbeddingsPerShard, parallelism);
+        writer.shutdown();
+        return writer;
+    }
+}
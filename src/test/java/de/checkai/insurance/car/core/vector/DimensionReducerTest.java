@@ -0,0 +1,85 @@
+package de.checkai.insurance.car.core.vector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class DimensionReducerTest {
+
+    @Test
+    void truncationKeepsLeadingComponentsAsUnitVector() {
+        float[] reduced = DimensionReducer.truncation(4, 2).reduce(new float[]{3, 4, 100, 100});
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, reduced, 1e-6f);
+    }
+
+    @Test
+    void pcaKeepsNeighboursWhereTruncationLosesThem() {
+        List<float[]> sample = lowRankEmbeddings(1200, 256, 24, new Random(7));
+
+        PcaProjection pca = PcaProjection.fit(sample, 32);
+        double pcaRecall = ReductionRecall.recallAtK(sample, pca, 10, 100);
+        double truncationRecall = ReductionRecall.recallAtK(sample, DimensionReducer.truncation(256, 32), 10, 100);
+
+        assertTrue(pca.explainedVariance() > 0.9, "explained variance " + pca.explainedVariance());
+        assertTrue(pcaRecall > 0.9, "PCA recall " + pcaRecall);
+        assertTrue(truncationRecall < pcaRecall, "truncation recall " + truncationRecall);
+    }
+
+    @Test
+    void pcaProjectionSurvivesSaveAndLoad(@TempDir Path directory) throws Exception {
+        List<float[]> sample = lowRankEmbeddings(200, 64, 8, new Random(3));
+        PcaProjection pca = PcaProjection.fit(sample, 16);
+        Path file = PcaProjection.sidecarOf(directory.resolve("embeddings.f32"));
+
+        pca.save(file);
+        PcaProjection loaded = PcaProjection.load(file);
+
+        assertEquals(64, loaded.inputDimension());
+        assertEquals(16, loaded.outputDimension());
+        assertArrayEquals(pca.reduce(sample.get(5)), loaded.reduce(sample.get(5)), 1e-6f);
+        assertEquals(1f, VectorMath.norm(loaded.reduce(sample.get(5))), 1e-5f);
+    }
+
+    /**
+     * Embeddings whose variance lives in a few latent directions, mixed into all dimensions, like
+     * the output of a model that was not trained for truncation
+     */
+    static List<float[]> lowRankEmbeddings(int count, int dimension, int rank, Random random) {
+        float[][] mixing = new float[rank][dimension];
+        for (float[] row : mixing) {
+            for (int j = 0; j < dimension; j++) {
+                row[j] = (float) random.nextGaussian();
+            }
+        }
+        List<float[]> embeddings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[dimension];
+            for (int r = 0; r < rank; r++) {
+                float latent = (float) (random.nextGaussian() / Math.sqrt(r + 1));
+                for (int j = 0; j < dimension; j++) {
+                    vector[j] += latent * mixing[r][j];
+                }
+            }
+            for (int j = 0; j < dimension; j++) {
+                vector[j] += (float) (0.05 * random.nextGaussian());
+            }
+            embeddings.add(VectorMath.normalize(vector));
+        }
+        return embeddings;
+    }
+}
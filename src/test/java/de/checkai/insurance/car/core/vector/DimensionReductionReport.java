@@ -0,0 +1,80 @@
+package de.checkai.insurance.car.core.vector;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Prints recall@10, index size and brute-force query time for a range of reduced dimensions, with
+ * truncation and with PCA, to pick {@code gcp.vertex.output-dimensionality}. Pass the path of a
+ * saved full-dimension embedding arena ({@code insurance-car-embeddings_*.f32}) to measure a real
+ * batch; without arguments it uses synthetic embeddings with a decaying spectrum. Run
+ * {@link #main} from the test classpath, e.g. from the IDE.
+ */
+public class DimensionReductionReport {
+
+    private static final int SAMPLE_SIZE = 2000;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    public static void main(String[] args) throws Exception {
+        List<float[]> sample = args.length > 0 ? readArena(Path.of(args[0]))
+                : DimensionReducerTest.lowRankEmbeddings(SAMPLE_SIZE, 768, 128, new Random(1));
+        int dimension = sample.get(0).length;
+        System.out.printf("%d embeddings of dimension %d, recall@%d over %d queries%n%n",
+                sample.size(), dimension, K, QUERIES);
+        System.out.printf("%6s  %12s  %10s  %9s  %14s%n", "dims", "method", "recall@10", "MB per 1M", "query us per 1k");
+
+        for (int target : new int[]{dimension, 512, 384, 256, 128, 64}) {
+            if (target > dimension) {
+                continue;
+            }
+            report(sample, "truncate", DimensionReducer.truncation(dimension, target));
+            if (target < dimension) {
+                report(sample, "pca", PcaProjection.fit(sample, target));
+            }
+        }
+    }
+
+    private static void report(List<float[]> sample, String method, DimensionReducer reducer) {
+        double recall = ReductionRecall.recallAtK(sample, reducer, K, QUERIES);
+
+        List<float[]> reduced = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            reduced.add(reducer.reduce(sample.get(i % sample.size())));
+        }
+        float[] query = reduced.get(0);
+        for (int i = 0; i < 200; i++) {
+            VectorMath.topK(query, reduced, K);
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < 200; i++) {
+            VectorMath.topK(query, reduced, K);
+        }
+        double microsPerThousand = (System.nanoTime() - started) / 200 / 1000.0;
+
+        System.out.printf("%6d  %12s  %10.3f  %9d  %14.1f%n", reducer.outputDimension(), method, recall,
+                (long) reducer.outputDimension() * Float.BYTES, microsPerThousand);
+    }
+
+    private static List<float[]> readArena(Path file) throws Exception {
+        try (EmbeddingArena arena = EmbeddingArena.open(file)) {
+            List<float[]> sample = new ArrayList<>();
+            int step = Math.max(1, arena.size() / SAMPLE_SIZE);
+            arena.forEach(0, arena.size(), view -> {
+                if (view.index() % step == 0 && sample.size() < SAMPLE_SIZE) {
+                    sample.add(view.vector().clone());
+                }
+            });
+            return sample;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package de.checkai.insurance.car.core.vector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class EmbeddingArenaTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Random random = new Random(7);
+
+    @Test
+    void savedArenaSpanningSeveralSegmentsReopensWithTheSameRecords() throws Exception {
+        Path file = tempDir.resolve("embeddings.f32");
+        List<float[]> vectors = new ArrayList<>();
+        List<UUID> ids = new ArrayList<>();
+
+        // 4 KB segments hold 16 records of 64 floats, so 100 records need 7 segments
+        try (EmbeddingArena arena = EmbeddingArena.mapped(file, 64, 4096)) {
+            for (int i = 0; i < 100; i++) {
+                float[] vector = VectorMath.normalize(randomVector(64));
+                UUID id = UUID.randomUUID();
+                vectors.add(vector.clone());
+                ids.add(id);
+                arena.append(id, vector, "doc-" + (i % 3) + ".pdf", i / 10 + 1, i);
+            }
+            arena.save();
+        }
+
+        try (EmbeddingArena arena = EmbeddingArena.open(file)) {
+            assertEquals(100, arena.size());
+            assertEquals(64, arena.dimension());
+            EmbeddingArena.View view = arena.view();
+            for (int i = 0; i < 100; i++) {
+                view.moveTo(i);
+                assertEquals(ids.get(i), view.id());
+                assertArrayEquals(vectors.get(i), view.vector());
+                assertEquals("doc-" + (i % 3) + ".pdf", view.sourceDocument());
+                assertEquals(i / 10 + 1, view.pageNumber());
+                assertEquals(i, view.position());
+            }
+            assertThrows(IllegalStateException.class,
+                    () -> arena.append(UUID.randomUUID(), new float[64], "doc.pdf", 1, 0));
+        }
+    }
+
+    @Test
+    void topKMatchesTheHeapImplementation() throws Exception {
+        List<float[]> vectors = new ArrayList<>();
+        try (EmbeddingArena arena = EmbeddingArena.offHeap(32)) {
+            for (int i = 0; i < 500; i++) {
+                float[] vector = randomVector(32);
+                vectors.add(vector);
+                arena.append(UUID.randomUUID(), vector, "doc.pdf", 1, i);
+            }
+            float[] query = randomVector(32);
+
+            assertEquals(VectorMath.topK(query, vectors, 5), arena.topK(query, 5));
+        }
+    }
+
+    @Test
+    void rejectsVectorsOfTheWrongDimension() throws Exception {
+        try (EmbeddingArena arena = EmbeddingArena.offHeap(8)) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> arena.append(UUID.randomUUID(), new float[7], "doc.pdf", 1, 0));
+        }
+    }
+
+    private float[] randomVector(int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,44 @@
+package de.checkai.insurance.car.core.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class TreeAhSimulationTest {
+
+    @Test
+    void searchingEveryLeafWithAWideShortlistFindsTheExactNeighbours() {
+        List<float[]> sample = DimensionReducerTest.lowRankEmbeddings(1000, 64, 16, new Random(5));
+        TreeAhSimulation simulation = TreeAhSimulation.of(sample, 1000, 10, 50, new Random(1));
+
+        TreeAhSimulation.Evaluation exhaustive = simulation.evaluate(new TreeAhSimulation.Candidate(300, 100, 100));
+
+        assertEquals(1.0, exhaustive.recall(), 0.02);
+        assertEquals(10 + 1000 + 300, exhaustive.distanceComputationsPerQuery());
+    }
+
+    @Test
+    void probingMoreLeavesBuysRecallWithQueryCost() {
+        List<float[]> sample = DimensionReducerTest.lowRankEmbeddings(2000, 64, 16, new Random(5));
+        TreeAhSimulation simulation = TreeAhSimulation.of(sample, 2_000_000, 10, 100, new Random(1));
+
+        TreeAhSimulation.Evaluation narrow = simulation.evaluate(new TreeAhSimulation.Candidate(150, 1000, 1));
+        TreeAhSimulation.Evaluation wide = simulation.evaluate(new TreeAhSimulation.Candidate(150, 1000, 20));
+
+        assertTrue(wide.recall() > narrow.recall(), narrow.recall() + " vs " + wide.recall());
+        assertTrue(wide.distanceComputationsPerQuery() > narrow.distanceComputationsPerQuery());
+        // 2000 leaves of which 1% and 20% are searched, at collection scale
+        assertEquals(2000 + 20 * 1000 + 150, narrow.distanceComputationsPerQuery());
+        assertEquals(2000 + 400 * 1000 + 150, wide.distanceComputationsPerQuery());
+    }
+}
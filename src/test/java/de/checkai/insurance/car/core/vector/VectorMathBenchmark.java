@@ -0,0 +1,83 @@
+package de.checkai.insurance.car.core.vector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Scalar loops against the SIMD kernel for embedding sized vectors. Not a unit test; run
+ * {@link #main} from the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class VectorMathBenchmark {
+
+    @Param({"768"})
+    private int dimension;
+
+    private final VectorKernel scalar = new ScalarVectorKernel();
+    private final VectorKernel simd = new SimdVectorKernel();
+
+    private float[] a;
+    private float[] b;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        a = new float[dimension];
+        b = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            a[i] = (float) random.nextGaussian();
+            b[i] = (float) random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public float dotScalar() {
+        return scalar.dot(a, b, dimension);
+    }
+
+    @Benchmark
+    public float dotSimd() {
+        return simd.dot(a, b, dimension);
+    }
+
+    @Benchmark
+    public float normScalar() {
+        return (float) Math.sqrt(scalar.sumOfSquares(a));
+    }
+
+    @Benchmark
+    public float normSimd() {
+        return (float) Math.sqrt(simd.sumOfSquares(a));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(VectorMathBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,111 @@
+package de.checkai.insurance.car.core.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+class VectorMathTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    void scalarKernelMatchesPlainArithmetic() {
+        VectorKernel scalar = new ScalarVectorKernel();
+
+        for (int length : new int[]{1, 7, 768}) {
+            float[] a = randomVector(length);
+            float[] b = randomVector(length);
+            double dot = 0;
+            double sumOfSquares = 0;
+            for (int i = 0; i < length; i++) {
+                dot += (double) a[i] * b[i];
+                sumOfSquares += (double) a[i] * a[i];
+            }
+            assertEquals(dot, scalar.dot(a, b, length), 1e-2);
+            assertEquals(sumOfSquares, scalar.sumOfSquares(a), 1e-1);
+            // Only the common prefix counts
+            assertEquals(a[0] * b[0], scalar.dot(a, b, 1), 1e-6f);
+
+            float[] scaled = a.clone();
+            scalar.scale(scaled, 0.5f);
+            for (int i = 0; i < length; i++) {
+                assertEquals(a[i] * 0.5f, scaled[i]);
+            }
+        }
+    }
+
+    @Test
+    void simdKernelMatchesScalarLoops() {
+        // The SIMD kernel needs the incubator module, which surefire adds; other runners test the scalar kernel only
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "jdk.incubator.vector isn't loaded");
+        VectorKernel scalar = new ScalarVectorKernel();
+        VectorKernel simd = new SimdVectorKernel();
+
+        // Lengths around the lane count exercise the tail loops
+        for (int length : new int[]{1, 7, 8, 15, 16, 17, 768, 1000}) {
+            float[] a = randomVector(length);
+            float[] b = randomVector(length);
+            assertEquals(scalar.dot(a, b, length), simd.dot(a, b, length), 1e-3f);
+            assertEquals(scalar.sumOfSquares(a), simd.sumOfSquares(a), 1e-3f);
+
+            float[] scaledScalar = a.clone();
+            float[] scaledSimd = a.clone();
+            scalar.scale(scaledScalar, 0.5f);
+            simd.scale(scaledSimd, 0.5f);
+            assertArrayEquals(scaledScalar, scaledSimd, 1e-6f);
+        }
+    }
+
+    @Test
+    void normalizedVectorsHaveUnitLengthAndKeepTheirCosine() {
+        float[] a = randomVector(768);
+        float[] b = randomVector(768);
+        float cosine = VectorMath.cosine(a, b);
+
+        VectorMath.normalize(a);
+        VectorMath.normalize(b);
+
+        assertEquals(1f, VectorMath.norm(a), 1e-5f);
+        assertEquals(cosine, VectorMath.dot(a, b), 1e-5f);
+        assertArrayEquals(new float[3], VectorMath.normalize(new float[3]));
+    }
+
+    @Test
+    void topKReturnsTheBestMatchesInOrder() {
+        float[] query = randomVector(64);
+        List<float[]> vectors = new ArrayList<>();
+        IntStream.range(0, 1000).forEach(i -> vectors.add(randomVector(64)));
+
+        List<VectorMath.Hit> hits = VectorMath.topK(query, vectors, 10);
+
+        List<Integer> expected = IntStream.range(0, vectors.size()).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> VectorMath.dot(query, vectors.get(i))).reversed())
+                .limit(10)
+                .toList();
+        assertEquals(expected, hits.stream().map(VectorMath.Hit::index).toList());
+        assertEquals(3, VectorMath.topK(query, vectors.subList(0, 3), 10).size());
+    }
+
+    private float[] randomVector(int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
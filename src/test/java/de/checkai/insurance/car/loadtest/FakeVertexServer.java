@@ -0,0 +1,226 @@
+package de.checkai.insurance.car.loadtest;
+
+import com.google.cloud.aiplatform.v1.CreateIndexEndpointRequest;
+import com.google.cloud.aiplatform.v1.CreateIndexRequest;
+import com.google.cloud.aiplatform.v1.DeployIndexRequest;
+import com.google.cloud.aiplatform.v1.DeployIndexResponse;
+import com.google.cloud.aiplatform.v1.PredictRequest;
+import com.google.cloud.aiplatform.v1.PredictResponse;
+import com.google.longrunning.GetOperationRequest;
+import com.google.longrunning.Operation;
+import com.google.protobuf.Any;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Message;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * In-process gRPC server standing in for the Vertex AI prediction, index and index endpoint
+ * services, plus the long-running operations service their clients poll. Predict calls get a
+ * configurable latency, error rate and concurrency quota; index operations complete immediately.
+ * <p>
+ * The services are registered from hand-written method descriptors, so no generated service
+ * stubs are needed on the test classpath.
+ */
+class FakeVertexServer implements AutoCloseable {
+
+    /**
+     * @param latency               base latency of a predict call
+     * @param jitter                random extra latency of up to this much
+     * @param errorRate             share of predict calls failing with UNAVAILABLE
+     * @param maxConcurrentRequests predict calls above this many in flight fail with RESOURCE_EXHAUSTED
+     * @param embeddingDimension    dimension of the returned embeddings
+     */
+    record Behaviour(Duration latency, Duration jitter, double errorRate, int maxConcurrentRequests,
+                     int embeddingDimension) {
+    }
+
+    private final String serverName = "fake-vertex-" + UUID.randomUUID();
+    private final Behaviour behaviour;
+    private final Semaphore quota;
+    private final Server server;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    final AtomicLong predictRequests = new AtomicLong();
+    final AtomicLong predictInstances = new AtomicLong();
+    final AtomicLong injectedErrors = new AtomicLong();
+    final AtomicLong quotaRejections = new AtomicLong();
+    final AtomicLong indexesCreated = new AtomicLong();
+
+    FakeVertexServer(Behaviour behaviour) throws IOException {
+        this.behaviour = behaviour;
+        this.quota = new Semaphore(behaviour.maxConcurrentRequests());
+        this.server = InProcessServerBuilder.forName(serverName)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .addService(service("google.cloud.aiplatform.v1.PredictionService", "Predict",
+                        PredictRequest.getDefaultInstance(), PredictResponse.getDefaultInstance(), this::predict))
+                .addService(service("google.cloud.aiplatform.v1.IndexService", "CreateIndex",
+                        CreateIndexRequest.getDefaultInstance(), Operation.getDefaultInstance(), this::createIndex))
+                .addService(ServerServiceDefinition.builder("google.cloud.aiplatform.v1.IndexEndpointService")
+                        .addMethod(method("google.cloud.aiplatform.v1.IndexEndpointService", "CreateIndexEndpoint",
+                                        CreateIndexEndpointRequest.getDefaultInstance(), Operation.getDefaultInstance()),
+                                unary(this::createIndexEndpoint))
+                        .addMethod(method("google.cloud.aiplatform.v1.IndexEndpointService", "DeployIndex",
+                                        DeployIndexRequest.getDefaultInstance(), Operation.getDefaultInstance()),
+                                unary(this::deployIndex))
+                        .build())
+                .addService(service("google.longrunning.Operations", "GetOperation",
+                        GetOperationRequest.getDefaultInstance(), Operation.getDefaultInstance(), this::getOperation))
+                .build()
+                .start();
+    }
+
+    ManagedChannel newChannel() {
+        return InProcessChannelBuilder.forName(serverName).build();
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+    }
+
+    private PredictResponse predict(PredictRequest request) {
+        predictRequests.incrementAndGet();
+        if (!quota.tryAcquire()) {
+            quotaRejections.incrementAndGet();
+            throw Status.RESOURCE_EXHAUSTED.withDescription("Quota exceeded for predict requests").asRuntimeException();
+        }
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            sleep(behaviour.latency().plusNanos(behaviour.jitter().isZero() ? 0
+                    : random.nextLong(behaviour.jitter().toNanos())));
+            if (random.nextDouble() < behaviour.errorRate()) {
+                injectedErrors.incrementAndGet();
+                throw Status.UNAVAILABLE.withDescription("Injected failure").asRuntimeException();
+            }
+
+            PredictResponse.Builder response = PredictResponse.newBuilder();
+            for (Value instance : request.getInstancesList()) {
+                String content = instance.getStructValue().getFieldsOrThrow("content").getStringValue();
+                response.addPredictions(embedding(content));
+            }
+            predictInstances.addAndGet(request.getInstancesCount());
+            return response.build();
+        } finally {
+            quota.release();
+        }
+    }
+
+    /**
+     * Deterministic pseudo-embedding of the content, in the response shape of the text embedding models
+     */
+    private Value embedding(String content) {
+        Random random = new Random(content.hashCode());
+        ListValue.Builder values = ListValue.newBuilder();
+        for (int i = 0; i < behaviour.embeddingDimension(); i++) {
+            values.addValues(Value.newBuilder().setNumberValue(random.nextGaussian()));
+        }
+        Struct embeddings = Struct.newBuilder()
+                .putFields("values", Value.newBuilder().setListValue(values).build())
+                .build();
+        return Value.newBuilder()
+                .setStructValue(Struct.newBuilder().putFields("embeddings", Value.newBuilder().setStructValue(embeddings).build()))
+                .build();
+    }
+
+    private Operation createIndex(CreateIndexRequest request) {
+        indexesCreated.incrementAndGet();
+        return done(request.getIndex().toBuilder()
+                .setName(request.getParent() + "/indexes/" + indexesCreated.get())
+                .build());
+    }
+
+    private Operation createIndexEndpoint(CreateIndexEndpointRequest request) {
+        return done(request.getIndexEndpoint().toBuilder()
+                .setName(request.getParent() + "/indexEndpoints/" + UUID.randomUUID())
+                .build());
+    }
+
+    private Operation deployIndex(DeployIndexRequest request) {
+        return done(DeployIndexResponse.newBuilder().setDeployedIndex(request.getDeployedIndex()).build());
+    }
+
+    private Operation getOperation(GetOperationRequest request) {
+        Operation operation = operations.get(request.getName());
+        if (operation == null) {
+            throw Status.NOT_FOUND.withDescription("Unknown operation " + request.getName()).asRuntimeException();
+        }
+        return operation;
+    }
+
+    private Operation done(Message response) {
+        Operation operation = Operation.newBuilder()
+                .setName("operations/" + UUID.randomUUID())
+                .setDone(true)
+                .setResponse(Any.pack(response))
+                .build();
+        operations.put(operation.getName(), operation);
+        return operation;
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.asRuntimeException();
+        }
+    }
+
+    private static <Q extends Message, R extends Message> ServerServiceDefinition service(
+            String serviceName, String methodName, Q requestPrototype, R responsePrototype, Function<Q, R> handler) {
+        return ServerServiceDefinition.builder(serviceName)
+                .addMethod(method(serviceName, methodName, requestPrototype, responsePrototype), unary(handler))
+                .build();
+    }
+
+    private static <Q extends Message, R extends Message> MethodDescriptor<Q, R> method(
+            String serviceName, String methodName, Q requestPrototype, R responsePrototype) {
+        return MethodDescriptor.<Q, R>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(serviceName, methodName))
+                .setRequestMarshaller(ProtoUtils.marshaller(requestPrototype))
+                .setResponseMarshaller(ProtoUtils.marshaller(responsePrototype))
+                .build();
+    }
+
+    private static <Q, R> io.grpc.ServerCallHandler<Q, R> unary(Function<Q, R> handler) {
+        return ServerCalls.asyncUnaryCall((Q request, StreamObserver<R> responseObserver) -> {
+            try {
+                responseObserver.onNext(handler.apply(request));
+                responseObserver.onCompleted();
+            } catch (RuntimeException e) {
+                responseObserver.onError(e);
+            }
+        });
+    }
+}
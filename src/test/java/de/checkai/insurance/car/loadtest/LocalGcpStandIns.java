@@ -0,0 +1,99 @@
+package de.checkai.insurance.car.loadtest;
+
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.aiplatform.v1.IndexEndpointServiceClient;
+import com.google.cloud.aiplatform.v1.IndexEndpointServiceSettings;
+import com.google.cloud.aiplatform.v1.IndexServiceClient;
+import com.google.cloud.aiplatform.v1.IndexServiceSettings;
+import com.google.cloud.aiplatform.v1.PredictionServiceClient;
+import com.google.cloud.aiplatform.v1.PredictionServiceSettings;
+import com.google.cloud.spring.core.GcpProjectIdProvider;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import de.checkai.insurance.car.config.LazyCloudClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Replaces the Google Cloud clients with local stand-ins: an in-memory {@link Storage} and
+ * Vertex AI clients talking to a {@link FakeVertexServer} over in-process channels. The fake's
+ * behaviour is set with {@code loadtest.vertex.*} properties.
+ */
+@TestConfiguration(proxyBeanMethods = false)
+class LocalGcpStandIns {
+
+    @Bean(destroyMethod = "close")
+    FakeVertexServer fakeVertexServer(@Value("${loadtest.vertex.latency:40ms}") Duration latency,
+                                      @Value("${loadtest.vertex.jitter:40ms}") Duration jitter,
+                                      @Value("${loadtest.vertex.error-rate:0.01}") double errorRate,
+                                      @Value("${loadtest.vertex.max-concurrent-requests:8}") int maxConcurrentRequests,
+                                      @Value("${gcp.vertex.embedding-dimension}") int embeddingDimension) throws IOException {
+        return new FakeVertexServer(new FakeVertexServer.Behaviour(latency, jitter, errorRate, maxConcurrentRequests,
+                embeddingDimension));
+    }
+
+    @Bean
+    @Primary
+    GcpProjectIdProvider loadTestProjectIdProvider() {
+        return () -> "load-test";
+    }
+
+    @Bean
+    @Primary
+    CredentialsProvider loadTestCredentialsProvider() {
+        return NoCredentialsProvider.create();
+    }
+
+    @Bean
+    @Primary
+    LazyCloudClient<Storage> inMemoryStorage() {
+        return LazyCloudClient.of(LocalStorageHelper.getOptions().getService());
+    }
+
+    @Bean
+    @Primary
+    LazyCloudClient<PredictionServiceClient> fakePredictionServiceClient(FakeVertexServer server) throws IOException {
+        return LazyCloudClient.of(PredictionServiceClient.create(PredictionServiceSettings.newBuilder()
+                .setTransportChannelProvider(channel(server))
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .build()));
+    }
+
+    @Bean
+    @Primary
+    LazyCloudClient<IndexServiceClient> fakeIndexServiceClient(FakeVertexServer server) throws IOException {
+        return LazyCloudClient.of(IndexServiceClient.create(IndexServiceSettings.newBuilder()
+                .setTransportChannelProvider(channel(server))
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .build()));
+    }
+
+    @Bean
+    @Primary
+    LazyCloudClient<IndexEndpointServiceClient> fakeIndexEndpointServiceClient(FakeVertexServer server) throws IOException {
+        return LazyCloudClient.of(IndexEndpointServiceClient.create(IndexEndpointServiceSettings.newBuilder()
+                .setTransportChannelProvider(channel(server))
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .build()));
+    }
+
+    private static TransportChannelProvider channel(FakeVertexServer server) {
+        return FixedTransportChannelProvider.create(GrpcTransportChannel.create(server.newChannel()));
+    }
+}
@@ -0,0 +1,81 @@
+package de.checkai.insurance.car.loadtest;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Writes synthetic insurance conditions as text PDFs, with clause numbers and tariff codes mixed
+ * into sentences of varying length
+ */
+final class PdfCorpusGenerator {
+
+    private static final String[] WORDS = {
+            "Versicherungsnehmer", "Fahrzeug", "Teilkasko", "Vollkasko", "Haftpflicht", "Schaden", "Selbstbeteiligung",
+            "Wildunfall", "Glasbruch", "Diebstahl", "Marderbiss", "Leistung", "Beitrag", "Vertrag", "Kündigung",
+            "ist", "wird", "nicht", "versichert", "ersetzt", "im", "Rahmen", "der", "Bedingungen", "bis", "zu", "Euro"};
+
+    private final Random random = new Random(2024);
+
+    /**
+     * @return the paths of the generated documents
+     */
+    List<Path> generate(Path directory, String prefix, int documents, int pagesPerDocument) throws IOException {
+        List<Path> paths = new ArrayList<>(documents);
+        for (int document = 0; document < documents; document++) {
+            Path path = directory.resolve(String.format("%s-%03d.pdf", prefix, document));
+            try (PDDocument pdf = new PDDocument()) {
+                for (int page = 0; page < pagesPerDocument; page++) {
+                    writePage(pdf, document, page);
+                }
+                pdf.save(path.toFile());
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    private void writePage(PDDocument pdf, int document, int page) throws IOException {
+        PDPage pdfPage = new PDPage();
+        pdf.addPage(pdfPage);
+        try (PDPageContentStream content = new PDPageContentStream(pdf, pdfPage)) {
+            content.beginText();
+            content.setFont(PDType1Font.HELVETICA, 10);
+            content.setLeading(13);
+            content.newLineAtOffset(50, 740);
+            for (int line = 0; line < 52; line++) {
+                content.showText(line % 13 == 0
+                        ? String.format("A.%d.%d.%d Tarif KH-%04d", document % 9 + 1, page % 9 + 1, line / 13 + 1, random.nextInt(10_000))
+                        : sentence());
+                content.newLine();
+            }
+            content.endText();
+        }
+    }
+
+    private String sentence() {
+        StringBuilder sentence = new StringBuilder();
+        int words = 6 + random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.append('.').toString();
+    }
+}
@@ -0,0 +1,238 @@
+package de.checkai.insurance.car.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * @author Mostafa.Farhadi
+ * @email farhadi.kam@gmail.com
+ * @linkdin https://www.linkedin.com/in/mostafa-farhadi-1360/
+ * @github https://github.com/farhadi1360
+ */
+
+/**
+ * Drives the whole {@code /api/v1/processing/pdf} flow against local stand-ins for GCP with a
+ * generated corpus, reports throughput, batch latency percentiles and heap usage, and fails when a
+ * threshold is missed. Runs with {@code mvn -Pload-test test}; the corpus size and thresholds are
+ * system properties, e.g. {@code -Dloadtest.batches=32 -Dloadtest.min-pages-per-second=200}; a
+ * batch that hasn't finished after {@code loadtest.batch-timeout} fails the test. The report is
+ * also written to {@code target/load-test/report.json}.
+ */
+@Tag("load")
+@Slf4j
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "gcp.clients.warm-up=false",
+        "gcp.documentai.processor-id=",
+        "gcp.storage.bucket-name=load-test",
+        "gcp.vertex.predict-delay=0ms",
+        "gcp.vertex.batch-prediction.threshold=0",
+        "rpc.policies.vertex.initial-backoff=20ms",
+        "rpc.policies.vertex.max-backoff=500ms"
+})
+@Import(LocalGcpStandIns.class)
+class ProcessingLoadTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private FakeVertexServer vertex;
+
+    @TempDir
+    private Path corpusDirectory;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void generatedCorpusIsProcessedWithinThresholds() throws Exception {
+        int batches = Integer.getInteger("loadtest.batches", 8);
+        int documentsPerBatch = Integer.getInteger("loadtest.documents-per-batch", 3);
+        int pagesPerDocument = Integer.getInteger("loadtest.pages-per-document", 10);
+        double minPagesPerSecond = Double.parseDouble(System.getProperty("loadtest.min-pages-per-second", "2"));
+        Duration maxP99BatchLatency = Duration.parse(System.getProperty("loadtest.max-p99-batch-latency", "PT180S"));
+        long maxHeapMb = Long.getLong("loadtest.max-heap-mb", 1024);
+        Duration batchTimeout = Duration.parse(System.getProperty("loadtest.batch-timeout", "PT10M"));
+
+        PdfCorpusGenerator generator = new PdfCorpusGenerator();
+        List<List<Path>> corpus = new ArrayList<>();
+        for (int batch = 0; batch < batches; batch++) {
+            corpus.add(generator.generate(corpusDirectory, "batch-" + batch, documentsPerBatch, pagesPerDocument));
+        }
+
+        HeapSampler heapSampler = HeapSampler.start();
+        long gcMillisBefore = gcMillis();
+        long started = System.nanoTime();
+
+        // Submit all batches at once and follow each until it finishes
+        ExecutorService drivers = Executors.newVirtualThreadPerTaskExecutor();
+        List<CompletableFuture<BatchResult>> results = corpus.stream()
+                .map(paths -> CompletableFuture.supplyAsync(() -> runBatch(paths, batchTimeout), drivers))
+                .toList();
+        List<BatchResult> batchResults = results.stream().map(CompletableFuture::join).toList();
+
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+        long peakHeapMb = heapSampler.stop() / (1024 * 1024);
+        long gcMillis = gcMillis() - gcMillisBefore;
+        drivers.shutdown();
+
+        List<Long> latencies = batchResults.stream().map(BatchResult::latencyMillis).sorted().toList();
+        int pages = batches * documentsPerBatch * pagesPerDocument;
+        double pagesPerSecond = pages / elapsedSeconds;
+        long p99 = percentile(latencies, 0.99);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("batches", batches);
+        report.put("documents", batches * documentsPerBatch);
+        report.put("pages", pages);
+        report.put("chunks", batchResults.stream().mapToInt(BatchResult::chunks).sum());
+        report.put("elapsedSeconds", round(elapsedSeconds));
+        report.put("pagesPerSecond", round(pagesPerSecond));
+        report.put("batchLatencyP50Millis", percentile(latencies, 0.50));
+        report.put("batchLatencyP95Millis", percentile(latencies, 0.95));
+        report.put("batchLatencyP99Millis", p99);
+        report.put("batchLatencyMaxMillis", latencies.get(latencies.size() - 1));
+        report.put("peakHeapMb", peakHeapMb);
+        report.put("gcMillis", gcMillis);
+        report.put("predictRequests", vertex.predictRequests.get());
+        report.put("instancesPerPredictRequest", round((double) vertex.predictInstances.get()
+                / Math.max(1, vertex.predictRequests.get() - vertex.injectedErrors.get() - vertex.quotaRejections.get())));
+        report.put("injectedErrors", vertex.injectedErrors.get());
+        report.put("quotaRejections", vertex.quotaRejections.get());
+        report.put("indexesCreated", vertex.indexesCreated.get());
+
+        Path reportFile = Path.of("target", "load-test", "report.json");
+        Files.createDirectories(reportFile.getParent());
+        OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+        log.info("Load test report: {}", OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+
+        batchResults.forEach(result -> assertEquals("COMPLETED", result.status(), "batch " + result.batchId()));
+        assertEquals(batches, vertex.indexesCreated.get(), "every batch creates an index");
+        assertTrue(pagesPerSecond >= minPagesPerSecond,
+                String.format("%.1f pages/s is below the threshold of %.1f", pagesPerSecond, minPagesPerSecond));
+        assertTrue(p99 <= maxP99BatchLatency.toMillis(),
+                String.format("p99 batch latency of %d ms is above the threshold of %d ms", p99, maxP99BatchLatency.toMillis()));
+        assertTrue(peakHeapMb <= maxHeapMb,
+                String.format("peak heap of %d MB is above the threshold of %d MB", peakHeapMb, maxHeapMb));
+    }
+
+    private BatchResult runBatch(List<Path> paths, Duration timeout) {
+        try {
+            long started = System.nanoTime();
+            String body = OBJECT_MAPPER.writeValueAsString(Map.of(
+                    "pdfFilePaths", paths.stream().map(Path::toString).toList(),
+                    "description", "load test"));
+            HttpResponse<String> submitted = httpClient.send(HttpRequest.newBuilder(uri("/api/v1/processing/pdf"))
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString(body))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(202, submitted.statusCode(), submitted.body());
+            String batchId = OBJECT_MAPPER.readTree(submitted.body()).get("batchId").asText();
+
+            long deadline = started + timeout.toNanos();
+            while (true) {
+                if (System.nanoTime() - deadline > 0) {
+                    fail("batch " + batchId + " didn't finish within " + timeout);
+                }
+                Thread.sleep(50);
+                HttpResponse<String> status = httpClient.send(HttpRequest.newBuilder(uri("/api/v1/processing/status/" + batchId))
+                        .GET()
+                        .build(), HttpResponse.BodyHandlers.ofString());
+                JsonNode statusBody = OBJECT_MAPPER.readTree(status.body());
+                String state = statusBody.get("status").asText();
+                if ("COMPLETED".equals(state) || state.startsWith("FAILED")) {
+                    return new BatchResult(batchId, state, statusBody.get("processedChunks").asInt(),
+                            (System.nanoTime() - started) / 1_000_000);
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Load test batch failed", e);
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .sum();
+    }
+
+    private record BatchResult(String batchId, String status, int chunks, long latencyMillis) {
+    }
+
+    /**
+     * Samples the used heap every 20 ms and keeps the peak
+     */
+    private static final class HeapSampler {
+
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private final AtomicLong peak = new AtomicLong();
+        private Thread thread;
+
+        static HeapSampler start() {
+            HeapSampler sampler = new HeapSampler();
+            sampler.thread = Thread.ofPlatform().daemon().name("heap-sampler").start(() -> {
+                while (sampler.running.get()) {
+                    sampler.peak.accumulateAndGet(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            return sampler;
+        }
+
+        long stop() throws InterruptedException {
+            running.set(false);
+            thread.join();
+            return peak.get();
+        }
+    }
+}